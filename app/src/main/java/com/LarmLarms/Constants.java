@@ -10,10 +10,22 @@ public final class Constants {
     public final static String EXTRA_PATH = "com.apps.larmlarms.extra.PATH";
 
     /**
-     * An extra used for carrying an item (of any type) as an edit string.
+     * An extra used for carrying an item (of any type) as a Parcelable. Used with the editors.
      */
     public final static String EXTRA_ITEM = "com.apps.larmlarms.extra.ITEM";
 
+    /**
+     * An extra used for carrying the id of an alarm as an int. It's the handle ringing intents
+     * carry instead of the alarm itself (see RootFolder.resolveAlarm()).
+     */
+    public final static String EXTRA_ID = "com.apps.larmlarms.extra.ID";
+
+    /**
+     * An extra used for carrying the time an alarm was scheduled to ring as a long, in millis.
+     * Used to measure how late ringing is (see RingStats).
+     */
+    public final static String EXTRA_RING_TIME = "com.apps.larmlarms.extra.RING_TIME";
+
     // *********************************  Editing Intent Actions  *******************************
     /**
      * Intent action for creating a new alarm. Requires nothing else. Used with the editors.
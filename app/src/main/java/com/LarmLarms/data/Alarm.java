@@ -2,9 +2,9 @@ package com.larmlarms.data;
 
 import android.content.Context;
 import android.content.res.Resources;
-import android.media.Ringtone;
-import android.media.RingtoneManager;
 import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.provider.Settings;
 import android.text.format.DateFormat;
 import android.util.Log;
@@ -16,17 +16,15 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.text.DateFormatSymbols;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Class managing alarms and their behavior.
- * TODO: implement Parcelable so edit strings become unnecessary?
  */
-public final class Alarm extends Item {
+public final class Alarm extends Item implements Parcelable {
 
 	// ************************************  Constants  ***********************************
 
@@ -87,6 +85,24 @@ public final class Alarm extends Item {
 	 */
 	public static final long[] VIBRATION_PATTERN = {0, 1000, 1000};
 
+	// bits of the flags written to parcels
+	/**
+	 * Parcel flag for whether the alarm is active.
+	 */
+	private static final int PARCEL_ACTIVE = 1;
+	/**
+	 * Parcel flag for whether the offset is from the current time.
+	 */
+	private static final int PARCEL_OFFSET_FROM_NOW = 1 << 1;
+	/**
+	 * Parcel flag for whether the alarm is snoozed.
+	 */
+	private static final int PARCEL_SNOOZED = 1 << 2;
+	/**
+	 * Parcel flag for whether vibrate is on.
+	 */
+	private static final int PARCEL_VIBRATE = 1 << 3;
+
 	// ***********************************  Instance Fields  ********************************
 
 	/**
@@ -179,6 +195,13 @@ public final class Alarm extends Item {
 	@Nullable
 	private Uri ringtoneUri;
 
+	/**
+	 * The cached display strings of the alarm, or null if none have been built yet. Not copied or
+	 * stored anywhere. See getRepeatString() and getNextRingTime().
+	 */
+	@Nullable
+	private DisplayStrings display;
+
 	// **********************************  Constructors  *********************************
 	
 	/**
@@ -206,8 +229,9 @@ public final class Alarm extends Item {
 	 * always have valid data, though they have lots of dummy data when first created. 
 	 * @param currContext the context this alarm exists in, can be null
 	 * @param name the name of the alarm, shouldn't be null
+	 * @param id the id of the alarm
 	 */
-	private Alarm(@Nullable Context currContext, @Nullable String name, int id) {
+	Alarm(@Nullable Context currContext, @Nullable String name, int id) {
 		super(name != null ? name : "new alarm", id);
 		context = currContext;
 		ringTime = Calendar.getInstance();
@@ -260,12 +284,47 @@ public final class Alarm extends Item {
 		this.ringtoneUri = alarm.ringtoneUri;
 	}
 
+	/**
+	 * Creates a new alarm from a parcel (see writeToParcel() for the layout). The alarm won't have
+	 * a context, so set one with setContext() if display strings are needed.
+	 * @param in the parcel to read from, cannot be null
+	 */
+	private Alarm(@NotNull Parcel in) {
+		this(null, in.readString(), in.readInt());
+
+		int flags = in.readInt();
+		isActive = (flags & PARCEL_ACTIVE) != 0;
+		offsetFromNow = (flags & PARCEL_OFFSET_FROM_NOW) != 0;
+		alarmSnoozed = (flags & PARCEL_SNOOZED) != 0;
+		alarmVibrateIsOn = (flags & PARCEL_VIBRATE) != 0;
+
+		repeatType = in.readInt();
+		if (repeatType < 0 || repeatType >= NUM_REPEAT_TYPES) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Parcel had an unknown repeat type.");
+			repeatType = REPEAT_ONCE_ABS;
+		}
+		ringTime.setTimeInMillis(in.readLong());
+
+		// days in the low 7 bits, months in the 12 above them
+		int repeats = in.readInt();
+		for (int i = 0; i < 7; i++) repeatDays[i] = (repeats & (1 << i)) != 0;
+		for (int i = 0; i < 12; i++) repeatMonths[i] = (repeats & (1 << (i + 7))) != 0;
+		repeatWeek = in.readInt();
+
+		offsetDays = in.readInt();
+		offsetHours = in.readInt();
+		offsetMins = in.readInt();
+		numSnoozes = in.readInt();
+		volume = in.readInt();
+		ringtoneUri = Uri.CREATOR.createFromParcel(in);
+	}
+
 	// ********************************  Methods from Item  **********************************
 
 	/**
 	 * Gets a repeat string that describes the alarm. Uses the current context to get localized 
 	 * strings. Repeat strings are based on the state of the alarm (whether it's snoozed) and the 
-	 * repeat type. 
+	 * repeat type. Cached until the alarm, the locale, or the 24-hour setting changes.
 	 * @return the repeat string, or empty string if the context is null 
 	 */
 	@NotNull @Override
@@ -274,76 +333,10 @@ public final class Alarm extends Item {
 			if (BuildConfig.DEBUG) Log.e(TAG, "Context was null when trying to get a repeat string.");
 			return "";
 		}
-		
-		Resources res = context.getResources();
-
-		StringBuilder repeatString = new StringBuilder();
-		String dateStr = DateFormat.getDateFormat(context).format(ringTime.getTime());
-
-		// snoozed or not
-		if (alarmSnoozed) {
-			// TODO: change number of minutes to snooze
-			repeatString.append(String.format(res.getString(R.string.alarm_snooze), numSnoozes*5));
-			repeatString.append('\n');
-		}
-
-		String months, exceptMonths;		// used for DATE_MONTHLY and DAY_MONTHLY
-		switch (repeatType) {
-			case REPEAT_ONCE_ABS:
-			case REPEAT_ONCE_REL:
-				repeatString.append(String.format(res.getString(R.string.alarm_once_abs_rel), dateStr));
-				break;
-			case REPEAT_DAY_WEEKLY:
-				repeatString.append(getWeeklyDisplayString());
-				break;
-			case REPEAT_DATE_MONTHLY:
-				int dateOfMonth = ringTime.get(Calendar.DATE);
-				String[] ordinals = res.getStringArray(R.array.alarm_ordinals);
-				months = getMonthsString();
-				exceptMonths = getExceptionMonthsString();
-				if (months.length() <= exceptMonths.length()) {
-					// use months
-					repeatString.append(String.format(res.getString(R.string.alarm_date_monthly),
-							months, ordinals[dateOfMonth - 1]));
-				}
-				else {
-					// use exception months
-					repeatString.append(String.format(res.getString(R.string.alarm_date_monthly_except),
-							ordinals[dateOfMonth - 1], exceptMonths));
-				}
-				break;
-			case REPEAT_DAY_MONTHLY:
-				String[] weekdays = (new DateFormatSymbols()).getWeekdays();
-				String[] weekOrdinals = res.getStringArray(R.array.alarm_week_ordinals);
 
-				months = getMonthsString();
-				exceptMonths = getExceptionMonthsString();
-				if (months.length() <= exceptMonths.length()) {
-					// use months
-					repeatString.append(String.format(res.getString(R.string.alarm_day_monthly),
-							weekOrdinals[repeatWeek], weekdays[ringTime.get(Calendar.DAY_OF_WEEK)],
-							months));
-				}
-				else {
-					// use exception months
-					repeatString.append(String.format(res.getString(R.string.alarm_day_monthly_except),
-							weekOrdinals[repeatWeek], weekdays[ringTime.get(Calendar.DAY_OF_WEEK)],
-							exceptMonths));
-				}
-				break;
-			case REPEAT_DATE_YEARLY:
-				// TODO: don't show the year
-				repeatString.append(String.format(res.getString(R.string.alarm_date_yearly), dateStr));
-				break;
-			case REPEAT_OFFSET:
-				repeatString.append(String.format(res.getString(R.string.alarm_offset),
-						getOffsetString(), dateStr));
-				break;
-			default:
-				if (BuildConfig.DEBUG) Log.e(TAG, "Unknown repeat type!");
-				return "";
-		}
-		return repeatString.toString();
+		DisplayStrings d = getDisplayStrings(context);
+		if (d.repeatString == null) d.repeatString = buildRepeatString(context);
+		return d.repeatString;
 	}
 
 	/**
@@ -376,7 +369,8 @@ public final class Alarm extends Item {
 	}
 
 	/**
-	 * Gets the next time the alarm is going to ring as a string. 
+	 * Gets the next time the alarm is going to ring as a string. Cached the same way as the repeat
+	 * string.
 	 * @return the ring time, will not be null 
 	 */ 
 	@NotNull @Override
@@ -385,7 +379,10 @@ public final class Alarm extends Item {
 			if (BuildConfig.DEBUG) Log.e(TAG, "Context was null when trying to get the next ring time.");
 			return "";
 		}
-		return DateFormat.getTimeFormat(context).format(ringTime.getTime()).toLowerCase();
+
+		DisplayStrings d = getDisplayStrings(context);
+		if (d.nextRingTime == null) d.nextRingTime = buildNextRingTime(context);
+		return d.nextRingTime;
 	}
 
 	/**
@@ -611,52 +608,47 @@ public final class Alarm extends Item {
 	 * Type-specific data:
 	 * ONCE_ABS and DATE_YEARLY: none
 	 * ONCE_REL and OFFSET: [days] [hours] [mins] [is offset from time]
-	 * DAY_WEEKLY: [true/false for every day]
-	 * DAY_MONTHLY: [week to repeat] [true/false for every month]
-	 * DATE_MONTHLY: [true/false for every month]
+	 * DAY_WEEKLY: [flags for every day]
+	 * DAY_MONTHLY: [week to repeat] [flags for every month]
+	 * DATE_MONTHLY: [flags for every month]
+	 * <br/>
+	 * Booleans are written as 1 or 0, and flags as one 1 or 0 per day/month with no spaces in
+	 * between (e.g. 0111110 for weekdays).
 	 * <br/>
 	 * Note: for ringtone URI, if it is null (silent), it will be stored as "null"
 	 */
 	@NotNull @Override @Contract(pure = true)
 	public synchronized String toEditString() {
-		StringBuilder alarmString = new StringBuilder();
+		StringBuilder alarmString = new StringBuilder(96);
 		alarmString.append(id).append('\t');
 		alarmString.append(name).append('\t');
-		alarmString.append(isActive).append('\t');
+		alarmString.append(isActive ? '1' : '0').append('\t');
 
 		switch (repeatType) {
 			case REPEAT_ONCE_ABS:
-				alarmString.append(REPEAT_ONCE_ABS);
+			case REPEAT_DATE_YEARLY:
+				alarmString.append(repeatType);
 				break;
 			case REPEAT_ONCE_REL:
-				alarmString.append(REPEAT_ONCE_REL);
+			case REPEAT_OFFSET:
+				alarmString.append(repeatType);
 				alarmString.append(' ').append(offsetDays);
 				alarmString.append(' ').append(offsetHours);
 				alarmString.append(' ').append(offsetMins);
-				alarmString.append(' ').append(offsetFromNow);
+				alarmString.append(' ').append(offsetFromNow ? '1' : '0');
 				break;
 			case REPEAT_DAY_WEEKLY:
-				alarmString.append(REPEAT_DAY_WEEKLY);
-				for (int i = 0; i < 7; i++) { alarmString.append(' ').append(repeatDays[i]); }
+				alarmString.append(REPEAT_DAY_WEEKLY).append(' ');
+				appendFlags(alarmString, repeatDays);
 				break;
 			case REPEAT_DATE_MONTHLY:
-				alarmString.append(REPEAT_DATE_MONTHLY);
-				for (int i = 0; i < 12; i++) { alarmString.append(' ').append(repeatMonths[i]); }
+				alarmString.append(REPEAT_DATE_MONTHLY).append(' ');
+				appendFlags(alarmString, repeatMonths);
 				break;
 			case REPEAT_DAY_MONTHLY:
 				alarmString.append(REPEAT_DAY_MONTHLY);
-				alarmString.append(' ').append(repeatWeek);
-				for (int i = 0; i < 12; i++) { alarmString.append(' ').append(repeatMonths[i]); }
-				break;
-			case REPEAT_DATE_YEARLY:
-				alarmString.append(REPEAT_DATE_YEARLY);
-				break;
-			case REPEAT_OFFSET:
-				alarmString.append(REPEAT_OFFSET);
-				alarmString.append(' ').append(offsetDays);
-				alarmString.append(' ').append(offsetHours);
-				alarmString.append(' ').append(offsetMins);
-				alarmString.append(' ').append(isOffsetFromNow());
+				alarmString.append(' ').append(repeatWeek).append(' ');
+				appendFlags(alarmString, repeatMonths);
 				break;
 			default:
 				if (BuildConfig.DEBUG) Log.e(TAG, "Invalid alarm repeat type.");
@@ -670,10 +662,10 @@ public final class Alarm extends Item {
 		else
 			alarmString.append(ringtoneUri);
 
-		alarmString.append('\t').append(alarmSnoozed);
+		alarmString.append('\t').append(alarmSnoozed ? '1' : '0');
 		alarmString.append('\t').append(numSnoozes);
 		alarmString.append('\t').append(volume);
-		alarmString.append('\t').append(alarmVibrateIsOn);
+		alarmString.append('\t').append(alarmVibrateIsOn ? '1' : '0');
 
 		return alarmString.toString();
 	}
@@ -687,6 +679,24 @@ public final class Alarm extends Item {
 	@NotNull @Override @Contract(pure = true)
 	public synchronized String toStoreString() { return "a\t" + toEditString(); }
 
+	/**
+	 * Builds a new snapshot of the alarm.
+	 */
+	@NotNull @Override
+	ItemSnapshot buildSnapshot() { return new ItemSnapshot(this); }
+
+	/**
+	 * Counts the alarm itself in the stats of its parent.
+	 */
+	@Override
+	void countStats(@NotNull int[] dest) {
+		dest[AlarmGroup.STAT_TOTAL_ALARMS] = 1;
+		dest[AlarmGroup.STAT_ACTIVE_ALARMS] = isActive ? 1 : 0;
+		dest[AlarmGroup.STAT_SNOOZED_ALARMS] = alarmSnoozed ? 1 : 0;
+		dest[AlarmGroup.STAT_FOLDERS] = 0;
+		dest[AlarmGroup.STAT_MAX_DEPTH] = 0;
+	}
+
 	// ******************************  Getter and Setter Methods  *******************************
 
 	/**
@@ -728,6 +738,43 @@ public final class Alarm extends Item {
 			return;
 		}
 		ringTime.setTimeInMillis(time);
+		invalidateSnapshot();
+	}
+
+	/**
+	 * Returns whether the alarm is snoozed.
+	 */
+	@Contract(pure = true)
+	synchronized boolean isSnoozed() { return alarmSnoozed; }
+
+	/**
+	 * Returns the number of times the alarm has been snoozed.
+	 */
+	@Contract(pure = true)
+	public synchronized int getNumSnoozes() { return numSnoozes; }
+
+	/**
+	 * Sets the ring state of the alarm all at once, as read from where it's stored apart from the
+	 * rest of the alarm (see RingStateStore). Doesn't move the alarm within its folder.
+	 * @param active whether the alarm is active
+	 * @param snoozed whether the alarm is snoozed
+	 * @param snoozes the number of times the alarm has been snoozed
+	 * @param ringTimeMillis the ring time of the alarm
+	 * @return whether anything changed
+	 */
+	synchronized boolean setRingState(boolean active, boolean snoozed, int snoozes,
+									  long ringTimeMillis) {
+		if (isActive == active && alarmSnoozed == snoozed && numSnoozes == snoozes &&
+				ringTime.getTimeInMillis() == ringTimeMillis)
+			return false;
+
+		isActive = active;
+		alarmSnoozed = snoozed;
+		numSnoozes = snoozes;
+		ringTime.setTimeInMillis(ringTimeMillis);
+		invalidateSnapshot();
+		reportStats();
+		return true;
 	}
 
 	/**
@@ -747,6 +794,7 @@ public final class Alarm extends Item {
 			return;
 		}
 		repeatType = type;
+		invalidateSnapshot();
 		updateRingTime();
 	}
 
@@ -781,6 +829,7 @@ public final class Alarm extends Item {
 			return;
 		}
 		repeatWeek = newWeek;
+		invalidateSnapshot();
 		updateRingTime();
 	}
 
@@ -801,6 +850,7 @@ public final class Alarm extends Item {
 			return;
 		}
 		offsetDays = days;
+		invalidateSnapshot();
 		updateRingTime();
 	}
 
@@ -822,6 +872,7 @@ public final class Alarm extends Item {
 			return;
 		}
 		offsetHours = hours;
+		invalidateSnapshot();
 		updateRingTime();
 	}
 
@@ -842,6 +893,7 @@ public final class Alarm extends Item {
 			return;
 		}
 		offsetMins = min;
+		invalidateSnapshot();
 	}
 
 	/**
@@ -853,7 +905,10 @@ public final class Alarm extends Item {
 	/**
 	 * Sets whether the offset is from the current time or not.
 	 */
-	public synchronized void setOffsetFromNow(boolean offsetFromNow) { this.offsetFromNow = offsetFromNow; }
+	public synchronized void setOffsetFromNow(boolean offsetFromNow) {
+		this.offsetFromNow = offsetFromNow;
+		invalidateSnapshot();
+	}
 
 	/**
 	 * Gets whether the alarm has vibrate on or not.
@@ -865,7 +920,10 @@ public final class Alarm extends Item {
 	 * Sets whether the alarm has vibrate on or not.
 	 * @param on the new state to set it to
 	 */
-	public synchronized void setVibrateOn(boolean on) { alarmVibrateIsOn = on; }
+	public synchronized void setVibrateOn(boolean on) {
+		alarmVibrateIsOn = on;
+		invalidateSnapshot();
+	}
 
 	/**
 	 * Gets the volume of the alarm.
@@ -882,6 +940,7 @@ public final class Alarm extends Item {
 		if (vol > 100) vol = 100;
 
 		volume = vol;
+		invalidateSnapshot();
 	}
 
 	/**
@@ -899,10 +958,37 @@ public final class Alarm extends Item {
 			Log.i(TAG, "The new ringtone is silent.");
 		}
 		ringtoneUri = newRingtone;
+		invalidateSnapshot();
 	}
 
 	/**
-	 * Gets the name of the ringtone.
+	 * Sets the ringtone without touching the snapshots of the parents. Only for bulk changes,
+	 * which invalidate the whole subtree once afterwards.
+	 * @param newRingtone the new ringtone to set it to, can be null if the ringtone is silent
+	 * @return the ringtone before the change
+	 */
+	@Nullable
+	synchronized Uri swapRingtoneUri(@Nullable Uri newRingtone) {
+		Uri old = ringtoneUri;
+		ringtoneUri = newRingtone;
+		clearSnapshot();
+		return old;
+	}
+
+	/**
+	 * Moves the ring time of the alarm by the given number of minutes without touching the
+	 * snapshots of the parents. Only for bulk changes, which invalidate the whole subtree once
+	 * afterwards (and re-sort the folders, since the order depends on the ring time).
+	 * @param minutes the number of minutes to move the alarm by, can be negative
+	 */
+	synchronized void shiftTime(int minutes) {
+		ringTime.add(Calendar.MINUTE, minutes);
+		clearSnapshot();
+	}
+
+	/**
+	 * Gets the name of the ringtone. Names are cached across alarms, but looking up one that
+	 * isn't cached blocks, so the UI should use getRingtoneName(callback) instead.
 	 * @return the name of the ringtone, or empty string if context is null
 	 */
 	@NotNull @Contract(pure = true)
@@ -911,18 +997,95 @@ public final class Alarm extends Item {
 			if (BuildConfig.DEBUG) Log.e(TAG, "Context is null, cannot query the name of the ringtone.");
 			return "";
 		}
-		Ringtone r = RingtoneManager.getRingtone(context, ringtoneUri);
-		if (r == null) {
-			return context.getResources().getString(R.string.alarm_editor_silent);
+		return RingtoneTitles.get(context, ringtoneUri);
+	}
+
+	/**
+	 * Gets the name of the ringtone without blocking. If the name isn't cached yet, returns a
+	 * placeholder and calls the callback with the real name (on the main thread) later.
+	 * @param callback the callback to call if the name has to be looked up, cannot be null
+	 * @return the name of the ringtone, a placeholder, or empty string if context is null
+	 */
+	@NotNull
+	public synchronized String getRingtoneName(@NotNull RingtoneTitles.Callback callback) {
+		if (context == null) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Context is null, cannot query the name of the ringtone.");
+			return "";
 		}
-		return r.getTitle(context);
+		return RingtoneTitles.request(context, ringtoneUri, callback);
+	}
+
+	// *******************************  Parcelable Things  **********************************
+
+	/**
+	 * Creator that creates alarms from parcels.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static final Parcelable.Creator<Alarm> CREATOR =
+		new Parcelable.Creator<Alarm>() {
+			@NotNull @Contract(pure = true)
+			public Alarm createFromParcel(@NotNull Parcel in) {
+				return new Alarm(in);
+			}
+			@NotNull @Contract(pure = true)
+			public Alarm[] newArray(int size) {
+				return new Alarm[size];
+			}
+		};
+
+	/**
+	 * Describes the contents of the object.
+	 * @return always returns 0 (no file descriptors in the object)
+	 */
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	/**
+	 * Writes the alarm to the given parcel. Writes primitives only (booleans are packed into
+	 * bitmasks), so unlike edit strings nothing has to be formatted or parsed. The context isn't
+	 * written.
+	 * <br/>
+	 * Current layout: [name] [id] [flags] [repeat type] [ring time] [repeat days/months]
+	 * [repeat week] [offset days] [offset hours] [offset mins] [snoozes] [volume] [ringtone URI]
+	 * @param dest the parcel to write to, shouldn't be null
+	 * @param flags any flags to use
+	 */
+	@Override
+	public synchronized void writeToParcel(@NotNull Parcel dest, int flags) {
+		dest.writeString(name);
+		dest.writeInt(id);
+
+		int bits = 0;
+		if (isActive) bits |= PARCEL_ACTIVE;
+		if (offsetFromNow) bits |= PARCEL_OFFSET_FROM_NOW;
+		if (alarmSnoozed) bits |= PARCEL_SNOOZED;
+		if (alarmVibrateIsOn) bits |= PARCEL_VIBRATE;
+		dest.writeInt(bits);
+
+		dest.writeInt(repeatType);
+		dest.writeLong(ringTime.getTimeInMillis());
+
+		int repeats = 0;
+		for (int i = 0; i < 7; i++) if (repeatDays[i]) repeats |= 1 << i;
+		for (int i = 0; i < 12; i++) if (repeatMonths[i]) repeats |= 1 << (i + 7);
+		dest.writeInt(repeats);
+		dest.writeInt(repeatWeek);
+
+		dest.writeInt(offsetDays);
+		dest.writeInt(offsetHours);
+		dest.writeInt(offsetMins);
+		dest.writeInt(numSnoozes);
+		dest.writeInt(volume);
+		Uri.writeToParcel(dest, ringtoneUri);
 	}
 
 	// ************************************  Static Methods  **********************************
 
 	/**
 	 * Returns a new Alarm based on the given string. For edit string creation and format, see
-	 * toEditString().
+	 * toEditString(). Also reads edit strings in the older format (see fromLegacyEditString()).
 	 * @see #toEditString()
 	 *
 	 * @param context current operating context, can be null
@@ -939,7 +1102,91 @@ public final class Alarm extends Item {
 			if (BuildConfig.DEBUG) Log.e(TAG, "Edit string is empty.");
 			return null;
 		}
+		return fromEditString(context, src, 0);
+	}
+
+	/**
+	 * Reads an alarm from the edit string starting at the given index, scanning it in place.
+	 * @param context current operating context, can be null
+	 * @param src the string holding the edit string, cannot be null
+	 * @param start the index the edit string starts at
+	 * @return new Alarm based on the edit string, or null if it's formatted incorrectly
+	 */
+	@Nullable @Contract(pure = true)
+	static Alarm fromEditString(@Nullable Context context, @NotNull CharSequence src, int start) {
+		EditCursor c = new EditCursor(src, start);
+		int id = c.nextInt('\t');
+		String name = c.nextString('\t');
+
+		// older edit strings write booleans as true/false
+		char active = c.peek();
+		if (active == 't' || active == 'f')
+			return fromLegacyEditString(context, src.subSequence(start, src.length()).toString());
+
+		Alarm res = new Alarm(context, name, id);
+		res.isActive = c.nextBoolean('\t');
+
+		// types without any type-specific data end the field right away, the rest need a space
+		res.repeatType = c.nextInt(' ', '\t');
+		boolean hasData = c.lastSeparator() == ' ';
+		switch (res.repeatType) {
+			case REPEAT_ONCE_ABS:
+			case REPEAT_DATE_YEARLY:
+				if (hasData) {
+					if (BuildConfig.DEBUG) Log.e(TAG, "Edit string had the wrong number of repeat type fields.");
+					return null;
+				}
+				break;
+			case REPEAT_ONCE_REL:
+			case REPEAT_OFFSET:
+				res.offsetDays = c.nextInt(' ');
+				res.offsetHours = c.nextInt(' ');
+				res.offsetMins = c.nextInt(' ');
+				res.offsetFromNow = c.nextBoolean('\t');
+				break;
+			case REPEAT_DAY_WEEKLY:
+				c.nextFlags(res.repeatDays, '\t');
+				break;
+			case REPEAT_DAY_MONTHLY:
+				res.repeatWeek = c.nextInt(' ');
+				c.nextFlags(res.repeatMonths, '\t');
+				break;
+			case REPEAT_DATE_MONTHLY:
+				c.nextFlags(res.repeatMonths, '\t');
+				break;
+			default:
+				if (BuildConfig.DEBUG) Log.e(TAG, "Edit string had an unknown repeat type.");
+				return null;
+		}
+		if (res.repeatType != REPEAT_ONCE_ABS && res.repeatType != REPEAT_DATE_YEARLY && !hasData) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Edit string had the wrong number of repeat type fields.");
+			return null;
+		}
+
+		res.ringTime.setTimeInMillis(c.nextLong('\t'));
+		String uri = c.nextString('\t');
+		res.ringtoneUri = uri == null || "null".equals(uri) ? null : Uri.parse(uri);
+		res.alarmSnoozed = c.nextBoolean('\t');
+		res.numSnoozes = c.nextInt('\t');
+		res.volume = c.nextInt('\t');
+		res.alarmVibrateIsOn = c.nextBoolean('\t');
+
+		if (c.failed() || !c.atEnd() || res.volume < 0 || res.volume > 100) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Edit string was formatted incorrectly.");
+			return null;
+		}
+		return res;
+	}
 
+	/**
+	 * Reads an edit string in the older format, where booleans are written as true/false and flags
+	 * are separated by spaces. Kept so that alarms stored by older versions can still be read.
+	 * @param context current operating context, can be null
+	 * @param src edit string to build an Alarm out of, cannot be null
+	 * @return new Alarm based on the edit string, or null if it's formatted incorrectly
+	 */
+	@Nullable @Contract(pure = true)
+	static Alarm fromLegacyEditString(@Nullable Context context, @NotNull String src) {
 		String[] fields = src.split("\t");
 		if (fields.length != 10) {
 			if (BuildConfig.DEBUG) Log.e(TAG, "Edit string didn't have a correct number of fields.");
@@ -959,6 +1206,10 @@ public final class Alarm extends Item {
 		res.setActive(Boolean.parseBoolean(fields[2]));		// doesn't throw anything
 
 		String[] repeatTypeInfo = fields[3].split(" ");
+		if (repeatTypeInfo.length == 0) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Edit string has an empty repeat type.");
+			return null;
+		}
 		try {
 			res.setRepeatType(Integer.parseInt(repeatTypeInfo[0]));
 		}
@@ -981,7 +1232,13 @@ public final class Alarm extends Item {
 					if (BuildConfig.DEBUG) Log.e(TAG, "Edit string had the wrong number of repeat type fields.");
 					return null;
 				}
-				res.repeatWeek = Integer.parseInt(repeatTypeInfo[1]);
+				try {
+					res.repeatWeek = Integer.parseInt(repeatTypeInfo[1]);
+				}
+				catch (NumberFormatException e) {
+					if (BuildConfig.DEBUG) Log.e(TAG, "Edit string has an incorrectly formatted repeat week.");
+					return null;
+				}
 				for (int i = 0; i < 12; i++) {
 					res.repeatMonths[i] = Boolean.parseBoolean(repeatTypeInfo[i + 2]);
 				}
@@ -1025,7 +1282,13 @@ public final class Alarm extends Item {
 				return null;
 		}
 
-		res.ringTime.setTimeInMillis(Long.parseLong(fields[4]));
+		try {
+			res.ringTime.setTimeInMillis(Long.parseLong(fields[4]));
+		}
+		catch (NumberFormatException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Edit string has an invalid ring time.");
+			return null;
+		}
 
 		if ("null".equals(fields[5])) res.setRingtoneUri(null);
 		else res.setRingtoneUri(Uri.parse(fields[5]));
@@ -1076,11 +1339,130 @@ public final class Alarm extends Item {
 			if (BuildConfig.DEBUG) Log.e(TAG, "Store string has an unknown ID field.");
 			return null;
 		}
-		return fromEditString(currContext, src.substring(2));		// removes the "a\t"
+		return fromEditString(currContext, src, 2);		// skips the "a\t"
 	}
 
 	// *********************************  Other Methods  **********************************
 
+	/**
+	 * Appends flags to an edit string as one digit (1 or 0) per flag.
+	 * @param builder the builder to append to
+	 * @param flags the flags to append
+	 */
+	private static void appendFlags(@NotNull StringBuilder builder, @NotNull boolean[] flags) {
+		for (boolean f : flags) builder.append(f ? '1' : '0');
+	}
+
+	/**
+	 * Builds the next ring time of the alarm as a string (see getNextRingTime()) without caching
+	 * it.
+	 * @param context the context to get the formatter from, cannot be null
+	 * @return the ring time, will not be null
+	 */
+	@NotNull
+	synchronized String buildNextRingTime(@NotNull Context context) {
+		return DisplayFormats.get(context).formatTime(ringTime.getTimeInMillis()).toLowerCase();
+	}
+
+	/**
+	 * Builds the repeat string of the alarm (see getRepeatString()) without caching it.
+	 * @param context the context to get strings from, cannot be null
+	 * @return the repeat string, or empty string if the repeat type is unknown
+	 */
+	@NotNull
+	synchronized String buildRepeatString(@NotNull Context context) {
+		Resources res = context.getResources();
+		DisplayFormats formats = DisplayFormats.get(context);
+
+		StringBuilder repeatString = new StringBuilder();
+		String dateStr = formats.formatDate(ringTime.getTimeInMillis());
+
+		// snoozed or not
+		if (alarmSnoozed) {
+			// TODO: change number of minutes to snooze
+			repeatString.append(String.format(res.getString(R.string.alarm_snooze), numSnoozes*5));
+			repeatString.append('\n');
+		}
+
+		String months, exceptMonths;		// used for DATE_MONTHLY and DAY_MONTHLY
+		switch (repeatType) {
+			case REPEAT_ONCE_ABS:
+			case REPEAT_ONCE_REL:
+				repeatString.append(String.format(res.getString(R.string.alarm_once_abs_rel), dateStr));
+				break;
+			case REPEAT_DAY_WEEKLY:
+				repeatString.append(getWeeklyDisplayString());
+				break;
+			case REPEAT_DATE_MONTHLY:
+				int dateOfMonth = ringTime.get(Calendar.DATE);
+				String[] ordinals = formats.ordinals;
+				months = getMonthsString();
+				exceptMonths = getExceptionMonthsString();
+				if (months.length() <= exceptMonths.length()) {
+					// use months
+					repeatString.append(String.format(res.getString(R.string.alarm_date_monthly),
+							months, ordinals[dateOfMonth - 1]));
+				}
+				else {
+					// use exception months
+					repeatString.append(String.format(res.getString(R.string.alarm_date_monthly_except),
+							ordinals[dateOfMonth - 1], exceptMonths));
+				}
+				break;
+			case REPEAT_DAY_MONTHLY:
+				String[] weekdays = formats.weekdays;
+				String[] weekOrdinals = formats.weekOrdinals;
+
+				months = getMonthsString();
+				exceptMonths = getExceptionMonthsString();
+				if (months.length() <= exceptMonths.length()) {
+					// use months
+					repeatString.append(String.format(res.getString(R.string.alarm_day_monthly),
+							weekOrdinals[repeatWeek], weekdays[ringTime.get(Calendar.DAY_OF_WEEK)],
+							months));
+				}
+				else {
+					// use exception months
+					repeatString.append(String.format(res.getString(R.string.alarm_day_monthly_except),
+							weekOrdinals[repeatWeek], weekdays[ringTime.get(Calendar.DAY_OF_WEEK)],
+							exceptMonths));
+				}
+				break;
+			case REPEAT_DATE_YEARLY:
+				// TODO: don't show the year
+				repeatString.append(String.format(res.getString(R.string.alarm_date_yearly), dateStr));
+				break;
+			case REPEAT_OFFSET:
+				repeatString.append(String.format(res.getString(R.string.alarm_offset),
+						getOffsetString(), dateStr));
+				break;
+			default:
+				if (BuildConfig.DEBUG) Log.e(TAG, "Unknown repeat type!");
+				return "";
+		}
+		return repeatString.toString();
+	}
+
+	/**
+	 * Returns the cached display strings of the alarm, throwing them away first if the alarm, the
+	 * locale, or the 24-hour setting changed since they were built.
+	 * @param context the context to check the locale and 24-hour setting of, cannot be null
+	 * @return the display strings, which may still need filling in
+	 */
+	@NotNull
+	private DisplayStrings getDisplayStrings(@NotNull Context context) {
+		int version = getVersion();
+		Locale locale = context.getResources().getConfiguration().locale;
+		boolean is24Hour = DateFormat.is24HourFormat(context);
+
+		DisplayStrings d = display;
+		if (d == null || d.version != version || d.is24Hour != is24Hour || !d.locale.equals(locale)) {
+			d = new DisplayStrings(version, locale, is24Hour);
+			display = d;
+		}
+		return d;
+	}
+
 	/**
 	 * Makes a new string that describes this alarm. Use edit or store strings if a full
 	 * representation is necessary. Returns simply tne name of the alarm.
@@ -1100,44 +1482,7 @@ public final class Alarm extends Item {
 			if (BuildConfig.DEBUG) Log.e(TAG, "Context is null, cannot get the weekly display string.");
 			return "";
 		}
-
-		Resources res = context.getResources();
-
-		StringBuilder days = new StringBuilder();
-		String separator = res.getString(R.string.separator), finalSeparator = res.getString(R.string.final_separator);
-		String[] dayStrings = (new DateFormatSymbols()).getShortWeekdays();
-
-		boolean everyDayFlag = true, weekdayFlag = true, weekendFlag = true;
-		boolean temp;
-		int prevDay = -1;
-
-		for (int i = 0; i < repeatDays.length; i++) {
-			if (repeatDays[i]) {
-				if (prevDay != -1) days.append(dayStrings[prevDay]).append(separator);
-				prevDay = i + 1;
-			}
-
-			everyDayFlag &= repeatDays[i];
-
-			temp = (i + 1 == Calendar.SATURDAY || i + 1 == Calendar.SUNDAY) ^ repeatDays[i];
-			weekdayFlag &= temp;
-			weekendFlag &= !temp;
-		}
-
-		// special cases
-		if (prevDay == -1) { return res.getString(R.string.alarm_no_repeats_string); }
-		else if (everyDayFlag) { return res.getString(R.string.alarm_weekly_everyday); }
-		else if (weekdayFlag) { return res.getString(R.string.alarm_weekly_weekdays); }
-		else if (weekendFlag) { return res.getString(R.string.alarm_weekly_weekends); }
-
-		// add last day
-		if (days.length() != 0) {
-			// delete the last separator and add the final one
-			days.delete(days.length() - separator.length(), days.length());
-			days.append(finalSeparator);
-		}
-		days.append(dayStrings[prevDay]);
-		return String.format(res.getString(R.string.alarm_weekly), days);
+		return DisplayFormats.get(context).weeklyString(repeatDays);
 	}
 
 	/**
@@ -1150,45 +1495,7 @@ public final class Alarm extends Item {
 			if (BuildConfig.DEBUG) Log.e(TAG, "Context is null, cannot get the months display string.");
 			return "";
 		}
-
-		Resources res = context.getResources();
-
-		StringBuilder months = new StringBuilder();
-		String separator = res.getString(R.string.separator);
-		String[] monthStrings = (new DateFormatSymbols()).getShortMonths();
-		List<String> monthsToAdd = new ArrayList<>();
-		int numMonths = 0;
-		boolean evenFlag = true, oddFlag = true;
-
-		for (int i = 0; i < repeatMonths.length; i++) {
-			// have to flip the equals because repeatMonths[0] represents January (1)
-			evenFlag = evenFlag && (i % 2 != 0) == repeatMonths[i];
-			oddFlag = oddFlag && (i % 2 == 0) == repeatMonths[i];
-
-			if (repeatMonths[i]) {
-				monthsToAdd.add(monthStrings[i]);
-				numMonths++;
-			}
-		}
-
-		if (numMonths == 0) { return res.getString(R.string.alarm_no_months); }
-		if (numMonths == 12) { return res.getString(R.string.alarm_all_months); }
-		if (numMonths == 6 && evenFlag) { return res.getString(R.string.alarm_even_months); }
-		if (numMonths == 6 && oddFlag) { return res.getString(R.string.alarm_odd_months); }
-
-		months.append(monthsToAdd.get(0));
-		if (numMonths > 1) {
-			// use normal separator
-			for (int i = 1; i < numMonths - 1; i++) {
-				months.append(separator);
-				months.append(monthsToAdd.get(i));
-			}
-
-			months.append(res.getString(R.string.final_separator));
-			months.append(monthsToAdd.get(monthsToAdd.size() - 1));
-		}
-
-		return String.format(res.getString(R.string.alarm_monthly), months);
+		return DisplayFormats.get(context).monthsString(repeatMonths);
 	}
 
 	/**
@@ -1201,41 +1508,7 @@ public final class Alarm extends Item {
 			if (BuildConfig.DEBUG) Log.e(TAG, "Context is null, cannot get the exception months display string.");
 			return "";
 		}
-
-		Resources res = context.getResources();
-
-		StringBuilder months = new StringBuilder();
-		String separator = res.getString(R.string.separator);
-		String[] monthStrings = (new DateFormatSymbols()).getShortMonths();
-		List<String> monthsToAdd = new ArrayList<>();
-		int numMonths = 0;
-
-		for (int i = 0; i < repeatMonths.length; i++) {
-			if (!repeatMonths[i]) {
-				monthsToAdd.add(monthStrings[i]);
-				numMonths++;
-			}
-		}
-
-		if (numMonths == 0) { return ""; }
-
-		if (numMonths == 1) {
-			months.append(monthsToAdd.get(0));
-		}
-		else {
-			months.append(monthStrings[0]);
-
-			// use normal separator
-			for (int i = 1; i < numMonths - 1; i++) {
-				months.append(separator);
-				months.append(monthsToAdd.get(i));
-			}
-
-			months.append(res.getString(R.string.final_separator));
-			months.append(monthsToAdd.get(monthsToAdd.size() - 1));
-		}
-
-		return String.format(res.getString(R.string.alarm_monthly_exception), months);
+		return DisplayFormats.get(context).exceptionMonthsString(repeatMonths);
 	}
 
 	/**
@@ -1249,12 +1522,12 @@ public final class Alarm extends Item {
 		}
 
 		Resources res = context.getResources();
+		DisplayFormats formats = DisplayFormats.get(context);
 
 		boolean previous = false;
 		StringBuilder offsetString = new StringBuilder();
 
-		String separator = res.getString(R.string.separator);
-		String finalSeparator = context.getResources().getString(R.string.final_separator);
+		String separator = formats.separator, finalSeparator = formats.finalSeparator;
 
 		if (offsetDays != 0) {
 			offsetString.append(String.format(res.getString(R.string.alarm_offset_days), offsetDays));
@@ -1273,7 +1546,7 @@ public final class Alarm extends Item {
 			offsetString.append(String.format(res.getString(R.string.alarm_offset_mins), offsetMins));
 		}
 		if (offsetString.length() == 0) {
-			return res.getString(R.string.alarm_no_repeats_string);
+			return formats.noRepeats;
 		}
 
 		return offsetString.toString();
@@ -1300,6 +1573,17 @@ public final class Alarm extends Item {
 	 * @param currTime the current time (the earliest time that this alarm should ring)
 	 */
 	public synchronized void updateRingTime(Calendar currTime) {
+		long oldTime = ringTime.getTimeInMillis();
+		calculateRingTime(currTime);
+		// only throw away snapshots if the time actually moved, most updates don't change anything
+		if (ringTime.getTimeInMillis() != oldTime) invalidateSnapshot();
+	}
+
+	/**
+	 * Does the actual work for updateRingTime(Calendar). Doesn't invalidate the snapshot.
+	 * @param currTime the current time (the earliest time that this alarm should ring)
+	 */
+	private void calculateRingTime(Calendar currTime) {
 		if (!isActive || alarmSnoozed) { return; }
 
 		Calendar workingClock = (Calendar) currTime.clone();
@@ -1464,6 +1748,8 @@ public final class Alarm extends Item {
 		// TODO: change number of minutes to snooze?
 		// if so, also gotta change unsnooze() and getUnsnoozedAlarmTimeMillis()
 		ringTime.add(Calendar.MINUTE, 5);
+		invalidateSnapshot();
+		reportStats();
 	}
 
 	/**
@@ -1474,6 +1760,8 @@ public final class Alarm extends Item {
 
 		ringTime.add(Calendar.MINUTE, -5*numSnoozes);
 		numSnoozes = 0;
+		invalidateSnapshot();
+		reportStats();
 	}
 
 	/**
@@ -1499,4 +1787,50 @@ public final class Alarm extends Item {
 				break;
 		}
 	}
+
+	// ************************************  Inner Classes  ***********************************
+
+	/**
+	 * Holds the display strings of an alarm along with what they depend on besides the alarm
+	 * itself. Each string is built the first time it's asked for. Only touched while holding the
+	 * lock of the alarm.
+	 */
+	private static final class DisplayStrings {
+		/**
+		 * The version of the alarm the strings were built for.
+		 */
+		final int version;
+		/**
+		 * The locale the strings were built for.
+		 */
+		@NotNull
+		final Locale locale;
+		/**
+		 * Whether the strings were built with the 24-hour setting on.
+		 */
+		final boolean is24Hour;
+
+		/**
+		 * The repeat string, or null if it hasn't been built yet.
+		 */
+		@Nullable
+		String repeatString;
+		/**
+		 * The next ring time string, or null if it hasn't been built yet.
+		 */
+		@Nullable
+		String nextRingTime;
+
+		/**
+		 * Creates a new, empty set of display strings.
+		 * @param version the version of the alarm
+		 * @param locale the current locale
+		 * @param is24Hour whether the 24-hour setting is on
+		 */
+		DisplayStrings(int version, @NotNull Locale locale, boolean is24Hour) {
+			this.version = version;
+			this.locale = locale;
+			this.is24Hour = is24Hour;
+		}
+	}
 }
@@ -1,6 +1,9 @@
 package com.larmlarms.data;
 
 import android.content.Context;
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.Log;
 
 import com.larmlarms.BuildConfig;
@@ -10,24 +13,81 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Holds a list of Alarms and can mask Alarms.
  */
-public class AlarmGroup extends Item {
+public class AlarmGroup extends Item implements Parcelable {
 	/**
 	 * Tag of the class for logging purposes.
 	 */
 	private static final String TAG = "AlarmGroup";
 
+	// indices of the stats arrays
 	/**
-	 * Number of fields in a single edit string (don't have one for store strings because they can
-	 * span multiple lines and can have a different number of fields dependent on type)
+	 * Index of the number of alarms within the folder (and all of its subfolders).
 	 */
-	private static final int NUM_EDIT_FIELDS = 3;
+	static final int STAT_TOTAL_ALARMS = 0;
+	/**
+	 * Index of the number of alarms within the folder that will ring (the alarm and all folders
+	 * between it and this one are active). Doesn't take this folder's own state into account.
+	 */
+	static final int STAT_ACTIVE_ALARMS = 1;
+	/**
+	 * Index of the number of snoozed alarms within the folder.
+	 */
+	static final int STAT_SNOOZED_ALARMS = 2;
+	/**
+	 * Index of the number of folders within the folder (not including itself).
+	 */
+	static final int STAT_FOLDERS = 3;
+	/**
+	 * Index of the number of levels of folders within the folder (0 if it has no subfolders).
+	 */
+	static final int STAT_MAX_DEPTH = 4;
+	/**
+	 * The number of stats kept per folder.
+	 */
+	static final int NUM_STATS = 5;
+
+	/**
+	 * Lock for all stats of all folders. Stats are pushed from children to parents, so a single
+	 * lock that never takes any others avoids locking parents while holding children.
+	 */
+	static final Object STATS_LOCK = new Object();
+
+	/**
+	 * What an item that isn't in a folder counts for (nothing).
+	 */
+	private static final int[] NO_STATS = new int[NUM_STATS];
+
+	// types of change events
+	/**
+	 * Change event type for an item inserted at index.
+	 */
+	public static final int CHANGE_INSERTED = 0;
+	/**
+	 * Change event type for an item removed from index.
+	 */
+	public static final int CHANGE_REMOVED = 1;
+	/**
+	 * Change event type for an item moved from index to toIndex.
+	 */
+	public static final int CHANGE_MOVED = 2;
+	/**
+	 * Change event type for an item at index that changed in place.
+	 */
+	public static final int CHANGE_CHANGED = 3;
+	/**
+	 * Change event type for when anything within the folder may have changed (e.g. it was
+	 * re-sorted or replaced wholesale). Index is -1.
+	 */
+	public static final int CHANGE_RESET = 4;
 
 	/**
 	 * Contains the child Alarms and AlarmGroups stored within this folder. Should always be nonnull
@@ -36,6 +96,20 @@ public class AlarmGroup extends Item {
 	@NotNull
 	protected List<Item> items;
 
+	/**
+	 * Stats of everything within the folder, indexed by the STAT_* constants. Kept up to date on
+	 * every change so they never need a walk of the folder. Only touched while holding STATS_LOCK.
+	 */
+	@NotNull
+	private final int[] stats = new int[NUM_STATS];
+
+	/**
+	 * The listeners subscribed to changes within the folder (and its subfolders), or null if there
+	 * are none. Copied on write so events can be sent without locking it.
+	 */
+	@Nullable
+	private volatile List<ChangeListener> listeners;
+
 	// ***********************************  Constructors  ***********************************
 
 	/**
@@ -78,6 +152,15 @@ public class AlarmGroup extends Item {
 		setItems(children);		// validating data
 	}
 
+	/**
+	 * Creates a new empty folder from a parcel (see writeToParcel() for the layout).
+	 * @param in the parcel to read from, cannot be null
+	 */
+	private AlarmGroup(@NotNull Parcel in) {
+		this(in.readString(), new ArrayList<>(), in.readInt());
+		isActive = in.readInt() != 0;
+	}
+
 	/**
 	 * Copy constructor for folders
 	 * @param folder the folder to copy
@@ -150,10 +233,10 @@ public class AlarmGroup extends Item {
 	 * Creates an edit string for the current folder.
 	 * <br/>
 	 * Current edit string format (separated by tabs):
-	 * [id] [name] [isActive] [isOpen]
+	 * [id] [name] [isActive (1 or 0)]
 	 */
 	@NotNull @Override @Contract(pure = true)
-	public String toEditString() { return "" + id + '\t' + name + '\t' + isActive; }
+	public String toEditString() { return "" + id + '\t' + name + '\t' + (isActive ? '1' : '0'); }
 
 	/**
 	 * Creates a string for storing the current folder. Stores folder with type identifier and
@@ -178,6 +261,52 @@ public class AlarmGroup extends Item {
 		return res.toString();
 	}
 
+	/**
+	 * Builds a new snapshot of the folder. Children that haven't changed since their last snapshot
+	 * are shared instead of rebuilt.
+	 */
+	@NotNull @Override
+	ItemSnapshot buildSnapshot() {
+		List<ItemSnapshot> children = new ArrayList<>(items.size());
+		for (Item i : items) children.add(i.getSnapshot());
+		return new ItemSnapshot(this, children);
+	}
+
+	/**
+	 * Counts everything within the folder, plus the folder itself, in the stats of its parent.
+	 * Alarms within it only count as active if the folder is.
+	 */
+	@Override
+	void countStats(@NotNull int[] dest) {
+		dest[STAT_TOTAL_ALARMS] = stats[STAT_TOTAL_ALARMS];
+		dest[STAT_ACTIVE_ALARMS] = isActive ? stats[STAT_ACTIVE_ALARMS] : 0;
+		dest[STAT_SNOOZED_ALARMS] = stats[STAT_SNOOZED_ALARMS];
+		dest[STAT_FOLDERS] = stats[STAT_FOLDERS] + 1;
+		dest[STAT_MAX_DEPTH] = stats[STAT_MAX_DEPTH] + 1;
+	}
+
+	/**
+	 * Replaces what a child counts for in the stats of this folder. Caller should hold STATS_LOCK.
+	 * @param old what the child counted for before (NO_STATS if it was just added)
+	 * @param now what the child counts for now (NO_STATS if it was just removed)
+	 */
+	void replaceChildStats(@NotNull int[] old, @NotNull int[] now) {
+		for (int k = 0; k < STAT_MAX_DEPTH; k++) stats[k] += now[k] - old[k];
+
+		// depth is a max instead of a sum, so it may need to look at the other children
+		if (now[STAT_MAX_DEPTH] > stats[STAT_MAX_DEPTH])
+			stats[STAT_MAX_DEPTH] = now[STAT_MAX_DEPTH];
+		else if (now[STAT_MAX_DEPTH] < old[STAT_MAX_DEPTH] && old[STAT_MAX_DEPTH] == stats[STAT_MAX_DEPTH]) {
+			int depth = 0;
+			for (Item i : items) {
+				// folders are always sorted before alarms
+				if (!(i instanceof AlarmGroup)) break;
+				depth = Math.max(depth, i.counted[STAT_MAX_DEPTH]);
+			}
+			stats[STAT_MAX_DEPTH] = depth;
+		}
+	}
+
 	// ***************************  Getter and Setter Methods  ******************************
 
 	/**
@@ -206,7 +335,233 @@ public class AlarmGroup extends Item {
 		}
 
 		Collections.sort(items);
-		this.items = items;
+		synchronized (STATS_LOCK) {
+			this.items = items;
+			recountStats();
+		}
+		invalidateSnapshot();
+		reportStats();
+		fireChange(CHANGE_RESET, -1, -1);
+	}
+
+	/**
+	 * Gets the number of alarms within the folder and all of its subfolders.
+	 */
+	@Contract(pure = true)
+	public int getTotalAlarms() { return getStat(STAT_TOTAL_ALARMS); }
+
+	/**
+	 * Gets the number of alarms within the folder that will ring, meaning the alarm and all
+	 * folders between it and this one are active. Doesn't take this folder's own state into
+	 * account.
+	 */
+	@Contract(pure = true)
+	public int getActiveAlarms() { return getStat(STAT_ACTIVE_ALARMS); }
+
+	/**
+	 * Gets the number of snoozed alarms within the folder and all of its subfolders.
+	 */
+	@Contract(pure = true)
+	public int getSnoozedAlarms() { return getStat(STAT_SNOOZED_ALARMS); }
+
+	/**
+	 * Gets the number of folders within the folder and all of its subfolders (not including the
+	 * folder itself).
+	 */
+	@Contract(pure = true)
+	public int getDescendantFolders() { return getStat(STAT_FOLDERS); }
+
+	/**
+	 * Gets the number of levels of folders within the folder (0 if there are no subfolders).
+	 */
+	@Contract(pure = true)
+	public int getMaxDepth() { return getStat(STAT_MAX_DEPTH); }
+
+	/**
+	 * Gets one of the stats of the folder.
+	 * @param index the index of the stat, one of the STAT_* constants
+	 */
+	@Contract(pure = true)
+	private int getStat(int index) {
+		synchronized (STATS_LOCK) { return stats[index]; }
+	}
+
+	// ***********************************  Bulk Operations  **********************************
+
+	/**
+	 * Sets the active state of the folder and of everything within it. Visits the subtree once,
+	 * then invalidates snapshots and pushes stats up to the parents once, instead of after every
+	 * item.
+	 * @param active the new active state
+	 */
+	public void setSubtreeActive(boolean active) {
+		setSubtreeActive(active, null);
+		itemChangedByRef(this);
+	}
+
+	/**
+	 * Sets the active state of the folder and of everything within it.
+	 * @param active the new active state
+	 * @param entry records every item that actually changed, can be null
+	 */
+	synchronized void setSubtreeActive(boolean active, @Nullable EditHistory.Entry entry) {
+		applySubtreeActive(active, entry);
+		invalidateSnapshot();
+		reportStats();
+	}
+
+	/**
+	 * Moves the ring time of every alarm within the folder (and its subfolders) by the given number
+	 * of minutes, e.g. for a time zone change. Visits the subtree once, re-sorting each folder on
+	 * the way back up.
+	 * @param minutes the number of minutes to move the alarms by, can be negative
+	 */
+	public void shiftSubtreeTime(int minutes) {
+		shiftSubtreeTime(minutes, null);
+		itemChangedByRef(this);
+	}
+
+	/**
+	 * Moves the ring time of every alarm within the folder by the given number of minutes.
+	 * @param minutes the number of minutes to move the alarms by, can be negative
+	 * @param entry records the shift as a single step, can be null
+	 */
+	synchronized void shiftSubtreeTime(int minutes, @Nullable EditHistory.Entry entry) {
+		if (minutes == 0) return;
+
+		applySubtreeTime(minutes);
+		invalidateSnapshot();
+		if (entry != null) entry.timeShifted(this, minutes);
+	}
+
+	/**
+	 * Sets the ringtone of every alarm within the folder (and its subfolders). Visits the subtree
+	 * once, then invalidates snapshots once.
+	 * @param ringtone the new ringtone, can be null if the ringtone is silent
+	 */
+	public void setSubtreeRingtone(@Nullable Uri ringtone) {
+		setSubtreeRingtone(ringtone, null);
+		itemChangedByRef(this);
+	}
+
+	/**
+	 * Sets the ringtone of every alarm within the folder.
+	 * @param ringtone the new ringtone, can be null if the ringtone is silent
+	 * @param entry records every alarm that actually changed, can be null
+	 */
+	synchronized void setSubtreeRingtone(@Nullable Uri ringtone, @Nullable EditHistory.Entry entry) {
+		applySubtreeRingtone(ringtone, entry);
+		invalidateSnapshot();
+	}
+
+	/**
+	 * Sets the active state of everything within the subtree without touching anything above it.
+	 * Recounts the stats of each folder from its children on the way back up.
+	 * @param active the new active state
+	 * @param entry records every item that actually changed, can be null
+	 */
+	private synchronized void applySubtreeActive(boolean active, @Nullable EditHistory.Entry entry) {
+		boolean old = swapActive(active);
+		if (entry != null && old != active) entry.activeChanged(this, old, active);
+
+		for (Item i : items) {
+			if (i instanceof AlarmGroup) {
+				((AlarmGroup) i).applySubtreeActive(active, entry);
+				continue;
+			}
+			old = i.swapActive(active);
+			if (entry != null && old != active) entry.activeChanged(i, old, active);
+		}
+		synchronized (STATS_LOCK) { recountStats(); }
+		fireChange(CHANGE_RESET, -1, -1);
+	}
+
+	/**
+	 * Moves the ring time of every alarm within the subtree without touching anything above it.
+	 * @param minutes the number of minutes to move the alarms by
+	 */
+	private synchronized void applySubtreeTime(int minutes) {
+		for (Item i : items) {
+			if (i instanceof AlarmGroup) ((AlarmGroup) i).applySubtreeTime(minutes);
+			else ((Alarm) i).shiftTime(minutes);
+		}
+		Collections.sort(items);
+		clearSnapshot();
+		fireChange(CHANGE_RESET, -1, -1);
+	}
+
+	/**
+	 * Sets the ringtone of every alarm within the subtree without touching anything above it.
+	 * @param ringtone the new ringtone
+	 * @param entry records every alarm that actually changed, can be null
+	 */
+	private synchronized void applySubtreeRingtone(@Nullable Uri ringtone,
+												   @Nullable EditHistory.Entry entry) {
+		for (Item i : items) {
+			if (i instanceof AlarmGroup) {
+				((AlarmGroup) i).applySubtreeRingtone(ringtone, entry);
+				continue;
+			}
+			Uri old = ((Alarm) i).swapRingtoneUri(ringtone);
+			if (entry != null && !Objects.equals(old, ringtone))
+				entry.ringtoneChanged((Alarm) i, old, ringtone);
+		}
+		clearSnapshot();
+		fireChange(CHANGE_RESET, -1, -1);
+	}
+
+	/**
+	 * Recounts the stats of the folder from scratch from its direct children, which have to be up
+	 * to date already. Caller should hold STATS_LOCK.
+	 */
+	private void recountStats() {
+		Arrays.fill(stats, 0);
+		for (Item l : items) {
+			l.countStats(l.counted);
+			replaceChildStats(NO_STATS, l.counted);
+		}
+	}
+
+	// *******************************  Parcelable Things  **********************************
+
+	/**
+	 * Creator that creates folders from parcels.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public static final Parcelable.Creator<AlarmGroup> CREATOR =
+		new Parcelable.Creator<AlarmGroup>() {
+			@NotNull @Contract(pure = true)
+			public AlarmGroup createFromParcel(@NotNull Parcel in) {
+				return new AlarmGroup(in);
+			}
+			@NotNull @Contract(pure = true)
+			public AlarmGroup[] newArray(int size) {
+				return new AlarmGroup[size];
+			}
+		};
+
+	/**
+	 * Describes the contents of the object.
+	 * @return always returns 0 (no file descriptors in the object)
+	 */
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	/**
+	 * Writes the folder to the given parcel. Like edit strings, only the folder itself is written,
+	 * not its contents.
+	 * <br/>
+	 * Current layout: [name] [id] [active]
+	 * @param dest the parcel to write to, shouldn't be null
+	 * @param flags any flags to use
+	 */
+	@Override
+	public synchronized void writeToParcel(@NotNull Parcel dest, int flags) {
+		dest.writeString(name);
+		dest.writeInt(id);
+		dest.writeInt(isActive ? 1 : 0);
 	}
 
 	// ************************************  Static Methods  **********************************
@@ -225,22 +580,34 @@ public class AlarmGroup extends Item {
 			return null;
 		}
 
-		String[] fields = src.split("\t");
-		if (fields.length != NUM_EDIT_FIELDS) {
-			if (BuildConfig.DEBUG) Log.e(TAG, "Edit string didn't have a correct number of fields.");
-			return null;
-		}
+		return fromEditString(src, 0);
+	}
 
-		AlarmGroup dest;
-		try {
-			dest = new AlarmGroup(fields[1], new ArrayList<>(), Integer.parseInt(fields[0]));
-		}
-		catch (NumberFormatException e) {
-			if (BuildConfig.DEBUG) Log.e(TAG, "Edit string has an invalid id.");
+	/**
+	 * Reads a folder from the edit string starting at the given index, scanning it in place. Also
+	 * reads the older format, where the active state is written as true/false.
+	 * @param src the string holding the edit string, cannot be null
+	 * @param start the index the edit string starts at
+	 * @return the new folder, or null if the edit string is formatted incorrectly
+	 */
+	@Nullable @Contract(pure = true)
+	private static AlarmGroup fromEditString(@NotNull CharSequence src, int start) {
+		EditCursor c = new EditCursor(src, start);
+		int id = c.nextInt('\t');
+		String name = c.nextString('\t');
+
+		boolean active;
+		char first = c.peek();
+		if (first == 't' || first == 'f') active = "true".equals(c.nextString('\t'));
+		else active = c.nextBoolean('\t');
+
+		if (c.failed() || !c.atEnd()) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Edit string was formatted incorrectly.");
 			return null;
 		}
-		dest.setActive(Boolean.parseBoolean(fields[2]));
 
+		AlarmGroup dest = new AlarmGroup(name, new ArrayList<>(), id);
+		dest.isActive = active;
 		return dest;
 	}
 
@@ -267,7 +634,7 @@ public class AlarmGroup extends Item {
 			return null;
 		}
 
-		AlarmGroup dest = fromEditString(lines[0].substring(2));
+		AlarmGroup dest = fromEditString(lines[0], 2);
 		if (dest == null) {
 			if (BuildConfig.DEBUG) Log.e(TAG, "Store string has an invalid first line.");
 			return null;
@@ -472,7 +839,16 @@ public class AlarmGroup extends Item {
 		}
 
 		item.setParent(this);
-		items.add(AlarmGroup.insertIndex(items, item), item);
+		int index = AlarmGroup.insertIndex(items, item);
+		synchronized (STATS_LOCK) {
+			items.add(index, item);
+			item.countStats(item.counted);
+			replaceChildStats(NO_STATS, item.counted);
+		}
+		// also clears any stale snapshot the item brought along with it
+		item.invalidateSnapshot();
+		reportStats();
+		fireChange(CHANGE_INSERTED, index, -1);
 	}
 
 	/**
@@ -485,15 +861,52 @@ public class AlarmGroup extends Item {
 			return;
 		}
 
-		items.remove(index);
+		synchronized (STATS_LOCK) {
+			Item i = items.remove(index);
+			i.parent = null;
+			replaceChildStats(i.counted, NO_STATS);
+		}
+		invalidateSnapshot();
+		reportStats();
+		fireChange(CHANGE_REMOVED, index, -1);
+	}
+
+	/**
+	 * Deletes the item described by the given info.
+	 * @param info the info of the item to delete (item should at least have the right id, path
+	 *             isn't necessary, but helps search)
+	 */
+	public synchronized void deleteItem(@Nullable final ItemInfo info) {
+		if (info == null || info.item == null) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "deleteItem: The item info was null.");
+			return;
+		}
+
+		// if it happens to be a ref to the actual item, then we don't need to search for it
+		if (info.item.getParent() != null) deleteItemByRef(info.item);
+		else deleteItemById(info.path, info.item.getId());
 	}
 
 	/**
 	 * Deletes the specified item via its parent reference.
 	 * @param i the item to delete
 	 */
-	private static synchronized void deleteItemByRef(@Nullable final Item i) {
-		if (i != null && i.parent != null) i.parent.items.remove(i);
+	static synchronized void deleteItemByRef(@Nullable final Item i) {
+		if (i != null && i.parent != null) {
+			AlarmGroup parent = i.parent;
+			int index;
+			synchronized (STATS_LOCK) {
+				index = indexOfRef(parent.items, i);
+				if (index != -1) {
+					parent.items.remove(index);
+					parent.replaceChildStats(i.counted, NO_STATS);
+				}
+				i.parent = null;
+			}
+			parent.invalidateSnapshot();
+			parent.reportStats();
+			if (index != -1) parent.fireChange(CHANGE_REMOVED, index, -1);
+		}
 		else if (BuildConfig.DEBUG) Log.e(TAG, "deleteItemByRef: The item or parent was null.");
 	}
 
@@ -531,6 +944,87 @@ public class AlarmGroup extends Item {
 		addItem(itemInfo);
 	}
 
+	/**
+	 * Gets the index of the given item within the folder.
+	 * @param item the item to look for
+	 * @return the index of the item, or -1 if it isn't directly within this folder
+	 */
+	@Contract(pure = true)
+	public synchronized int indexOf(@Nullable final Item item) { return indexOfRef(items, item); }
+
+	/**
+	 * Tells the folder that one of its items changed in place. Moves the item if it isn't in
+	 * sorted order anymore (e.g. its ring time changed), then sends the change events.
+	 * @param item the item that changed
+	 */
+	synchronized void itemChanged(@NotNull final Item item) {
+		int index = indexOfRef(items, item);
+		if (index == -1) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "itemChanged: The item isn't within this folder.");
+			return;
+		}
+
+		synchronized (STATS_LOCK) { items.remove(index); }
+		int newIndex = AlarmGroup.insertIndex(items, item);
+		synchronized (STATS_LOCK) { items.add(newIndex, item); }
+		if (newIndex != index) {
+			invalidateSnapshot();
+			fireChange(CHANGE_MOVED, index, newIndex);
+		}
+		fireChange(CHANGE_CHANGED, newIndex, -1);
+	}
+
+	/**
+	 * Tells the parent of the given item that it changed in place (see itemChanged()). Shouldn't
+	 * be called while holding the lock of the item, since it takes the lock of the parent.
+	 * @param i the item that changed
+	 */
+	static void itemChangedByRef(@Nullable final Item i) {
+		AlarmGroup parent = i == null ? null : i.getParent();
+		if (parent != null) parent.itemChanged(i);
+	}
+
+	// ************************************  Change Events  *************************************
+
+	/**
+	 * Subscribes a listener to changes within the folder and all of its subfolders.
+	 * @param l the listener to add
+	 */
+	public synchronized void addChangeListener(@NotNull ChangeListener l) {
+		List<ChangeListener> curr = listeners;
+		List<ChangeListener> copy = curr == null ? new ArrayList<>(1) : new ArrayList<>(curr);
+		copy.add(l);
+		listeners = copy;
+	}
+
+	/**
+	 * Unsubscribes a listener from the folder. Does nothing if it wasn't subscribed.
+	 * @param l the listener to remove
+	 */
+	public synchronized void removeChangeListener(@NotNull ChangeListener l) {
+		List<ChangeListener> curr = listeners;
+		if (curr == null || !curr.contains(l)) return;
+
+		List<ChangeListener> copy = new ArrayList<>(curr);
+		copy.remove(l);
+		listeners = copy.isEmpty() ? null : copy;
+	}
+
+	/**
+	 * Sends a change event about the direct children of this folder to the listeners of this
+	 * folder and of every folder above it. Doesn't take any locks, like invalidateSnapshot().
+	 * @param type the type of change, one of the CHANGE_* constants
+	 * @param index the index of the item that changed, or -1 for CHANGE_RESET
+	 * @param toIndex the new index of the item for CHANGE_MOVED, -1 otherwise
+	 */
+	void fireChange(int type, int index, int toIndex) {
+		for (AlarmGroup f = this; f != null; f = f.parent) {
+			List<ChangeListener> curr = f.listeners;
+			if (curr == null) continue;
+			for (ChangeListener l : curr) l.onItemsChanged(this, type, index, toIndex);
+		}
+	}
+
 	// ***********************************  Other Methods  **************************************
 
 	/**
@@ -608,4 +1102,34 @@ public class AlarmGroup extends Item {
 		// this is the usual case (we don't usually find l)
 		return left;
 	}
+
+	/**
+	 * Finds the index of the given item by reference (not with equals(), since two different
+	 * items can be equal).
+	 * @param items the list to search
+	 * @param item the item to look for
+	 * @return the index of the item, or -1 if it isn't within the list
+	 */
+	@Contract(pure = true)
+	private static int indexOfRef(@NotNull final List<Item> items, @Nullable final Item item) {
+		for (int i = 0; i < items.size(); i++) if (items.get(i) == item) return i;
+		return -1;
+	}
+
+	// ***********************************  Inner Classes  *************************************
+
+	/**
+	 * Listens for changes to the direct children of a folder (or any of its subfolders).
+	 */
+	public interface ChangeListener {
+		/**
+		 * Called right after the items of a folder changed, on whichever thread changed them and
+		 * while the folder is still locked. Shouldn't change the tree or wait on other threads.
+		 * @param folder the folder whose items changed (may be a subfolder of the one subscribed to)
+		 * @param type the type of change, one of the CHANGE_* constants
+		 * @param index the index of the item that changed, or -1 for CHANGE_RESET
+		 * @param toIndex the new index of the item for CHANGE_MOVED, -1 otherwise
+		 */
+		void onItemsChanged(@NotNull AlarmGroup folder, int type, int index, int toIndex);
+	}
 }
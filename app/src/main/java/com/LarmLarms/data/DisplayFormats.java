@@ -0,0 +1,332 @@
+package com.larmlarms.data;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.text.format.DateFormat;
+
+import com.larmlarms.R;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.text.DateFormatSymbols;
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Process-wide cache of everything the display code needs to format alarms: day and month names,
+ * separators, ordinals, and date/time formatters. Built once per locale (and 24-hour setting) with
+ * get() and shared by everything until the configuration changes, so displaying an alarm doesn't
+ * have to look up resources or make new DateFormatSymbols every time.
+ */
+public final class DisplayFormats {
+	/**
+	 * Bitmask (bit i is repeatDays[i]) for repeating on every day of the week.
+	 */
+	private static final int DAYS_EVERY_DAY = 0b1111111;
+	/**
+	 * Bitmask (bit i is repeatDays[i]) for repeating on Monday through Friday.
+	 */
+	private static final int DAYS_WEEKDAYS = 0b0111110;
+	/**
+	 * Bitmask (bit i is repeatDays[i]) for repeating on Saturday and Sunday.
+	 */
+	private static final int DAYS_WEEKENDS = 0b1000001;
+
+	/**
+	 * The current instance, or null if it hasn't been built yet (or was thrown away).
+	 */
+	@Nullable
+	private static volatile DisplayFormats instance;
+
+	// ************************************  Instance Fields  ***********************************
+
+	/**
+	 * The locale the formats were built for.
+	 */
+	@NotNull
+	private final Locale locale;
+	/**
+	 * Whether the formats were built with the 24-hour setting on.
+	 */
+	private final boolean is24Hour;
+
+	/**
+	 * Full weekday names, indexed by Calendar day constants (index 0 is empty).
+	 */
+	@NotNull
+	final String[] weekdays;
+	/**
+	 * Short weekday names, indexed by Calendar day constants (index 0 is empty).
+	 */
+	@NotNull
+	final String[] shortWeekdays;
+	/**
+	 * Short month names, indexed by Calendar month constants.
+	 */
+	@NotNull
+	final String[] shortMonths;
+
+	/**
+	 * The separator between items in a list (string resource separator).
+	 */
+	@NotNull
+	final String separator;
+	/**
+	 * The separator before the last item in a list (string resource final_separator).
+	 */
+	@NotNull
+	final String finalSeparator;
+
+	/**
+	 * Date ordinals (string array alarm_ordinals).
+	 */
+	@NotNull
+	final String[] ordinals;
+	/**
+	 * Week ordinals (string array alarm_week_ordinals).
+	 */
+	@NotNull
+	final String[] weekOrdinals;
+
+	/**
+	 * Format string for weekly repeats (string resource alarm_weekly).
+	 */
+	@NotNull
+	private final String weeklyFormat;
+	/**
+	 * Format string for months to repeat on (string resource alarm_monthly).
+	 */
+	@NotNull
+	private final String monthlyFormat;
+	/**
+	 * Format string for months not to repeat on (string resource alarm_monthly_exception).
+	 */
+	@NotNull
+	private final String monthlyExceptionFormat;
+
+	/**
+	 * Display string for when nothing repeats (string resource alarm_no_repeats_string).
+	 */
+	@NotNull
+	final String noRepeats;
+	/**
+	 * Display strings for special sets of months, in the order none, all, even, odd.
+	 */
+	@NotNull
+	private final String[] specialMonths;
+
+	/**
+	 * The weekly display strings that have already been built, indexed by the bitmask of days.
+	 * The common ones (every day, weekdays, weekends, none) are filled in up front.
+	 */
+	@NotNull
+	private final String[] weeklyStrings = new String[1 << 7];
+
+	/**
+	 * Short date formatter. Not thread safe, so only used while holding its lock.
+	 */
+	@NotNull
+	private final java.text.DateFormat dateFormat;
+	/**
+	 * Medium date formatter. Not thread safe, so only used while holding its lock.
+	 */
+	@NotNull
+	private final java.text.DateFormat mediumDateFormat;
+	/**
+	 * Time formatter, following the 24-hour setting. Not thread safe, so only used while holding
+	 * its lock.
+	 */
+	@NotNull
+	private final java.text.DateFormat timeFormat;
+
+	// *************************************  Constructors  *************************************
+
+	/**
+	 * Builds all formats for the current configuration of the given context.
+	 * @param context the context to get resources from, cannot be null
+	 * @param locale the locale of the configuration
+	 * @param is24Hour whether the 24-hour setting is on
+	 */
+	private DisplayFormats(@NotNull Context context, @NotNull Locale locale, boolean is24Hour) {
+		this.locale = locale;
+		this.is24Hour = is24Hour;
+		Resources res = context.getResources();
+
+		DateFormatSymbols symbols = new DateFormatSymbols(locale);
+		weekdays = symbols.getWeekdays();
+		shortWeekdays = symbols.getShortWeekdays();
+		shortMonths = symbols.getShortMonths();
+
+		separator = res.getString(R.string.separator);
+		finalSeparator = res.getString(R.string.final_separator);
+		ordinals = res.getStringArray(R.array.alarm_ordinals);
+		weekOrdinals = res.getStringArray(R.array.alarm_week_ordinals);
+
+		weeklyFormat = res.getString(R.string.alarm_weekly);
+		monthlyFormat = res.getString(R.string.alarm_monthly);
+		monthlyExceptionFormat = res.getString(R.string.alarm_monthly_exception);
+
+		noRepeats = res.getString(R.string.alarm_no_repeats_string);
+		specialMonths = new String[] {
+				res.getString(R.string.alarm_no_months), res.getString(R.string.alarm_all_months),
+				res.getString(R.string.alarm_even_months), res.getString(R.string.alarm_odd_months)
+		};
+
+		weeklyStrings[0] = noRepeats;
+		weeklyStrings[DAYS_EVERY_DAY] = res.getString(R.string.alarm_weekly_everyday);
+		weeklyStrings[DAYS_WEEKDAYS] = res.getString(R.string.alarm_weekly_weekdays);
+		weeklyStrings[DAYS_WEEKENDS] = res.getString(R.string.alarm_weekly_weekends);
+
+		dateFormat = DateFormat.getDateFormat(context);
+		mediumDateFormat = DateFormat.getMediumDateFormat(context);
+		timeFormat = DateFormat.getTimeFormat(context);
+	}
+
+	// ************************************  Static Methods  ************************************
+
+	/**
+	 * Returns the formats for the current configuration, rebuilding them if the locale or the
+	 * 24-hour setting changed since they were last built.
+	 * @param context the context to get resources from, cannot be null
+	 * @return the formats, will not be null
+	 */
+	@NotNull
+	public static DisplayFormats get(@NotNull Context context) {
+		Locale locale = context.getResources().getConfiguration().locale;
+		boolean is24Hour = DateFormat.is24HourFormat(context);
+
+		DisplayFormats f = instance;
+		if (f == null || f.is24Hour != is24Hour || !f.locale.equals(locale)) {
+			f = new DisplayFormats(context.getApplicationContext(), locale, is24Hour);
+			instance = f;
+		}
+		return f;
+	}
+
+	/**
+	 * Throws away the current formats, so the next call to get() rebuilds them. Should be called
+	 * whenever the configuration changes, since resources can change without the locale changing.
+	 */
+	public static void reset() { instance = null; }
+
+	// *************************************  Formatting  ***************************************
+
+	/**
+	 * Formats the given time as a short date.
+	 * @param millis the time to format, in millis
+	 * @return the formatted date, will not be null
+	 */
+	@NotNull
+	public String formatDate(long millis) {
+		synchronized (dateFormat) { return dateFormat.format(millis); }
+	}
+
+	/**
+	 * Formats the given time as a medium date.
+	 * @param millis the time to format, in millis
+	 * @return the formatted date, will not be null
+	 */
+	@NotNull
+	public String formatMediumDate(long millis) {
+		synchronized (mediumDateFormat) { return mediumDateFormat.format(millis); }
+	}
+
+	/**
+	 * Formats the given time as a time of day, following the 24-hour setting.
+	 * @param millis the time to format, in millis
+	 * @return the formatted time, will not be null
+	 */
+	@NotNull
+	public String formatTime(long millis) {
+		synchronized (timeFormat) { return timeFormat.format(millis); }
+	}
+
+	/**
+	 * Returns the weekly display string for the given days, like "Weekly on Mon and Tue" or one of
+	 * the special cases (every day, weekdays, weekends, or none). Each set of days is only built
+	 * once.
+	 * @param days the days to repeat on, indexed by Calendar day constants - 1
+	 * @return the display string, will not be null
+	 */
+	@NotNull
+	String weeklyString(@NotNull boolean[] days) {
+		int mask = 0;
+		for (int i = 0; i < days.length; i++) if (days[i]) mask |= 1 << i;
+
+		// strings are immutable, so racing to build the same one is harmless
+		String s = weeklyStrings[mask];
+		if (s == null) {
+			StringBuilder list = new StringBuilder();
+			int last = 31 - Integer.numberOfLeadingZeros(mask);
+			for (int i = 0; i <= last; i++) {
+				if ((mask & (1 << i)) == 0) continue;
+				if (list.length() != 0) list.append(i == last ? finalSeparator : separator);
+				list.append(shortWeekdays[i + Calendar.SUNDAY]);
+			}
+			s = String.format(weeklyFormat, list);
+			weeklyStrings[mask] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * Returns the display string for the months to repeat on, like "Every Jan and Feb" or one of
+	 * the special cases (no months, every month, even months, or odd months).
+	 * @param months the months to repeat on, indexed by Calendar month constants
+	 * @return the display string, will not be null
+	 */
+	@NotNull
+	String monthsString(@NotNull boolean[] months) {
+		int numMonths = 0;
+		boolean evenFlag = true, oddFlag = true;
+		for (int i = 0; i < months.length; i++) {
+			// have to flip the equals because months[0] represents January (1)
+			evenFlag &= (i % 2 != 0) == months[i];
+			oddFlag &= (i % 2 == 0) == months[i];
+			if (months[i]) numMonths++;
+		}
+
+		if (numMonths == 0) return specialMonths[0];
+		if (numMonths == months.length) return specialMonths[1];
+		if (evenFlag) return specialMonths[2];
+		if (oddFlag) return specialMonths[3];
+
+		return String.format(monthlyFormat, listMonths(months, true, numMonths));
+	}
+
+	/**
+	 * Returns the display string for the months not to repeat on, like ", except Jan and Feb".
+	 * @param months the months to repeat on, indexed by Calendar month constants
+	 * @return the display string, or empty string if it repeats on every month
+	 */
+	@NotNull
+	String exceptionMonthsString(@NotNull boolean[] months) {
+		int numMonths = 0;
+		for (boolean m : months) if (!m) numMonths++;
+
+		if (numMonths == 0) return "";
+		return String.format(monthlyExceptionFormat, listMonths(months, false, numMonths));
+	}
+
+	/**
+	 * Lists the short names of the months with the given state, separated by separators.
+	 * @param months the months to list from, indexed by Calendar month constants
+	 * @param state the state of the months to list
+	 * @param count the number of months with that state
+	 * @return the list, will not be null
+	 */
+	@NotNull @Contract(pure = true)
+	private String listMonths(@NotNull boolean[] months, boolean state, int count) {
+		StringBuilder list = new StringBuilder();
+		int listed = 0;
+		for (int i = 0; i < months.length; i++) {
+			if (months[i] != state) continue;
+			if (listed != 0) list.append(listed == count - 1 ? finalSeparator : separator);
+			list.append(shortMonths[i]);
+			listed++;
+		}
+		return list.toString();
+	}
+}
@@ -0,0 +1,200 @@
+package com.larmlarms.data;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads the fields of an edit string in place. Numbers and booleans are parsed straight from the
+ * characters, without splitting the string or making substrings, so only text fields (names and
+ * URIs) allocate anything. Every read expects the field to end with the given separator (or the
+ * end of the string). Instead of throwing, a malformed field marks the cursor as failed, and every
+ * read after that returns a dummy value; callers should check failed() once they're done.
+ */
+final class EditCursor {
+	/**
+	 * The string being read.
+	 */
+	@NotNull
+	private final CharSequence src;
+
+	/**
+	 * The index of the next character to read.
+	 */
+	private int pos;
+
+	/**
+	 * Whether a malformed field has been read.
+	 */
+	private boolean failed;
+
+	/**
+	 * The separator at the end of the last field read, or 0 if it ended with the end of the string.
+	 */
+	private char lastSep;
+
+	/**
+	 * Creates a new cursor at the given index of the string.
+	 * @param src the string to read
+	 * @param start the index to start reading at
+	 */
+	EditCursor(@NotNull CharSequence src, int start) {
+		this.src = src;
+		pos = start;
+	}
+
+	/**
+	 * Returns whether a malformed field has been read.
+	 */
+	@Contract(pure = true)
+	boolean failed() { return failed; }
+
+	/**
+	 * Returns whether the whole string has been read.
+	 */
+	@Contract(pure = true)
+	boolean atEnd() { return pos >= src.length(); }
+
+	/**
+	 * Returns the next character without reading it, or 0 if at the end.
+	 */
+	@Contract(pure = true)
+	char peek() { return pos < src.length() ? src.charAt(pos) : 0; }
+
+	/**
+	 * Returns the separator the last field read ended with, or 0 if it ended with the end of the
+	 * string. Useful for fields that can end with either of two separators.
+	 */
+	@Contract(pure = true)
+	char lastSeparator() { return lastSep; }
+
+	/**
+	 * Reads a (possibly negative) decimal int.
+	 * @param sep the character the field should end with
+	 * @return the int, or 0 if the field was malformed
+	 */
+	int nextInt(char sep) { return nextInt(sep, sep); }
+
+	/**
+	 * Reads a (possibly negative) decimal int that can end with either of two separators.
+	 * @param sep one of the characters the field can end with
+	 * @param altSep the other character the field can end with
+	 * @return the int, or 0 if the field was malformed
+	 */
+	int nextInt(char sep, char altSep) {
+		long l = nextLong(sep, altSep);
+		if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE) return fail();
+		return (int) l;
+	}
+
+	/**
+	 * Reads a (possibly negative) decimal long.
+	 * @param sep the character the field should end with
+	 * @return the long, or 0 if the field was malformed
+	 */
+	long nextLong(char sep) { return nextLong(sep, sep); }
+
+	/**
+	 * Reads a (possibly negative) decimal long that can end with either of two separators.
+	 * @param sep one of the characters the field can end with
+	 * @param altSep the other character the field can end with
+	 * @return the long, or 0 if the field was malformed
+	 */
+	private long nextLong(char sep, char altSep) {
+		if (failed) return 0;
+
+		boolean negative = peek() == '-';
+		if (negative) pos++;
+
+		int start = pos;
+		long res = 0;
+		while (pos < src.length()) {
+			char c = src.charAt(pos);
+			if (c < '0' || c > '9') break;
+			// 18 digits always fit in a long, and ids and times never need more
+			if (pos - start >= 18) return fail();
+			res = res*10 + (c - '0');
+			pos++;
+		}
+		if (pos == start || !endField(sep, altSep)) return fail();
+		return negative ? -res : res;
+	}
+
+	/**
+	 * Reads a boolean written as a single digit (1 or 0).
+	 * @param sep the character the field should end with
+	 * @return the boolean, or false if the field was malformed
+	 */
+	boolean nextBoolean(char sep) {
+		if (failed) return false;
+
+		char c = peek();
+		if (c != '0' && c != '1') return fail() != 0;
+		pos++;
+		if (!endField(sep, sep)) return fail() != 0;
+		return c == '1';
+	}
+
+	/**
+	 * Reads flags written as one digit (1 or 0) per flag, with nothing in between.
+	 * @param dest where to put the flags, its length is the number of digits expected
+	 * @param sep the character the field should end with
+	 */
+	void nextFlags(@NotNull boolean[] dest, char sep) {
+		if (failed) return;
+
+		for (int i = 0; i < dest.length; i++) {
+			char c = peek();
+			if (c != '0' && c != '1') {
+				fail();
+				return;
+			}
+			dest[i] = c == '1';
+			pos++;
+		}
+		if (!endField(sep, sep)) fail();
+	}
+
+	/**
+	 * Reads a text field. This is the only read that allocates.
+	 * @param sep the character the field should end with
+	 * @return the text (may be empty), or null if the cursor already failed
+	 */
+	@Nullable
+	String nextString(char sep) {
+		if (failed) return null;
+
+		int start = pos;
+		while (pos < src.length() && src.charAt(pos) != sep) pos++;
+		String res = src.subSequence(start, pos).toString();
+		if (pos < src.length()) pos++;
+		return res;
+	}
+
+	/**
+	 * Skips past the separator at the end of a field.
+	 * @param sep one of the separators the field can end with
+	 * @param altSep the other separator the field can end with
+	 * @return whether the field ended properly (with a separator or the end of the string)
+	 */
+	private boolean endField(char sep, char altSep) {
+		if (pos >= src.length()) {
+			lastSep = 0;
+			return true;
+		}
+		char c = src.charAt(pos);
+		if (c != sep && c != altSep) return false;
+		lastSep = c;
+		pos++;
+		return true;
+	}
+
+	/**
+	 * Marks the cursor as failed.
+	 * @return always 0, for convenience
+	 */
+	private int fail() {
+		failed = true;
+		return 0;
+	}
+}
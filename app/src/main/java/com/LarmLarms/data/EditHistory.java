@@ -0,0 +1,243 @@
+package com.larmlarms.data;
+
+import android.net.Uri;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Undo/redo history for the root folder. Each entry holds the steps needed to redo and undo one
+ * committed transaction. Steps keep references to the items they move around instead of copies,
+ * so undoing the delete of a huge folder just reattaches the same folder object. The history is
+ * capped by an estimate of the memory it keeps alive rather than by a number of entries. Only
+ * entries are seen outside of the package, as handles to what a commit recorded.
+ */
+public final class EditHistory {
+	/**
+	 * Rough estimate of the memory a single item kept alive by the history uses (alarms hold a
+	 * calendar, a couple of arrays, a URI and their strings).
+	 */
+	private static final int ITEM_BYTES = 512;
+
+	/**
+	 * Rough estimate of the memory a single step uses by itself.
+	 */
+	private static final int STEP_BYTES = 48;
+
+	/**
+	 * The default memory budget of a history.
+	 */
+	static final long DEFAULT_BUDGET_BYTES = 1 << 20;
+
+	/**
+	 * Entries that can be undone, most recent first.
+	 */
+	@NotNull
+	private final ArrayDeque<Entry> undoStack = new ArrayDeque<>();
+
+	/**
+	 * Entries that can be redone, most recently undone first.
+	 */
+	@NotNull
+	private final ArrayDeque<Entry> redoStack = new ArrayDeque<>();
+
+	/**
+	 * The maximum number of bytes the history should keep alive.
+	 */
+	private final long budget;
+
+	/**
+	 * The estimated number of bytes all entries (undo and redo) keep alive.
+	 */
+	private long usedBytes;
+
+	/**
+	 * Creates a new empty history.
+	 * @param budget the maximum number of bytes the history should keep alive
+	 */
+	EditHistory(long budget) { this.budget = budget; }
+
+	/**
+	 * Adds a newly committed entry. Clears the redo stack, then drops the oldest entries until the
+	 * history fits in its budget again. The newest entry is always kept, even if it's over budget
+	 * by itself, so that the last action can always be undone.
+	 * @param e the entry to add, ignored if it's empty
+	 */
+	void push(@NotNull Entry e) {
+		if (e.isEmpty()) return;
+
+		for (Entry r : redoStack) usedBytes -= r.bytes;
+		redoStack.clear();
+
+		undoStack.push(e);
+		usedBytes += e.bytes;
+		while (usedBytes > budget && undoStack.size() > 1) usedBytes -= undoStack.removeLast().bytes;
+	}
+
+	/**
+	 * Gets the most recent entry to undo, without undoing it.
+	 * @return the entry, or null if there's nothing to undo
+	 */
+	@Nullable @Contract(pure = true)
+	Entry peekUndo() { return undoStack.peek(); }
+
+	/**
+	 * Takes the most recent entry to undo and moves it to the redo stack.
+	 * @return the entry to undo, or null if there's nothing to undo
+	 */
+	@Nullable
+	Entry popUndo() {
+		Entry e = undoStack.poll();
+		if (e != null) redoStack.push(e);
+		return e;
+	}
+
+	/**
+	 * Takes the most recently undone entry and moves it back to the undo stack.
+	 * @return the entry to redo, or null if there's nothing to redo
+	 */
+	@Nullable
+	Entry popRedo() {
+		Entry e = redoStack.poll();
+		if (e != null) undoStack.push(e);
+		return e;
+	}
+
+	/**
+	 * Returns whether there is anything to undo.
+	 */
+	@Contract(pure = true)
+	boolean canUndo() { return !undoStack.isEmpty(); }
+
+	/**
+	 * Returns whether there is anything to redo.
+	 */
+	@Contract(pure = true)
+	boolean canRedo() { return !redoStack.isEmpty(); }
+
+	/**
+	 * The steps of a single committed transaction.
+	 */
+	public static final class Entry {
+		/**
+		 * Steps that redo the transaction, in the order they should be run.
+		 */
+		@NotNull
+		final List<Runnable> redo = new ArrayList<>();
+
+		/**
+		 * Steps that undo the transaction, in the order they were recorded (run them in reverse).
+		 */
+		@NotNull
+		final List<Runnable> undo = new ArrayList<>();
+
+		/**
+		 * The estimated number of bytes the entry keeps alive.
+		 */
+		long bytes;
+
+		/**
+		 * Records that an item was attached to a folder.
+		 * @param item the item that was attached
+		 * @param folder the folder it was attached to
+		 */
+		void attached(@NotNull final Item item, @NotNull final AlarmGroup folder) {
+			redo.add(() -> folder.addItem(item));
+			undo.add(() -> AlarmGroup.deleteItemByRef(item));
+			bytes += 2*STEP_BYTES;
+		}
+
+		/**
+		 * Records that an item was removed from a folder. The item (and everything within it) is
+		 * kept alive by the entry, so it counts against the budget.
+		 * @param item the item that was removed
+		 * @param folder the folder it was removed from
+		 */
+		void detached(@NotNull final Item item, @NotNull final AlarmGroup folder) {
+			redo.add(() -> AlarmGroup.deleteItemByRef(item));
+			undo.add(() -> folder.addItem(item));
+			bytes += 2*STEP_BYTES + (long) ITEM_BYTES*countItems(item);
+		}
+
+		/**
+		 * Records that the active state of an item changed. Replayed without the side effects of
+		 * Item.setActive() (alarms unsnooze when set), so undoing doesn't drop any snoozes.
+		 * @param item the item that changed
+		 * @param oldState the active state before the change
+		 * @param newState the active state after the change
+		 */
+		void activeChanged(@NotNull final Item item, final boolean oldState, final boolean newState) {
+			redo.add(() -> restoreActive(item, newState));
+			undo.add(() -> restoreActive(item, oldState));
+			bytes += 2*STEP_BYTES;
+		}
+
+		/**
+		 * Records that the ring times of every alarm within a folder were moved. Recorded as a
+		 * single step, since shifting back by the same amount undoes it.
+		 * @param folder the folder whose alarms were moved
+		 * @param minutes the number of minutes they were moved by
+		 */
+		void timeShifted(@NotNull final AlarmGroup folder, final int minutes) {
+			redo.add(() -> folder.shiftSubtreeTime(minutes));
+			undo.add(() -> folder.shiftSubtreeTime(-minutes));
+			bytes += 2*STEP_BYTES;
+		}
+
+		/**
+		 * Records that the ringtone of an alarm changed.
+		 * @param alarm the alarm that changed
+		 * @param oldRingtone the ringtone before the change
+		 * @param newRingtone the ringtone after the change
+		 */
+		void ringtoneChanged(@NotNull final Alarm alarm, @Nullable final Uri oldRingtone,
+							 @Nullable final Uri newRingtone) {
+			redo.add(() -> {
+				alarm.setRingtoneUri(newRingtone);
+				AlarmGroup.itemChangedByRef(alarm);
+			});
+			undo.add(() -> {
+				alarm.setRingtoneUri(oldRingtone);
+				AlarmGroup.itemChangedByRef(alarm);
+			});
+			bytes += 2*STEP_BYTES;
+		}
+
+		/**
+		 * Returns whether the entry has no steps.
+		 */
+		@Contract(pure = true)
+		boolean isEmpty() { return redo.isEmpty(); }
+
+		/**
+		 * Sets just the active state of an item, then fixes up the snapshots and stats of its
+		 * parents and moves it to its sorted place.
+		 * @param item the item to change
+		 * @param active the active state to set
+		 */
+		private static void restoreActive(@NotNull Item item, boolean active) {
+			item.swapActive(active);
+			item.invalidateSnapshot();
+			item.reportStats();
+			AlarmGroup.itemChangedByRef(item);
+		}
+
+		/**
+		 * Counts the items within the given item, including itself.
+		 * @param item the item to count
+		 * @return the number of items, always at least 1
+		 */
+		@Contract(pure = true)
+		private static int countItems(@NotNull Item item) {
+			if (!(item instanceof AlarmGroup)) return 1;
+
+			AlarmGroup folder = (AlarmGroup) item;
+			return 1 + folder.getTotalAlarms() + folder.getDescendantFolders();
+		}
+	}
+}
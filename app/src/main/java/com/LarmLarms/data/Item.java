@@ -8,6 +8,8 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Arrays;
+
 /**
  * Class allowing the RecyclerViewAdapter to access specific parts of either Alarms or AlarmGroups.
  * Using isAlarm(), it can also discriminate between Alarms and AlarmGroups. This is meant mostly
@@ -44,6 +46,27 @@ public abstract class Item implements Comparable<Item> {
 	@Nullable
 	protected AlarmGroup parent;
 
+	/**
+	 * The cached snapshot of the item, or null if the item changed since the last one was built.
+	 * Volatile so that invalidateSnapshot() can clear it without taking the lock.
+	 */
+	@Nullable
+	private volatile ItemSnapshot snapshot;
+
+	/**
+	 * Bumped every time the item or anything within it changes (whenever its snapshot is thrown
+	 * away), so that anything derived from the item can tell whether it's still current. Bumped
+	 * without the lock of the item when something within it changes (see invalidateSnapshot()).
+	 */
+	private volatile int version;
+
+	/**
+	 * What this item last added to the stats of its parent, indexed by the AlarmGroup.STAT_*
+	 * constants. Only touched while holding AlarmGroup.STATS_LOCK.
+	 */
+	@NotNull
+	final int[] counted = new int[AlarmGroup.NUM_STATS];
+
 	// *************************************  Constructors  *************************************
 
 	/**
@@ -104,6 +127,7 @@ public abstract class Item implements Comparable<Item> {
 		}
 
 		name = newName;
+		invalidateSnapshot();
 		return 0;
 	}
 
@@ -117,22 +141,38 @@ public abstract class Item implements Comparable<Item> {
 	 * Sets the active state of the item.
 	 * @param isOn the new active state to set the item to
 	 */
-	public synchronized void setActive(boolean isOn) { isActive = isOn; }
+	public synchronized void setActive(boolean isOn) {
+		isActive = isOn;
+		invalidateSnapshot();
+		reportStats();
+	}
 
 	/**
 	 * Turns the item on.
 	 */
-	public synchronized void turnOn() { isActive = true; }
+	public synchronized void turnOn() {
+		isActive = true;
+		invalidateSnapshot();
+		reportStats();
+	}
 
 	/**
 	 * Turns the item off.
 	 */
-	public synchronized void turnOff() { isActive = false; }
+	public synchronized void turnOff() {
+		isActive = false;
+		invalidateSnapshot();
+		reportStats();
+	}
 
 	/**
 	 * Toggles the active state of the item (if it was on, turn it off; if it was off, turn it on).
 	 */
-	public synchronized void toggleActive() { isActive = !isActive; }
+	public synchronized void toggleActive() {
+		isActive = !isActive;
+		invalidateSnapshot();
+		reportStats();
+	}
 
 	/**
 	 * Get the parent of the current item.
@@ -173,6 +213,94 @@ public abstract class Item implements Comparable<Item> {
 		return i;
 	}
 
+	/**
+	 * Gets an immutable snapshot of the item. Reuses the cached one if nothing changed since it was
+	 * built, and for folders reuses the cached snapshots of any children that didn't change. A
+	 * child can change while a folder's snapshot is being built (it only takes the child's lock),
+	 * so the snapshot is only cached if the version didn't change meanwhile, and built again
+	 * otherwise.
+	 * @return the snapshot, will not be null
+	 */
+	@NotNull
+	public synchronized ItemSnapshot getSnapshot() {
+		while (true) {
+			ItemSnapshot s = snapshot;
+			if (s != null) return s;
+
+			int v = version;
+			s = buildSnapshot();
+			if (version == v) {
+				snapshot = s;
+				return s;
+			}
+		}
+	}
+
+	/**
+	 * Throws away the cached snapshot of this item and of all of its parents, since theirs contain
+	 * this one, and bumps all of their versions. Should be called after every change to the item.
+	 * Doesn't lock anything so that it never has to take a parent's lock while holding a child's.
+	 */
+	void invalidateSnapshot() {
+		Item i = this;
+		while (i != null) {
+			// bumped first, so a snapshot being built right now isn't cached
+			i.version++;
+			i.snapshot = null;
+			i = i.parent;
+		}
+	}
+
+	/**
+	 * Throws away the cached snapshot of just this item, leaving its parents alone. Only for bulk
+	 * changes, which call invalidateSnapshot() once on the root of the subtree afterwards.
+	 */
+	void clearSnapshot() {
+		version++;
+		snapshot = null;
+	}
+
+	/**
+	 * Returns the version stamp of the item, which changes every time the item does.
+	 */
+	@Contract(pure = true)
+	int getVersion() { return version; }
+
+	/**
+	 * Sets the active state without touching the snapshots or stats of the parents. Only for bulk
+	 * changes, which fix those up once for the whole subtree afterwards.
+	 * @param isOn the new active state to set the item to
+	 * @return the active state before the change
+	 */
+	synchronized boolean swapActive(boolean isOn) {
+		boolean old = isActive;
+		isActive = isOn;
+		clearSnapshot();
+		return old;
+	}
+
+	/**
+	 * Pushes any change in what this item counts for in the stats of its parent up the parent
+	 * chain. Stops as soon as a folder's contribution to its own parent stays the same. Should be
+	 * called after every change that can affect the stats (active or snoozed state).
+	 */
+	void reportStats() {
+		synchronized (AlarmGroup.STATS_LOCK) {
+			int[] now = new int[AlarmGroup.NUM_STATS];
+			Item i = this;
+			while (i.parent != null) {
+				i.countStats(now);
+				if (Arrays.equals(now, i.counted)) return;
+
+				// counted has to be current before the parent looks at its other children
+				int[] old = i.counted.clone();
+				System.arraycopy(now, 0, i.counted, 0, now.length);
+				i.parent.replaceChildStats(old, i.counted);
+				i = i.parent;
+			}
+		}
+	}
+
 	// *************************************  Abstract Methods  *********************************
 
 	/**
@@ -215,4 +343,18 @@ public abstract class Item implements Comparable<Item> {
 	 */
 	@NotNull @Contract(pure = true)
 	abstract String toStoreString();
+
+	/**
+	 * Builds a new snapshot of the item. Called with the lock of the item held.
+	 * @return a new snapshot, cannot be null
+	 */
+	@NotNull
+	abstract ItemSnapshot buildSnapshot();
+
+	/**
+	 * Fills in what this item adds to the stats of its parent. Called with AlarmGroup.STATS_LOCK
+	 * held, so it shouldn't take any other locks.
+	 * @param dest the array to fill, indexed by the AlarmGroup.STAT_* constants
+	 */
+	abstract void countStats(@NotNull int[] dest);
 }
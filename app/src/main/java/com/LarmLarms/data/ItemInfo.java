@@ -2,7 +2,6 @@ package com.larmlarms.data;
 
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.util.Log;
 
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
@@ -12,6 +11,20 @@ import org.jetbrains.annotations.Nullable;
  * A struct containing information about a listable within a nested list of Listables
  */
 public class ItemInfo implements Parcelable {
+	// types of items written to parcels
+	/**
+	 * Parcel tag for a null item.
+	 */
+	private static final int ITEM_NONE = 0;
+	/**
+	 * Parcel tag for an alarm.
+	 */
+	private static final int ITEM_ALARM = 1;
+	/**
+	 * Parcel tag for a folder.
+	 */
+	private static final int ITEM_FOLDER = 2;
+
 	/**
 	 * Represents a Listable, and implies the other fields are describing this listable. Not
 	 * guaranteed to be a handle to the original Listable (if, for example, it was recreated from a
@@ -40,13 +53,15 @@ public class ItemInfo implements Parcelable {
 	 * @param in the parcel to initialize from, cannot be null
 	 */
 	private ItemInfo(@NotNull Parcel in) {
-		String item = in.readString();	// item
-		String isAlarm = in.readString();
-
-		if (item == null) this.item = null;
-		else {
-			if (Boolean.parseBoolean(isAlarm)) this.item = Alarm.fromEditString(null, item);
-			else this.item = AlarmGroup.fromEditString(item);
+		switch (in.readInt()) {
+			case ITEM_ALARM:
+				item = Alarm.CREATOR.createFromParcel(in);
+				break;
+			case ITEM_FOLDER:
+				item = AlarmGroup.CREATOR.createFromParcel(in);
+				break;
+			default:
+				item = null;
 		}
 
 		path = in.readString();
@@ -86,15 +101,16 @@ public class ItemInfo implements Parcelable {
 	 */
 	@Override
 	public void writeToParcel(@NotNull Parcel dest, int flags) {
-		// listable then isAlarm
-		if (item == null) {
-			dest.writeString(null);
-			dest.writeString(Boolean.toString(false));
+		// item type, then the item itself
+		if (item instanceof Alarm) {
+			dest.writeInt(ITEM_ALARM);
+			((Alarm) item).writeToParcel(dest, flags);
 		}
-		else {
-			dest.writeString(item.toEditString());
-			dest.writeString(Boolean.toString(item instanceof Alarm));
+		else if (item instanceof AlarmGroup) {
+			dest.writeInt(ITEM_FOLDER);
+			((AlarmGroup) item).writeToParcel(dest, flags);
 		}
+		else dest.writeInt(ITEM_NONE);
 
 		dest.writeString(path);
 	}
@@ -0,0 +1,195 @@
+package com.larmlarms.data;
+
+import android.content.Context;
+import android.net.Uri;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable view of an item (and, for folders, everything within it) at one point in time.
+ * Snapshots are built lazily by Item.getSnapshot() and cached on the item until it changes, so
+ * rebuilding after a change only copies the path from the changed item up to the root; every
+ * untouched subtree keeps sharing its old snapshot. Because nothing inside a snapshot can change,
+ * they can be read from any thread without locking.
+ */
+public final class ItemSnapshot {
+	// ************************************  Instance Fields  ***********************************
+
+	/**
+	 * The id of the item.
+	 */
+	public final int id;
+
+	/**
+	 * The name of the item.
+	 */
+	@NotNull
+	public final String name;
+
+	/**
+	 * Whether the item itself is active or not (doesn't take parents into account).
+	 */
+	public final boolean isActive;
+
+	/**
+	 * The edit string of the item when the snapshot was taken.
+	 */
+	@NotNull
+	public final String editString;
+
+	/**
+	 * The ring time of the alarm in millis when the snapshot was taken. Always 0 for folders.
+	 */
+	public final long ringTimeMillis;
+
+	/**
+	 * The number of alarms that will ring within the folder when the snapshot was taken (see
+	 * AlarmGroup.getActiveAlarms()). For alarms, 1 if active and 0 if not.
+	 */
+	public final int activeAlarms;
+
+	/**
+	 * The number of alarms within the folder (and its subfolders) when the snapshot was taken.
+	 * Always 1 for alarms.
+	 */
+	public final int totalAlarms;
+
+	/**
+	 * The snapshots of the children of the folder, in sorted order. Null for alarms, unmodifiable
+	 * for folders.
+	 */
+	@Nullable
+	public final List<ItemSnapshot> children;
+
+	/**
+	 * Whether the alarm was snoozed when the snapshot was taken. Always false for folders.
+	 */
+	final boolean isSnoozed;
+
+	/**
+	 * The number of times the alarm was snoozed when the snapshot was taken. Always 0 for folders.
+	 */
+	final int numSnoozes;
+
+	/**
+	 * The ringtone the alarm plays, or null for folders, alarms without one and silent alarms.
+	 */
+	@Nullable
+	final Uri ringtoneUri;
+
+	// *************************************  Constructors  *************************************
+
+	/**
+	 * Creates a snapshot for an alarm.
+	 * @param alarm the alarm to take a snapshot of, caller should hold its lock
+	 */
+	ItemSnapshot(@NotNull Alarm alarm) {
+		id = alarm.id;
+		name = alarm.name;
+		isActive = alarm.isActive;
+		editString = alarm.toEditString();
+		ringTimeMillis = alarm.getAlarmTimeMillis();
+		activeAlarms = alarm.isActive ? 1 : 0;
+		totalAlarms = 1;
+		children = null;
+
+		isSnoozed = alarm.isSnoozed();
+		numSnoozes = alarm.getNumSnoozes();
+		ringtoneUri = alarm.getVolume() == 0 ? null : alarm.getRingtoneUri();
+	}
+
+	/**
+	 * Creates a snapshot for a folder.
+	 * @param folder the folder to take a snapshot of, caller should hold its lock
+	 * @param children the (already built) snapshots of the children of the folder
+	 */
+	ItemSnapshot(@NotNull AlarmGroup folder, @NotNull List<ItemSnapshot> children) {
+		id = folder.id;
+		name = folder.name;
+		isActive = folder.isActive;
+		editString = folder.toEditString();
+		ringTimeMillis = 0;
+		activeAlarms = folder.getActiveAlarms();
+		totalAlarms = folder.getTotalAlarms();
+		this.children = Collections.unmodifiableList(children);
+		isSnoozed = false;
+		numSnoozes = 0;
+		ringtoneUri = null;
+	}
+
+	// ************************************  Other Methods  *************************************
+
+	/**
+	 * Returns whether the snapshot represents a folder or not.
+	 */
+	@Contract(pure = true)
+	public boolean isFolder() { return children != null; }
+
+	/**
+	 * Rebuilds the alarm from the edit string, detached from any folder.
+	 * @param context the current context, can be null
+	 * @return the alarm as it was when the snapshot was taken, or null for folders
+	 */
+	@Nullable
+	public Alarm toAlarm(@Nullable Context context) {
+		return isFolder() ? null : Alarm.fromEditString(context, editString);
+	}
+
+	/**
+	 * Builds the repeat string of the alarm (see Alarm.getRepeatString()). Isn't cached, so that
+	 * snapshots of big folders don't hold on to strings nobody is looking at; callers that show
+	 * it more than once should keep it themselves.
+	 * @param context the context to get strings from, cannot be null
+	 * @return the repeat string, or empty string for folders
+	 */
+	@NotNull
+	public String formatRepeatString(@NotNull Context context) {
+		Alarm alarm = toAlarm(context);
+		return alarm == null ? "" : alarm.buildRepeatString(context);
+	}
+
+	/**
+	 * Builds the next ring time of the alarm as a string (see Alarm.getNextRingTime()). Isn't
+	 * cached, like formatRepeatString().
+	 * @param context the context to get the formatter from, cannot be null
+	 * @return the ring time, or empty string for folders
+	 */
+	@NotNull
+	public String formatNextRingTime(@NotNull Context context) {
+		if (isFolder()) return "";
+		return DisplayFormats.get(context).formatTime(ringTimeMillis).toLowerCase();
+	}
+
+	/**
+	 * Creates a store string from the snapshot. Has the same format as the store strings of the
+	 * item the snapshot was taken of.
+	 * @return the store string, will not be null
+	 */
+	@NotNull @Contract(pure = true)
+	public String toStoreString() {
+		StringBuilder builder = new StringBuilder();
+		appendStoreString(builder, 0);
+		return builder.toString();
+	}
+
+	/**
+	 * Appends the store string of this snapshot to the given builder, indenting every line.
+	 * @param builder the builder to append to
+	 * @param depth the number of tabs to indent with
+	 */
+	void appendStoreString(@NotNull StringBuilder builder, int depth) {
+		for (int i = 0; i < depth; i++) builder.append('\t');
+		builder.append(children == null ? "a\t" : "f\t").append(editString);
+
+		if (children == null) return;
+		for (ItemSnapshot child : children) {
+			builder.append('\n');
+			child.appendStoreString(builder, depth + 1);
+		}
+	}
+}
@@ -5,27 +5,48 @@ import android.content.Context;
 import android.content.Intent;
 
 import com.larmlarms.main.MainApplication;
+import com.larmlarms.ringing.WakeStats;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
- * Receives messages from the system that the device has just booted. Starts up the data service
- * so that alarms are registered in the system.
+ * Receives messages from the system that the device has just booted (or that the app was just
+ * updated). Registers the next alarm in the system again, from the schedule record if it's still
+ * good so that the whole tree doesn't have to be loaded. Also receives the message sent before the
+ * user unlocks the device, when only the schedule record can be used.
  */
 public class OnBootReceiver extends BroadcastReceiver {
 
 	/**
-	 * Only receives messages for device booting.
+	 * Only receives messages for device booting (locked or not) and app updates.
 	 * @param con the current context
 	 * @param intent the intent to respond to
 	 */
 	@Override
 	public void onReceive(Context con, Intent intent) {
-		if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
-			Context context = con.getApplicationContext();
+		final Context context = con.getApplicationContext();
+		WakeStats.run(context, WakeStats.CAUSE_BOOT, () -> handleBoot(context, intent.getAction()));
+	}
+
+	/**
+	 * Registers the next alarm again after booting or updating.
+	 * @param context the application context
+	 * @param action the action of the message received
+	 */
+	private static void handleBoot(@NotNull Context context, @Nullable String action) {
+		if (Intent.ACTION_LOCKED_BOOT_COMPLETED.equals(action)) {
+			RootFolder.rearmFromSchedule(context);
+		}
+		else if (Intent.ACTION_BOOT_COMPLETED.equals(action) ||
+				"android.intent.action.QUICKBOOT_POWERON".equals(action) ||
+				"com.htc.intent.action.QUICKBOOT_POWERON".equals(action) ||
+				Intent.ACTION_MY_PACKAGE_REPLACED.equals(action)) {
+			if (RootFolder.rearmFromSchedule(context)) return;
 
-			if (!(context instanceof MainApplication)) {
-				// constructor registers the alarms automatically
-				new RootFolder("", context);
-			}
+			// constructor registers the alarms automatically
+			if (context instanceof MainApplication) ((MainApplication) context).getRootFolder();
+			else new RootFolder("", context);
 		}
 	}
 }
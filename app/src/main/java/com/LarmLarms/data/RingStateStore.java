@@ -0,0 +1,368 @@
+package com.larmlarms.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.larmlarms.BuildConfig;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ring state of every alarm (whether it's active, whether and how many times it's snoozed, and
+ * its ring time), kept in fixed-size records apart from the rest of alarms.txt. Snoozing or
+ * dismissing only changes ring state, so it only overwrites the record of that alarm instead of
+ * rewriting every alarm. Records are found by id through an index built the first time the file
+ * is read. The ring state in here wins over the one in alarms.txt, so the whole file is rewritten
+ * (before alarms.txt) on every full save.
+ */
+final class RingStateStore {
+	/**
+	 * Tag of the class for logging purposes.
+	 */
+	private static final String TAG = "RingStateStore";
+
+	/**
+	 * The name of the file that stores the ring states. Found within private storage for the app.
+	 */
+	private static final String FILE_NAME = "ring_state";
+	/**
+	 * The first int of the file, to recognize it.
+	 */
+	private static final int MAGIC = 0x4C52_5331;
+	/**
+	 * The size of the header, which is just MAGIC.
+	 */
+	private static final int HEADER_BYTES = 4;
+	/**
+	 * The size of a record: id, flags and number of snoozes as ints, then the ring time as a long.
+	 */
+	private static final int RECORD_BYTES = 4 + 4 + 4 + 8;
+
+	/**
+	 * Flag for an active alarm.
+	 */
+	private static final int FLAG_ACTIVE = 1;
+	/**
+	 * Flag for a snoozed alarm.
+	 */
+	private static final int FLAG_SNOOZED = 1 << 1;
+
+	/**
+	 * Maps the id of every alarm in the file to the slot of its record. Null until the file is
+	 * read. Guarded by the class lock.
+	 */
+	@Nullable
+	private static Map<Integer, Integer> index;
+
+	/**
+	 * Not meant to be made.
+	 */
+	private RingStateStore() {}
+
+	// ************************************  Reading Methods  ***********************************
+
+	/**
+	 * Reads every record in the file, and builds the index while at it.
+	 * @param context the current context, cannot be null
+	 * @return the ring states by id, empty if there's no (valid) file, will not be null
+	 */
+	@NotNull
+	static synchronized Map<Integer, State> readAll(@NotNull Context context) {
+		return readAll(getFile(context));
+	}
+
+	/**
+	 * Reads every record in the given file, and builds the index while at it.
+	 * @param f the file to read, cannot be null
+	 * @return the ring states by id, empty if there's no (valid) file, will not be null
+	 */
+	@NotNull
+	static synchronized Map<Integer, State> readAll(@NotNull File f) {
+		Map<Integer, State> states = new HashMap<>();
+		Map<Integer, Integer> slots = new HashMap<>();
+
+		if (f.isFile()) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(f)))) {
+				if (in.readInt() != MAGIC) throw new IOException("Not a ring state file.");
+
+				long records = (f.length() - HEADER_BYTES) / RECORD_BYTES;
+				for (int slot = 0; slot < records; slot++) {
+					int id = in.readInt();
+					slots.put(id, slot);
+					states.put(id, new State(in.readInt(), in.readInt(), in.readLong()));
+				}
+			}
+			catch (IOException e) {
+				if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't read the ring states.");
+				states.clear();
+				slots.clear();
+			}
+		}
+
+		index = slots;
+		return states;
+	}
+
+	/**
+	 * Reads the record of a single alarm, through the index.
+	 * @param context the current context, cannot be null
+	 * @param id the id of the alarm
+	 * @return the ring state of the alarm, or null if it doesn't have a record
+	 */
+	@Nullable
+	static synchronized State read(@NotNull Context context, int id) {
+		return read(getFile(context), id);
+	}
+
+	/**
+	 * Reads the record of a single alarm from the given file, through the index.
+	 * @param f the file to read, cannot be null
+	 * @param id the id of the alarm
+	 * @return the ring state of the alarm, or null if it doesn't have a record
+	 */
+	@Nullable
+	static synchronized State read(@NotNull File f, int id) {
+		if (index == null) readAll(f);
+		Integer slot = index.get(id);
+		if (slot == null) return null;
+
+		try (RandomAccessFile file = new RandomAccessFile(f, "r")) {
+			file.seek(HEADER_BYTES + (long) slot*RECORD_BYTES);
+			if (file.readInt() != id) return null;
+			return new State(file.readInt(), file.readInt(), file.readLong());
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't read the ring state of alarm " + id + ".");
+			return null;
+		}
+	}
+
+	// ************************************  Writing Methods  ***********************************
+
+	/**
+	 * Rewrites the whole file with the ring state of every alarm within the snapshot. Replaces the
+	 * old file in one go, so it's never half written.
+	 * @param context the current context, cannot be null
+	 * @param root the snapshot of the whole tree, cannot be null
+	 * @return whether the file was written
+	 */
+	static synchronized boolean writeAll(@NotNull Context context, @NotNull ItemSnapshot root) {
+		return writeAll(getFile(context), root);
+	}
+
+	/**
+	 * Rewrites the given file with the ring state of every alarm within the snapshot.
+	 * @param f the file to write, cannot be null
+	 * @param root the snapshot of the whole tree, cannot be null
+	 * @return whether the file was written
+	 */
+	static synchronized boolean writeAll(@NotNull File f, @NotNull ItemSnapshot root) {
+		File temp = new File(f.getPath() + ".tmp");
+		Map<Integer, Integer> slots = new HashMap<>();
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			writeRecords(out, root, slots);
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't write the ring states.");
+			//noinspection ResultOfMethodCallIgnored
+			temp.delete();
+			return false;
+		}
+
+		if (!temp.renameTo(f)) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't replace the ring state file.");
+			//noinspection ResultOfMethodCallIgnored
+			temp.delete();
+			index = null;
+			return false;
+		}
+		index = slots;
+		return true;
+	}
+
+	/**
+	 * Overwrites the records of the given alarms in place, with their ring state within the
+	 * snapshot. Alarms without a record yet get one at the end of the file.
+	 * @param context the current context, cannot be null
+	 * @param root the snapshot of the whole tree, cannot be null
+	 * @param ids the ids of the alarms to write, cannot be null
+	 * @return whether every record was written, false if the file has to be rewritten instead
+	 */
+	static synchronized boolean update(@NotNull Context context, @NotNull ItemSnapshot root,
+									   @NotNull Set<Integer> ids) {
+		return update(getFile(context), root, ids);
+	}
+
+	/**
+	 * Overwrites the records of the given alarms in place within the given file.
+	 * @param f the file to write, cannot be null
+	 * @param root the snapshot of the whole tree, cannot be null
+	 * @param ids the ids of the alarms to write, cannot be null
+	 * @return whether every record was written, false if the file has to be rewritten instead
+	 */
+	static synchronized boolean update(@NotNull File f, @NotNull ItemSnapshot root,
+									   @NotNull Set<Integer> ids) {
+		if (!f.isFile()) return false;
+		if (index == null) readAll(f);
+		if (index.isEmpty() && f.length() > HEADER_BYTES) return false;
+
+		Map<Integer, ItemSnapshot> alarms = new HashMap<>();
+		findAlarms(root, ids, alarms);
+
+		try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+			for (ItemSnapshot a : alarms.values()) {
+				Integer slot = index.get(a.id);
+				if (slot == null) {
+					slot = (int) ((file.length() - HEADER_BYTES) / RECORD_BYTES);
+					index.put(a.id, slot);
+				}
+
+				file.seek(HEADER_BYTES + (long) slot*RECORD_BYTES);
+				writeRecord(file, a);
+			}
+			return true;
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't update the ring states.");
+			index = null;
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes the file, so the ring states in alarms.txt are used instead.
+	 * @param context the current context, cannot be null
+	 */
+	static synchronized void clear(@NotNull Context context) {
+		//noinspection ResultOfMethodCallIgnored
+		getFile(context).delete();
+		index = null;
+	}
+
+	// ************************************  Other Methods  *************************************
+
+	/**
+	 * Writes a record for every alarm within a snapshot, in order.
+	 * @param out the stream to write to, cannot be null
+	 * @param item the snapshot to write the alarms of, cannot be null
+	 * @param slots gets the slot of every record written
+	 * @throws IOException if the stream couldn't be written to
+	 */
+	private static void writeRecords(@NotNull DataOutputStream out, @NotNull ItemSnapshot item,
+									 @NotNull Map<Integer, Integer> slots) throws IOException {
+		if (!item.isFolder()) {
+			slots.put(item.id, slots.size());
+			writeRecord(out, item);
+		}
+		if (item.children == null) return;
+		for (ItemSnapshot child : item.children) writeRecords(out, child, slots);
+	}
+
+	/**
+	 * Writes the record of an alarm at the current position.
+	 * @param out where to write, cannot be null
+	 * @param item the snapshot of the alarm, cannot be null
+	 * @throws IOException if the record couldn't be written
+	 */
+	private static void writeRecord(@NotNull DataOutput out, @NotNull ItemSnapshot item)
+			throws IOException {
+		if (item.isFolder()) throw new IOException("Not an alarm.");
+
+		int flags = 0;
+		if (item.isActive) flags |= FLAG_ACTIVE;
+		if (item.isSnoozed) flags |= FLAG_SNOOZED;
+
+		out.writeInt(item.id);
+		out.writeInt(flags);
+		out.writeInt(item.numSnoozes);
+		out.writeLong(item.ringTimeMillis);
+	}
+
+	/**
+	 * Finds the snapshots of the alarms with the given ids within a snapshot.
+	 * @param item the snapshot to look through, cannot be null
+	 * @param ids the ids to look for, cannot be null
+	 * @param found gets the alarms found by id
+	 */
+	private static void findAlarms(@NotNull ItemSnapshot item, @NotNull Set<Integer> ids,
+								   @NotNull Map<Integer, ItemSnapshot> found) {
+		if (!item.isFolder() && ids.contains(item.id)) found.put(item.id, item);
+		if (item.children == null || found.size() == ids.size()) return;
+		for (ItemSnapshot child : item.children) findAlarms(child, ids, found);
+	}
+
+	/**
+	 * Gets the file the records are kept in.
+	 * @param context the current context, cannot be null
+	 * @return the file, which might not exist yet
+	 */
+	@NotNull
+	private static File getFile(@NotNull Context context) {
+		return new File(context.getFilesDir(), FILE_NAME);
+	}
+
+	// *************************************  Inner Classes  ************************************
+
+	/**
+	 * The ring state of a single alarm, as read from its record.
+	 */
+	static final class State {
+		/**
+		 * Whether the alarm is active.
+		 */
+		final boolean active;
+		/**
+		 * Whether the alarm is snoozed.
+		 */
+		final boolean snoozed;
+		/**
+		 * The number of times the alarm has been snoozed.
+		 */
+		final int numSnoozes;
+		/**
+		 * The ring time of the alarm, in millis.
+		 */
+		final long ringTimeMillis;
+
+		/**
+		 * Creates a ring state from the fields of a record.
+		 * @param flags the flags of the record
+		 * @param numSnoozes the number of times the alarm has been snoozed
+		 * @param ringTimeMillis the ring time of the alarm, in millis
+		 */
+		State(int flags, int numSnoozes, long ringTimeMillis) {
+			active = (flags & FLAG_ACTIVE) != 0;
+			snoozed = (flags & FLAG_SNOOZED) != 0;
+			this.numSnoozes = numSnoozes;
+			this.ringTimeMillis = ringTimeMillis;
+		}
+
+		/**
+		 * Sets the ring state of the alarm to this one.
+		 * @param alarm the alarm to change, cannot be null
+		 * @return whether anything about the alarm changed
+		 */
+		boolean applyTo(@NotNull Alarm alarm) {
+			return alarm.setRingState(active, snoozed, numSnoozes, ringTimeMillis);
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package com.larmlarms.data;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.media.Ringtone;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.larmlarms.BuildConfig;
+import com.larmlarms.R;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide cache of ringtone titles. Looking up a title is a ContentResolver query, but most
+ * alarms share a handful of ringtones, so each title is only looked up once (until the media store
+ * changes). Titles can either be looked up right away with get() or in the background with
+ * request(), which gives back a placeholder and calls back with the real title later.
+ */
+public final class RingtoneTitles {
+	/**
+	 * Tag of the class for logging purposes.
+	 */
+	private static final String TAG = "RingtoneTitles";
+
+	/**
+	 * The max number of titles to keep.
+	 */
+	private static final int MAX_TITLES = 32;
+
+	/**
+	 * The titles already looked up, keyed by ringtone URI. LruCache is thread safe by itself.
+	 */
+	@NotNull
+	private static final LruCache<Uri, String> titles = new LruCache<>(MAX_TITLES);
+
+	/**
+	 * The callbacks waiting on each URI being looked up in the background. Guarded by itself.
+	 */
+	@NotNull
+	private static final Map<Uri, List<Callback>> pending = new HashMap<>();
+
+	/**
+	 * The thread titles are looked up on. One is enough, since it's only used on cache misses.
+	 */
+	@NotNull
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	/**
+	 * Handler for the main thread, where the callbacks are called.
+	 */
+	@NotNull
+	private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Observes the media store to throw away titles that could have changed. Null until the
+	 * first lookup.
+	 */
+	@Nullable
+	private static ContentObserver observer;
+
+	/**
+	 * Callback for titles looked up in the background.
+	 */
+	public interface Callback {
+		/**
+		 * Called on the main thread once the title of a ringtone has been looked up.
+		 * @param uri the URI of the ringtone
+		 * @param title the title of the ringtone, will not be null
+		 */
+		void onTitle(@NotNull Uri uri, @NotNull String title);
+	}
+
+	/**
+	 * Not meant to be made.
+	 */
+	private RingtoneTitles() {}
+
+	// ************************************  Static Methods  ************************************
+
+	/**
+	 * Gets the title of the given ringtone, looking it up right away (on this thread) if it
+	 * isn't cached.
+	 * @param context the context to look up the title with, cannot be null
+	 * @param uri the URI of the ringtone, or null for silent
+	 * @return the title of the ringtone, will not be null
+	 */
+	@NotNull
+	public static String get(@NotNull Context context, @Nullable Uri uri) {
+		if (uri == null) return context.getResources().getString(R.string.alarm_editor_silent);
+
+		String title = titles.get(uri);
+		if (title == null) {
+			title = lookUp(context, uri);
+			titles.put(uri, title);
+		}
+		return title;
+	}
+
+	/**
+	 * Gets the title of the given ringtone without blocking. If the title is cached, returns it
+	 * and doesn't call the callback. Otherwise, returns a placeholder and looks up the title in
+	 * the background, calling the callback on the main thread when done.
+	 * @param context the context to look up the title with, cannot be null
+	 * @param uri the URI of the ringtone, or null for silent
+	 * @param callback the callback to call with the title if it isn't cached, cannot be null
+	 * @return the title of the ringtone, or a placeholder if it isn't cached yet
+	 */
+	@NotNull
+	public static String request(@NotNull Context context, @Nullable Uri uri,
+								 @NotNull Callback callback) {
+		if (uri == null) return context.getResources().getString(R.string.alarm_editor_silent);
+
+		String title = titles.get(uri);
+		if (title != null) return title;
+
+		synchronized (pending) {
+			List<Callback> waiting = pending.get(uri);
+			if (waiting != null) {
+				// already being looked up, just wait for that one
+				waiting.add(callback);
+				return context.getResources().getString(R.string.alarm_editor_ringtone_loading);
+			}
+			waiting = new ArrayList<>();
+			waiting.add(callback);
+			pending.put(uri, waiting);
+		}
+
+		final Context appContext = context.getApplicationContext();
+		executor.execute(() -> {
+			String t = lookUp(appContext, uri);
+			titles.put(uri, t);
+
+			final List<Callback> callbacks;
+			synchronized (pending) { callbacks = pending.remove(uri); }
+			if (callbacks == null) return;
+			mainHandler.post(() -> {
+				for (Callback c : callbacks) c.onTitle(uri, t);
+			});
+		});
+		return context.getResources().getString(R.string.alarm_editor_ringtone_loading);
+	}
+
+	/**
+	 * Adds a title that's already known (for example, from a ringtone list) to the cache.
+	 * @param uri the URI of the ringtone, cannot be null
+	 * @param title the title of the ringtone, cannot be null
+	 */
+	public static void put(@NotNull Uri uri, @NotNull String title) { titles.put(uri, title); }
+
+	/**
+	 * Throws away all cached titles.
+	 */
+	public static void clear() { titles.evictAll(); }
+
+	/**
+	 * Looks up the title of a ringtone. Slow, so callers should cache the result.
+	 * @param context the context to look up the title with, cannot be null
+	 * @param uri the URI of the ringtone, cannot be null
+	 * @return the title of the ringtone, or the silent string if there's no such ringtone
+	 */
+	@NotNull
+	private static String lookUp(@NotNull Context context, @NotNull Uri uri) {
+		registerObserver(context);
+
+		Ringtone r = RingtoneManager.getRingtone(context, uri);
+		if (r == null) {
+			if (BuildConfig.DEBUG) Log.v(TAG, "Couldn't find the ringtone " + uri + ".");
+			return context.getResources().getString(R.string.alarm_editor_silent);
+		}
+		return r.getTitle(context);
+	}
+
+	/**
+	 * Starts observing the media store (if not already observing it), so that titles are thrown
+	 * away when ringtones are added, removed, or renamed.
+	 * @param context the context to get the content resolver from, cannot be null
+	 */
+	private static synchronized void registerObserver(@NotNull Context context) {
+		if (observer != null) return;
+
+		observer = new ContentObserver(mainHandler) {
+			@Override
+			public void onChange(boolean selfChange) { clear(); }
+		};
+		Context appContext = context.getApplicationContext();
+		appContext.getContentResolver().registerContentObserver(
+				MediaStore.Audio.Media.INTERNAL_CONTENT_URI, true, observer);
+		appContext.getContentResolver().registerContentObserver(
+				MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, observer);
+	}
+}
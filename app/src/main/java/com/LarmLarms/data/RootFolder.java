@@ -4,11 +4,16 @@ import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 import android.util.Log;
 
 import com.larmlarms.BuildConfig;
 import com.larmlarms.Constants;
+import com.larmlarms.main.PrefsActivity;
+import com.larmlarms.ringing.PreAlarmReceiver;
 import com.larmlarms.ringing.RingingService;
+import com.larmlarms.ringing.RingtoneCache;
+import com.larmlarms.ringing.WakeStats;
 
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
@@ -23,7 +28,15 @@ import java.io.InputStreamReader;
 import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import androidx.core.content.ContextCompat;
+import androidx.core.os.UserManagerCompat;
 
 /**
  * Manages everything about the root folder, including registering alarms to ring with the system
@@ -41,16 +54,77 @@ public class RootFolder extends AlarmGroup {
     private static final String ALARM_STORE_FILE_NAME = "alarms.txt";
 
     /**
-     * The current alarm to ring next.
+     * The current alarm to ring next. Rebuilt from the snapshot that was registered, so it isn't
+     * part of the tree.
+     */
+    @Nullable
+    private volatile Alarm currNextAlarm;
+
+    /**
+     * The snapshot of the alarm that is currently registered with the system (or null if none).
      */
     @Nullable
-    private Alarm currNextAlarm;
+    private ItemSnapshot registeredAlarm;
+
+    /**
+     * The path of the alarm that is currently registered with the system (or null if none).
+     */
+    @Nullable
+    private String registeredPath;
+
+    /**
+     * The latest snapshot of the whole tree. Replaced (never changed) after every change, so
+     * anything can read it without taking any locks.
+     */
+    @NotNull
+    private volatile ItemSnapshot published;
+
+    /**
+     * Every item within the tree by id, for resolving handles sent through intents. Cleared
+     * whenever a new snapshot is published and rebuilt on the next lookup, since lookups only
+     * happen when an alarm rings.
+     */
+    @Nullable
+    private HashMap<Integer, Item> registry;
 
     /**
      * Current context (required to save to disk).
      */
     private final Context context;
 
+    /**
+     * The number of transactions currently being committed (or publishes in progress).
+     * Transactions nest because the folder methods call each other, but only the outermost one
+     * saves. Volatile so that change events can check it without taking the lock of the root.
+     */
+    private volatile int batchDepth;
+
+    /**
+     * Whether a save has been started for a change made outside of any transaction that hasn't
+     * run yet. Changes that come in before it runs are saved along with it.
+     */
+    @NotNull
+    private final AtomicBoolean savePending = new AtomicBoolean();
+
+    /**
+     * Whether a full save has been started that hasn't written alarms.txt yet. Saves that only
+     * write ring state (see saveRingState()) do a full save instead while this is set, since the
+     * full save they'd be covering for may have been skipped.
+     */
+    private volatile boolean fullSavePending;
+    /**
+     * Whether actions taken before the user unlocked the device were applied when the tree was
+     * loaded, and haven't been saved yet. They're dropped from the schedule record once they are.
+     * Guarded by the class lock after the constructor.
+     */
+    private boolean pendingApplied;
+
+    /**
+     * Undo/redo history of all committed transactions.
+     */
+    @NotNull
+    private final EditHistory history = new EditHistory(EditHistory.DEFAULT_BUDGET_BYTES);
+
     /**
      * Initializes a new root folder with a name and contents.
      *
@@ -60,23 +134,36 @@ public class RootFolder extends AlarmGroup {
         super(name, RootFolder.getAlarmsFromDisk(c));
         context = c;
 
-        ItemInfo info = findNextRingingAlarm();
-        currNextAlarm = registerAlarm(context, info);
+        // pending actions were applied while loading, they're only dropped once that's saved
+        if (ScheduleRecord.hasPending(c)) {
+            pendingApplied = true;
+            save();
+        }
+        else {
+            ItemSnapshot snapshot = publish(null);
+            scheduleNextAlarm(snapshot);
+            cacheRingtones(c, snapshot);
+        }
+        addChangeListener(this::onTreeChanged);
     }
 
-    // *************************************  Folder Overrides  *********************************
-
     /**
-     * Sets the items within the folder. If the new list is invalid (the list or any items
-     * within it are null), will not do anything.
-     * @param items a new list of items to use, can be null
+     * Initializes a new root folder with the given contents instead of the ones on disk. Without a
+     * context it never saves or sets any alarms to ring, so it's only meant for tests.
+     *
+     * @param name the new name of the folder
+     * @param children the new items within the folder
      */
-    @Override
-    public synchronized void setItems(@Nullable List<Item> items) {
-        super.setItems(items);
-        save();
+    RootFolder(@Nullable String name, @NotNull List<Item> children) {
+        super(name, children);
+        context = null;
+
+        publish(null);
+        addChangeListener(this::onTreeChanged);
     }
 
+    // *************************************  Folder Overrides  *********************************
+
     /**
      * Sets item as the new item in the dataset.
      * @param oldInfo the info of the old item (item should at least have the right id, path isn't
@@ -84,8 +171,7 @@ public class RootFolder extends AlarmGroup {
      * @param item the new item to set it to
      */
     public synchronized void setItemById(@Nullable final ItemInfo oldInfo, final Item item) {
-        super.setItemById(oldInfo, item);
-        save();
+        batch().replace(oldInfo, item).commit();
     }
 
     /**
@@ -93,8 +179,7 @@ public class RootFolder extends AlarmGroup {
      * @param info the info given about the item to add (should be completely filled)
      */
     public synchronized void addItem(@Nullable ItemInfo info) {
-        super.addItem(info);
-        save();
+        batch().add(info).commit();
     }
 
     /**
@@ -102,8 +187,10 @@ public class RootFolder extends AlarmGroup {
      * @param item the item to add to the folder
      */
     synchronized void addItem(@Nullable final Item item) {
-        super.addItem(item);
-        save();
+        batch().then(entry -> {
+            super.addItem(item);
+            if (item != null) entry.attached(item, this);
+        }).commit();
     }
 
     /**
@@ -111,8 +198,20 @@ public class RootFolder extends AlarmGroup {
      * @param index the index of the item to delete
      */
     public synchronized void deleteItem(final int index) {
-        super.deleteItem(index);
-        save();
+        batch().then(entry -> {
+            Item i = getItem(index);
+            super.deleteItem(index);
+            if (i != null) entry.detached(i, this);
+        }).commit();
+    }
+
+    /**
+     * Deletes the item described by the given info.
+     * @param info the info of the item to delete (item should at least have the right id, path
+     *             isn't necessary, but helps search)
+     */
+    public synchronized void deleteItem(@Nullable final ItemInfo info) {
+        batch().delete(info).commit();
     }
 
     /**
@@ -122,10 +221,73 @@ public class RootFolder extends AlarmGroup {
      * @param newPath the path to move the item to
      */
     public synchronized void moveItem(@Nullable ItemInfo itemInfo, @Nullable String newPath) {
-        super.moveItem(itemInfo, newPath);
-        save();
+        batch().move(itemInfo, newPath).commit();
+    }
+
+    // *************************************  Transactions  *************************************
+
+    /**
+     * Starts a new transaction on the root folder. Nothing happens until commit() is called on it.
+     * @return a new, empty transaction
+     */
+    @NotNull @Contract(pure = true)
+    public Transaction batch() { return new Transaction(true); }
+
+    /**
+     * Undoes the most recently committed transaction (that hasn't been undone yet). Saves and
+     * reschedules just like a normal transaction.
+     * @return whether there was anything to undo
+     */
+    public synchronized boolean undo() {
+        EditHistory.Entry e = history.popUndo();
+        if (e == null) return false;
+
+        Transaction t = new Transaction(false);
+        for (int i = e.undo.size() - 1; i >= 0; i--) {
+            final Runnable step = e.undo.get(i);
+            t.then(entry -> step.run());
+        }
+        t.commit();
+        return true;
     }
 
+    /**
+     * Undoes the given entry, but only if it's still the most recent one, so that anything
+     * committed after it (and after an undo offer was made for it) is never undone by mistake.
+     * @param expected the entry to undo, as returned by Transaction.commit()
+     * @return whether it was undone
+     */
+    public synchronized boolean undo(@NotNull EditHistory.Entry expected) {
+        return history.peekUndo() == expected && undo();
+    }
+
+    /**
+     * Redoes the most recently undone transaction. Saves and reschedules just like a normal
+     * transaction.
+     * @return whether there was anything to redo
+     */
+    public synchronized boolean redo() {
+        EditHistory.Entry e = history.popRedo();
+        if (e == null) return false;
+
+        Transaction t = new Transaction(false);
+        for (final Runnable step : e.redo) t.then(entry -> step.run());
+        t.commit();
+        return true;
+    }
+
+    /**
+     * Returns whether there is anything to undo.
+     */
+    @Contract(pure = true)
+    public synchronized boolean canUndo() { return history.canUndo(); }
+
+    /**
+     * Returns whether there is anything to redo.
+     */
+    @Contract(pure = true)
+    public synchronized boolean canRedo() { return history.canRedo(); }
+
     // *********************************  Root-Specific Methods  ********************************
 
     @Nullable @Contract(pure = true)
@@ -135,38 +297,302 @@ public class RootFolder extends AlarmGroup {
     }
 
     /**
-     * Saves everything to disk and sets the alarms to ring.
+     * Gets the latest published snapshot of the whole tree. Doesn't lock anything, so it's safe to
+     * call from any thread, even while another thread is changing the tree.
+     * @return the latest snapshot, will not be null
+     */
+    @NotNull @Override @Contract(pure = true)
+    public ItemSnapshot getSnapshot() { return published; }
+
+    /**
+     * Finds a live item within the tree by id alone, rebuilding the registry first if the tree
+     * changed since the last lookup.
+     * @param id the id of the item to find
+     * @return the item, or null if there is no item with that id
+     */
+    @Nullable
+    public synchronized Item findById(int id) {
+        if (registry == null) {
+            registry = new HashMap<>();
+            register(items);
+        }
+        return registry.get(id);
+    }
+
+    /**
+     * Adds the given items and everything within them to the registry.
+     * @param data the items to add
+     */
+    private void register(@NotNull List<Item> data) {
+        for (Item i : data) {
+            registry.put(i.getId(), i);
+            if (i instanceof AlarmGroup) register(((AlarmGroup) i).getItems());
+        }
+    }
+
+    /**
+     * Resolves an alarm handle (its id) sent through an intent. Looks it up in the registry if the
+     * tree is loaded. Otherwise (the handle is from an earlier process, or the tree just hasn't
+     * been needed yet) only the record of the alarm is read from disk instead of loading the whole
+     * tree.
+     * @param context the current context
+     * @param root the root folder if it's loaded, or null
+     * @param id the id of the alarm
+     * @return the alarm (live if the root was given, detached otherwise), or null if not found
+     */
+    @Nullable
+    public static Alarm resolveAlarm(@NotNull Context context, @Nullable RootFolder root,
+                                     int id) {
+        if (root != null) {
+            Item i = root.findById(id);
+            return i instanceof Alarm ? (Alarm) i : null;
+        }
+        if (!isUserUnlocked(context)) return ScheduleRecord.readAlarm(context, id);
+        return readAlarmFromDisk(context, id);
+    }
+
+    /**
+     * Publishes a new snapshot, then saves it to disk and sets the alarms to ring on another
+     * thread.
      */
     public void save() {
+        // setItems() is called by the super constructor before the root is ready
+        if (context == null) return;
+
+        fullSavePending = true;
+        final ItemSnapshot snapshot = publish(null);
+        new Thread(() -> {
+            WakeStats.run(context, WakeStats.CAUSE_SAVING,
+                    () -> writeAlarmsToDisk(context, snapshot));
+            WakeStats.run(context, WakeStats.CAUSE_RESCHEDULING, () -> scheduleNextAlarm(snapshot));
+            // copying accounts for itself, on the thread of the cache
+            cacheRingtones(context, snapshot);
+        }).start();
+    }
+
+    /**
+     * Publishes a new snapshot after only the ring state of some alarms changed (snoozing or
+     * dismissing). Only their records in the ring state file are overwritten, instead of rewriting
+     * alarms.txt, then the next alarm is set to ring, on another thread. Does a full save instead
+     * if one is still owed or the records can't be written.
+     * @param ids the ids of the alarms whose ring state changed
+     */
+    private void saveRingState(@NotNull final Set<Integer> ids) {
+        if (context == null) return;
+
+        final ItemSnapshot snapshot = publish(ids);
+        new Thread(() -> {
+            WakeStats.run(context, WakeStats.CAUSE_SAVING, () -> {
+                synchronized (RootFolder.class) {
+                    // the latest snapshot has the latest ring states, even if this one is outdated
+                    ItemSnapshot latest = published;
+                    if (fullSavePending || !RingStateStore.update(context, latest, ids))
+                        writeAlarmsToDisk(context, latest);
+                }
+            });
+            WakeStats.run(context, WakeStats.CAUSE_RESCHEDULING, () -> scheduleNextAlarm(snapshot));
+        }).start();
+    }
+
+    /**
+     * Updates the ring times of all alarms and publishes a new snapshot of the tree. Only the path
+     * from each changed item to the root is rebuilt.
+     * @param changedIds gets the ids of the alarms whose ring times changed, can be null
+     * @return the new snapshot, will not be null
+     */
+    @NotNull
+    private synchronized ItemSnapshot publish(@Nullable Set<Integer> changedIds) {
+        // anything moved by the new ring times is about to be saved anyway
+        batchDepth++;
+        try {
+            List<Item> changed = new ArrayList<>();
+            updateRingTimes(items, changed);
+            for (Item i : changed) {
+                itemChangedByRef(i);
+                if (changedIds != null) changedIds.add(i.getId());
+            }
+        }
+        finally {
+            batchDepth--;
+        }
+        registry = null;
+        published = super.getSnapshot();
+        return published;
+    }
+
+    /**
+     * Called on every change within the tree. Changes made within a transaction are saved when it
+     * commits, but anything changed directly on a folder (outside of any transaction) is saved
+     * here, on another thread since the changed folder is still locked.
+     * @param folder the folder whose items changed
+     * @param type the type of change, one of the CHANGE_* constants
+     * @param index the index of the item that changed
+     * @param toIndex the new index of the item for CHANGE_MOVED
+     */
+    private void onTreeChanged(@NotNull AlarmGroup folder, int type, int index, int toIndex) {
+        if (batchDepth > 0 || !savePending.compareAndSet(false, true)) return;
+        // only starts a save, which accounts for itself
         new Thread(() -> {
-            writeAlarmsToDisk(context, this);
-            ItemInfo info = findNextRingingAlarm();
-            if (info.item != currNextAlarm) currNextAlarm = registerAlarm(context, info);
+            savePending.set(false);
+            save();
+
+            // listeners heard of the change before it was published, so let them look again
+            synchronized (this) {
+                batchDepth++;
+                try {
+                    fireChange(CHANGE_RESET, -1, -1);
+                }
+                finally {
+                    batchDepth--;
+                }
+            }
         }).start();
     }
 
     /**
-     * Convenience method for findNextRingingAlarm(). Searches for the next alarm that will ring
-     * within the folder. Returns the listable and absolute index of the listable (within the
-     * current dataset) within a ListableInfo struct.
-     * @return a ListableInfo with alarm and absolute index (real index) filled correctly, alarm can
-     * be null if there is no active alarm within the data given
+     * Registers the next alarm within the snapshot to ring, if it isn't registered already. Does
+     * nothing if a newer snapshot has been published since, since it will be registered from that
+     * one instead.
+     * @param snapshot the snapshot to look through
+     */
+    private void scheduleNextAlarm(@NotNull ItemSnapshot snapshot) {
+        synchronized (RootFolder.class) {
+            if (snapshot != published) return;
+
+            ItemSnapshot[] next = new ItemSnapshot[1];
+            String[] nextPath = new String[1];
+            findNextRingingAlarm(snapshot, snapshot.name + '/', next, nextPath);
+
+            ScheduleRecord.write(context, ScheduleRecord.find(snapshot));
+
+            // snapshots are only replaced when something changes, so the same one means same alarm
+            if (next[0] != null && next[0] == registeredAlarm && nextPath[0].equals(registeredPath))
+                return;
+
+            registerAlarm(context, toEntry(next[0]));
+            registeredAlarm = next[0];
+            registeredPath = nextPath[0];
+            currNextAlarm = next[0] == null ? null : next[0].toAlarm(context);
+        }
+    }
+
+    /**
+     * Registers the currently registered alarm again, so its pre-alarm follows a new lead time
+     * (see PrefsActivity.PREF_PREWARM_LEAD).
+     */
+    public void reschedulePreAlarm() {
+        synchronized (RootFolder.class) {
+            registerAlarm(context, toEntry(registeredAlarm));
+        }
+    }
+
+    /**
+     * Snoozes or dismisses an alarm before the user unlocked the device, when the tree can't be
+     * loaded. Changes the alarm within the schedule record, registers the next alarm from it, and
+     * keeps the action as pending so it's applied to the tree once the tree is loaded (see
+     * applyPendingActions()).
+     * @param context the current context
+     * @param id the id of the alarm
+     * @param dismiss whether to dismiss the alarm (or snooze it if false)
+     * @return whether the alarm was in the schedule record
+     */
+    public static boolean handleWhileLocked(@NotNull Context context, int id, boolean dismiss) {
+        synchronized (RootFolder.class) {
+            List<ScheduleRecord.Entry> entries = ScheduleRecord.read(context);
+            if (entries == null) return false;
+
+            Alarm alarm = null;
+            for (int i = 0; i < entries.size(); i++) {
+                ScheduleRecord.Entry e = entries.get(i);
+                if (e.id != id || e.alarm == null) continue;
+
+                alarm = Alarm.fromStoreString(context, e.alarm);
+                entries.remove(i);
+                break;
+            }
+            if (alarm == null) return false;
+
+            ScheduleRecord.addPending(context,
+                    new ScheduleRecord.Pending(dismiss, id, alarm.getAlarmTimeMillis()));
+            if (dismiss) alarm.dismiss();
+            else alarm.snooze();
+            if (alarm.isActive()) {
+                ScheduleRecord.insert(entries, new ScheduleRecord.Entry(id,
+                        alarm.getAlarmTimeMillis(), alarm.toStoreString()));
+            }
+
+            ScheduleRecord.write(context, entries);
+            registerAlarm(context, ScheduleRecord.next(entries));
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the user has unlocked the device since it booted. Until then, only device
+     * protected storage can be used, so alarms.txt can't be read.
+     * @param context the current context
+     * @return whether credential protected storage can be used
+     */
+    @Contract(pure = true)
+    public static boolean isUserUnlocked(@NotNull Context context) {
+        return UserManagerCompat.isUserUnlocked(context);
+    }
+
+    /**
+     * Gets a context whose storage can be used before the user unlocks the device. For anything
+     * needed to ring alarms, like the schedule record and the ringtone cache.
+     * @param context the current context
+     * @return a context for device protected storage, or the same context if the device doesn't
+     * have it
      */
     @NotNull
-    private ItemInfo findNextRingingAlarm() { return findNextRingingAlarm(items); }
+    public static Context getDeviceStorageContext(@NotNull Context context) {
+        Context deviceContext = ContextCompat.createDeviceProtectedStorageContext(context);
+        return deviceContext == null ? context : deviceContext;
+    }
+
+    /**
+     * Registers the next alarm to ring from the schedule record (see ScheduleRecord) instead of
+     * loading the whole tree. Meant for after booting, when nothing else needs the tree yet. Ring
+     * times that already passed (e.g. while the device was off) have to be recalculated and
+     * actions taken before the user unlocked have to be applied, so that takes the whole tree.
+     * Before the user unlocks, the tree can't be loaded at all, so alarms that already passed are
+     * just skipped.
+     * @param context the current context
+     * @return whether the next alarm was registered, false if the tree has to be loaded instead
+     */
+    public static boolean rearmFromSchedule(@NotNull Context context) {
+        boolean unlocked = isUserUnlocked(context);
+        if (unlocked && ScheduleRecord.hasPending(context)) return false;
+
+        List<ScheduleRecord.Entry> entries = ScheduleRecord.read(context);
+        if (entries == null) return false;
+        if (unlocked && !entries.isEmpty() &&
+                entries.get(0).ringTimeMillis <= System.currentTimeMillis())
+            return false;
+
+        synchronized (RootFolder.class) {
+            registerAlarm(context, ScheduleRecord.next(entries));
+        }
+        if (BuildConfig.DEBUG) Log.i(TAG, "Registered the next alarm from the schedule record.");
+        return true;
+    }
 
     /**
      * Sets the next alarm to ring. Does not create a new pending intent, rather updates the current
      * one. Tells AlarmManager to wake up and call AlarmRingingService. Sends MSG_NEXT_ALARM if
-     * necessary.
+     * necessary. The intent only carries a handle to the alarm (see resolveAlarm()), so it never
+     * goes stale when the alarm changes later.
      * @param context the current context
-     * @param alarmInfo the alarm to register as the next alarm
+     * @param alarm the alarm to register as the next alarm, or null to cancel
      */
-    private synchronized static Alarm registerAlarm(@NotNull Context context, @NotNull ItemInfo alarmInfo) {
+    private synchronized static void registerAlarm(@NotNull Context context,
+                                                   @Nullable ScheduleRecord.Entry alarm) {
         Intent intent = new Intent(context, RingingService.class);
-        // if (alarmInfo.item != null) intent.putExtra(Constants.EXTRA_ITEM_INFO, alarmInfo);
-        if (alarmInfo.item != null) intent.putExtra(Constants.EXTRA_ITEM, alarmInfo.item.toEditString());
-        intent.putExtra(Constants.EXTRA_PATH, alarmInfo.path);
+        if (alarm != null) {
+            intent.putExtra(Constants.EXTRA_ID, alarm.id);
+            intent.putExtra(Constants.EXTRA_RING_TIME, alarm.ringTimeMillis);
+        }
 
         AlarmManager manager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
         PendingIntent pendingIntent;
@@ -186,58 +612,471 @@ public class RootFolder extends AlarmGroup {
         if (manager == null || pendingIntent == null) {
             if (BuildConfig.DEBUG) Log.i(TAG, "Couldn't reach alarm manager or the service to get" +
                     "the pending intent.");
-            return (Alarm) alarmInfo.item;
+            return;
         }
 
-        if (alarmInfo.item == null) {
+        if (alarm == null) {
             if (BuildConfig.DEBUG) Log.i(TAG, "No next listable to register to ring.");
             manager.cancel(pendingIntent);
         }
         else {
             if (BuildConfig.DEBUG) Log.i(TAG, "Sent an intent to AlarmManager.");
             manager.setAlarmClock(
-                    new AlarmManager.AlarmClockInfo(((Alarm) alarmInfo.item).getAlarmTimeMillis(),
-                            pendingIntent),
+                    new AlarmManager.AlarmClockInfo(alarm.ringTimeMillis, pendingIntent),
                     pendingIntent);
         }
-        return (Alarm) alarmInfo.item;
+        registerPreAlarm(context, manager, alarm, PIFlags);
     }
 
     /**
-     * Searches for the next Alarm that will ring. Returns the listable and absolute index of the
-     * listable (within the current dataset) within a ListableInfo struct.
-     * @param data the dataset to look through, cannot be null
-     * @return a ListableInfo with alarm and path filled correctly, alarm can be null if there is no
-     * active alarm within the data given
+     * Sets the pre-alarm for the next alarm, which prepares the ringing pipeline a little while
+     * before it rings (see PreAlarmReceiver). Cancels it if there's no next alarm, if the user
+     * turned it off, or if it's too late for it.
+     * @param context the current context
+     * @param manager the alarm manager to register with
+     * @param alarm the next alarm, or null to cancel
+     * @param PIFlags the flags for the pending intent
      */
-    @NotNull
-    private synchronized static ItemInfo findNextRingingAlarm(@NotNull List<Item> data) {
-        Alarm next = null;
+    private static void registerPreAlarm(@NotNull Context context, @NotNull AlarmManager manager,
+                                         @Nullable ScheduleRecord.Entry alarm, int PIFlags) {
+        Intent intent = new Intent(context, PreAlarmReceiver.class);
+        if (alarm != null) {
+            intent.putExtra(Constants.EXTRA_ID, alarm.id);
+        }
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, intent, PIFlags);
+        if (pendingIntent == null) return;
+
+        long lead = 1000L * PrefsActivity.getPrefs(context)
+                .getInt(PrefsActivity.PREF_PREWARM_LEAD, PrefsActivity.DEFAULT_PREWARM_LEAD);
+        if (alarm == null || lead <= 0 || alarm.ringTimeMillis - lead <= System.currentTimeMillis()) {
+            manager.cancel(pendingIntent);
+            return;
+        }
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M)
+            manager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, alarm.ringTimeMillis - lead,
+                    pendingIntent);
+        else manager.setExact(AlarmManager.RTC_WAKEUP, alarm.ringTimeMillis - lead, pendingIntent);
+    }
+
+    /**
+     * Turns the snapshot of an alarm into what's needed to register it.
+     * @param alarm the snapshot of the alarm, can be null
+     * @return the alarm as a schedule entry, or null if the snapshot was null
+     */
+    @Nullable @Contract(pure = true)
+    private static ScheduleRecord.Entry toEntry(@Nullable ItemSnapshot alarm) {
+        return alarm == null ? null : new ScheduleRecord.Entry(alarm.id, alarm.ringTimeMillis);
+    }
 
+    /**
+     * Makes sure the ringtones of every alarm in the snapshot (and only those) are cached, so they
+     * can be played without the media provider (see RingtoneCache).
+     * @param context the current context
+     * @param snapshot the snapshot of the whole tree
+     */
+    private static void cacheRingtones(@NotNull Context context, @NotNull ItemSnapshot snapshot) {
+        Set<Uri> ringtones = new HashSet<>();
+        findRingtones(snapshot, ringtones);
+        RingtoneCache.sync(context, ringtones);
+    }
+
+    /**
+     * Collects the ringtones used by the alarms within a snapshot, skipping silent ones.
+     * @param item the snapshot to look through, cannot be null
+     * @param ringtones gets the ringtones found
+     */
+    private static void findRingtones(@NotNull ItemSnapshot item, @NotNull Set<Uri> ringtones) {
+        if (item.ringtoneUri != null) ringtones.add(item.ringtoneUri);
+        if (item.children == null) return;
+        for (ItemSnapshot child : item.children) findRingtones(child, ringtones);
+    }
+
+    /**
+     * Updates the ring times of all active alarms within the given items (doesn't go into inactive
+     * folders or folders without any active alarms).
+     * @param data the items to update, cannot be null
+     * @param changed gets every alarm whose ring time actually changed, so that it can be moved to
+     *                its new place afterwards (it can't be moved while the items are being iterated)
+     */
+    private static void updateRingTimes(@NotNull List<Item> data, @NotNull List<Item> changed) {
         for (Item curr : data) {
             if (!curr.isActive()) continue;
 
             if (curr instanceof Alarm) {
-                ((Alarm) curr).updateRingTime();
+                Alarm a = (Alarm) curr;
+                long old = a.getAlarmTimeMillis();
+                a.updateRingTime();
+                if (a.getAlarmTimeMillis() != old) changed.add(a);
+            }
+            else if (((AlarmGroup) curr).getActiveAlarms() != 0)
+                updateRingTimes(((AlarmGroup) curr).getItems(), changed);
+        }
+    }
 
-                // check whether it could be the next listable
-                if (next == null || ((Alarm) curr).getAlarmTimeMillis() < next.getAlarmTimeMillis()) {
-                    next = (Alarm) curr;
-                }
+    /**
+     * Searches for the next Alarm that will ring within a folder snapshot. Skips anything inactive,
+     * including everything within inactive folders, and folders without any active alarms.
+     * @param folder the folder snapshot to look through, cannot be null
+     * @param path the path of the items within the folder
+     * @param next holds the best candidate found so far in index 0 (or null if none)
+     * @param nextPath holds the path of the best candidate in index 0
+     */
+    private static void findNextRingingAlarm(@NotNull ItemSnapshot folder, @NotNull String path,
+                                             @NotNull ItemSnapshot[] next, @NotNull String[] nextPath) {
+        if (folder.children == null) return;
+
+        for (ItemSnapshot curr : folder.children) {
+            if (!curr.isActive || curr.activeAlarms == 0) continue;
+
+            if (curr.isFolder()) {
+                findNextRingingAlarm(curr, path + curr.name + '/', next, nextPath);
             }
-            else {
-                ItemInfo poss = findNextRingingAlarm(((AlarmGroup) curr).getItems());
-                // there is no candidate in this folder
-                if (poss.item == null) continue;
-
-                // we had no candidate before or this candidate is better
-                if (next == null || ((Alarm) poss.item).getAlarmTimeMillis() < next.getAlarmTimeMillis()) {
-                    next = (Alarm) poss.item;
+            else if (next[0] == null || curr.ringTimeMillis < next[0].ringTimeMillis) {
+                next[0] = curr;
+                nextPath[0] = path;
+            }
+        }
+    }
+
+    // *************************************  Inner Classes  ************************************
+
+    /**
+     * A single operation within a transaction.
+     */
+    private interface Operation {
+        /**
+         * Applies the operation to the tree.
+         * @param entry records how to undo/redo what the operation actually did
+         */
+        void apply(@NotNull EditHistory.Entry entry);
+    }
+
+    /**
+     * A set of changes to the root folder that are applied together. All operations are applied in
+     * order under a single lock, and the tree is saved and the next alarm rescheduled exactly once
+     * afterwards. Operations that fail (e.g. the item can't be found) are logged and skipped, just
+     * like the single folder methods. Committed transactions can be undone with undo().
+     */
+    public final class Transaction {
+        /**
+         * The operations to apply, in order.
+         */
+        @NotNull
+        private final List<Operation> ops = new ArrayList<>();
+
+        /**
+         * Records how to undo/redo whatever the operations actually did.
+         */
+        @NotNull
+        private final EditHistory.Entry entry = new EditHistory.Entry();
+
+        /**
+         * Whether every operation only changes ring state (see saveRingState()).
+         */
+        private boolean ringStateOnly = true;
+
+        /**
+         * The ids of the alarms whose ring state was changed by the operations.
+         */
+        @NotNull
+        private final Set<Integer> ringStateIds = new HashSet<>();
+
+        /**
+         * Whether the transaction should be added to the undo history when committed.
+         */
+        private final boolean recorded;
+
+        /**
+         * Creates a new empty transaction. Use RootFolder.batch() to get one.
+         * @param recorded whether the transaction should be added to the undo history
+         */
+        private Transaction(boolean recorded) { this.recorded = recorded; }
+
+        /**
+         * Adds an item at the given path.
+         * @param info the info given about the item to add (should be completely filled)
+         * @return this transaction
+         */
+        @NotNull
+        public Transaction add(@Nullable final ItemInfo info) {
+            return then(entry -> {
+                RootFolder.super.addItem(info);
+                if (info != null && info.item != null && info.item.getParent() != null)
+                    entry.attached(info.item, info.item.getParent());
+            });
+        }
+
+        /**
+         * Deletes the item described by the given info.
+         * @param info the info of the item to delete (item should at least have the right id,
+         *             path isn't necessary, but helps search)
+         * @return this transaction
+         */
+        @NotNull
+        public Transaction delete(@Nullable final ItemInfo info) {
+            return then(entry -> {
+                Item i = findItem(info);
+                AlarmGroup parent = i == null ? null : i.getParent();
+                RootFolder.super.deleteItem(info);
+                if (parent != null) entry.detached(i, parent);
+            });
+        }
+
+        /**
+         * Moves an item to a new path. The item itself can change, but the id must remain the same.
+         * @param info info about the new item to replace with (must always be completely filled)
+         * @param newPath the path to move the item to
+         * @return this transaction
+         */
+        @NotNull
+        public Transaction move(@Nullable final ItemInfo info, @Nullable final String newPath) {
+            return then(entry -> {
+                Item old = findItem(info);
+                AlarmGroup oldParent = old == null ? null : old.getParent();
+                RootFolder.super.moveItem(info, newPath);
+                if (oldParent == null || info.item == null || info.item.getParent() == null) return;
+
+                entry.detached(old, oldParent);
+                entry.attached(info.item, info.item.getParent());
+            });
+        }
+
+        /**
+         * Replaces an item with a new one.
+         * @param oldInfo the info of the old item (item should at least have the right id, path
+         *                isn't necessary, but helps search)
+         * @param item the new item to set it to
+         * @return this transaction
+         */
+        @NotNull
+        public Transaction replace(@Nullable final ItemInfo oldInfo, @Nullable final Item item) {
+            return then(entry -> {
+                Item old = findItem(oldInfo);
+                AlarmGroup parent = old == null ? null : old.getParent();
+                RootFolder.super.setItemById(oldInfo, item);
+                if (parent == null || item == null) return;
+
+                entry.detached(old, parent);
+                entry.attached(item, parent);
+            });
+        }
+
+        /**
+         * Toggles the active state of an item.
+         * @param info the info of the item to toggle (item should at least have the right id, path
+         *             isn't necessary, but helps search)
+         * @return this transaction
+         */
+        @NotNull
+        public Transaction toggle(@Nullable final ItemInfo info) {
+            return then(entry -> {
+                Item i = findItem(info);
+                if (i == null) return;
+
+                boolean old = i.isActive();
+                i.toggleActive();
+                itemChangedByRef(i);
+                entry.activeChanged(i, old, !old);
+            });
+        }
+
+        /**
+         * Sets the active state of an item.
+         * @param info the info of the item to change (item should at least have the right id, path
+         *             isn't necessary, but helps search)
+         * @param active the new active state
+         * @return this transaction
+         */
+        @NotNull
+        public Transaction setActive(@Nullable final ItemInfo info, final boolean active) {
+            return then(entry -> {
+                Item i = findItem(info);
+                if (i == null) return;
+
+                boolean old = i.isActive();
+                i.setActive(active);
+                itemChangedByRef(i);
+                entry.activeChanged(i, old, active);
+            });
+        }
+
+        /**
+         * Snoozes an alarm. Isn't recorded in the undo history.
+         * @param info the info of the alarm to snooze (item should at least have the right id,
+         *             path isn't necessary, but helps search)
+         * @return this transaction
+         */
+        @NotNull
+        public Transaction snooze(@Nullable final ItemInfo info) {
+            return thenRingState(entry -> {
+                Item i = findItem(info);
+                if (!(i instanceof Alarm)) return;
+
+                ((Alarm) i).snooze();
+                ringStateIds.add(i.getId());
+                itemChangedByRef(i);
+            });
+        }
+
+        /**
+         * Dismisses an alarm. Isn't recorded in the undo history.
+         * @param info the info of the alarm to dismiss (item should at least have the right id,
+         *             path isn't necessary, but helps search)
+         * @return this transaction
+         */
+        @NotNull
+        public Transaction dismiss(@Nullable final ItemInfo info) {
+            return thenRingState(entry -> {
+                Item i = findItem(info);
+                if (!(i instanceof Alarm)) return;
+
+                ((Alarm) i).dismiss();
+                ringStateIds.add(i.getId());
+                itemChangedByRef(i);
+            });
+        }
+
+        /**
+         * Sets the active state of a folder and of everything within it.
+         * @param info the info of the folder to change (item should at least have the right id,
+         *             path isn't necessary, but helps search)
+         * @param active the new active state
+         * @return this transaction
+         */
+        @NotNull
+        public Transaction setSubtreeActive(@Nullable final ItemInfo info, final boolean active) {
+            return then(entry -> {
+                AlarmGroup folder = findFolder(info);
+                if (folder == null) return;
+
+                folder.setSubtreeActive(active, entry);
+                itemChangedByRef(folder);
+            });
+        }
+
+        /**
+         * Moves the ring time of every alarm within a folder by the given number of minutes.
+         * @param info the info of the folder to change (item should at least have the right id,
+         *             path isn't necessary, but helps search)
+         * @param minutes the number of minutes to move the alarms by, can be negative
+         * @return this transaction
+         */
+        @NotNull
+        public Transaction shiftSubtreeTime(@Nullable final ItemInfo info, final int minutes) {
+            return then(entry -> {
+                AlarmGroup folder = findFolder(info);
+                if (folder == null) return;
+
+                folder.shiftSubtreeTime(minutes, entry);
+                itemChangedByRef(folder);
+            });
+        }
+
+        /**
+         * Sets the ringtone of every alarm within a folder.
+         * @param info the info of the folder to change (item should at least have the right id,
+         *             path isn't necessary, but helps search)
+         * @param ringtone the new ringtone, can be null if the ringtone is silent
+         * @return this transaction
+         */
+        @NotNull
+        public Transaction setSubtreeRingtone(@Nullable final ItemInfo info,
+                                              @Nullable final Uri ringtone) {
+            return then(entry -> {
+                AlarmGroup folder = findFolder(info);
+                if (folder == null) return;
+
+                folder.setSubtreeRingtone(ringtone, entry);
+                itemChangedByRef(folder);
+            });
+        }
+
+        /**
+         * Applies all operations in order, then saves and reschedules once. If this transaction is
+         * committed from within another one, saving (and recording it in the undo history) is left
+         * to the outer transaction. Empty transactions don't do anything. Transactions that only
+         * snooze or dismiss alarms only save the ring state of those alarms.
+         * @return the entry added to the undo history (to undo just this with undo(Entry)), or
+         * null if nothing was added
+         */
+        @Nullable
+        public EditHistory.Entry commit() {
+            EditHistory.Entry pushed = null;
+            synchronized (RootFolder.this) {
+                if (ops.isEmpty()) return null;
+
+                batchDepth++;
+                try {
+                    for (Operation op : ops) op.apply(entry);
+                }
+                finally {
+                    batchDepth--;
+                }
+                if (batchDepth > 0) return null;
+                if (recorded && !entry.isEmpty()) {
+                    history.push(entry);
+                    pushed = entry;
                 }
             }
+            if (ringStateOnly) saveRingState(ringStateIds);
+            else save();
+            return pushed;
+        }
+
+        /**
+         * Adds an arbitrary operation to the transaction.
+         * @param op the operation to add
+         * @return this transaction
+         */
+        @NotNull
+        private Transaction then(@NotNull Operation op) {
+            ops.add(op);
+            ringStateOnly = false;
+            return this;
+        }
+
+        /**
+         * Adds an operation that only changes the ring state of alarms, and adds their ids to
+         * ringStateIds.
+         * @param op the operation to add
+         * @return this transaction
+         */
+        @NotNull
+        private Transaction thenRingState(@NotNull Operation op) {
+            ops.add(op);
+            return this;
+        }
+
+        /**
+         * Finds the live item described by the info.
+         * @param info the info of the item to find
+         * @return the item within the tree, or null if not found
+         */
+        @Nullable
+        private Item findItem(@Nullable ItemInfo info) {
+            if (info == null || info.item == null) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "findItem: The item info was null.");
+                return null;
+            }
+            // if it happens to be a ref to the actual item, then we don't need to search for it
+            if (info.item.getParent() != null) return info.item;
+            return getItemById(info.path, info.item.getId());
         }
 
-        return next == null ? new ItemInfo() : next.getInfo();
+        /**
+         * Finds the live folder described by the info.
+         * @param info the info of the folder to find
+         * @return the folder within the tree, or null if not found or not a folder
+         */
+        @Nullable
+        private AlarmGroup findFolder(@Nullable ItemInfo info) {
+            Item i = findItem(info);
+            if (i != null && !(i instanceof AlarmGroup)) {
+                if (BuildConfig.DEBUG) Log.e(TAG, "findFolder: The item isn't a folder.");
+                return null;
+            }
+            return (AlarmGroup) i;
+        }
     }
 
     /**
@@ -300,38 +1139,153 @@ public class RootFolder extends AlarmGroup {
             return new ArrayList<>();
         }
 
+        // snoozing and dismissing don't rewrite alarms.txt, so its ring states may be outdated
+        Map<Integer, RingStateStore.State> states = RingStateStore.readAll(context);
+        if (!states.isEmpty()) applyRingStates(data, states);
+        // before anything updates the ring times, since that's what the actions are matched by
+        List<ScheduleRecord.Pending> actions = ScheduleRecord.readPending(context);
+        if (!actions.isEmpty()) {
+            int applied = applyPendingActions(data, actions);
+            if (BuildConfig.DEBUG) Log.i(TAG, "Applied " + applied + " pending actions.");
+        }
+
         if (BuildConfig.DEBUG) Log.i(TAG, "Alarm list retrieved successfully.");
         return data;
     }
 
     /**
-     * Writes all alarms in myAdapter to app-specific file storage, with file name ALARM_STORE_FILE_NAME
+     * Reads a single alarm from file without building the rest of the tree. Only the line of the
+     * alarm itself is parsed; every other line is skipped by comparing its prefix.
      * @param context The context to get file streams from. This value may not be null.
-     * @param data The data to write, doesn't include the AlarmGroup itself (uses getItems() to
-     *             retrieve items to write). This value may not be null.
+     * @param id the id of the alarm to read
+     * @return the alarm (not attached to any folder), or null if it wasn't found
      */
-    private synchronized static void writeAlarmsToDisk(@NotNull Context context, @NotNull AlarmGroup data) {
-        try {
-            File alarmFile = new File(context.getFilesDir(), ALARM_STORE_FILE_NAME);
-            //noinspection ResultOfMethodCallIgnored
-            alarmFile.createNewFile();
+    @Nullable
+    private synchronized static Alarm readAlarmFromDisk(@NotNull Context context, int id) {
+        String prefix = "a\t" + id + '\t';
+
+        try (BufferedReader bReader = new BufferedReader(new InputStreamReader(
+                context.openFileInput(ALARM_STORE_FILE_NAME), StandardCharsets.UTF_8))) {
+            String currLine = bReader.readLine();
+            while (currLine != null) {
+                int start = 0;
+                while (start < currLine.length() && currLine.charAt(start) == '\t') start++;
+
+                if (currLine.startsWith(prefix, start)) {
+                    Alarm alarm = Alarm.fromStoreString(context, currLine.substring(start));
+                    RingStateStore.State state = alarm == null ? null : RingStateStore.read(context, id);
+                    if (state != null) state.applyTo(alarm);
+                    return alarm;
+                }
+                currLine = bReader.readLine();
+            }
+        }
+        catch (IOException e) {
+            if (BuildConfig.DEBUG) Log.e(TAG, e.getMessage());
+            return null;
+        }
 
-            FileOutputStream os = context.openFileOutput(ALARM_STORE_FILE_NAME, Context.MODE_PRIVATE);
-            // FileLock fileLock = os.getChannel().lock();
+        if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't find the alarm in alarms.txt.");
+        return null;
+    }
 
-            StringBuilder builder = new StringBuilder();
-            for (Item l : data.getItems()) {
-                builder.append(l.toStoreString()).append('\n');
+    /**
+     * Sets the ring state of every alarm within the items to the one in the ring state file. Any
+     * alarm that changed is moved to its sorted place within its folder.
+     * @param data the items to change, cannot be null
+     * @param states the ring states by id, cannot be null
+     */
+    private static void applyRingStates(@NotNull List<Item> data,
+                                        @NotNull Map<Integer, RingStateStore.State> states) {
+        for (Item i : new ArrayList<>(data)) {
+            if (i instanceof AlarmGroup) {
+                applyRingStates(((AlarmGroup) i).getItems(), states);
+                continue;
             }
-            // delete the last '\n'
-            if (builder.length() != 0) builder.deleteCharAt(builder.length() - 1);
 
-            os.write(builder.toString().getBytes());
-            os.close();
-            // fileLock.release();
+            RingStateStore.State state = states.get(i.getId());
+            if (state != null && state.applyTo((Alarm) i)) itemChangedByRef(i);
         }
-        catch (Exception e) {
-            if (BuildConfig.DEBUG) Log.e(TAG, e.getMessage());
+    }
+
+    /**
+     * Applies the snoozes and dismissals taken before the user unlocked the device (see
+     * handleWhileLocked()) to the alarms within the items, in the order they were taken. Actions
+     * for alarms that have moved on since (their ring time is different) are skipped, so none are
+     * applied twice. Any alarm that changed is moved to its sorted place within its folder.
+     * @param data the items to change, cannot be null
+     * @param actions the pending actions, cannot be null
+     * @return the number of actions applied
+     */
+    static int applyPendingActions(@NotNull List<Item> data,
+                                   @NotNull List<ScheduleRecord.Pending> actions) {
+        int applied = 0;
+        for (Item i : new ArrayList<>(data)) {
+            if (i instanceof AlarmGroup) {
+                applied += applyPendingActions(((AlarmGroup) i).getItems(), actions);
+                continue;
+            }
+
+            Alarm alarm = (Alarm) i;
+            boolean changed = false;
+            for (ScheduleRecord.Pending a : actions) {
+                if (a.id != alarm.getId() || a.ringTimeMillis != alarm.getAlarmTimeMillis())
+                    continue;
+
+                if (a.dismissed) alarm.dismiss();
+                else alarm.snooze();
+                changed = true;
+                applied++;
+            }
+            if (changed) itemChangedByRef(alarm);
+        }
+        return applied;
+    }
+
+    /**
+     * Writes all alarms within the snapshot to app-specific file storage, with file name
+     * ALARM_STORE_FILE_NAME, after rewriting the ring state file (see RingStateStore). Does
+     * nothing if a newer snapshot has been published since, since that one will be written
+     * instead.
+     * @param context The context to get file streams from. This value may not be null.
+     * @param data The snapshot of the root to write, doesn't include the root itself. This value
+     *             may not be null.
+     */
+    private void writeAlarmsToDisk(@NotNull Context context, @NotNull ItemSnapshot data) {
+        synchronized (RootFolder.class) {
+            if (data != published || data.children == null) return;
+
+            // the ring state file wins over alarms.txt, so it can't be left behind
+            if (!RingStateStore.writeAll(context, data)) RingStateStore.clear(context);
+
+            try {
+                File alarmFile = new File(context.getFilesDir(), ALARM_STORE_FILE_NAME);
+                //noinspection ResultOfMethodCallIgnored
+                alarmFile.createNewFile();
+
+                FileOutputStream os = context.openFileOutput(ALARM_STORE_FILE_NAME, Context.MODE_PRIVATE);
+                // FileLock fileLock = os.getChannel().lock();
+
+                StringBuilder builder = new StringBuilder();
+                for (ItemSnapshot l : data.children) {
+                    l.appendStoreString(builder, 0);
+                    builder.append('\n');
+                }
+                // delete the last '\n'
+                if (builder.length() != 0) builder.deleteCharAt(builder.length() - 1);
+
+                os.write(builder.toString().getBytes());
+                os.close();
+                fullSavePending = false;
+                if (pendingApplied) {
+                    ScheduleRecord.clearPending(context);
+                    pendingApplied = false;
+                }
+                // fileLock.release();
+            }
+            catch (Exception e) {
+                if (BuildConfig.DEBUG) Log.e(TAG, e.getMessage());
+            }
         }
     }
 }
@@ -0,0 +1,436 @@
+package com.larmlarms.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.larmlarms.BuildConfig;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A tiny record of the next few alarms to ring (id, ring time and the alarm itself), rewritten
+ * whenever the schedule changes. Lets the next alarm be registered again after booting without
+ * loading the whole tree (see RootFolder.rearmFromSchedule()). Kept in device protected storage,
+ * so alarms can ring (and be snoozed or dismissed) before the user first unlocks the device. Those
+ * snoozes and dismissals are kept as pending actions until the tree can be loaded again.
+ */
+final class ScheduleRecord {
+	/**
+	 * Tag of the class for logging purposes.
+	 */
+	private static final String TAG = "ScheduleRecord";
+
+	/**
+	 * The name of the file that stores the record. Found within private storage for the app.
+	 */
+	private static final String FILE_NAME = "schedule";
+	/**
+	 * The name of the file that stores the pending actions. Also in device protected storage.
+	 */
+	private static final String PENDING_FILE_NAME = "schedule_pending";
+	/**
+	 * The first int of the file, to recognize it.
+	 */
+	private static final int MAGIC = 0x4C52_5344;
+	/**
+	 * The max number of alarms in the record.
+	 */
+	static final int COUNT = 4;
+
+	/**
+	 * The entries that were last written, or null if none were written by this process. Guarded by
+	 * the class lock.
+	 */
+	@Nullable
+	private static List<Entry> written;
+
+	/**
+	 * Not meant to be made.
+	 */
+	private ScheduleRecord() {}
+
+	// ************************************  Static Methods  ************************************
+
+	/**
+	 * Finds the next alarms to ring within a snapshot, the same way the next alarm to register is
+	 * found.
+	 * @param root the snapshot of the whole tree, cannot be null
+	 * @return at most COUNT entries, soonest first, will not be null
+	 */
+	@NotNull @Contract(pure = true)
+	static List<Entry> find(@NotNull ItemSnapshot root) {
+		List<ItemSnapshot> alarms = new ArrayList<>(COUNT + 1);
+		find(root, alarms);
+
+		List<Entry> entries = new ArrayList<>(alarms.size());
+		for (ItemSnapshot a : alarms) {
+			entries.add(new Entry(a.id, a.ringTimeMillis, a.toStoreString()));
+		}
+		return entries;
+	}
+
+	/**
+	 * Finds the first entry that hasn't rung yet.
+	 * @param entries the entries to look through, soonest first, cannot be null
+	 * @return the first entry in the future, or null if there isn't one
+	 */
+	@Nullable @Contract(pure = true)
+	static Entry next(@NotNull List<Entry> entries) {
+		long now = System.currentTimeMillis();
+		for (Entry e : entries) if (e.ringTimeMillis > now) return e;
+		return null;
+	}
+
+	/**
+	 * Adds an entry to a list of entries, keeping it sorted. Doesn't limit the number of entries.
+	 * @param entries the entries to add to, soonest first, cannot be null
+	 * @param entry the entry to add, cannot be null
+	 */
+	static void insert(@NotNull List<Entry> entries, @NotNull Entry entry) {
+		int i = entries.size();
+		while (i > 0 && entries.get(i - 1).ringTimeMillis > entry.ringTimeMillis) i--;
+		entries.add(i, entry);
+	}
+
+	/**
+	 * Writes the record, unless it's the same as the one written last.
+	 * @param context the current context, cannot be null
+	 * @param entries the entries to write, soonest first, cannot be null
+	 */
+	static synchronized void write(@NotNull Context context, @NotNull List<Entry> entries) {
+		if (entries.equals(written)) return;
+		if (write(getFile(context), entries)) written = new ArrayList<>(entries);
+	}
+
+	/**
+	 * Writes the record to the given file. Replaces the old file in one go, so it's never half
+	 * written.
+	 * @param f the file to write, cannot be null
+	 * @param entries the entries to write, soonest first, cannot be null
+	 * @return whether the file was written
+	 */
+	static synchronized boolean write(@NotNull File f, @NotNull List<Entry> entries) {
+		File temp = new File(f.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(entries.size());
+			for (Entry e : entries) {
+				out.writeInt(e.id);
+				out.writeLong(e.ringTimeMillis);
+				out.writeBoolean(e.alarm != null);
+				if (e.alarm != null) out.writeUTF(e.alarm);
+			}
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't write the schedule record.");
+			//noinspection ResultOfMethodCallIgnored
+			temp.delete();
+			return false;
+		}
+
+		if (!temp.renameTo(f)) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't replace the schedule record.");
+			//noinspection ResultOfMethodCallIgnored
+			temp.delete();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the record.
+	 * @param context the current context, cannot be null
+	 * @return the entries, soonest first, or null if there's no (valid) record
+	 */
+	@Nullable
+	static synchronized List<Entry> read(@NotNull Context context) {
+		return read(getFile(context));
+	}
+
+	/**
+	 * Reads the record from the given file.
+	 * @param f the file to read, cannot be null
+	 * @return the entries, soonest first, or null if there's no (valid) record
+	 */
+	@Nullable
+	static synchronized List<Entry> read(@NotNull File f) {
+		if (!f.isFile()) return null;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(f)))) {
+			if (in.readInt() != MAGIC) return null;
+
+			int count = in.readInt();
+			if (count < 0 || count > COUNT) return null;
+			List<Entry> entries = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				int id = in.readInt();
+				long ringTime = in.readLong();
+				entries.add(new Entry(id, ringTime, in.readBoolean() ? in.readUTF() : null));
+			}
+			return entries;
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't read the schedule record.");
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a single alarm from the record, for when alarms.txt can't be read (before the user
+	 * first unlocks the device).
+	 * @param context the current context, cannot be null
+	 * @param id the id of the alarm
+	 * @return the alarm, or null if it isn't in the record
+	 */
+	@Nullable
+	static Alarm readAlarm(@NotNull Context context, int id) {
+		List<Entry> entries = read(context);
+		if (entries == null) return null;
+
+		for (Entry e : entries) {
+			if (e.id == id) return e.alarm == null ? null : Alarm.fromStoreString(context, e.alarm);
+		}
+		return null;
+	}
+
+	// ********************************  Pending Action Methods  ********************************
+
+	/**
+	 * Adds an action taken before the user unlocked the device, to be applied to the tree once it
+	 * can be loaded.
+	 * @param context the current context, cannot be null
+	 * @param action the action taken
+	 */
+	static synchronized void addPending(@NotNull Context context, @NotNull Pending action) {
+		addPending(getPendingFile(context), action);
+	}
+
+	/**
+	 * Adds an action to the end of the given file.
+	 * @param f the file to add to, cannot be null
+	 * @param action the action taken
+	 */
+	static synchronized void addPending(@NotNull File f, @NotNull Pending action) {
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(f, true))) {
+			out.writeBoolean(action.dismissed);
+			out.writeInt(action.id);
+			out.writeLong(action.ringTimeMillis);
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't add a pending action.");
+		}
+	}
+
+	/**
+	 * Checks whether there are any actions left to apply to the tree.
+	 * @param context the current context, cannot be null
+	 * @return whether there are pending actions
+	 */
+	static synchronized boolean hasPending(@NotNull Context context) {
+		return getPendingFile(context).isFile();
+	}
+
+	/**
+	 * Reads all pending actions. They stay pending until clearPending() is called.
+	 * @param context the current context, cannot be null
+	 * @return the pending actions in the order they were taken, will not be null
+	 */
+	@NotNull
+	static synchronized List<Pending> readPending(@NotNull Context context) {
+		return readPending(getPendingFile(context));
+	}
+
+	/**
+	 * Reads all actions in the given file. A record cut short at the end is left out.
+	 * @param f the file to read, cannot be null
+	 * @return the actions in the order they were taken, will not be null
+	 */
+	@NotNull
+	static synchronized List<Pending> readPending(@NotNull File f) {
+		List<Pending> actions = new ArrayList<>();
+		if (!f.isFile()) return actions;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(f)))) {
+			long count = f.length() / Pending.BYTES;
+			for (int i = 0; i < count; i++)
+				actions.add(new Pending(in.readBoolean(), in.readInt(), in.readLong()));
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't read the pending actions.");
+		}
+		return actions;
+	}
+
+	/**
+	 * Deletes all pending actions, once they've been applied to the tree.
+	 * @param context the current context, cannot be null
+	 */
+	static synchronized void clearPending(@NotNull Context context) {
+		//noinspection ResultOfMethodCallIgnored
+		getPendingFile(context).delete();
+	}
+
+	// ************************************  Other Methods  *************************************
+
+	/**
+	 * Adds the next alarms to ring within a folder snapshot to the list, keeping it sorted by ring
+	 * time and at most COUNT long. Skips anything inactive, including everything within inactive
+	 * folders, and folders without any active alarms.
+	 * @param folder the folder snapshot to look through, cannot be null
+	 * @param alarms the alarms found so far, soonest first
+	 */
+	private static void find(@NotNull ItemSnapshot folder, @NotNull List<ItemSnapshot> alarms) {
+		if (folder.children == null) return;
+
+		for (ItemSnapshot curr : folder.children) {
+			if (!curr.isActive || curr.activeAlarms == 0) continue;
+
+			if (curr.isFolder()) {
+				find(curr, alarms);
+				continue;
+			}
+
+			int i = alarms.size();
+			while (i > 0 && alarms.get(i - 1).ringTimeMillis > curr.ringTimeMillis) i--;
+			if (i >= COUNT) continue;
+
+			alarms.add(i, curr);
+			if (alarms.size() > COUNT) alarms.remove(COUNT);
+		}
+	}
+
+	/**
+	 * Gets the file the record is kept in.
+	 * @param context the current context, cannot be null
+	 * @return the file, which might not exist yet
+	 */
+	@NotNull
+	private static File getFile(@NotNull Context context) {
+		return new File(RootFolder.getDeviceStorageContext(context).getFilesDir(), FILE_NAME);
+	}
+
+	/**
+	 * Gets the file the pending actions are kept in.
+	 * @param context the current context, cannot be null
+	 * @return the file, which might not exist yet
+	 */
+	@NotNull
+	private static File getPendingFile(@NotNull Context context) {
+		return new File(RootFolder.getDeviceStorageContext(context).getFilesDir(),
+				PENDING_FILE_NAME);
+	}
+
+	// *************************************  Inner Classes  ************************************
+
+	/**
+	 * An alarm within the record.
+	 */
+	static final class Entry {
+		/**
+		 * The id of the alarm.
+		 */
+		final int id;
+		/**
+		 * The time the alarm is going to ring, in millis.
+		 */
+		final long ringTimeMillis;
+		/**
+		 * The store string of the alarm (see Alarm.toStoreString()), or null if it isn't known.
+		 */
+		@Nullable
+		final String alarm;
+
+		/**
+		 * Creates a new entry without the alarm itself.
+		 * @param id the id of the alarm
+		 * @param ringTimeMillis the time the alarm is going to ring, in millis
+		 */
+		Entry(int id, long ringTimeMillis) { this(id, ringTimeMillis, null); }
+
+		/**
+		 * Creates a new entry.
+		 * @param id the id of the alarm
+		 * @param ringTimeMillis the time the alarm is going to ring, in millis
+		 * @param alarm the store string of the alarm, can be null
+		 */
+		Entry(int id, long ringTimeMillis, @Nullable String alarm) {
+			this.id = id;
+			this.ringTimeMillis = ringTimeMillis;
+			this.alarm = alarm;
+		}
+
+		/**
+		 * Checks whether the entries are for the same alarm (with the same settings) at the same
+		 * time.
+		 * @param other the other object to check
+		 * @return whether they're equal
+		 */
+		@Override @Contract(pure = true)
+		public boolean equals(@Nullable Object other) {
+			if (!(other instanceof Entry)) return false;
+			Entry that = (Entry) other;
+			return id == that.id && ringTimeMillis == that.ringTimeMillis &&
+					Objects.equals(alarm, that.alarm);
+		}
+
+		/**
+		 * Gets the hash code of the entry.
+		 * @return the hash code
+		 */
+		@Override @Contract(pure = true)
+		public int hashCode() { return 31*id + (int) (ringTimeMillis ^ (ringTimeMillis >>> 32)); }
+	}
+
+	/**
+	 * A snooze or dismissal taken before the user unlocked the device.
+	 */
+	static final class Pending {
+		/**
+		 * The size of a pending action within the file.
+		 */
+		private static final int BYTES = 1 + 4 + 8;
+
+		/**
+		 * Whether the alarm was dismissed (or snoozed if false).
+		 */
+		final boolean dismissed;
+		/**
+		 * The id of the alarm.
+		 */
+		final int id;
+		/**
+		 * The ring time of the alarm when the action was taken, in millis. The action is only
+		 * applied if the alarm still has this ring time, so it's never applied twice.
+		 */
+		final long ringTimeMillis;
+
+		/**
+		 * Creates a new pending action.
+		 * @param dismissed whether the alarm was dismissed (or snoozed if false)
+		 * @param id the id of the alarm
+		 * @param ringTimeMillis the ring time of the alarm when the action was taken, in millis
+		 */
+		Pending(boolean dismissed, int id, long ringTimeMillis) {
+			this.dismissed = dismissed;
+			this.id = id;
+			this.ringTimeMillis = ringTimeMillis;
+		}
+	}
+}
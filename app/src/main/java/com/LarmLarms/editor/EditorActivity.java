@@ -31,6 +31,7 @@ import com.larmlarms.data.Alarm;
 import com.larmlarms.data.AlarmGroup;
 import com.larmlarms.data.Item;
 import com.larmlarms.data.ItemInfo;
+import com.larmlarms.data.ItemSnapshot;
 import com.larmlarms.data.RootFolder;
 import com.larmlarms.main.MainApplication;
 import com.larmlarms.main.PrefsActivity;
@@ -89,10 +90,11 @@ public class EditorActivity extends AppCompatActivity
 
 	// information about the original received item
 	/**
-	 * The original item received from the caller. Can be null if a new item is being made.
+	 * A snapshot of the original item received from the caller. Can be null if a new item is being
+	 * made.
 	 */
 	@Nullable
-	private Item originalItem;
+	private ItemSnapshot originalItem;
 	/**
 	 * The original path of the current item.
 	 */
@@ -214,20 +216,18 @@ public class EditorActivity extends AppCompatActivity
 				return;
 			}
 
-			Item i;
-			if (isAlarm) i = Alarm.fromEditString(this, extras.getString(Constants.EXTRA_ITEM));
-			else i = AlarmGroup.fromEditString(extras.getString(Constants.EXTRA_ITEM));
+			Item i = extras.getParcelable(Constants.EXTRA_ITEM);
+			if (i instanceof Alarm) ((Alarm) i).setContext(this);
 
 			originalPath = extras.getString(Constants.EXTRA_PATH);
 
-			if (i == null) {
+			if (i == null || (i instanceof Alarm) != isAlarm) {
 				if (BuildConfig.DEBUG) Log.e(TAG, "item info is invalid.");
 				finish();
 				return;
 			}
 			workingItem = i;
-			originalItem = workingItem instanceof Alarm ?
-					new Alarm((Alarm)workingItem) : new AlarmGroup((AlarmGroup)workingItem);
+			originalItem = workingItem.getSnapshot();
 		}
 
 		PrefsActivity.applyPrefsStyle(this);
@@ -283,7 +283,7 @@ public class EditorActivity extends AppCompatActivity
 		if (!saveItem()) return;
 
 		ItemInfo data = new ItemInfo();
-		RootFolder rootFolder = ((MainApplication) getApplication()).rootFolder;
+		RootFolder rootFolder = ((MainApplication) getApplication()).getRootFolder();
 
 		if (isEditing) {
 			workingItem.turnOn();		// in case it was snoozed or something weird
@@ -298,9 +298,10 @@ public class EditorActivity extends AppCompatActivity
 			}
 
 			// check if the item itself was changed
-			if (!workingItem.equals(originalItem)) {
-				// path didn't change but item did, so use MSG_SET_LISTABLE
-				data.item = originalItem;
+			if (originalItem == null || !workingItem.toEditString().equals(originalItem.editString)) {
+				// path didn't change but item did, so use MSG_SET_LISTABLE (ids are the same, so
+				// the working item can stand in for the original)
+				data.item = workingItem;
 				data.path = originalPath;
 				rootFolder.setItemById(data, workingItem);
 			}
@@ -499,9 +500,7 @@ public class EditorActivity extends AppCompatActivity
 				uri = data.getParcelableExtra(RingtoneManager.EXTRA_RINGTONE_PICKED_URI);
 
 			((Alarm) workingItem).setRingtoneUri(uri);
-
-			TextView t = findViewById(R.id.soundText);
-			t.setText(((Alarm) workingItem).getRingtoneName());
+			showRingtoneName();
 		}
 	}
 
@@ -552,8 +551,7 @@ public class EditorActivity extends AppCompatActivity
 		spinner.setOnItemSelectedListener(this);
 
 		// set name of the current ringtone
-		TextView alarmSoundLabel = findViewById(R.id.soundText);
-		alarmSoundLabel.setText(((Alarm) workingItem).getRingtoneName());
+		showRingtoneName();
 
 		// set the volume bar to the current volume and register listeners
 		SeekBar volumeBar = findViewById(R.id.volumeSeekBar);
@@ -676,14 +674,15 @@ public class EditorActivity extends AppCompatActivity
 	 * Handles setup of the folder spinner. Currently does this synchronously.
 	 */
 	private void setupFolderStructure() {
-		paths = ((MainApplication)getApplication()).rootFolder.toPathList();
+		RootFolder rootFolder = ((MainApplication)getApplication()).getRootFolder();
+		paths = rootFolder.toPathList();
 
 		if (isEditing && !isAlarm) {
 			if (originalItem == null) {
 				if (BuildConfig.DEBUG) Log.e(TAG, "Can't setup folder structure without the original item being valid.");
 				return;
 			}
-			String folderPath = originalPath + originalItem.getName() + '/';
+			String folderPath = originalPath + originalItem.name + '/';
 			for (int i = paths.size() - 1; i > 0; i--) {
 				if (paths.get(i).startsWith(folderPath)) paths.remove(i);
 			}
@@ -691,7 +690,12 @@ public class EditorActivity extends AppCompatActivity
 
 		Spinner spinner = findViewById(R.id.parentFolderInput);
 		ArrayAdapter<String> adapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_dropdown_item);
-		adapter.addAll(paths);
+		for (String path : paths) {
+			// show how many alarms are in each folder (stats are kept up to date, so this is cheap)
+			AlarmGroup folder = rootFolder.getFolder(path);
+			if (folder == null) adapter.add(path);
+			else adapter.add(getString(R.string.editor_folder_stats, path, folder.getTotalAlarms()));
+		}
 		adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
 		spinner.setAdapter(adapter);
 
@@ -706,6 +710,19 @@ public class EditorActivity extends AppCompatActivity
 
 	// ************************************  Other Methods  *********************************
 
+	/**
+	 * Shows the name of the working alarm's ringtone. If the name isn't cached yet, shows a
+	 * placeholder until it's been looked up in the background. For alarms only.
+	 */
+	private void showRingtoneName() {
+		final TextView soundText = findViewById(R.id.soundText);
+		final Alarm alarm = (Alarm) workingItem;
+		soundText.setText(alarm.getRingtoneName((uri, title) -> {
+			// the ringtone could have been changed again while the name was being looked up
+			if (!isDestroyed() && uri.equals(alarm.getRingtoneUri())) soundText.setText(title);
+		}));
+	}
+
 	/**
 	 * Changes repeat type to the new specified type. Changes both the working alarm type and the UI
 	 * layouts. For alarms only.
@@ -10,7 +10,10 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentManager;
 import androidx.fragment.app.FragmentTransaction;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.larmlarms.BuildConfig;
 import com.larmlarms.Constants;
@@ -23,9 +26,12 @@ import org.jetbrains.annotations.Nullable;
 
 /**
  * Shows just a single folder that the user can scroll through. Must be called with an intent that
- * gives the path of the current folder to use in the form of a string in EXTRA_PATH.
+ * gives the path of the current folder to use in the form of a string in EXTRA_PATH. Folders
+ * opened from within it are pushed onto a stack of fragments in the same activity, and the back
+ * button pops them off again.
  */
-public class FolderViewActivity extends AppCompatActivity implements View.OnClickListener, View.OnLongClickListener {
+public class FolderViewActivity extends AppCompatActivity implements View.OnClickListener,
+		View.OnLongClickListener, FragmentManager.OnBackStackChangedListener {
 	/**
 	 * Tag of the class for logging purposes.
 	 */
@@ -49,6 +55,13 @@ public class FolderViewActivity extends AppCompatActivity implements View.OnClic
 	 */
 	private String currPath;
 
+	/**
+	 * Pool of item views shared by the fragments of every level, so opening a folder can reuse the
+	 * views of the levels below it instead of inflating new ones.
+	 */
+	@NotNull
+	private final RecyclerView.RecycledViewPool viewPool = new RecyclerView.RecycledViewPool();
+
 	// ********************************* Lifecycle Methods *********************************
 
 	/**
@@ -66,8 +79,6 @@ public class FolderViewActivity extends AppCompatActivity implements View.OnClic
 		noAlarmsText = findViewById(R.id.noAlarmsText);
 		fragContainer = findViewById(R.id.fragFrame);
 
-		currPath = getIntent().getStringExtra(Constants.EXTRA_PATH);
-
 		int[] buttons = {R.id.backButton, R.id.editButton,
 				R.id.addAlarmButton, R.id.addFolderButton, R.id.settingsButton};
 		for (int i : buttons) {
@@ -76,15 +87,17 @@ public class FolderViewActivity extends AppCompatActivity implements View.OnClic
 			b.setOnLongClickListener(this);
 		}
 
-		((TextView) findViewById(R.id.titleText)).setText(currPath);
+		FragmentManager manager = getSupportFragmentManager();
+		manager.addOnBackStackChangedListener(this);
 
-		Bundle b = new Bundle();
-		b.putString(Constants.EXTRA_PATH, currPath);
-
-		// always need to reinflate the frag
-		FragmentTransaction trans = getSupportFragmentManager().beginTransaction();
-		trans.replace(R.id.fragFrame, RecyclerViewFrag.class, b, "recycler_frag");
-		trans.commitNow();
+		// a recreated activity gets its stack of fragments back from the fragment manager
+		if (savedInstanceState == null) {
+			FragmentTransaction trans = manager.beginTransaction();
+			trans.replace(R.id.fragFrame, RecyclerViewFrag.class,
+					pathArgs(getIntent().getStringExtra(Constants.EXTRA_PATH)), "recycler_frag");
+			trans.commitNow();
+		}
+		changeFolder();
 	}
 
 	/**
@@ -100,14 +113,7 @@ public class FolderViewActivity extends AppCompatActivity implements View.OnClic
 			recreate();
 		}
 
-		currFolder = ((MainApplication) getApplication()).rootFolder.getFolder(currPath);
-		
-		if (currFolder == null) {
-			if (BuildConfig.DEBUG) Log.e(TAG, "The folder couldn't be found.");
-			finish();
-		}
-		else if (currFolder.size() != 1) showFrag();
-		else hideFrag();
+		changeFolder();
 	}
 
 	// ************************************  Callbacks  **************************************
@@ -119,7 +125,7 @@ public class FolderViewActivity extends AppCompatActivity implements View.OnClic
 	@Override
 	public void onClick(@NotNull View view) {
 		int id = view.getId();
-		if (id == R.id.backButton) finish();
+		if (id == R.id.backButton) onBackPressed();
 		else if (id == R.id.editButton) editFolder();
 		else if (id == R.id.addAlarmButton) addNewAlarm(this);
 		else if (id == R.id.addFolderButton) addNewFolder(this);
@@ -150,6 +156,12 @@ public class FolderViewActivity extends AppCompatActivity implements View.OnClic
 		return true;
 	}
 
+	/**
+	 * Callback for changes to the stack of folders. Shows the folder now on top.
+	 */
+	@Override
+	public void onBackStackChanged() { changeFolder(); }
+
 	/**
 	 * Starts an activity to a new alarm (usually bound to the + button).
 	 * @param context the current context (usually an activity)
@@ -190,7 +202,7 @@ public class FolderViewActivity extends AppCompatActivity implements View.OnClic
 	private void editFolder() {
 		Intent intent = new Intent(this, EditorActivity.class);
 		intent.setAction(Constants.ACTION_EDIT_FOLDER);
-		intent.putExtra(Constants.EXTRA_ITEM, currFolder.toEditString());
+		intent.putExtra(Constants.EXTRA_ITEM, currFolder);
 		intent.putExtra(Constants.EXTRA_PATH, currFolder.getPath());
 
 		startActivity(intent);
@@ -198,6 +210,60 @@ public class FolderViewActivity extends AppCompatActivity implements View.OnClic
 
 	// ************************************  Other Methods  *************************************
 
+	/**
+	 * Opens a folder within this activity, on top of the current one. Costs a single fragment
+	 * transaction instead of an activity launch, and the current folder's fragment (and adapter)
+	 * stays alive on the back stack.
+	 * @param path the full path of the folder to open, cannot be null
+	 */
+	void openFolder(@NotNull String path) {
+		getSupportFragmentManager().beginTransaction()
+				.setTransition(FragmentTransaction.TRANSIT_FRAGMENT_OPEN)
+				.setReorderingAllowed(true)
+				.replace(R.id.fragFrame, RecyclerViewFrag.class, pathArgs(path), path)
+				.addToBackStack(path)
+				.commit();
+	}
+
+	/**
+	 * Returns the pool of item views shared by all levels of folders.
+	 */
+	@NotNull
+	RecyclerView.RecycledViewPool getViewPool() { return viewPool; }
+
+	/**
+	 * Updates the current path, folder, title and empty text to match the fragment on top. Finishes
+	 * the activity if the folder doesn't exist anymore.
+	 */
+	private void changeFolder() {
+		Fragment top = getSupportFragmentManager().findFragmentById(R.id.fragFrame);
+		Bundle args = top == null ? null : top.getArguments();
+		currPath = args == null ? null : args.getString(Constants.EXTRA_PATH);
+		((TextView) findViewById(R.id.titleText)).setText(currPath);
+
+		currFolder = currPath == null ? null :
+				((MainApplication) getApplication()).getRootFolder().getFolder(currPath);
+
+		if (currFolder == null) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "The folder couldn't be found.");
+			finish();
+		}
+		else if (currFolder.size() != 1) showFrag();
+		else hideFrag();
+	}
+
+	/**
+	 * Makes the arguments for a fragment showing the given folder.
+	 * @param path the full path of the folder
+	 * @return the arguments, will not be null
+	 */
+	@NotNull
+	private static Bundle pathArgs(@Nullable String path) {
+		Bundle b = new Bundle();
+		b.putString(Constants.EXTRA_PATH, path);
+		return b;
+	}
+
 	/**
 	 * Shows the recycler view fragment and hides the noAlarmsText.
 	 */
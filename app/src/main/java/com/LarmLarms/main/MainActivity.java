@@ -2,7 +2,6 @@ package com.larmlarms.main;
 
 import android.content.Intent;
 import android.os.Bundle;
-import android.text.format.DateFormat;
 import android.view.View;
 import android.widget.ImageButton;
 import android.widget.TextView;
@@ -11,6 +10,7 @@ import android.widget.Toast;
 import com.larmlarms.Constants;
 import com.larmlarms.R;
 import com.larmlarms.data.Alarm;
+import com.larmlarms.data.DisplayFormats;
 import com.larmlarms.editor.EditorActivity;
 
 import org.jetbrains.annotations.NotNull;
@@ -83,7 +83,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 			recreate();
 		}
 
-		if (app.rootFolder.size() != 1) showFrag();
+		if (app.getRootFolder().size() != 1) showFrag();
 		else hideFrag();
 
 		changeNextAlarm();
@@ -143,7 +143,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 	 * Builds and displays the next alarm to ring text, regardless of whether it changed or not.
 	 */
 	private void changeNextAlarm() {
-		Alarm nextAlarm = ((MainApplication)getApplication()).rootFolder.getCurrNextAlarm();
+		Alarm nextAlarm = ((MainApplication)getApplication()).getRootFolder().getCurrNextAlarm();
 
 		String text;
 
@@ -162,11 +162,12 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 				dateString = getResources().getString(R.string.main_date_string_tomorrow);
 			}
 
+			DisplayFormats formats = DisplayFormats.get(this);
 			if (dateString == null) {
 				dateString = String.format(getResources().getString(R.string.main_date_string),
-						DateFormat.getMediumDateFormat(this).format(nextAlarm.getAlarmTimeMillis()));
+						formats.formatMediumDate(nextAlarm.getAlarmTimeMillis()));
 			}
-			String timeString = DateFormat.getTimeFormat(this).format(nextAlarm.getAlarmTimeMillis());
+			String timeString = formats.formatTime(nextAlarm.getAlarmTimeMillis());
 
 			text = String.format(getResources().getString(R.string.main_next_alarm),
 					nextAlarm.getName(), dateString, timeString);
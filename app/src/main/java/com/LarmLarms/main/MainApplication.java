@@ -1,10 +1,19 @@
 package com.larmlarms.main;
 
 import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Configuration;
 
 import com.larmlarms.R;
+import com.larmlarms.data.DisplayFormats;
 import com.larmlarms.data.RootFolder;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
 /**
  * The main application. Stores some app-wide variables.
  */
@@ -16,13 +25,62 @@ public class MainApplication extends Application {
 	public boolean needsRestart = false;
 
 	/**
-	 * Root folder to for all activities and services in the process to access.
+	 * Root folder for all activities and services in the process to access. Only loaded when it's
+	 * first needed, so processes started just to ring (or re-register) an alarm don't load the
+	 * whole tree.
+	 */
+	@Nullable
+	private volatile RootFolder rootFolder;
+
+	/**
+	 * Gets the root folder, loading it if it hasn't been loaded yet.
+	 * @return the root folder, will not be null
+	 */
+	@NotNull
+	public RootFolder getRootFolder() {
+		RootFolder root = rootFolder;
+		if (root != null) return root;
+
+		synchronized (this) {
+			if (rootFolder == null)
+				rootFolder = new RootFolder(getResources().getString(R.string.root_folder), this);
+			return rootFolder;
+		}
+	}
+
+	/**
+	 * Gets the root folder without loading it.
+	 * @return the root folder, or null if it hasn't been loaded yet
 	 */
-	public RootFolder rootFolder;
+	@Nullable
+	public RootFolder peekRootFolder() { return rootFolder; }
 
 	@Override
 	public void onCreate() {
 		super.onCreate();
-		rootFolder = new RootFolder(getResources().getString(R.string.root_folder), this);
+		PrefsActivity.migratePrefs(this);
+		if (!RootFolder.isUserUnlocked(this)) migratePrefsOnUnlock();
+	}
+
+	@Override
+	public void onConfigurationChanged(Configuration newConfig) {
+		super.onConfigurationChanged(newConfig);
+		DisplayFormats.reset();
+	}
+
+	/**
+	 * Moves the settings once the user unlocks the device (see PrefsActivity.migratePrefs()), for
+	 * processes started before that, which would keep reading the empty device protected settings
+	 * otherwise. The unlock message is only sent to registered receivers, so this can't be done
+	 * in OnBootReceiver.
+	 */
+	private void migratePrefsOnUnlock() {
+		registerReceiver(new BroadcastReceiver() {
+			@Override
+			public void onReceive(Context context, Intent intent) {
+				unregisterReceiver(this);
+				PrefsActivity.migratePrefs(MainApplication.this);
+			}
+		}, new IntentFilter(Intent.ACTION_USER_UNLOCKED));
 	}
 }
@@ -2,7 +2,9 @@ package com.larmlarms.main;
 
 import android.app.Activity;
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
@@ -14,7 +16,10 @@ import android.widget.Switch;
 import com.google.android.material.switchmaterial.SwitchMaterial;
 import com.larmlarms.BuildConfig;
 import com.larmlarms.R;
+import com.larmlarms.data.RootFolder;
+import com.larmlarms.ringing.NotificationTemplate;
 
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import androidx.appcompat.app.AppCompatActivity;
@@ -55,6 +60,29 @@ public class PrefsActivity extends AppCompatActivity implements AdapterView.OnIt
 	 * and listable editor. True translates to menu on the top.
 	 */
 	public final static String PREF_MENU_POS = "com.larmlarms.PREFERENCE_MENU_POSITION";
+	/**
+	 * Within the shared preferences, this is the key for how long before an alarm rings to prepare
+	 * its sound and notification, stored as an integer number of seconds. 0 turns it off.
+	 */
+	public final static String PREF_PREWARM_LEAD = "com.larmlarms.PREFERENCE_PREWARM_LEAD";
+	/**
+	 * The default for PREF_PREWARM_LEAD, in seconds.
+	 */
+	public final static int DEFAULT_PREWARM_LEAD = 30;
+	/**
+	 * Within the shared preferences, this is the key for how long an alarm rings before it goes
+	 * silent by itself, stored as an integer number of minutes. 0 means never.
+	 */
+	public final static String PREF_AUTO_SILENCE = "com.larmlarms.PREFERENCE_AUTO_SILENCE";
+	/**
+	 * The default for PREF_AUTO_SILENCE, in minutes.
+	 */
+	public final static int DEFAULT_AUTO_SILENCE = 10;
+	/**
+	 * Within the shared preferences, this is the key for whether alarms that go silent by
+	 * themselves are snoozed instead of dismissed, stored as a boolean.
+	 */
+	public final static String PREF_AUTO_SNOOZE = "com.larmlarms.PREFERENCE_AUTO_SNOOZE";
 
 	/**
 	 * The editor for the preferences.
@@ -82,6 +110,18 @@ public class PrefsActivity extends AppCompatActivity implements AdapterView.OnIt
 	 * Stores whether the user wants the menu position to be on the top or bottom.
 	 */
 	private boolean menuPosTop;
+	/**
+	 * Stores how long before an alarm to prepare it, in seconds.
+	 */
+	private int prewarmLead;
+	/**
+	 * Stores how long an alarm rings before going silent, in minutes.
+	 */
+	private int autoSilence;
+	/**
+	 * Stores whether alarms that go silent are snoozed instead.
+	 */
+	private boolean autoSnooze;
 
 	/**
 	 * Creates the activity (sets up all of the UI)
@@ -102,7 +142,7 @@ public class PrefsActivity extends AppCompatActivity implements AdapterView.OnIt
 		adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
 		spinner.setAdapter(adapter);
 
-		prefs = getSharedPreferences(PREFS_KEY, MODE_PRIVATE);
+		prefs = getPrefs(this);
 		themeId = prefs.getInt(PREF_THEME_KEY, R.style.AppTheme_Beach);
 		originalThemeId = themeId;
 		if (themeId == R.style.AppTheme_Beach)
@@ -130,6 +170,34 @@ public class PrefsActivity extends AppCompatActivity implements AdapterView.OnIt
 		s = findViewById(R.id.menuPlacementSwitch);
 		menuPosTop = prefs.getBoolean(PREF_MENU_POS, false);
 		s.setChecked(menuPosTop);
+
+		// pre-alarm spinner
+		spinner = findViewById(R.id.prewarmSpinner);
+		adapter = ArrayAdapter.createFromResource(this, R.array.prewarm_leads,
+				android.R.layout.simple_spinner_dropdown_item);
+		adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+		spinner.setAdapter(adapter);
+
+		prewarmLead = prefs.getInt(PREF_PREWARM_LEAD, DEFAULT_PREWARM_LEAD);
+		int[] leads = getResources().getIntArray(R.array.prewarm_lead_seconds);
+		for (int i = 0; i < leads.length; i++) if (leads[i] == prewarmLead) spinner.setSelection(i);
+		spinner.setOnItemSelectedListener(this);
+
+		// auto-silence spinner
+		spinner = findViewById(R.id.autoSilenceSpinner);
+		adapter = ArrayAdapter.createFromResource(this, R.array.auto_silences,
+				android.R.layout.simple_spinner_dropdown_item);
+		adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+		spinner.setAdapter(adapter);
+
+		autoSilence = prefs.getInt(PREF_AUTO_SILENCE, DEFAULT_AUTO_SILENCE);
+		int[] silences = getResources().getIntArray(R.array.auto_silence_minutes);
+		for (int i = 0; i < silences.length; i++) if (silences[i] == autoSilence) spinner.setSelection(i);
+		spinner.setOnItemSelectedListener(this);
+
+		s = findViewById(R.id.autoSnoozeSwitch);
+		autoSnooze = prefs.getBoolean(PREF_AUTO_SNOOZE, false);
+		s.setChecked(autoSnooze);
 	}
 
 	// ***************************************  Callbacks  ************************************
@@ -140,18 +208,35 @@ public class PrefsActivity extends AppCompatActivity implements AdapterView.OnIt
 	 */
 	public void backButtonClicked(View view) { finish(); }
 
+	/**
+	 * Called when the ring timing stats button is clicked. Opens the stats without saving.
+	 * @param view the stats button
+	 */
+	public void statsButtonClicked(View view) {
+		startActivity(new Intent(this, RingStatsActivity.class));
+	}
+
 	/**
 	 * Called when the save button is clicked. Saves all of the preferences in one commit.
 	 * @param view the save button
 	 */
 	public void saveButtonClicked(View view) {
+		boolean leadChanged = prewarmLead != prefs.getInt(PREF_PREWARM_LEAD, DEFAULT_PREWARM_LEAD);
+		boolean themeChanged = themeId != prefs.getInt(PREF_THEME_KEY, R.style.AppTheme_Beach);
+
 		SharedPreferences.Editor editor = prefs.edit();
 		editor.putInt(PREF_THEME_KEY, themeId);
 		editor.putBoolean(PREF_SYSTEM_DARK_KEY, useSystemDark);
 		editor.putBoolean(PREF_DARK_MODE_KEY, darkModeOverride);
 		editor.putBoolean(PREF_MENU_POS, menuPosTop);
+		editor.putInt(PREF_PREWARM_LEAD, prewarmLead);
+		editor.putInt(PREF_AUTO_SILENCE, autoSilence);
+		editor.putBoolean(PREF_AUTO_SNOOZE, autoSnooze);
 		editor.apply();
 
+		if (leadChanged) ((MainApplication) getApplication()).getRootFolder().reschedulePreAlarm();
+		if (themeChanged) NotificationTemplate.invalidate();
+
 		int currNightMode = AppCompatDelegate.getDefaultNightMode();
 		boolean nightModeOk;
 		if (useSystemDark) nightModeOk = currNightMode == AppCompatDelegate.MODE_NIGHT_FOLLOW_SYSTEM;
@@ -180,6 +265,8 @@ public class PrefsActivity extends AppCompatActivity implements AdapterView.OnIt
 			darkModeOverride = checked;
 		else if (id == R.id.menuPlacementSwitch)
 			menuPosTop = checked;
+		else if (id == R.id.autoSnoozeSwitch)
+			autoSnooze = checked;
 		else
 			if (BuildConfig.DEBUG) Log.e(TAG, "Unknown switch flipped!");
 	}
@@ -195,7 +282,15 @@ public class PrefsActivity extends AppCompatActivity implements AdapterView.OnIt
 	 */
 	@Override
 	public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-		// for now, just theme selector
+		if (parent.getId() == R.id.prewarmSpinner) {
+			prewarmLead = getResources().getIntArray(R.array.prewarm_lead_seconds)[position];
+			return;
+		}
+		if (parent.getId() == R.id.autoSilenceSpinner) {
+			autoSilence = getResources().getIntArray(R.array.auto_silence_minutes)[position];
+			return;
+		}
+
 		String theme = (String) parent.getItemAtPosition(position);
 		if (theme.equals(getString(R.string.theme_beach))) themeId = R.style.AppTheme_Beach;
 		else if (theme.equals(getString(R.string.theme_candy))) themeId = R.style.AppTheme_Candy;
@@ -212,6 +307,33 @@ public class PrefsActivity extends AppCompatActivity implements AdapterView.OnIt
 
 	// **********************************  Other Methods  ***************************************
 
+	/**
+	 * Gets the app's settings. They're kept in device protected storage, since alarms need some of
+	 * them (like the theme of the ringing screen) to ring before the user unlocks the device.
+	 * @param c the current context
+	 * @return the app's settings
+	 */
+	@NotNull
+	public static SharedPreferences getPrefs(@NotNull Context c) {
+		return RootFolder.getDeviceStorageContext(c).getSharedPreferences(PREFS_KEY, MODE_PRIVATE);
+	}
+
+	/**
+	 * Moves the app's settings from credential protected storage (where older versions kept them)
+	 * to device protected storage. Does nothing if they were already moved, if the user hasn't
+	 * unlocked the device yet, or before Android N (which doesn't have device protected storage).
+	 * @param c the current context
+	 */
+	public static void migratePrefs(@NotNull Context c) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return;
+
+		Context deviceContext = RootFolder.getDeviceStorageContext(c);
+		if (deviceContext == c || !RootFolder.isUserUnlocked(c)) return;
+
+		if (!deviceContext.moveSharedPreferencesFrom(c, PREFS_KEY) && BuildConfig.DEBUG)
+			Log.e(TAG, "Couldn't move the settings to device protected storage.");
+	}
+
 	/**
 	 * Helper method that applies all of the style-related preferences to components for them.
 	 * Includes: theme and night mode (system and forced). Should be called BEFORE inflating any
@@ -219,7 +341,7 @@ public class PrefsActivity extends AppCompatActivity implements AdapterView.OnIt
 	 * @param c the context to apply preferences to
 	 */
 	public static void applyPrefsStyle(Context c) {
-		SharedPreferences prefs = c.getSharedPreferences(PREFS_KEY, MODE_PRIVATE);
+		SharedPreferences prefs = getPrefs(c);
 		c.setTheme(prefs.getInt(PrefsActivity.PREF_THEME_KEY, R.style.AppTheme_Beach));
 
 		if (prefs.getBoolean(PREF_SYSTEM_DARK_KEY, true)) {
@@ -241,7 +363,7 @@ public class PrefsActivity extends AppCompatActivity implements AdapterView.OnIt
 	 * @param a the activity to apply preferences to
 	 */
 	public static void applyPrefsUI(Activity a) {
-		SharedPreferences prefs = a.getSharedPreferences(PREFS_KEY, MODE_PRIVATE);
+		SharedPreferences prefs = getPrefs(a);
 
 		View topMenu = a.findViewById(R.id.topMenu);
 		View bottomMenu =  a.findViewById(R.id.bottomMenu);
@@ -3,32 +3,57 @@ package com.larmlarms.main;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.database.Cursor;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.google.android.material.snackbar.Snackbar;
 import com.google.android.material.switchmaterial.SwitchMaterial;
 import com.larmlarms.BuildConfig;
 import com.larmlarms.Constants;
 import com.larmlarms.R;
 import com.larmlarms.data.Alarm;
 import com.larmlarms.data.AlarmGroup;
+import com.larmlarms.data.EditHistory;
 import com.larmlarms.data.Item;
+import com.larmlarms.data.ItemInfo;
+import com.larmlarms.data.ItemSnapshot;
+import com.larmlarms.data.RingtoneTitles;
+import com.larmlarms.data.RootFolder;
 import com.larmlarms.editor.EditorActivity;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import androidx.appcompat.app.AlertDialog;
+import androidx.fragment.app.FragmentActivity;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 /**
  * Gets data for the RecyclerView holding alarms. It is unusable without the Messenger to the data
  * service, so be sure to set it before use.
  */
-class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.RecyclerViewHolder> {
+class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.RecyclerViewHolder>
+		implements AlarmGroup.ChangeListener {
 	/**
 	 * Tag of the class for logging purposes.
 	 */
@@ -38,6 +63,44 @@ class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.Recyc
 	 */
 	private static final String DIALOG_FRAG_TAG = "RecyclerView dialog";
 
+	/**
+	 * The number of rows formatted together in the background.
+	 */
+	private static final int PAGE_SIZE = 50;
+	/**
+	 * The max number of pages worth of formatted rows to keep. Rows outside of these are formatted
+	 * again when they're scrolled back to, so memory doesn't grow with the size of the folder.
+	 */
+	private static final int MAX_PAGES = 6;
+	/**
+	 * Payload for rows whose text was just formatted, so they're rebound without the change
+	 * animation.
+	 */
+	private static final Object PAYLOAD_TEXT = new Object();
+
+	/**
+	 * The thread pages are formatted (and ringtones listed) on, shared by every adapter.
+	 */
+	@NotNull
+	private static final ExecutorService pageExecutor = Executors.newSingleThreadExecutor();
+
+	/**
+	 * Compares rows for the differ. Rows are the same item if they have the same id, and have the
+	 * same contents if they're the same snapshot, since snapshots are replaced whenever their item
+	 * (or anything within it) changes.
+	 */
+	private static final DiffUtil.ItemCallback<ItemSnapshot> ROW_DIFF =
+		new DiffUtil.ItemCallback<ItemSnapshot>() {
+			@Override
+			public boolean areItemsTheSame(@NotNull ItemSnapshot oldRow, @NotNull ItemSnapshot newRow) {
+				return oldRow.id == newRow.id;
+			}
+			@Override
+			public boolean areContentsTheSame(@NotNull ItemSnapshot oldRow, @NotNull ItemSnapshot newRow) {
+				return oldRow == newRow;
+			}
+		};
+
 	/**
 	 * Handle to the current folder.
 	 */
@@ -50,6 +113,38 @@ class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.Recyc
 	@NotNull
 	private final Context context;
 
+	/**
+	 * Handler for the main thread, where the rows are refreshed.
+	 */
+	@NotNull
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Holds the rows currently shown (snapshots of the children of the folder) and diffs new ones
+	 * against them on a background thread.
+	 */
+	@NotNull
+	private final AsyncListDiffer<ItemSnapshot> differ = new AsyncListDiffer<>(this, ROW_DIFF);
+
+	/**
+	 * Whether a refresh of the rows has been posted but hasn't run yet.
+	 */
+	@NotNull
+	private final AtomicBoolean refreshPosted = new AtomicBoolean();
+
+	/**
+	 * The formatted text of the rows, keyed by snapshot. Snapshots are compared by identity, so
+	 * rows are formatted again whenever their item changes.
+	 */
+	@NotNull
+	private final LruCache<ItemSnapshot, RowText> rowTexts = new LruCache<>(PAGE_SIZE*MAX_PAGES);
+
+	/**
+	 * The pages currently being formatted, by page number. Only used on the main thread.
+	 */
+	@NotNull
+	private final Set<Integer> loadingPages = new HashSet<>();
+
 	/**
 	 * Creates a new RecyclerViewAdapter with a specific context. Data starts out empty.
 	 * @param context handle to the application, cannot be null
@@ -60,6 +155,7 @@ class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.Recyc
 		data = folder;
 
 		setHasStableIds(true);
+		refreshRows();
 	}
 
 	// ***************************  RecyclerView.Adapter Methods  *****************************
@@ -84,13 +180,12 @@ class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.Recyc
 	 */
 	@Override
 	public void onBindViewHolder (@NotNull RecyclerViewHolder holder, final int position) {
-		Item item = data.getItem(position);
-		if (item == null) {
-			if (BuildConfig.DEBUG) Log.e(TAG, "The item to display doesn't exist as far as the adapter knows.");
-			return;
-		}
+		ItemSnapshot row = differ.getCurrentList().get(position);
+		RowText text = rowTexts.get(row);
 
-		holder.changeItem(item);
+		// shows a placeholder until the page is formatted
+		if (text == null) loadPage(position/PAGE_SIZE);
+		holder.changeItem(row, text);
 	}
 
 	/**
@@ -98,27 +193,114 @@ class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.Recyc
 	 * @return number of items
 	 */
 	@Override
-	public int getItemCount() { return data.size() - 1; }
+	public int getItemCount() { return differ.getCurrentList().size(); }
 
 	/**
 	 * Gets the id for the item at the given position.
-	 * @return returns the id of the given item, or -1 if it couldn't be found
+	 * @return returns the id of the given item
+	 */
+	@Override
+	public long getItemId(int position) { return differ.getCurrentList().get(position).id; }
+
+	// ********************************  Change Listener Methods  *******************************
+
+	/**
+	 * Refreshes the rows whenever something within the displayed folder changes. Any number of
+	 * changes before the refresh runs are picked up by the same refresh. The adapter is only
+	 * registered on the displayed folder, so every change heard is within it. Doesn't lock
+	 * anything, since the changed folder is still locked.
+	 * @param folder the folder whose items changed
+	 * @param type the type of change, one of the AlarmGroup.CHANGE_* constants
+	 * @param index the index of the item that changed
+	 * @param toIndex the new index of the item for CHANGE_MOVED
 	 */
 	@Override
-	public long getItemId(int position) {
-		Item l = data.getItem(position);
+	public void onItemsChanged(@NotNull AlarmGroup folder, int type, int index, int toIndex) {
+		if (refreshPosted.compareAndSet(false, true)) {
+			mainHandler.post(() -> {
+				refreshPosted.set(false);
+				refreshRows();
+			});
+		}
+	}
 
-		if (l == null) return -1;
-		return l.getId();
+	/**
+	 * Takes a new snapshot of the folder and hands its children to the differ, which works out
+	 * the changed rows on a background thread and then tells the RecyclerView on this one.
+	 */
+	private void refreshRows() {
+		List<ItemSnapshot> rows = data.getSnapshot().children;
+		differ.submitList(rows == null ? Collections.emptyList() : rows);
 	}
 
 	// **********************************  Other Methods  *********************************
 
 	/**
-	 * Sends an explicit intent off to editor for editing. Sends an ItemInfo describing
-	 * the alarm to edit with the key EditorActivity.EXTRA_ITEM_INFO, and the request
-	 * ID with the key EditorActivity.EXTRA_REQ_ID. If the alarm is null, doesn't do
-	 * anything.
+	 * Formats the rows of a page on the background thread, then rebinds them. Does nothing if the
+	 * page is already being formatted. Must be called on the main thread.
+	 * @param page the number of the page to format
+	 */
+	private void loadPage(final int page) {
+		if (!loadingPages.add(page)) return;
+
+		// the differ never changes its lists, so it's safe to read this one from another thread
+		final List<ItemSnapshot> rows = differ.getCurrentList();
+		final int start = page*PAGE_SIZE, end = Math.min(start + PAGE_SIZE, rows.size());
+
+		pageExecutor.execute(() -> {
+			final RowText[] texts = new RowText[end - start];
+			for (int i = start; i < end; i++) texts[i - start] = formatRow(rows.get(i));
+
+			mainHandler.post(() -> {
+				loadingPages.remove(page);
+				for (int i = start; i < end; i++) rowTexts.put(rows.get(i), texts[i - start]);
+
+				// the rows could have changed in the meantime, so rebind whatever is there now
+				int size = getItemCount();
+				if (start < size)
+					notifyItemRangeChanged(start, Math.min(end, size) - start, PAYLOAD_TEXT);
+			});
+		});
+	}
+
+	/**
+	 * Formats the text of a row. Can be called from any thread.
+	 * @param row the row to format, cannot be null
+	 * @return the text of the row, will not be null
+	 */
+	@NotNull
+	private RowText formatRow(@NotNull ItemSnapshot row) {
+		if (row.isFolder()) {
+			// folders show their stats instead of a repeat string
+			return new RowText(context.getResources().getQuantityString(R.plurals.folder_stats,
+					row.totalAlarms, row.totalAlarms, row.activeAlarms), "");
+		}
+		return new RowText(row.formatRepeatString(context), row.formatNextRingTime(context));
+	}
+
+	/**
+	 * Gets the root folder of the app. All changes should go through it so they get saved.
+	 */
+	@NotNull
+	private RootFolder getRootFolder() {
+		return ((MainApplication) context.getApplicationContext()).getRootFolder();
+	}
+
+	/**
+	 * Finds the live item that a row shows.
+	 * @param row the row to find the item of, can be null
+	 * @return the item, or null if the row is null or the item isn't in the tree anymore
+	 */
+	@Nullable
+	private Item findItem(@Nullable ItemSnapshot row) {
+		if (row == null) return null;
+		return getRootFolder().findById(row.id);
+	}
+
+	/**
+	 * Sends an explicit intent off to editor for editing. Sends the alarm to edit (parceled)
+	 * with the key Constants.EXTRA_ITEM, and its path with the key Constants.EXTRA_PATH. If the
+	 * alarm is null, doesn't do anything.
 	 * @param alarm the alarm to edit, can be null
 	 */
 	private void editItem(@Nullable final Alarm alarm) {
@@ -128,7 +310,7 @@ class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.Recyc
 		}
 
 		Intent intent = new Intent(context, EditorActivity.class);
-		intent.putExtra(Constants.EXTRA_ITEM, alarm.toEditString());
+		intent.putExtra(Constants.EXTRA_ITEM, alarm);
 		intent.putExtra(Constants.EXTRA_PATH, alarm.getPath());
 		intent.setAction(Constants.ACTION_EDIT_ALARM);
 
@@ -145,14 +327,47 @@ class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.Recyc
 			return;
 		}
 
+		String path = folder.getPath() + folder.getName();
+		if (context instanceof FolderViewActivity) {
+			// already in a folder view, so just push the new folder onto its stack
+			((FolderViewActivity) context).openFolder(path);
+			return;
+		}
+
 		Intent intent = new Intent(context, FolderViewActivity.class);
-		intent.putExtra(Constants.EXTRA_PATH, folder.getPath() + folder.getName());
+		intent.putExtra(Constants.EXTRA_PATH, path);
 		intent.setAction(Intent.ACTION_VIEW);
 		context.startActivity(intent);
 	}
 
 	// ***********************************  Inner Classes  *************************************
 
+	/**
+	 * The formatted text of a row, which is the expensive part of binding one.
+	 */
+	private static final class RowText {
+		/**
+		 * The repeat string of an alarm, or the stats of a folder.
+		 */
+		@NotNull
+		final String repeat;
+		/**
+		 * The next ring time of an alarm, or empty for folders.
+		 */
+		@NotNull
+		final String time;
+
+		/**
+		 * Creates the text of a row.
+		 * @param repeat the repeat string (or folder stats)
+		 * @param time the next ring time (or empty)
+		 */
+		RowText(@NotNull String repeat, @NotNull String time) {
+			this.repeat = repeat;
+			this.time = time;
+		}
+	}
+
 	/**
 	 * A required view holder class for the RecyclerView. Caches its child views so findViewById()
 	 * isn't called as many times.
@@ -163,12 +378,17 @@ class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.Recyc
 		 * Tag of the class for logging purposes.
 		 */
 		private final static String TAG = "RecyclerViewHolder";
+		/**
+		 * The number of minutes to shift the alarms of a folder by for each of the choices in
+		 * R.array.listable_shift_choices (in the same order).
+		 */
+		private final static int[] SHIFT_MINUTES = {-60, -30, 30, 60};
 
 		/**
-		 * The item the holder currently represents.
+		 * The row the holder currently shows.
 		 */
 		@Nullable
-		private Item item;
+		private ItemSnapshot row;
 		/**
 		 * The context of the holder. Shouldn't be null. Is required in an onClick callback.
 		 */
@@ -264,12 +484,14 @@ class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.Recyc
 		@Override
 		public void onClick(@NotNull View v) {
 			int id = v.getId();
+			Item item = adapter.findItem(row);
 			if (id == R.id.card_view) {
 				if (item instanceof Alarm) adapter.editItem((Alarm)item);
-				else adapter.openFolder((AlarmGroup)item);
+				else if (item instanceof AlarmGroup) adapter.openFolder((AlarmGroup)item);
 			}
 			else if (id == R.id.on_switch) {
-				if (item != null) item.toggleActive();
+				// goes through the root so the change is saved and rescheduled
+				if (item != null) adapter.getRootFolder().batch().toggle(item.getInfo()).commit();
 			}
 			else {
 				if (BuildConfig.DEBUG)
@@ -284,10 +506,31 @@ class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.Recyc
 		 */
 		@Override
 		public void onClick(@NotNull DialogInterface dialog, int which) {
+			Item item = adapter.findItem(row);
+			if (item == null) return;
+			final RootFolder root = adapter.getRootFolder();
+
 			if (which == 0) {
-				// delete the current item
-				adapter.data.deleteItem(getLayoutPosition());
-				adapter.notifyItemRemoved(getLayoutPosition());
+				// delete the current item (through the root, since data might be a nested folder)
+				offerUndo(root, root.batch().delete(item.getInfo()).commit(),
+						R.string.listable_deleted);
+			}
+			else if (item instanceof AlarmGroup && which == 1) {
+				commitBulk(root, root.batch().setSubtreeActive(item.getInfo(), true));
+			}
+			else if (item instanceof AlarmGroup && which == 2) {
+				commitBulk(root, root.batch().setSubtreeActive(item.getInfo(), false));
+			}
+			else if (item instanceof AlarmGroup && which == 3) {
+				final ItemInfo info = item.getInfo();
+				new AlertDialog.Builder(context)
+						.setTitle(R.string.listable_shift_title)
+						.setItems(R.array.listable_shift_choices, (d, w) -> commitBulk(root,
+								root.batch().shiftSubtreeTime(info, SHIFT_MINUTES[w])))
+						.show();
+			}
+			else if (item instanceof AlarmGroup && which == 4) {
+				pickSubtreeRingtone(root, item.getInfo());
 			}
 			else {
 				if (BuildConfig.DEBUG)
@@ -304,40 +547,109 @@ class RecyclerViewAdapter extends RecyclerView.Adapter<RecyclerViewAdapter.Recyc
 		 */
 		@Override
 		public boolean onLongClick(@NotNull View v) {
-			if (item == null) {
+			if (row == null) {
 				if (BuildConfig.DEBUG) Log.v(TAG, "Long clicked item is null.");
 				return false;
 			}
 
-			RecyclerDialogFrag dialog = new RecyclerDialogFrag(this, item instanceof Alarm);
-			dialog.show(((MainActivity) context).getSupportFragmentManager(), DIALOG_FRAG_TAG);
+			RecyclerDialogFrag dialog = new RecyclerDialogFrag(this, !row.isFolder());
+			dialog.show(((FragmentActivity) context).getSupportFragmentManager(), DIALOG_FRAG_TAG);
 			return true;
 		}
 
 		// **********************************  Other Methods  **********************************
 
 		/**
-		 * Binds a new item to the current ViewHolder. If the new item is null, will not
-		 * change anything.
-		 * @param l the new item to bind, can be null
+		 * Commits a bulk change to the current folder, then offers to undo the change. The list
+		 * refreshes itself from the change events.
+		 * @param root the root folder the transaction belongs to
+		 * @param t the transaction holding the bulk change
+		 */
+		private void commitBulk(@NotNull final RootFolder root, @NotNull RootFolder.Transaction t) {
+			offerUndo(root, t.commit(), R.string.listable_bulk_done);
+		}
+
+		/**
+		 * Shows a message with an undo button for a change. The button only undoes the change if
+		 * nothing was committed after it, and isn't there if the change didn't record anything.
+		 * @param root the root folder the change was committed to
+		 * @param entry the history entry of the change, can be null
+		 * @param message the string resource of the message to show
+		 */
+		private void offerUndo(@NotNull final RootFolder root,
+							   @Nullable final EditHistory.Entry entry, int message) {
+			Snackbar bar = Snackbar.make(itemView, message, Snackbar.LENGTH_LONG);
+			if (entry != null) bar.setAction(R.string.listable_undo, view -> root.undo(entry));
+			bar.show();
+		}
+
+		/**
+		 * Shows a list of the alarm ringtones on the device (plus silent), and sets the chosen one
+		 * on every alarm within the folder. The ringtones are listed on the background thread, and
+		 * the list is shown once they're ready.
+		 * @param root the root folder to change the folder through
+		 * @param info the info of the folder to change
 		 */
-		private void changeItem(@Nullable Item l) {
-			if (l == null) {
-				if (BuildConfig.DEBUG) Log.e(TAG, "The new item to swap into the view holder was null.");
+		private void pickSubtreeRingtone(@NotNull final RootFolder root, @NotNull final ItemInfo info) {
+			pageExecutor.execute(() -> {
+				RingtoneManager manager = new RingtoneManager(context);
+				manager.setType(RingtoneManager.TYPE_ALARM);
+				Cursor cursor = manager.getCursor();
+
+				final String[] titles = new String[cursor.getCount() + 1];
+				final Uri[] uris = new Uri[titles.length];
+				titles[0] = context.getString(R.string.listable_ringtone_silent);
+				for (int i = 1; i < titles.length; i++) {
+					cursor.moveToPosition(i - 1);
+					titles[i] = cursor.getString(RingtoneManager.TITLE_COLUMN_INDEX);
+					uris[i] = manager.getRingtoneUri(i - 1);
+					// the titles are already here, so save the editor from looking them up again
+					RingtoneTitles.put(uris[i], titles[i]);
+				}
+
+				adapter.mainHandler.post(() -> {
+					// the user could have left while the ringtones were listed
+					if (((FragmentActivity) context).isFinishing()) return;
+
+					new AlertDialog.Builder(context)
+							.setTitle(R.string.listable_ringtone_title)
+							.setItems(titles, (d, w) -> commitBulk(root,
+									root.batch().setSubtreeRingtone(info, uris[w])))
+							.show();
+				});
+			});
+		}
+
+		/**
+		 * Binds a new row to the current ViewHolder. If the new row is null, will not change
+		 * anything.
+		 * @param r the new row to bind, can be null
+		 * @param text the formatted text of the row, or null to leave it blank until it's ready
+		 */
+		private void changeItem(@Nullable ItemSnapshot r, @Nullable RowText text) {
+			if (r == null) {
+				if (BuildConfig.DEBUG) Log.e(TAG, "The new row to swap into the view holder was null.");
 				return;
 			}
-			getTitleText().setText(l.getName());
-			getRepeatText().setText(l.getRepeatString());
-			getTimeText().setText(l.getNextRingTime());
-			getOnSwitch().setChecked(l.isActive());
+			getTitleText().setText(r.name);
+			if (text != null) {
+				getRepeatText().setText(text.repeat);
+				getTimeText().setText(text.time);
+			}
+			else if (row == null || row.id != r.id) {
+				// a newer version of the same item keeps showing its old text instead of flashing
+				getRepeatText().setText("");
+				getTimeText().setText("");
+			}
+			getOnSwitch().setChecked(r.isActive);
 
-			item = l;
-			if (l instanceof Alarm) {
+			row = r;
+			if (!r.isFolder()) {
 				getImageView().setVisibility(View.GONE);
 				getTimeText().setVisibility(View.VISIBLE);
 			}
 			else {
-				// is an AlarmGroup
+				// is a folder
 				getImageView().setVisibility(View.VISIBLE);
 				getTimeText().setVisibility(View.GONE);
 			}
@@ -1,6 +1,5 @@
 package com.larmlarms.main;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.os.Bundle;
 import android.util.Log;
@@ -36,11 +35,16 @@ public class RecyclerViewFrag extends Fragment {
 	private static final String BUNDLE_INSTANCE_STATE = "com.larmlarms.RECYCLER_STATE_KEY";
 
 	/**
-	 * The adapter for the RecyclerView, recreated every time onCreateView() is called. Can be used
-	 * when not bound to the data service, but not advised without a plan to bind to the service
-	 * soon.
+	 * The adapter for the RecyclerView, made the first time onCreateView() is called. Kept (and kept
+	 * up to date) while the fragment is on the back stack without a view, so coming back to it
+	 * doesn't have to rebuild anything.
 	 */
 	private RecyclerViewAdapter myAdapter;
+	/**
+	 * The folder the adapter is subscribed to, or null if it isn't subscribed.
+	 */
+	@Nullable
+	private AlarmGroup subscribedFolder;
 	/**
 	 * The recycler view that this fragment manages.
 	 */
@@ -49,8 +53,8 @@ public class RecyclerViewFrag extends Fragment {
 	// **********************************  Lifecycle Methods  ********************************
 
 	/**
-	 * Called when the fragment is being created. Creates a new adapter and sets up the recycler view.
-	 * Does not give the recycler view the adapter yet.
+	 * Called when the fragment's view is being created. Creates the adapter if there isn't one yet
+	 * and sets up the recycler view.
 	 * @param inflater the layout inflater to use
 	 * @param container the container to inflate in
 	 * @param savedInstanceState a previous instance state
@@ -65,22 +69,33 @@ public class RecyclerViewFrag extends Fragment {
 			return null;
 		}
 
-		AlarmGroup f = ((MainApplication) getActivity().getApplication()).rootFolder;
-		Bundle b = getArguments();
-		if (b != null && b.getString(Constants.EXTRA_PATH) != null)
-			f = f.getFolder(b.getString(Constants.EXTRA_PATH));
-
-		if (f == null) {
-			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't find the right folder...");
-			return null;
+		if (myAdapter == null) {
+			AlarmGroup root = ((MainApplication) getActivity().getApplication()).getRootFolder();
+			AlarmGroup f = root;
+			Bundle b = getArguments();
+			if (b != null && b.getString(Constants.EXTRA_PATH) != null)
+				f = f.getFolder(b.getString(Constants.EXTRA_PATH));
+
+			if (f == null) {
+				if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't find the right folder...");
+				return null;
+			}
+			myAdapter = new RecyclerViewAdapter(context, f);
+
+			// stays subscribed while in the background (e.g. in the editor or on the back stack),
+			// so nothing is missed. Listening on the displayed folder means only changes within it
+			// are heard, without the adapter having to check where they came from
+			f.addChangeListener(myAdapter);
+			subscribedFolder = f;
 		}
-		myAdapter = new RecyclerViewAdapter(context, f);
 
 		// doing things for recycler view
 		// rootView is the LinearLayout in recycler_view_frag.xml
 		View rootView = inflater.inflate(R.layout.recycler_view_frag, container, false);
 
 		recyclerView = rootView.findViewById(R.id.recycler_view);
+		if (getActivity() instanceof FolderViewActivity)
+			recyclerView.setRecycledViewPool(((FolderViewActivity) getActivity()).getViewPool());
 
 		LinearLayoutManager myLayoutManager = new LinearLayoutManager(getActivity());
 		if (savedInstanceState != null) {
@@ -108,12 +123,28 @@ public class RecyclerViewFrag extends Fragment {
 		}
 	}
 
-	@SuppressLint("NotifyDataSetChanged")
+	/**
+	 * Called when the view of the fragment is being destroyed (for example, when another folder is
+	 * opened on top of it). Hands the item views back to the pool, but keeps the adapter.
+	 */
+	@Override
+	public void onDestroyView() {
+		super.onDestroyView();
+
+		// recycles the item views into the (possibly shared) pool
+		if (recyclerView != null) recyclerView.setAdapter(null);
+		recyclerView = null;
+	}
+
+	/**
+	 * Called when the fragment is being destroyed. Unsubscribes the adapter from the data.
+	 */
 	@Override
-	public void onResume() {
-		super.onResume();
+	public void onDestroy() {
+		super.onDestroy();
 
-		myAdapter.notifyDataSetChanged();
+		if (subscribedFolder != null) subscribedFolder.removeChangeListener(myAdapter);
+		subscribedFolder = null;
 	}
 
 	/**
@@ -123,7 +154,8 @@ public class RecyclerViewFrag extends Fragment {
 	 */
 	@Override
 	public void onSaveInstanceState(@NotNull Bundle outState) {
-		if (recyclerView.getLayoutManager() == null) return;
+		// fragments on the back stack don't have a view to save
+		if (recyclerView == null || recyclerView.getLayoutManager() == null) return;
 		outState.putParcelable(BUNDLE_INSTANCE_STATE, recyclerView.getLayoutManager().onSaveInstanceState());
 	}
 }
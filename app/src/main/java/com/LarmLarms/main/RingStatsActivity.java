@@ -0,0 +1,157 @@
+package com.larmlarms.main;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.TextView;
+
+import com.larmlarms.R;
+import com.larmlarms.ringing.RingStats;
+import com.larmlarms.ringing.WakeStats;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+/**
+ * Activity that shows how late alarms have been ringing, as a histogram per stage of ringing (see
+ * RingStats), and how long the app has kept the device awake (see WakeStats). The ring records
+ * can be exported as CSV.
+ */
+public class RingStatsActivity extends AppCompatActivity {
+	/**
+	 * The width of the longest bar in the histograms, in characters.
+	 */
+	private static final int BAR_WIDTH = 20;
+
+	/**
+	 * The records being shown, or null if they haven't been read yet.
+	 */
+	@Nullable
+	private List<RingStats.Record> records;
+
+	/**
+	 * Creates the activity and starts reading the records in the background.
+	 * @param savedInstanceState the previous state, if any
+	 */
+	@Override
+	protected void onCreate(@Nullable Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		PrefsActivity.applyPrefsStyle(this);
+		setContentView(R.layout.activity_ring_stats);
+
+		new Thread(() -> {
+			List<RingStats.Record> r = RingStats.read(getApplicationContext());
+			WakeStats.Totals[] w = WakeStats.read(getApplicationContext());
+			runOnUiThread(() -> showRecords(r, w));
+		}).start();
+	}
+
+	// ***************************************  Callbacks  ************************************
+
+	/**
+	 * Called when the back button is clicked
+	 * @param view the back button
+	 */
+	public void backButtonClicked(View view) { finish(); }
+
+	/**
+	 * Called when the export button is clicked. Sends the records as CSV to wherever the user
+	 * picks.
+	 * @param view the export button
+	 */
+	public void exportButtonClicked(View view) {
+		if (records == null) return;
+
+		Intent send = new Intent(Intent.ACTION_SEND)
+				.setType("text/csv")
+				.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.stats_export_subject))
+				.putExtra(Intent.EXTRA_TEXT, RingStats.toCsv(records));
+		startActivity(Intent.createChooser(send, getString(R.string.stats_export_button)));
+	}
+
+	// **********************************  Other Methods  ***************************************
+
+	/**
+	 * Shows the records that were read.
+	 * @param r the ring records, cannot be null
+	 * @param w the wake totals by cause, cannot be null
+	 */
+	private void showRecords(@NotNull List<RingStats.Record> r, @NotNull WakeStats.Totals[] w) {
+		if (isDestroyed()) return;
+		records = r;
+
+		StringBuilder builder = new StringBuilder();
+		if (r.isEmpty()) builder.append(getString(R.string.stats_empty));
+		else appendHistograms(builder, r);
+		appendWakeTotals(builder, w);
+
+		TextView text = findViewById(R.id.statsText);
+		text.setText(builder.toString());
+	}
+
+	/**
+	 * Appends a histogram for each stage of ringing.
+	 * @param builder the builder to append to, cannot be null
+	 * @param r the ring records, cannot be empty
+	 */
+	private void appendHistograms(@NotNull StringBuilder builder,
+								  @NotNull List<RingStats.Record> r) {
+		String[] stages = getResources().getStringArray(R.array.stats_stages);
+		int[][] histograms = RingStats.histograms(r);
+
+		builder.append(getString(R.string.stats_description, r.size()));
+		for (int s = 0; s < RingStats.STAGE_COUNT; s++) {
+			builder.append("\n\n").append(stages[s]).append('\n');
+
+			int max = 0;
+			for (int count : histograms[s]) max = Math.max(max, count);
+			if (max == 0) {
+				builder.append(getString(R.string.stats_never)).append('\n');
+				continue;
+			}
+
+			for (int b = 0; b < histograms[s].length; b++) {
+				String label = b < RingStats.BUCKET_BOUNDS.length ?
+						getString(R.string.stats_bucket_under, RingStats.BUCKET_BOUNDS[b]) :
+						getString(R.string.stats_bucket_over, RingStats.BUCKET_BOUNDS[b - 1]);
+				builder.append(String.format("%-10s", label));
+
+				int width = (histograms[s][b]*BAR_WIDTH + max - 1)/max;
+				for (int i = 0; i < width; i++) builder.append('#');
+				builder.append(' ').append(histograms[s][b]).append('\n');
+			}
+		}
+	}
+
+	/**
+	 * Appends how long each cause kept the device awake.
+	 * @param builder the builder to append to, cannot be null
+	 * @param w the wake totals by cause, cannot be null
+	 */
+	private void appendWakeTotals(@NotNull StringBuilder builder, @NotNull WakeStats.Totals[] w) {
+		String[] causes = getResources().getStringArray(R.array.stats_wake_causes);
+
+		builder.append("\n\n").append(getString(R.string.stats_wake_title)).append('\n');
+		for (int c = 0; c < WakeStats.CAUSE_COUNT; c++) {
+			WakeStats.Totals t = w[c];
+			builder.append('\n').append(causes[c]).append('\n');
+			if (t.getUses() == 0) {
+				builder.append(getString(R.string.stats_never)).append('\n');
+				continue;
+			}
+
+			builder.append(getString(R.string.stats_wake_totals, t.getUses(),
+					t.getHeldMillis()/1000f, t.getMaxHeldMillis()/1000f,
+					t.getCpuMillis()/1000f)).append('\n');
+			if (t.getOverruns() > 0) {
+				builder.append(getString(R.string.stats_wake_overruns, t.getOverruns(),
+						WakeStats.BUDGET_MILLIS[c]/1000f)).append('\n');
+			}
+		}
+	}
+}
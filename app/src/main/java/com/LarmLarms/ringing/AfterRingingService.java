@@ -8,6 +8,7 @@ import android.util.Log;
 import com.larmlarms.BuildConfig;
 import com.larmlarms.Constants;
 import com.larmlarms.data.Alarm;
+import com.larmlarms.data.Item;
 import com.larmlarms.data.RootFolder;
 import com.larmlarms.main.MainApplication;
 
@@ -25,8 +26,10 @@ public class AfterRingingService extends Service {
 
 	/**
 	 * Called when the service is started. The intent send to the service should have the intended
-	 * action (snooze or dismiss, actions specified in RingingActivity) and should contain the
-	 * alarm's absolute index in the intent extras (int extra with key RingingService.EXTRA_LISTABLE).
+	 * action (snooze or dismiss, actions specified in Constants) and should contain the handle of
+	 * the alarm (its id) in the intent extras. The tree has to be loaded anyway to save the change.
+	 * Before the user unlocks the device, the tree can't be loaded, so the change is made to the
+	 * schedule record instead (see RootFolder.handleWhileLocked()).
 	 * @param inIntent the intent used to start the service
 	 * @param flags any flags given to the service
 	 * @param startId a unique id from this particular start code
@@ -34,25 +37,36 @@ public class AfterRingingService extends Service {
 	 */
 	@Override
 	public int onStartCommand(@NotNull Intent inIntent, int flags, int startId) {
+		boolean dismissed = Constants.ACTION_DISMISS.equals(inIntent.getAction());
+		RingingSession session = RingingSession.getActive();
+		if (session != null) {
+			if (dismissed) session.dismiss();
+			else session.snooze();
+		}
 		stopService(new Intent(this, RingingService.class));
 
-		Alarm alarm = Alarm.fromEditString(this, inIntent.getStringExtra(Constants.EXTRA_ITEM));
-		String path = inIntent.getStringExtra(Constants.EXTRA_PATH);
-		if (alarm == null) {
-			if (BuildConfig.DEBUG) Log.e(TAG, "The info struct was null.");
+		if (!RootFolder.isUserUnlocked(this)) {
+			int id = inIntent.getIntExtra(Constants.EXTRA_ID, 0);
+			if (!RootFolder.handleWhileLocked(this, id, dismissed) && BuildConfig.DEBUG)
+				Log.e(TAG, "The alarm wasn't in the schedule record.");
+			RingStats.mark(RingStats.STAGE_HANDLED);
 			stopSelf();
 			return Service.START_NOT_STICKY;
 		}
 
-		RootFolder rf = ((MainApplication)getApplication()).rootFolder;
-		alarm = (Alarm) rf.getItemById(path, alarm.getId());
-		if (alarm == null) {
+		RootFolder rf = ((MainApplication)getApplication()).getRootFolder();
+		Item item = rf.findById(inIntent.getIntExtra(Constants.EXTRA_ID, 0));
+		if (!(item instanceof Alarm)) {
 			if (BuildConfig.DEBUG) Log.e(TAG, "The alarm was null.");
+			stopSelf();
 			return Service.START_NOT_STICKY;
 		}
-		if (Constants.ACTION_DISMISS.equals(inIntent.getAction())) alarm.dismiss();
-		else alarm.snooze();
-		rf.save();
+
+		// goes through the root so the change is saved and anything showing the alarm hears of it
+		if (dismissed)
+			rf.batch().dismiss(item.getInfo()).commit();
+		else rf.batch().snooze(item.getInfo()).commit();
+		RingStats.mark(RingStats.STAGE_HANDLED);
 
 		return Service.START_NOT_STICKY;
 	}
@@ -0,0 +1,345 @@
+package com.larmlarms.ringing;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.larmlarms.BuildConfig;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Second way of playing an alarm, for when the MediaPlayer can't start in time (or at all). Loops
+ * raw PCM through an AudioTrack in static mode, so once started there's nothing left to open or
+ * decode. The start of the ringtone is decoded into memory in the background as soon as the
+ * player is made; if that isn't done (or failed), a built-in beeping tone is played instead.
+ * Only started and stopped on the main thread.
+ */
+final class FallbackPlayer {
+	/**
+	 * Tag of the class for logging purposes.
+	 */
+	private static final String TAG = "FallbackPlayer";
+
+	/**
+	 * The max number of samples (over all channels) to decode from a ringtone. About 4 seconds of
+	 * 48kHz stereo, which keeps the static buffer under a megabyte.
+	 */
+	private static final int MAX_SAMPLES = 48000*2*4;
+	/**
+	 * How long to decode a ringtone for before giving up on it, in millis.
+	 */
+	private static final long DECODE_TIMEOUT_MILLIS = 5000;
+	/**
+	 * How long to wait for a codec buffer at a time, in micros.
+	 */
+	private static final long CODEC_TIMEOUT_US = 10000;
+
+	/**
+	 * The sample rate of the built-in tone.
+	 */
+	private static final int TONE_RATE = 22050;
+	/**
+	 * The pitch of the built-in tone, in Hz. Picked so each beep starts and ends on a zero
+	 * crossing, which keeps it from clicking.
+	 */
+	private static final int TONE_HZ = 880;
+
+	/**
+	 * The thread ringtones are decoded on.
+	 */
+	@NotNull
+	private static final ExecutorService decoder = Executors.newSingleThreadExecutor();
+
+	/**
+	 * The built-in tone, made the first time it's needed.
+	 */
+	@Nullable
+	private static Pcm tone;
+
+	// ************************************  Instance Fields  ***********************************
+
+	/**
+	 * The start of the ringtone, or null if it hasn't been (or couldn't be) decoded yet. Written
+	 * by the decoding thread.
+	 */
+	@Nullable
+	private volatile Pcm decoded;
+
+	/**
+	 * The track being played, or null if the player hasn't been started.
+	 */
+	@Nullable
+	private AudioTrack track;
+
+	// *************************************  Constructors  *************************************
+
+	/**
+	 * Creates a new fallback player and starts decoding the ringtone in the background.
+	 * @param context the current context, cannot be null
+	 * @param ringtone the ringtone to decode, or null to only ever play the built-in tone
+	 */
+	FallbackPlayer(@NotNull Context context, @Nullable final Uri ringtone) {
+		if (ringtone == null) return;
+
+		final Context app = context.getApplicationContext();
+		decoder.execute(() -> decoded = decode(app, ringtone));
+	}
+
+	// ************************************  Playback Methods  **********************************
+
+	/**
+	 * Starts looping the decoded ringtone, or the built-in tone if the ringtone isn't ready. Does
+	 * nothing if already started.
+	 * @param volume the volume to play at, from 0 to 1
+	 * @return whether anything is playing now
+	 */
+	boolean start(float volume) {
+		if (track != null) return true;
+
+		Pcm pcm = decoded;
+		if (pcm != null) track = play(pcm, volume);
+		if (track == null) track = play(tone(), volume);
+		return track != null;
+	}
+
+	/**
+	 * Pauses the player, if it's started.
+	 */
+	void pause() {
+		if (track == null) return;
+		try { track.pause(); }
+		catch (IllegalStateException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't pause the fallback track.");
+		}
+	}
+
+	/**
+	 * Resumes the player, if it's started.
+	 */
+	void resume() {
+		if (track == null) return;
+		try { track.play(); }
+		catch (IllegalStateException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't resume the fallback track.");
+		}
+	}
+
+	/**
+	 * Stops the player and releases the track. The player can be started again afterwards.
+	 */
+	void release() {
+		if (track == null) return;
+		track.release();
+		track = null;
+	}
+
+	/**
+	 * Makes a static track for the given PCM, loops it forever and starts it.
+	 * @param pcm the PCM to play, cannot be null
+	 * @param volume the volume to play at, from 0 to 1
+	 * @return the playing track, or null if it couldn't be made
+	 */
+	@Nullable
+	private static AudioTrack play(@NotNull Pcm pcm, float volume) {
+		AudioFormat format = new AudioFormat.Builder()
+				.setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+				.setSampleRate(pcm.sampleRate)
+				.setChannelMask(pcm.channels == 1 ? AudioFormat.CHANNEL_OUT_MONO :
+						AudioFormat.CHANNEL_OUT_STEREO)
+				.build();
+
+		AudioTrack t = null;
+		try {
+			t = new AudioTrack(RingingService.AUDIO_ATTRIBUTES, format, pcm.samples.length*2,
+					AudioTrack.MODE_STATIC, AudioManager.AUDIO_SESSION_ID_GENERATE);
+			if (t.write(pcm.samples, 0, pcm.samples.length) != pcm.samples.length ||
+					t.getState() != AudioTrack.STATE_INITIALIZED ||
+					t.setLoopPoints(0, pcm.samples.length/pcm.channels, -1) != AudioTrack.SUCCESS) {
+				if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't load the fallback track.");
+				t.release();
+				return null;
+			}
+			t.setVolume(volume);
+			t.play();
+			return t;
+		}
+		catch (IllegalArgumentException | IllegalStateException | UnsupportedOperationException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't make the fallback track.");
+			if (t != null) t.release();
+			return null;
+		}
+	}
+
+	// ************************************  PCM Methods  ***************************************
+
+	/**
+	 * Gets the built-in tone: two short beeps and a pause, a second long.
+	 * @return the tone, will not be null
+	 */
+	@NotNull
+	private static synchronized Pcm tone() {
+		if (tone != null) return tone;
+
+		short[] samples = new short[TONE_RATE];
+		for (int i = 0; i < samples.length; i++) {
+			double t = (double) i / TONE_RATE;
+			boolean on = t < 0.15 || (t >= 0.25 && t < 0.4);
+			if (on) samples[i] = (short) (Math.sin(2*Math.PI*TONE_HZ*t)*Short.MAX_VALUE*0.8);
+		}
+		tone = new Pcm(samples, TONE_RATE, 1);
+		return tone;
+	}
+
+	/**
+	 * Decodes the start of a ringtone into 16-bit PCM, from its cached copy if there is one (see
+	 * RingtoneCache). Blocks, so shouldn't be called on the main thread.
+	 * @param context the current context, cannot be null
+	 * @param uri the ringtone to decode, cannot be null
+	 * @return the PCM, or null if the ringtone couldn't be decoded
+	 */
+	@Nullable
+	private static Pcm decode(@NotNull Context context, @NotNull Uri uri) {
+		MediaExtractor extractor = new MediaExtractor();
+		MediaCodec codec = null;
+		try {
+			File copy = RingtoneCache.get(context, uri);
+			if (copy != null) extractor.setDataSource(copy.getPath());
+			else extractor.setDataSource(context, uri, null);
+
+			MediaFormat format = null;
+			for (int i = 0; i < extractor.getTrackCount(); i++) {
+				MediaFormat f = extractor.getTrackFormat(i);
+				String mime = f.getString(MediaFormat.KEY_MIME);
+				if (mime != null && mime.startsWith("audio/")) {
+					extractor.selectTrack(i);
+					format = f;
+					break;
+				}
+			}
+			if (format == null) return null;
+
+			int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+			int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+			codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+			codec.configure(format, null, null, 0);
+			codec.start();
+
+			MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+			short[] samples = new short[MAX_SAMPLES/4];
+			int length = 0;
+			boolean inputDone = false;
+			long end = SystemClock.elapsedRealtime() + DECODE_TIMEOUT_MILLIS;
+
+			while (length < MAX_SAMPLES && SystemClock.elapsedRealtime() < end) {
+				if (!inputDone) {
+					int in = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+					if (in >= 0) {
+						ByteBuffer buffer = codec.getInputBuffer(in);
+						int size = buffer == null ? -1 : extractor.readSampleData(buffer, 0);
+						if (size < 0) {
+							codec.queueInputBuffer(in, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+							inputDone = true;
+						}
+						else {
+							codec.queueInputBuffer(in, 0, size, extractor.getSampleTime(), 0);
+							extractor.advance();
+						}
+					}
+				}
+
+				int out = codec.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+				if (out == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+					MediaFormat f = codec.getOutputFormat();
+					if (f.containsKey(MediaFormat.KEY_PCM_ENCODING) &&
+							f.getInteger(MediaFormat.KEY_PCM_ENCODING) != AudioFormat.ENCODING_PCM_16BIT)
+						return null;
+					sampleRate = f.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+					channels = f.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+				}
+				else if (out >= 0) {
+					ByteBuffer buffer = codec.getOutputBuffer(out);
+					if (buffer != null && info.size > 0) {
+						buffer.position(info.offset);
+						buffer.limit(info.offset + info.size);
+						ShortBuffer shorts = buffer.order(ByteOrder.nativeOrder()).asShortBuffer();
+						int n = Math.min(shorts.remaining(), MAX_SAMPLES - length);
+						if (length + n > samples.length)
+							samples = Arrays.copyOf(samples, Math.min(MAX_SAMPLES,
+									Math.max(length + n, samples.length*2)));
+						shorts.get(samples, length, n);
+						length += n;
+					}
+					codec.releaseOutputBuffer(out, false);
+					if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break;
+				}
+			}
+
+			if (channels != 1 && channels != 2) return null;
+			length -= length % channels;
+			if (length == 0) return null;
+			return new Pcm(Arrays.copyOf(samples, length), sampleRate, channels);
+		}
+		catch (Exception e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't decode the ringtone " + uri + ".");
+			return null;
+		}
+		finally {
+			if (codec != null) {
+				try { codec.stop(); }
+				catch (IllegalStateException e) { /* wasn't started */ }
+				codec.release();
+			}
+			extractor.release();
+		}
+	}
+
+	// *************************************  Inner Classes  ************************************
+
+	/**
+	 * Interleaved 16-bit PCM, ready to be written to a track.
+	 */
+	private static final class Pcm {
+		/**
+		 * The samples, interleaved by channel.
+		 */
+		@NotNull
+		final short[] samples;
+		/**
+		 * The sample rate, in Hz.
+		 */
+		final int sampleRate;
+		/**
+		 * The number of channels, either 1 or 2.
+		 */
+		final int channels;
+
+		/**
+		 * Creates new PCM.
+		 * @param samples the samples, interleaved by channel
+		 * @param sampleRate the sample rate, in Hz
+		 * @param channels the number of channels, either 1 or 2
+		 */
+		Pcm(@NotNull short[] samples, int sampleRate, int channels) {
+			this.samples = samples;
+			this.sampleRate = sampleRate;
+			this.channels = channels;
+		}
+	}
+}
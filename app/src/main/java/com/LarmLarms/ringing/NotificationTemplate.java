@@ -0,0 +1,215 @@
+package com.larmlarms.ringing;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+import android.widget.RemoteViews;
+
+import com.larmlarms.BuildConfig;
+import com.larmlarms.R;
+import com.larmlarms.main.PrefsActivity;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import androidx.core.app.NotificationCompat;
+
+/**
+ * Everything about the ringing notification that doesn't depend on the alarm, made once for the
+ * lifetime of the process: the notification channel, the heads up view for the current theme, and
+ * the parts of the notification builder that never change. Ringing then only has to fill in the
+ * name of the alarm and its pending intents (see build()). Made again when the theme changes (see
+ * invalidate()).
+ */
+public final class NotificationTemplate {
+	/**
+	 * Tag of the class for logging purposes.
+	 */
+	private static final String TAG = "NotificationTemplate";
+
+	/**
+	 * String ID for the notification channel the foreground notifications are posted in.
+	 */
+	private static final String NOTIFICATION_CHANNEL_ID = "RingingAlarms";
+
+	/**
+	 * Whether the notification channel has been created by this process.
+	 */
+	private static volatile boolean channelCreated;
+
+	/**
+	 * The template for the current theme, or null if it hasn't been made yet (or was invalidated).
+	 * Guarded by the class lock.
+	 */
+	@Nullable
+	private static NotificationTemplate current;
+
+	/**
+	 * The theme this template was made for.
+	 */
+	private final int themeId;
+
+	/**
+	 * The heads up view, without the name of the alarm or any pending intents. Copied for every
+	 * notification, since filling it in would pile up changes on it.
+	 */
+	@NotNull
+	private final RemoteViews prototype;
+
+	/**
+	 * The builder with everything that never changes already set. Everything that does change is
+	 * set again by build(), so it can be reused. Made with the application context, since it's
+	 * kept for as long as the process is.
+	 */
+	@NotNull
+	private final NotificationCompat.Builder builder;
+
+	/**
+	 * Makes a new template.
+	 * @param context the application context, cannot be null
+	 * @param themeId the current theme
+	 * @param layout the layout of the heads up view for the theme
+	 */
+	private NotificationTemplate(@NotNull Context context, int themeId, int layout) {
+		this.themeId = themeId;
+		prototype = new RemoteViews(context.getPackageName(), layout);
+		builder = new NotificationCompat.Builder(context, NOTIFICATION_CHANNEL_ID)
+				.setSmallIcon(R.mipmap.ic_launcher)
+				.setContentText(context.getString(R.string.notif_description))
+				.setTicker(context.getString(R.string.notif_ticker))
+				.setPriority(NotificationCompat.PRIORITY_MAX)
+				.setDefaults(Notification.DEFAULT_LIGHTS)
+				.setSound(silence(context))
+				.setVibrate(new long[]{0})
+				.setAutoCancel(true)
+				.setCategory(NotificationCompat.CATEGORY_ALARM)
+				.setOngoing(true)
+				.setStyle(new NotificationCompat.DecoratedCustomViewStyle());
+	}
+
+	// ************************************  Static Methods  ************************************
+
+	/**
+	 * Gets the template for the current theme, making it (and the notification channel) if it
+	 * hasn't been made yet.
+	 * @param context the current context, cannot be null
+	 * @return the template, or null if the theme is unknown
+	 */
+	@Nullable
+	static synchronized NotificationTemplate get(@NotNull Context context) {
+		createChannel(context);
+
+		int themeId = PrefsActivity.getPrefs(context).getInt(PrefsActivity.PREF_THEME_KEY,
+				R.style.AppTheme_Beach);
+		if (current != null && current.themeId == themeId) return current;
+
+		int layout = layoutFor(themeId);
+		if (layout == 0) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Unknown theme specified!");
+			return null;
+		}
+		current = new NotificationTemplate(context.getApplicationContext(), themeId, layout);
+		return current;
+	}
+
+	/**
+	 * Throws away the template, so the next one is made for the new theme. Should be called
+	 * whenever the theme changes.
+	 */
+	public static synchronized void invalidate() { current = null; }
+
+	/**
+	 * Creates the notification channel if the API level requires it and it hasn't been created by
+	 * this process yet. Otherwise, does nothing.
+	 * @param context the current context, cannot be null
+	 */
+	private static void createChannel(@NotNull Context context) {
+		if (channelCreated || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
+
+		CharSequence name = context.getString(R.string.notif_channel_name);
+		String description = context.getString(R.string.notif_channel_description);
+		int importance = NotificationManager.IMPORTANCE_HIGH;
+
+		NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL_ID, name, importance);
+		channel.setDescription(description);
+		channel.setShowBadge(false);
+		channel.setBypassDnd(true);
+		channel.enableLights(true);
+
+		AudioAttributes.Builder attrBuilder = new AudioAttributes.Builder();
+		attrBuilder.setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+				.setUsage(AudioAttributes.USAGE_ALARM);
+		channel.setSound(silence(context), attrBuilder.build());
+
+		// Register the channel with the system; can't change the importance or behaviors after this
+		NotificationManager notificationManager = context.getSystemService(NotificationManager.class);
+		if (notificationManager == null) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "System returned a null notification manager.");
+			return;
+		}
+		notificationManager.createNotificationChannel(channel);
+		channelCreated = true;
+	}
+
+	/**
+	 * Gets the layout of the heads up view for a theme. We can't change the styles or themes of a
+	 * remote view, so there's one layout per theme.
+	 * @param themeId the theme
+	 * @return the layout id, or 0 if the theme is unknown
+	 */
+	@Contract(pure = true)
+	private static int layoutFor(int themeId) {
+		if (themeId == R.style.AppTheme_Beach) return R.layout.alarm_notification_beach;
+		if (themeId == R.style.AppTheme_Candy) return R.layout.alarm_notification_candy;
+		if (themeId == R.style.AppTheme_Grey) return R.layout.alarm_notification_grey;
+		if (themeId == R.style.AppTheme_Mint) return R.layout.alarm_notification_mint;
+		return 0;
+	}
+
+	/**
+	 * Gets the silent sound used by the notification, since the service plays the ringtone itself.
+	 * @param context the current context, cannot be null
+	 * @return the uri of the silent sound
+	 */
+	@NotNull
+	private static Uri silence(@NotNull Context context) {
+		return Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" +
+				context.getPackageName() + "/raw/silence");
+	}
+
+	// ************************************  Instance Methods  **********************************
+
+	/**
+	 * Builds the notification for a ringing alarm.
+	 * @param name the name of the alarm, can be null
+	 * @param fullscreenPI opens the ringing activity, cannot be null
+	 * @param snoozePI snoozes the alarm, cannot be null
+	 * @param dismissPI dismisses the alarm, cannot be null
+	 * @return the notification, will not be null
+	 */
+	@NotNull
+	synchronized Notification build(@Nullable String name, @NotNull PendingIntent fullscreenPI,
+									@NotNull PendingIntent snoozePI, @NotNull PendingIntent dismissPI) {
+		RemoteViews notifView = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ?
+				new RemoteViews(prototype) : prototype.clone();
+		notifView.setTextViewText(R.id.alarm_name_text, name);
+
+		// we need this line to ensure actions pop up on the heads up notification
+		notifView.setOnClickPendingIntent(R.id.snoozeButton, snoozePI);
+		notifView.setOnClickPendingIntent(R.id.dismissButton, dismissPI);
+
+		return builder.setContentTitle(name)
+				.setContentIntent(fullscreenPI)
+				.setFullScreenIntent(fullscreenPI, true)
+				.setCustomHeadsUpContentView(notifView)
+				.build();
+	}
+}
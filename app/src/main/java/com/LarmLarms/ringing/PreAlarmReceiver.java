@@ -0,0 +1,44 @@
+package com.larmlarms.ringing;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import com.larmlarms.BuildConfig;
+import com.larmlarms.Constants;
+import com.larmlarms.data.Alarm;
+import com.larmlarms.data.RootFolder;
+import com.larmlarms.main.MainApplication;
+
+/**
+ * Receives the pre-alarm, sent a little while before the next alarm rings (see
+ * PrefsActivity.PREF_PREWARM_LEAD). Prepares the ringing pipeline so RingingService can start the
+ * sound right away. Requires the alarm as a handle, like RingingService.
+ */
+public class PreAlarmReceiver extends BroadcastReceiver {
+	/**
+	 * Tag of the class for logging purposes.
+	 */
+	private static final String TAG = "PreAlarmReceiver";
+
+	/**
+	 * Prepares the pipeline for the alarm in the intent.
+	 * @param context the current context
+	 * @param intent the intent with the handle of the alarm
+	 */
+	@Override
+	public void onReceive(Context context, Intent intent) {
+		Context app = context.getApplicationContext();
+		if (!(app instanceof MainApplication)) return;
+
+		Alarm alarm = RootFolder.resolveAlarm(app, ((MainApplication) app).peekRootFolder(),
+				intent.getIntExtra(Constants.EXTRA_ID, 0));
+		if (alarm == null) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Alarm was invalid.");
+			return;
+		}
+
+		RingingPrewarm.prepare(app, alarm);
+	}
+}
@@ -0,0 +1,451 @@
+package com.larmlarms.ringing;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.larmlarms.BuildConfig;
+import com.larmlarms.data.RootFolder;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Records how late each stage of ringing an alarm happens, compared to when the alarm was
+ * scheduled to ring, along with the states the ringing session went through (see
+ * RingingSession). The last CAPACITY rings are kept in a ring buffer file of fixed-size records,
+ * which are aggregated into per-stage histograms when read (see RingStatsActivity). Recording is
+ * done on the main thread, writing on a thread of its own.
+ */
+public final class RingStats {
+	/**
+	 * Tag of the class for logging purposes.
+	 */
+	private static final String TAG = "RingStats";
+
+	/**
+	 * Stage for when RingingService is started.
+	 */
+	public static final int STAGE_SERVICE = 0;
+	/**
+	 * Stage for when the ringtone is prepared, which can be before the alarm rings if it was
+	 * prepared ahead of time (see RingingPrewarm).
+	 */
+	public static final int STAGE_PREPARED = 1;
+	/**
+	 * Stage for when sound first starts, from either the media player or the fallback player.
+	 */
+	public static final int STAGE_SOUND = 2;
+	/**
+	 * Stage for when the notification is posted.
+	 */
+	public static final int STAGE_NOTIFICATION = 3;
+	/**
+	 * Stage for when RingingActivity is shown.
+	 */
+	public static final int STAGE_ACTIVITY = 4;
+	/**
+	 * Stage for when the alarm is snoozed or dismissed.
+	 */
+	public static final int STAGE_HANDLED = 5;
+	/**
+	 * The number of stages.
+	 */
+	public static final int STAGE_COUNT = 6;
+
+	/**
+	 * The upper bounds (exclusive) of the histogram buckets, in millis. There's one more bucket
+	 * after the last bound for everything later than that. Anything early counts as on time.
+	 */
+	@NotNull
+	public static final int[] BUCKET_BOUNDS = {50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+	/**
+	 * Latency recorded for stages that never happened.
+	 */
+	public static final int MISSING = Integer.MIN_VALUE;
+	/**
+	 * The max number of session states kept for each ring. Later ones aren't recorded.
+	 */
+	public static final int MAX_STATES = 8;
+
+	/**
+	 * The number of rings kept.
+	 */
+	private static final int CAPACITY = 128;
+	/**
+	 * The size of the header: MAGIC, the next slot to write and the number of records, all ints.
+	 */
+	private static final int HEADER_BYTES = 12;
+	/**
+	 * The size of a record: the scheduled time as a long, then the latency of each stage as ints,
+	 * then the session states as an int (4 bits per state, each one more than the state so that 0
+	 * means none).
+	 */
+	private static final int RECORD_BYTES = 8 + 4*STAGE_COUNT + 4;
+	/**
+	 * Written at the start of the file, and includes the size of a record. Files that don't start
+	 * with it (written by older versions, with other records) are started over.
+	 */
+	private static final int MAGIC = 0x52530000 | RECORD_BYTES;
+	/**
+	 * The name of the file (within the app's files directory) the records are kept in.
+	 */
+	private static final String FILE_NAME = "ring_stats";
+
+	/**
+	 * The thread the file is written on. Also keeps the writes of a ring in order.
+	 */
+	@NotNull
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	/**
+	 * The ring being recorded, or null if there isn't one. Only used on the main thread.
+	 */
+	@Nullable
+	private static Ring current;
+
+	/**
+	 * Not meant to be made.
+	 */
+	private RingStats() {}
+
+	// ***********************************  Recording Methods  **********************************
+
+	/**
+	 * Starts recording a new ring, and records STAGE_SERVICE for it. Any ring recorded before is
+	 * done.
+	 * @param context the current context, cannot be null
+	 * @param scheduledMillis the time the alarm was scheduled to ring (as given to AlarmManager),
+	 *                        or 0 if unknown, in which case nothing is recorded
+	 */
+	public static void begin(@NotNull Context context, long scheduledMillis) {
+		if (scheduledMillis <= 0) {
+			current = null;
+			return;
+		}
+
+		final Ring r = new Ring(getFile(context), scheduledMillis);
+		final File old = new File(context.getNoBackupFilesDir(), FILE_NAME);
+		current = r;
+		executor.execute(() -> {
+			deleteOldFile(old, r.file);
+			allocate(r);
+		});
+		mark(STAGE_SERVICE);
+	}
+
+	/**
+	 * Records that a stage of the current ring happened now. Only the first time counts.
+	 * @param stage the stage, one of the STAGE constants
+	 */
+	public static void mark(final int stage) {
+		final Ring r = current;
+		if (r == null || r.marked[stage]) return;
+		r.marked[stage] = true;
+
+		long latency = System.currentTimeMillis() - r.scheduled;
+		final int clamped = (int) Math.max(Integer.MIN_VALUE + 1,
+				Math.min(Integer.MAX_VALUE, latency));
+		executor.execute(() -> write(r, stage, clamped));
+	}
+
+	/**
+	 * Records that the session of the current ring moved to a new state.
+	 * @param state the new state, one of the RingingSession state constants
+	 */
+	static void transition(int state) {
+		final Ring r = current;
+		if (r == null || r.numStates >= MAX_STATES) return;
+
+		r.states |= (state + 1) << (4*r.numStates);
+		r.numStates++;
+		final int states = r.states;
+		executor.execute(() -> writeStates(r, states));
+	}
+
+	// ************************************  Reading Methods  ***********************************
+
+	/**
+	 * Reads every recorded ring. Blocks, so shouldn't be called on the main thread.
+	 * @param context the current context, cannot be null
+	 * @return the records, oldest first, will not be null
+	 */
+	@NotNull
+	public static List<Record> read(@NotNull Context context) {
+		List<Record> records = new ArrayList<>();
+		File f = getFile(context);
+		if (!f.isFile()) return records;
+
+		try (RandomAccessFile file = new RandomAccessFile(f, "r")) {
+			if (file.length() < HEADER_BYTES || file.readInt() != MAGIC) return records;
+			int next = file.readInt();
+			int count = Math.min(file.readInt(), CAPACITY);
+			for (int i = 0; i < count; i++) {
+				int slot = ((next - count + i) % CAPACITY + CAPACITY) % CAPACITY;
+				file.seek(HEADER_BYTES + (long) slot*RECORD_BYTES);
+
+				long scheduled = file.readLong();
+				int[] latencies = new int[STAGE_COUNT];
+				for (int s = 0; s < STAGE_COUNT; s++) latencies[s] = file.readInt();
+				records.add(new Record(scheduled, latencies, file.readInt()));
+			}
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't read the ring stats.");
+		}
+		return records;
+	}
+
+	/**
+	 * Aggregates records into a histogram for each stage.
+	 * @param records the records to aggregate, cannot be null
+	 * @return the number of rings in each bucket (see BUCKET_BOUNDS), indexed by stage then
+	 * bucket, will not be null
+	 */
+	@Contract(pure = true)
+	@NotNull
+	public static int[][] histograms(@NotNull List<Record> records) {
+		int[][] histograms = new int[STAGE_COUNT][BUCKET_BOUNDS.length + 1];
+		for (Record r : records) {
+			for (int s = 0; s < STAGE_COUNT; s++) {
+				if (r.latencies[s] != MISSING) histograms[s][bucket(r.latencies[s])]++;
+			}
+		}
+		return histograms;
+	}
+
+	/**
+	 * Gets the histogram bucket a latency falls into.
+	 * @param latency the latency, in millis
+	 * @return the index of the bucket
+	 */
+	@Contract(pure = true)
+	public static int bucket(int latency) {
+		int i = Arrays.binarySearch(BUCKET_BOUNDS, latency);
+		// bounds are exclusive, so a latency equal to one belongs to the next bucket
+		return i >= 0 ? i + 1 : -(i + 1);
+	}
+
+	/**
+	 * Turns records into CSV, one ring per line, with a header line. The session states of each
+	 * ring are in the last column, separated by '>'.
+	 * @param records the records to convert, cannot be null
+	 * @return the CSV, will not be null
+	 */
+	@Contract(pure = true)
+	@NotNull
+	public static String toCsv(@NotNull List<Record> records) {
+		StringBuilder builder = new StringBuilder(
+				"scheduled,service,prepared,sound,notification,activity,handled,states\n");
+		for (Record r : records) {
+			builder.append(r.scheduled);
+			for (int latency : r.latencies) {
+				builder.append(',');
+				if (latency != MISSING) builder.append(latency);
+			}
+			builder.append(',');
+			int[] states = r.getStates();
+			for (int i = 0; i < states.length; i++) {
+				if (i != 0) builder.append('>');
+				builder.append(RingingSession.stateName(states[i]));
+			}
+			builder.append('\n');
+		}
+		return builder.toString();
+	}
+
+	// ************************************  File Methods  **************************************
+
+	/**
+	 * Takes the next slot in the file for a ring and clears it. Runs on the writing thread.
+	 * @param r the ring to allocate a slot for, cannot be null
+	 */
+	private static void allocate(@NotNull Ring r) {
+		try (RandomAccessFile file = new RandomAccessFile(r.file, "rw")) {
+			int next = 0, count = 0;
+			if (file.length() >= HEADER_BYTES && file.readInt() == MAGIC) {
+				next = (file.readInt() % CAPACITY + CAPACITY) % CAPACITY;
+				count = file.readInt();
+			}
+			else file.setLength(0);
+			r.slot = next;
+
+			file.seek(0);
+			file.writeInt(MAGIC);
+			file.writeInt((next + 1) % CAPACITY);
+			file.writeInt(Math.min(count + 1, CAPACITY));
+
+			file.seek(HEADER_BYTES + (long) r.slot*RECORD_BYTES);
+			file.writeLong(r.scheduled);
+			for (int s = 0; s < STAGE_COUNT; s++) file.writeInt(MISSING);
+			file.writeInt(0);
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't start recording a ring.");
+			r.slot = -1;
+		}
+	}
+
+	/**
+	 * Writes the latency of one stage of a ring to its slot. Runs on the writing thread.
+	 * @param r the ring, cannot be null
+	 * @param stage the stage
+	 * @param latency the latency of the stage, in millis
+	 */
+	private static void write(@NotNull Ring r, int stage, int latency) {
+		if (r.slot < 0) return;
+
+		try (RandomAccessFile file = new RandomAccessFile(r.file, "rw")) {
+			file.seek(HEADER_BYTES + (long) r.slot*RECORD_BYTES + 8 + 4*stage);
+			file.writeInt(latency);
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't record a ring stage.");
+		}
+	}
+
+	/**
+	 * Writes the session states of a ring to its slot. Runs on the writing thread.
+	 * @param r the ring, cannot be null
+	 * @param states the packed states of the ring
+	 */
+	private static void writeStates(@NotNull Ring r, int states) {
+		if (r.slot < 0) return;
+
+		try (RandomAccessFile file = new RandomAccessFile(r.file, "rw")) {
+			file.seek(HEADER_BYTES + (long) r.slot*RECORD_BYTES + 8 + 4*STAGE_COUNT);
+			file.writeInt(states);
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't record a session state.");
+		}
+	}
+
+	/**
+	 * Deletes the file older versions kept in credential protected storage, if it's still there.
+	 * Runs on the writing thread.
+	 * @param old the file older versions used, cannot be null
+	 * @param current the file used now, cannot be null
+	 */
+	private static void deleteOldFile(@NotNull File old, @NotNull File current) {
+		//noinspection ResultOfMethodCallIgnored
+		if (!old.equals(current) && old.isFile()) old.delete();
+	}
+
+	/**
+	 * Gets the file the records are kept in.
+	 * @param context the current context, cannot be null
+	 * @return the file, which might not exist yet
+	 */
+	@NotNull
+	private static File getFile(@NotNull Context context) {
+		return new File(RootFolder.getDeviceStorageContext(context).getNoBackupFilesDir(),
+				FILE_NAME);
+	}
+
+	// *************************************  Inner Classes  ************************************
+
+	/**
+	 * A ring that's being recorded.
+	 */
+	private static final class Ring {
+		/**
+		 * The file to write to.
+		 */
+		@NotNull
+		final File file;
+		/**
+		 * The time the alarm was scheduled to ring.
+		 */
+		final long scheduled;
+		/**
+		 * Which stages have been recorded already. Only used on the main thread.
+		 */
+		@NotNull
+		final boolean[] marked = new boolean[STAGE_COUNT];
+		/**
+		 * The packed session states recorded so far. Only used on the main thread.
+		 */
+		int states;
+		/**
+		 * The number of session states recorded so far. Only used on the main thread.
+		 */
+		int numStates;
+		/**
+		 * The slot of the ring in the file, or -1 if it doesn't have one. Only used on the writing
+		 * thread.
+		 */
+		int slot = -1;
+
+		/**
+		 * Creates a new ring.
+		 * @param file the file to write to
+		 * @param scheduled the time the alarm was scheduled to ring
+		 */
+		Ring(@NotNull File file, long scheduled) {
+			this.file = file;
+			this.scheduled = scheduled;
+		}
+	}
+
+	/**
+	 * A recorded ring.
+	 */
+	public static final class Record {
+		/**
+		 * The time the alarm was scheduled to ring.
+		 */
+		public final long scheduled;
+		/**
+		 * The latency of each stage in millis, or MISSING if the stage never happened.
+		 */
+		@NotNull
+		public final int[] latencies;
+		/**
+		 * The session states of the ring, packed like in the file.
+		 */
+		private final int states;
+
+		/**
+		 * Creates a new record without any session states.
+		 * @param scheduled the time the alarm was scheduled to ring
+		 * @param latencies the latency of each stage
+		 */
+		Record(long scheduled, @NotNull int[] latencies) { this(scheduled, latencies, 0); }
+
+		/**
+		 * Creates a new record.
+		 * @param scheduled the time the alarm was scheduled to ring
+		 * @param latencies the latency of each stage
+		 * @param states the packed session states
+		 */
+		Record(long scheduled, @NotNull int[] latencies, int states) {
+			this.scheduled = scheduled;
+			this.latencies = latencies;
+			this.states = states;
+		}
+
+		/**
+		 * Gets the session states the ring went through.
+		 * @return the states in order (RingingSession state constants), will not be null
+		 */
+		@NotNull @Contract(pure = true)
+		public int[] getStates() {
+			int count = 0;
+			while (count < MAX_STATES && ((states >>> (4*count)) & 0xF) != 0) count++;
+
+			int[] unpacked = new int[count];
+			for (int i = 0; i < count; i++) unpacked[i] = ((states >>> (4*i)) & 0xF) - 1;
+			return unpacked;
+		}
+	}
+}
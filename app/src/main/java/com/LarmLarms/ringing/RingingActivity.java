@@ -14,7 +14,8 @@ import com.larmlarms.BuildConfig;
 import com.larmlarms.Constants;
 import com.larmlarms.R;
 import com.larmlarms.data.Alarm;
-import com.larmlarms.data.ItemInfo;
+import com.larmlarms.data.RootFolder;
+import com.larmlarms.main.MainApplication;
 import com.larmlarms.main.PrefsActivity;
 
 import org.jetbrains.annotations.NotNull;
@@ -33,11 +34,6 @@ public class RingingActivity extends AppCompatActivity {
 	 */
 	private Alarm alarm;
 
-	/**
-	 * Path of the current alarm.
-	 */
-	private String path;
-
 	// ***********************************  Lifecycle Methods  *********************************
 
 	/**
@@ -55,13 +51,13 @@ public class RingingActivity extends AppCompatActivity {
 		PrefsActivity.applyPrefsUI(this);
 
 		// setting fields
-		alarm = Alarm.fromEditString(this, getIntent().getStringExtra(Constants.EXTRA_ITEM));
+		alarm = RootFolder.resolveAlarm(this, ((MainApplication) getApplication()).peekRootFolder(),
+				getIntent().getIntExtra(Constants.EXTRA_ID, 0));
 		if (alarm == null) {
 			if (BuildConfig.DEBUG) Log.e(TAG, "The alarm given was invalid.");
 			finish();
 			return;
 		}
-		path = getIntent().getStringExtra(Constants.EXTRA_PATH);
 
 		// show on lock screen
 		if (Build.VERSION.SDK_INT > Build.VERSION_CODES.O) {
@@ -93,6 +89,29 @@ public class RingingActivity extends AppCompatActivity {
 		// setting UI things
 		TextView name = findViewById(R.id.alarmName);
 		name.setText(alarm.getName());
+
+		// goes away by itself when the ring is over (e.g. it timed out)
+		RingingSession session = RingingSession.getActive();
+		if (session != null) session.setOnEnd(this::finish);
+	}
+
+	/**
+	 * Called when the activity is shown. Records when the alarm was first shown.
+	 */
+	@Override
+	protected void onResume() {
+		super.onResume();
+		RingStats.mark(RingStats.STAGE_ACTIVITY);
+	}
+
+	/**
+	 * Called when the activity is being destroyed. Stops waiting for the ring to end.
+	 */
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		RingingSession session = RingingSession.getActive();
+		if (session != null) session.setOnEnd(null);
 	}
 
 	// **************************************  Callbacks  **************************************
@@ -104,8 +123,7 @@ public class RingingActivity extends AppCompatActivity {
 	 */
 	public void snooze(@NotNull View v) {
 		startService(new Intent(this, AfterRingingService.class)
-				.putExtra(Constants.EXTRA_ITEM, alarm.toEditString())
-				.putExtra(Constants.EXTRA_PATH, path)
+				.putExtra(Constants.EXTRA_ID, alarm.getId())
 				.setAction(Constants.ACTION_SNOOZE));
 		finish();
 	}
@@ -117,8 +135,7 @@ public class RingingActivity extends AppCompatActivity {
 	 */
 	public void dismiss(@NotNull View v) {
 		startService(new Intent(this, AfterRingingService.class)
-				.putExtra(Constants.EXTRA_ITEM, alarm.toEditString())
-				.putExtra(Constants.EXTRA_PATH, path)
+				.putExtra(Constants.EXTRA_ID, alarm.getId())
 				.setAction(Constants.ACTION_DISMISS));
 		finish();
 	}
@@ -0,0 +1,259 @@
+package com.larmlarms.ringing;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.larmlarms.BuildConfig;
+import com.larmlarms.data.Alarm;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Holds the ringing pipeline of the next alarm, prepared a little while before it rings (see
+ * PreAlarmReceiver). RingingService takes it over when the alarm actually rings, so the sound can
+ * start without waiting for the ringtone to be opened and decoded. Only lives as long as the
+ * process does; if the process dies in between, RingingService simply sets everything up itself.
+ * Holds a wake lock while preparing, so the device doesn't fall asleep halfway through. Only used
+ * on the main thread.
+ */
+public final class RingingPrewarm implements MediaPlayer.OnPreparedListener,
+		MediaPlayer.OnErrorListener {
+	/**
+	 * Tag of the class for logging purposes.
+	 */
+	private static final String TAG = "RingingPrewarm";
+
+	/**
+	 * How long after the ring time a prepared pipeline is kept around before giving up on it, in
+	 * millis.
+	 */
+	private static final long EXPIRY_MILLIS = 60*1000;
+	/**
+	 * How long the wake lock is held at most while preparing, in millis. Also covers decoding for
+	 * the fallback player, which usually takes about as long.
+	 */
+	private static final long PREPARE_TIMEOUT_MILLIS = 10*1000;
+
+	/**
+	 * The prepared pipeline, or null if there isn't one.
+	 */
+	@Nullable
+	private static RingingPrewarm current;
+
+	/**
+	 * Handler for the main thread, to release pipelines that were never taken.
+	 */
+	@NotNull
+	private static final Handler handler = new Handler(Looper.getMainLooper());
+
+	// ************************************  Instance Fields  ***********************************
+
+	/**
+	 * The id of the alarm this was prepared for.
+	 */
+	private final int id;
+	/**
+	 * The ringtone that was prepared, or null if the alarm is silent.
+	 */
+	@Nullable
+	private final Uri ringtone;
+	/**
+	 * The volume of the alarm, from 0 to 100.
+	 */
+	private final int volume;
+
+	/**
+	 * The player for the ringtone, or null if the alarm is silent. Already has its data source set
+	 * and is being (or has been) prepared.
+	 */
+	@Nullable
+	MediaPlayer player;
+	/**
+	 * Whether the player has finished preparing.
+	 */
+	boolean prepared;
+	/**
+	 * Whether the player is playing the cached copy of the ringtone (see RingtoneCache).
+	 */
+	boolean playingCopy;
+
+	/**
+	 * The fallback player for the ringtone, already decoding it, or null if the alarm is silent.
+	 */
+	@Nullable
+	final FallbackPlayer fallback;
+
+	/**
+	 * Keeps the device awake while preparing, or null once preparing is done.
+	 */
+	@Nullable
+	private WakeStats.Hold hold;
+
+	/**
+	 * Stops keeping the device awake if preparing is taking too long.
+	 */
+	@NotNull
+	private final Runnable prepareTimeout = this::stopHolding;
+
+	/**
+	 * Releases this pipeline if it was never taken.
+	 */
+	@NotNull
+	private final Runnable expire = () -> {
+		if (current == this) current = null;
+		release();
+	};
+
+	// *************************************  Constructors  *************************************
+
+	/**
+	 * Prepares the pipeline for the given alarm. Makes the notification template (and channel)
+	 * if it hasn't been made yet, and starts preparing (and decoding, for the fallback player) the
+	 * ringtone in the background.
+	 * @param context the context to prepare things with, cannot be null
+	 * @param alarm the alarm to prepare for, cannot be null
+	 */
+	private RingingPrewarm(@NotNull Context context, @NotNull Alarm alarm) {
+		id = alarm.getId();
+		volume = alarm.getVolume();
+		ringtone = volume == 0 ? null : alarm.getRingtoneUri();
+
+		NotificationTemplate.get(context);
+		fallback = ringtone == null ? null : new FallbackPlayer(context, ringtone);
+
+		if (ringtone == null) return;
+
+		// the receiver returns right away, so the device could sleep before the player is ready
+		hold = WakeStats.acquire(context, WakeStats.CAUSE_RINGING, PREPARE_TIMEOUT_MILLIS);
+		handler.postDelayed(prepareTimeout, PREPARE_TIMEOUT_MILLIS);
+
+		player = new MediaPlayer();
+		player.setAudioAttributes(RingingService.AUDIO_ATTRIBUTES);
+		player.setLooping(true);
+		player.setOnPreparedListener(this);
+		player.setOnErrorListener(this);
+		try {
+			playingCopy = RingtoneCache.setDataSource(context, player, ringtone);
+			player.prepareAsync();
+		}
+		catch (Exception e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't prepare the ringtone ahead of time.");
+			player.release();
+			player = null;
+		}
+	}
+
+	// ************************************  Static Methods  ************************************
+
+	/**
+	 * Prepares the pipeline for the given alarm, replacing any pipeline prepared before. It's kept
+	 * until RingingService takes it or until a little while after the alarm should've rung.
+	 * @param context the context to prepare things with, cannot be null
+	 * @param alarm the alarm to prepare for, cannot be null
+	 */
+	static void prepare(@NotNull Context context, @NotNull Alarm alarm) {
+		discard();
+
+		RingingPrewarm p = new RingingPrewarm(context.getApplicationContext(), alarm);
+		current = p;
+		handler.postDelayed(p.expire,
+				Math.max(0, alarm.getAlarmTimeMillis() - System.currentTimeMillis()) + EXPIRY_MILLIS);
+		if (BuildConfig.DEBUG) Log.i(TAG, "Prepared the pipeline for alarm " + alarm.getId() + ".");
+	}
+
+	/**
+	 * Takes the prepared pipeline if it was prepared for the given alarm, which now belongs to the
+	 * caller. Any other pipeline is released.
+	 * @param alarm the alarm that's ringing, cannot be null
+	 * @return the pipeline, or null if none was prepared for the alarm (as it is now)
+	 */
+	@Nullable
+	static RingingPrewarm take(@NotNull Alarm alarm) {
+		RingingPrewarm p = current;
+		current = null;
+		if (p == null) return null;
+		handler.removeCallbacks(p.expire);
+
+		// RingingService keeps the device awake from here on
+		p.stopHolding();
+
+		Uri uri = alarm.getVolume() == 0 ? null : alarm.getRingtoneUri();
+		boolean sameRingtone = uri == null ? p.ringtone == null : uri.equals(p.ringtone);
+		if (p.id != alarm.getId() || !sameRingtone ||
+				p.volume != alarm.getVolume()) {
+			// the alarm changed (or a different one is ringing) since it was prepared
+			p.release();
+			return null;
+		}
+		return p;
+	}
+
+	/**
+	 * Releases the prepared pipeline, if there is one.
+	 */
+	static void discard() {
+		RingingPrewarm p = current;
+		current = null;
+		if (p == null) return;
+		handler.removeCallbacks(p.expire);
+		p.release();
+	}
+
+	// ********************************  MediaPlayer Callbacks  ********************************
+
+	/**
+	 * Callback for when the ringtone is prepared. Sets the volume so it's ready to start.
+	 * @param mp the player that was prepared
+	 */
+	@Override
+	public void onPrepared(@NotNull MediaPlayer mp) {
+		float vol = volume / 100f;
+		mp.setVolume(vol, vol);
+		prepared = true;
+		stopHolding();
+	}
+
+	/**
+	 * Callback for errors while preparing. Drops the player so RingingService makes its own.
+	 * @param mp the player with an error
+	 * @param what the type of error that occurred
+	 * @param extra extra code specific to the error
+	 * @return whether the error was handled, always true
+	 */
+	@Override
+	public boolean onError(@NotNull MediaPlayer mp, int what, int extra) {
+		if (BuildConfig.DEBUG) Log.e(TAG, "Something went wrong while preparing the ringtone.");
+		mp.release();
+		if (player == mp) player = null;
+		prepared = false;
+		stopHolding();
+		return true;
+	}
+
+	// *************************************  Other Methods  ************************************
+
+	/**
+	 * Releases the player, if there is one.
+	 */
+	private void release() {
+		if (player != null) player.release();
+		player = null;
+		prepared = false;
+		stopHolding();
+	}
+
+	/**
+	 * Releases the wake lock held while preparing, if it's still held.
+	 */
+	private void stopHolding() {
+		handler.removeCallbacks(prepareTimeout);
+		if (hold == null) return;
+		hold.release();
+		hold = null;
+	}
+}
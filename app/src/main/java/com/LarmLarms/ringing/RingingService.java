@@ -1,11 +1,8 @@
 package com.larmlarms.ringing;
 
 import android.app.Notification;
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -13,30 +10,30 @@ import android.media.AudioAttributes;
 import android.media.AudioFocusRequest;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
-import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
-import android.os.PowerManager;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.util.Log;
-import android.widget.RemoteViews;
 
 import com.larmlarms.BuildConfig;
 import com.larmlarms.Constants;
-import com.larmlarms.R;
 import com.larmlarms.data.Alarm;
+import com.larmlarms.data.RootFolder;
+import com.larmlarms.main.MainApplication;
 import com.larmlarms.main.PrefsActivity;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import androidx.core.app.NotificationCompat;
-
 /**
  * A short-term service that runs in the background of a currently ringing alarm. Manages the
  * notification for the alarm and playing the alarm sounds. Requires the alarm as an extra in the
- * intent as an extra using EditorActivity.EXTRA_ITEM_INFO as the key.
+ * intent as a handle (Constants.EXTRA_ID). What happens when is
+ * decided by a RingingSession, the service only does the work of each transition.
  */
 public class RingingService extends Service implements MediaPlayer.OnPreparedListener,
 		MediaPlayer.OnErrorListener, AudioManager.OnAudioFocusChangeListener {
@@ -47,16 +44,40 @@ public class RingingService extends Service implements MediaPlayer.OnPreparedLis
 
 	// *********************************  Other static fields  **********************************
 
-	/**
-	 * String ID for the notification channel the foreground notifications are posted in.
-	 */
-	private static final String NOTIFICATION_CHANNEL_ID = "RingingAlarms";
 	/**
 	 * The int ID for the foreground notification itself. There should only be one at any given time,
 	 * so using the same ID should be fine.
 	 */
 	private static final int NOTIFICATION_ID = 42;
 
+	/**
+	 * How long the media player gets to get ready (and audio focus to be granted) before ringing
+	 * anyway, with the fallback player if the media player isn't ready, in millis.
+	 */
+	private static final long START_DEADLINE_MILLIS = 2000;
+
+	/**
+	 * How long the wake lock is held past the auto-silence timeout, in case the timeout runs late,
+	 * in millis. Also how long before it runs out the wake lock of a ring that never goes silent
+	 * is renewed.
+	 */
+	private static final long WAKE_LOCK_SLACK_MILLIS = 60*1000;
+
+	/**
+	 * The name of the preferences file (in device protected storage) that keeps how many times in
+	 * a row each alarm was snoozed automatically, by alarm id.
+	 */
+	private static final String AUTO_SNOOZES_PREFS = "com.larmlarms.AUTO_SNOOZES";
+
+	/**
+	 * The audio attributes alarms are played with.
+	 */
+	@NotNull
+	static final AudioAttributes AUDIO_ATTRIBUTES = new AudioAttributes.Builder()
+			.setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+			.setUsage(AudioAttributes.USAGE_ALARM)
+			.build();
+
 	// ***********************************  Non-static fields *********************************
 
 	/**
@@ -65,21 +86,83 @@ public class RingingService extends Service implements MediaPlayer.OnPreparedLis
 	private Alarm alarm;
 
 	/**
-	 * Plays the ringtone of the alarm. Can be null if the alarm is silent.
+	 * The state of the current ring, or null if there isn't one (yet).
 	 */
 	@Nullable
-	private MediaPlayer mediaPlayer;
+	private RingingSession session;
 
 	/**
-	 * Shows whether audio focus is currently granted to us.
+	 * The number of times in a row the current alarm was snoozed automatically before this ring.
 	 */
-	private boolean audioFocused;
+	private int autoSnoozes;
+
+	/**
+	 * Keeps the CPU awake for the whole session, whatever state it's in (and the media player
+	 * while it plays). Null if not held.
+	 */
+	@Nullable
+	private WakeStats.Hold wakeHold;
+
+	/**
+	 * Plays the ringtone of the alarm. Can be null if the alarm is silent.
+	 */
+	@Nullable
+	private MediaPlayer mediaPlayer;
 
 	/**
 	 * Shows whether the media player is prepared for playback or not.
 	 */
 	private boolean playerPrepared;
 
+	/**
+	 * Whether the media player is playing the cached copy of the ringtone (see RingtoneCache)
+	 * rather than the ringtone itself.
+	 */
+	private boolean playingCopy;
+
+	/**
+	 * Plays the ringtone (or a built-in tone) when the media player fails or doesn't start in
+	 * time. Can be null if the alarm is silent.
+	 */
+	@Nullable
+	private FallbackPlayer fallback;
+
+	/**
+	 * Whether the fallback player has been started (it might be paused now).
+	 */
+	private boolean fallbackStarted;
+
+	/**
+	 * Handler for the main thread, runs every timeout of the session.
+	 */
+	@NotNull
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Renews the wake lock of a ring that never goes silent, as long as it's still ringing (see
+	 * acquireWakeLock()).
+	 */
+	@NotNull
+	private final Runnable renewWakeLock = () -> {
+		if (session == null) return;
+		int state = session.getState();
+		if (state == RingingSession.RINGING || state == RingingSession.DUCKED) acquireWakeLock(0);
+	};
+
+	/**
+	 * Runs the timeouts of the session on the handler.
+	 */
+	@NotNull
+	private final RingingSession.Timer timer = new RingingSession.Timer() {
+		@Override
+		public void schedule(@NotNull Runnable task, long delayMillis) {
+			handler.postDelayed(task, delayMillis);
+		}
+
+		@Override
+		public void cancel(@NotNull Runnable task) { handler.removeCallbacks(task); }
+	};
+
 	/**
 	 * Audio focus request to gain/abandon audio focus.
 	 */
@@ -103,7 +186,6 @@ public class RingingService extends Service implements MediaPlayer.OnPreparedLis
 	 * Creates a new AlarmRingingService and initializes a connection to the data service.
 	 */
 	public RingingService() {
-		audioFocused = false;
 		playerPrepared = false;
 	}
 
@@ -116,18 +198,23 @@ public class RingingService extends Service implements MediaPlayer.OnPreparedLis
 	 */
 	@Override
 	public int onStartCommand(@NotNull Intent inIntent, int flags, int startId) {
-		createNotificationChannel(this);
+		// a new ring replaces the one still going on, if any
+		exitService();
+		RingStats.begin(this, inIntent.getLongExtra(Constants.EXTRA_RING_TIME, 0));
 
-		// alarmInfo = inIntent.getParcelableExtra(Constants.EXTRA_ITEM_INFO);
-		alarm = Alarm.fromEditString(null, inIntent.getStringExtra(Constants.EXTRA_ITEM));
-		String path = inIntent.getStringExtra(Constants.EXTRA_PATH);
+		alarm = RootFolder.resolveAlarm(this, ((MainApplication) getApplication()).peekRootFolder(),
+				inIntent.getIntExtra(Constants.EXTRA_ID, 0));
 
 		if (alarm == null) {
 			if (BuildConfig.DEBUG) Log.e(TAG, "Alarm was invalid.");
+			RingingPrewarm.discard();
 			stopSelf();
 			return Service.START_NOT_STICKY;
 		}
 
+		// the pre-alarm might have prepared everything already
+		RingingPrewarm prewarm = RingingPrewarm.take(alarm);
+
 		// flags for the pending intents
 		int PIFlags = PendingIntent.FLAG_UPDATE_CURRENT;
 		if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S)
@@ -135,14 +222,12 @@ public class RingingService extends Service implements MediaPlayer.OnPreparedLis
 
 		// setting up custom foreground notification
 		Intent fullScreenIntent = new Intent(this, RingingActivity.class);
-		fullScreenIntent.putExtra(Constants.EXTRA_ITEM, alarm.toEditString());
-		fullScreenIntent.putExtra(Constants.EXTRA_PATH, path);
+		fullScreenIntent.putExtra(Constants.EXTRA_ID, alarm.getId());
 		fullScreenIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
 		PendingIntent fullscreenPI = PendingIntent.getActivity(this, 0, fullScreenIntent, PIFlags);
 
 		Intent dismissIntent = new Intent(this, AfterRingingService.class);
-		dismissIntent.putExtra(Constants.EXTRA_ITEM, alarm.toEditString());
-		dismissIntent.putExtra(Constants.EXTRA_PATH, path);
+		dismissIntent.putExtra(Constants.EXTRA_ID, alarm.getId());
 		dismissIntent.setAction(Constants.ACTION_DISMISS);
 		PendingIntent dismissPI = PendingIntent.getService(this, 0, dismissIntent, PIFlags);
 
@@ -150,78 +235,66 @@ public class RingingService extends Service implements MediaPlayer.OnPreparedLis
 		snoozeIntent.setAction(Constants.ACTION_SNOOZE);
 		PendingIntent snoozePI = PendingIntent.getService(this, 0, snoozeIntent, PIFlags);
 
-		// this is so stupid but we can't change styles/themes of a remote view
-		int notifLayout;
-		SharedPreferences prefs = getSharedPreferences(PrefsActivity.PREFS_KEY, MODE_PRIVATE);
-		int themeId = prefs.getInt(PrefsActivity.PREF_THEME_KEY, R.style.AppTheme_Beach);
-		if (themeId == R.style.AppTheme_Beach) {
-			notifLayout = R.layout.alarm_notification_beach;
-		}
-		else if (themeId == R.style.AppTheme_Candy) {
-			notifLayout = R.layout.alarm_notification_candy;
-		}
-		else if (themeId == R.style.AppTheme_Grey) {
-			notifLayout = R.layout.alarm_notification_grey;
-		}
-		else if (themeId == R.style.AppTheme_Mint) {
-			notifLayout = R.layout.alarm_notification_mint;
-		}
-		else {
-			if (BuildConfig.DEBUG) Log.e(TAG, "Unknown theme specified!");
+		NotificationTemplate template = NotificationTemplate.get(this);
+		if (template == null) {
+			if (prewarm != null && prewarm.player != null) prewarm.player.release();
 			stopSelf();
 			return Service.START_NOT_STICKY;
 		}
 		PrefsActivity.applyPrefsStyle(this);
-
-		RemoteViews notifView = new RemoteViews(getPackageName(), notifLayout);
-		notifView.setTextViewText(R.id.alarm_name_text, alarm.getName());
-
-		// we need this line to ensure actions pop up on the heads up notification
-		notifView.setOnClickPendingIntent(R.id.snoozeButton, snoozePI);
-		notifView.setOnClickPendingIntent(R.id.dismissButton, dismissPI);
-
-		NotificationCompat.Builder builder = new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL_ID)
-				.setSmallIcon(R.mipmap.ic_launcher)
-				.setContentTitle(alarm.getName())
-				.setContentText(getResources().getString(R.string.notif_description))
-				.setTicker(getResources().getString(R.string.notif_ticker))
-				.setPriority(NotificationCompat.PRIORITY_MAX)
-				.setDefaults(Notification.DEFAULT_LIGHTS)
-				.setSound(Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" +
-						getPackageName() + "/raw/silence"))
-				.setVibrate(new long[]{0})
-				.setContentIntent(fullscreenPI)
-				.setAutoCancel(true)
-				.setCategory(NotificationCompat.CATEGORY_ALARM)
-				.setOngoing(true)
-				.setFullScreenIntent(fullscreenPI, true)
-				.setStyle(new NotificationCompat.DecoratedCustomViewStyle())
-				.setCustomHeadsUpContentView(notifView);
-
+		Notification notification = template.build(alarm.getName(), fullscreenPI, snoozePI,
+				dismissPI);
+
+		// from here on, the session decides when to ring and when to stop
+		SharedPreferences prefs = PrefsActivity.getPrefs(this);
+		long silenceMillis = 60*1000L*prefs.getInt(PrefsActivity.PREF_AUTO_SILENCE,
+				PrefsActivity.DEFAULT_AUTO_SILENCE);
+		autoSnoozes = readAutoSnoozes(alarm);
+		session = new RingingSession(START_DEADLINE_MILLIS, silenceMillis,
+				prefs.getBoolean(PrefsActivity.PREF_AUTO_SNOOZE, false), autoSnoozes,
+				SystemClock::elapsedRealtime, timer, this::onTransition);
+		acquireWakeLock(silenceMillis);
+		session.start();
 
 		// ringtone setup
-		AudioAttributes audioAttributes = new AudioAttributes.Builder()
-				.setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
-				.setUsage(AudioAttributes.USAGE_ALARM)
-				.build();
+		AudioAttributes audioAttributes = AUDIO_ATTRIBUTES;
 		if (alarm.getRingtoneUri() != null && alarm.getVolume() != 0) {
 
-			// media player setup
-			mediaPlayer = new MediaPlayer();
-			mediaPlayer.setAudioAttributes(audioAttributes);
-			mediaPlayer.setLooping(true);
-			mediaPlayer.setWakeMode(this, PowerManager.PARTIAL_WAKE_LOCK);
+			fallback = prewarm != null && prewarm.fallback != null ? prewarm.fallback :
+					new FallbackPlayer(this, alarm.getRingtoneUri());
 
-			try {
-				mediaPlayer.setDataSource(this, alarm.getRingtoneUri());
+			if (prewarm != null && prewarm.player != null) {
+				// already opened and (probably) prepared, so just take it over
+				mediaPlayer = prewarm.player;
+				playerPrepared = prewarm.prepared;
+				playingCopy = prewarm.playingCopy;
 				mediaPlayer.setOnPreparedListener(this);
-				mediaPlayer.prepareAsync();
+				mediaPlayer.setOnErrorListener(this);
+				if (playerPrepared) {
+					RingStats.mark(RingStats.STAGE_PREPARED);
+					session.soundReady();
+				}
 			}
-			catch (Exception e) {
-				if (BuildConfig.DEBUG) Log.e(TAG, "Something went wrong while initializing the alarm sounds.");
-				stopSelf();
-				return Service.START_NOT_STICKY;
+			else {
+				// media player setup
+				mediaPlayer = new MediaPlayer();
+				mediaPlayer.setAudioAttributes(audioAttributes);
+				mediaPlayer.setLooping(true);
+
+				try {
+					playingCopy = RingtoneCache.setDataSource(this, mediaPlayer, alarm.getRingtoneUri());
+					mediaPlayer.setOnPreparedListener(this);
+					mediaPlayer.setOnErrorListener(this);
+					mediaPlayer.prepareAsync();
+				}
+				catch (Exception e) {
+					if (BuildConfig.DEBUG) Log.e(TAG, "Something went wrong while initializing the alarm sounds.");
+					mediaPlayer.release();
+					mediaPlayer = null;
+				}
 			}
+			// without a media player, the fallback player is ready right away
+			if (mediaPlayer == null) session.soundReady();
 
 			// audio focus request
 			if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
@@ -247,15 +320,20 @@ public class RingingService extends Service implements MediaPlayer.OnPreparedLis
 				int focus = audioManager.requestAudioFocus(audioFocusRequest);
 				switch(focus) {
 					case AudioManager.AUDIOFOCUS_REQUEST_GRANTED:
-						audioFocused = true;
-						if (mediaPlayer != null && playerPrepared) mediaPlayer.start();
+						session.focusChanged(true);
 						break;
 					case AudioManager.AUDIOFOCUS_REQUEST_FAILED:
 					case AudioManager.AUDIOFOCUS_REQUEST_DELAYED:
-						audioFocused = false;
+						// rings anyway once the start deadline passes
 						break;
 				}
 			}
+			else session.focusChanged(true);
+		}
+		else {
+			// nothing to play, so it rings (or just vibrates) right away
+			session.soundReady();
+			session.focusChanged(true);
 		}
 
 		if (alarm.isVibrateOn()) {
@@ -277,7 +355,8 @@ public class RingingService extends Service implements MediaPlayer.OnPreparedLis
 			}
 		}
 
-		startForeground(NOTIFICATION_ID, builder.build());
+		startForeground(NOTIFICATION_ID, notification);
+		RingStats.mark(RingStats.STAGE_NOTIFICATION);
 
 		return Service.START_NOT_STICKY;
 	}
@@ -301,22 +380,37 @@ public class RingingService extends Service implements MediaPlayer.OnPreparedLis
 	}
 
 	/**
-	 * Closes everything. Takes care of the media player, audio focus, and vibrator. Doesn't stop
-	 * the service itself, though.
+	 * Closes everything. Takes care of the session, the media player, the fallback player, audio
+	 * focus, the vibrator and the wake lock. Doesn't stop the service itself, though.
 	 */
 	private void exitService() {
-		if (mediaPlayer != null) {
-			mediaPlayer.release();
-			mediaPlayer = null;
+		if (session != null) {
+			RingingSession s = session;
+			session = null;
+			s.end();
+		}
+		if (fallback != null) {
+			fallback.release();
+			fallback = null;
+		}
+		fallbackStarted = false;
+		releasePlayer();
 
-			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-				if (audioManager != null && audioFocusRequest != null)
-					audioManager.abandonAudioFocusRequest(audioFocusRequest);
-			}
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+			if (audioManager != null && audioFocusRequest != null)
+				audioManager.abandonAudioFocusRequest(audioFocusRequest);
+			audioFocusRequest = null;
 		}
 
 		if (vibrator != null) {
 			vibrator.cancel();
+			vibrator = null;
+		}
+
+		handler.removeCallbacks(renewWakeLock);
+		if (wakeHold != null) {
+			wakeHold.release();
+			wakeHold = null;
 		}
 	}
 
@@ -336,22 +430,51 @@ public class RingingService extends Service implements MediaPlayer.OnPreparedLis
 		float vol = alarm.getVolume() / 100f;
 		mp.setVolume(vol, vol);
 		playerPrepared = true;
-		if (audioFocused) mp.start();
+		RingStats.mark(RingStats.STAGE_PREPARED);
+		if (session != null) session.soundReady();
 	}
 
 	/**
-	 * Callback for MediaPlayer.OnErrorListener.
+	 * Callback for MediaPlayer.OnErrorListener. If the cached copy of the ringtone was being
+	 * played, falls back to the ringtone itself. Otherwise switches to the fallback player.
 	 * @param mp the media player with an error
 	 * @param what the type of error that occurred
 	 * @param extra extra code specific to the error
-	 * @return whether the error was handled or not, always returns false
+	 * @return whether the error was handled or not
 	 */
 	@Override
 	public boolean onError(@NotNull MediaPlayer mp, int what, int extra) {
+		if (playingCopy && alarm != null && alarm.getRingtoneUri() != null) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't play the cached ringtone, using the original.");
+			playingCopy = false;
+			playerPrepared = false;
+			try {
+				mp.reset();
+				mp.setAudioAttributes(AUDIO_ATTRIBUTES);
+				mp.setLooping(true);
+				mp.setDataSource(this, alarm.getRingtoneUri());
+				mp.prepareAsync();
+				return true;
+			}
+			catch (Exception e) {
+				// give up like any other error
+			}
+		}
+
 		if (BuildConfig.DEBUG) Log.e(TAG, "Something went wrong while playing the alarm sounds.");
-		exitService();
-		stopSelf();
-		return false;
+		releasePlayer();
+		if (fallback == null) {
+			exitService();
+			stopSelf();
+			return false;
+		}
+
+		// the fallback player takes over, whenever the session rings
+		if (session != null) {
+			if (session.getState() == RingingSession.RINGING) startSound();
+			else session.soundReady();
+		}
+		return true;
 	}
 
 	/**
@@ -360,17 +483,16 @@ public class RingingService extends Service implements MediaPlayer.OnPreparedLis
 	 */
 	@Override
 	public void onAudioFocusChange(int focusChange) {
+		if (session == null) return;
 		switch(focusChange) {
+			case AudioManager.AUDIOFOCUS_GAIN:
 			case AudioManager.AUDIOFOCUS_GAIN_TRANSIENT:
-				audioFocused = true;
-				if (mediaPlayer != null && playerPrepared && !mediaPlayer.isPlaying())
-					mediaPlayer.start();
+				session.focusChanged(true);
 				break;
 			case AudioManager.AUDIOFOCUS_LOSS:
 			case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
 			case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
-				audioFocused = false;
-				if (mediaPlayer != null && mediaPlayer.isPlaying()) mediaPlayer.stop();
+				session.focusChanged(false);
 				break;
 		}
 	}
@@ -378,34 +500,159 @@ public class RingingService extends Service implements MediaPlayer.OnPreparedLis
 	// *************************************  Other Methods  ************************************
 
 	/**
-	 * Creates a notification channel if the API level requires it. Otherwise, does nothing.
-	 * @param context the current context
+	 * Called on every transition of the session. Starts or pauses the sound, and stops the service
+	 * once the session is over. Snoozing or timing out by the session itself goes through
+	 * AfterRingingService just like the buttons, where timing out counts as dismissing (so
+	 * repeating alarms move on).
+	 * @param from the previous state
+	 * @param to the new state
+	 * @param byTimeout whether the timer of the session caused the transition
 	 */
-	static void createNotificationChannel(@NotNull Context context) {
-		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-			CharSequence name = context.getString(R.string.notif_channel_name);
-			String description = context.getString(R.string.notif_channel_description);
-			int importance = NotificationManager.IMPORTANCE_HIGH;
-
-			NotificationChannel channel = new NotificationChannel(RingingService.NOTIFICATION_CHANNEL_ID, name, importance);
-			channel.setDescription(description);
-			channel.setShowBadge(false);
-			channel.setBypassDnd(true);
-			channel.enableLights(true);
-
-			AudioAttributes.Builder attrBuilder = new AudioAttributes.Builder();
-			attrBuilder.setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
-					.setUsage(AudioAttributes.USAGE_ALARM);
-			channel.setSound(Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" +
-					context.getPackageName() + "/raw/silence"), attrBuilder.build());
-
-			// Register the channel with the system; can't change the importance or behaviors after this
-			NotificationManager notificationManager = context.getSystemService(NotificationManager.class);
-			if (notificationManager == null) {
-				if (BuildConfig.DEBUG) Log.e(TAG, "System returned a null notification manager.");
-				return;
-			}
-			notificationManager.createNotificationChannel(channel);
+	private void onTransition(int from, int to, boolean byTimeout) {
+		RingStats.transition(to);
+		if (BuildConfig.DEBUG) Log.i(TAG, RingingSession.stateName(from) + " -> " +
+				RingingSession.stateName(to) + (byTimeout ? " (timeout)" : ""));
+
+		switch (to) {
+			case RingingSession.RINGING:
+				startSound();
+				break;
+			case RingingSession.DUCKED:
+				pauseSound();
+				break;
+			case RingingSession.SNOOZED:
+			case RingingSession.TIMED_OUT:
+			case RingingSession.DISMISSED:
+				exitService();
+				if (alarm != null) writeAutoSnoozes(alarm.getId(),
+						to == RingingSession.SNOOZED && byTimeout ? autoSnoozes + 1 : 0);
+				if (byTimeout && alarm != null) {
+					Intent intent = new Intent(this, AfterRingingService.class);
+					intent.putExtra(Constants.EXTRA_ID, alarm.getId());
+					intent.setAction(to == RingingSession.SNOOZED ? Constants.ACTION_SNOOZE :
+							Constants.ACTION_DISMISS);
+					startService(intent);
+				}
+				stopSelf();
+				break;
+		}
+	}
+
+	/**
+	 * Starts (or resumes) the sound: the media player if it's prepared, the fallback player
+	 * otherwise.
+	 */
+	private void startSound() {
+		if (mediaPlayer != null && playerPrepared) {
+			if (!mediaPlayer.isPlaying()) startPlayer();
+			return;
+		}
+		if (fallbackStarted) {
+			if (fallback != null) fallback.resume();
+			return;
+		}
+		if (mediaPlayer != null && BuildConfig.DEBUG)
+			Log.i(TAG, "Ringtone didn't start in time, using the fallback.");
+		startFallback();
+	}
+
+	/**
+	 * Pauses whichever player is playing, so it can be resumed later.
+	 */
+	private void pauseSound() {
+		if (mediaPlayer != null && mediaPlayer.isPlaying()) mediaPlayer.pause();
+		if (fallback != null && fallbackStarted) fallback.pause();
+	}
+
+	/**
+	 * Acquires the wake lock for the whole session. Times out a little after the session would
+	 * have gone silent, in case something goes wrong. If it never goes silent, the wake lock
+	 * lasts for the ringing budget (see WakeStats) and is renewed a little before it runs out,
+	 * for as long as the alarm rings. Any wake lock held before is released once the new one is
+	 * held, so the device can't sleep in between.
+	 * @param silenceMillis the auto-silence timeout of the session in millis, or 0 for never
+	 */
+	private void acquireWakeLock(long silenceMillis) {
+		WakeStats.Hold old = wakeHold;
+		if (silenceMillis > 0) {
+			wakeHold = WakeStats.acquire(this, WakeStats.CAUSE_RINGING,
+					START_DEADLINE_MILLIS + silenceMillis + WAKE_LOCK_SLACK_MILLIS);
 		}
+		else {
+			wakeHold = WakeStats.acquire(this, WakeStats.CAUSE_RINGING, 0);
+			handler.postDelayed(renewWakeLock,
+					WakeStats.BUDGET_MILLIS[WakeStats.CAUSE_RINGING] - WAKE_LOCK_SLACK_MILLIS);
+		}
+		if (old != null) old.release();
+	}
+
+	/**
+	 * Gets the number of times in a row the alarm was snoozed automatically. Never more than the
+	 * number of snoozes the alarm has, since those are reset when it's answered anywhere else.
+	 * @param alarm the alarm that's ringing, cannot be null
+	 * @return the number of automatic snoozes
+	 */
+	private int readAutoSnoozes(@NotNull Alarm alarm) {
+		int count = getAutoSnoozePrefs().getInt(String.valueOf(alarm.getId()), 0);
+		return Math.min(count, alarm.getNumSnoozes());
+	}
+
+	/**
+	 * Sets the number of times in a row an alarm was snoozed automatically.
+	 * @param id the id of the alarm
+	 * @param count the number of automatic snoozes, 0 once the alarm was answered
+	 */
+	private void writeAutoSnoozes(int id, int count) {
+		SharedPreferences.Editor editor = getAutoSnoozePrefs().edit();
+		if (count > 0) editor.putInt(String.valueOf(id), count);
+		else editor.remove(String.valueOf(id));
+		editor.apply();
+	}
+
+	/**
+	 * Gets the preferences that keep the automatic snoozes of each alarm.
+	 * @return the preferences, will not be null
+	 */
+	@NotNull
+	private SharedPreferences getAutoSnoozePrefs() {
+		return RootFolder.getDeviceStorageContext(this)
+				.getSharedPreferences(AUTO_SNOOZES_PREFS, Context.MODE_PRIVATE);
+	}
+
+	/**
+	 * Releases the media player, if there is one.
+	 */
+	private void releasePlayer() {
+		if (mediaPlayer == null) return;
+		mediaPlayer.release();
+		mediaPlayer = null;
+		playerPrepared = false;
+	}
+
+	/**
+	 * Starts the media player, which has to be prepared.
+	 */
+	private void startPlayer() {
+		if (mediaPlayer == null) return;
+		mediaPlayer.start();
+		RingStats.mark(RingStats.STAGE_SOUND);
+	}
+
+	/**
+	 * Drops the media player and starts the fallback player instead.
+	 * @return whether the fallback player is playing now
+	 */
+	private boolean startFallback() {
+		if (fallback == null || alarm == null) return false;
+
+		releasePlayer();
+		if (fallback.start(alarm.getVolume() / 100f)) {
+			fallbackStarted = true;
+			RingStats.mark(RingStats.STAGE_SOUND);
+			return true;
+		}
+
+		if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't start the fallback player either.");
+		return false;
 	}
 }
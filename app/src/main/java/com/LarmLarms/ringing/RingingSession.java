@@ -0,0 +1,344 @@
+package com.larmlarms.ringing;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The state of a single ring of an alarm, from when RingingService starts until the alarm is
+ * snoozed, dismissed or gives up. Everything that happens to the ring (the sound getting ready,
+ * audio focus changing, the user answering) comes in as an event, and all timeouts are run by a
+ * single timer, so the ring can't get stuck silent or ringing forever. The listener is told about
+ * every transition and does the actual work (starting or pausing the sound, snoozing...) and the
+ * logging. Doesn't touch Android itself, so it can be tested with a fake clock and timer. Only
+ * used on the main thread.
+ */
+final class RingingSession {
+	/**
+	 * State for when the sound is getting ready or audio focus hasn't been granted yet.
+	 */
+	static final int PREPARING = 0;
+	/**
+	 * State for when the alarm is making sound.
+	 */
+	static final int RINGING = 1;
+	/**
+	 * State for when audio focus was lost, so the sound is paused. Still times out.
+	 */
+	static final int DUCKED = 2;
+	/**
+	 * Final state for when the alarm was snoozed, by the user or automatically.
+	 */
+	static final int SNOOZED = 3;
+	/**
+	 * Final state for when nobody answered the alarm before the auto-silence timeout.
+	 */
+	static final int TIMED_OUT = 4;
+	/**
+	 * Final state for when the user dismissed the alarm.
+	 */
+	static final int DISMISSED = 5;
+	/**
+	 * The number of states.
+	 */
+	static final int STATE_COUNT = 6;
+
+	/**
+	 * The max number of times an alarm is snoozed automatically in a row. After that, it times out
+	 * instead. Snoozes by the user don't count.
+	 */
+	static final int MAX_AUTO_SNOOZES = 3;
+
+	/**
+	 * The session that's currently going on, or null if there isn't one.
+	 */
+	@Nullable
+	private static RingingSession active;
+
+	// ************************************  Instance Fields  ***********************************
+
+	/**
+	 * How long the sound gets to get ready (and audio focus to be granted) before ringing anyway,
+	 * in millis.
+	 */
+	private final long startDeadlineMillis;
+	/**
+	 * How long the alarm rings (including time spent ducked) before giving up, in millis. 0 or
+	 * less means never.
+	 */
+	private final long silenceMillis;
+	/**
+	 * Whether to snooze instead of timing out, as long as it hasn't been done MAX_AUTO_SNOOZES
+	 * times in a row yet.
+	 */
+	private final boolean autoSnooze;
+
+	/**
+	 * Tells the time, in millis. Only differences matter.
+	 */
+	@NotNull
+	private final Clock clock;
+	/**
+	 * Runs the timeouts.
+	 */
+	@NotNull
+	private final Timer timer;
+	/**
+	 * Told about every transition.
+	 */
+	@NotNull
+	private final Listener listener;
+
+	/**
+	 * The current state, one of the state constants.
+	 */
+	private int state = PREPARING;
+	/**
+	 * Whether the sound is ready to start.
+	 */
+	private boolean soundReady;
+	/**
+	 * Whether audio focus is currently granted.
+	 */
+	private boolean focused;
+	/**
+	 * When the session started, according to the clock.
+	 */
+	private long startedAt;
+	/**
+	 * The number of times in a row the alarm was snoozed automatically right before this session.
+	 */
+	private final int previousAutoSnoozes;
+
+	/**
+	 * Called when the timer goes off.
+	 */
+	@NotNull
+	private final Runnable timeout = this::onTimeout;
+
+	/**
+	 * Called when the session is over, or null if nobody is waiting for it.
+	 */
+	@Nullable
+	private Runnable onEnd;
+
+	/**
+	 * Creates a new session. Nothing happens until start() is called.
+	 * @param startDeadlineMillis how long before ringing without the sound being ready or focus,
+	 *                            in millis
+	 * @param silenceMillis how long to ring before giving up in millis, or 0 for never
+	 * @param autoSnooze whether to snooze instead of timing out
+	 * @param previousAutoSnoozes the number of times in a row the alarm was snoozed automatically
+	 *                            before
+	 * @param clock tells the time, cannot be null
+	 * @param timer runs the timeouts, cannot be null
+	 * @param listener told about every transition, cannot be null
+	 */
+	RingingSession(long startDeadlineMillis, long silenceMillis, boolean autoSnooze,
+				   int previousAutoSnoozes, @NotNull Clock clock, @NotNull Timer timer,
+				   @NotNull Listener listener) {
+		this.startDeadlineMillis = startDeadlineMillis;
+		this.silenceMillis = silenceMillis;
+		this.autoSnooze = autoSnooze;
+		this.previousAutoSnoozes = previousAutoSnoozes;
+		this.clock = clock;
+		this.timer = timer;
+		this.listener = listener;
+	}
+
+	// ***********************************  Static Methods  *************************************
+
+	/**
+	 * Gets the session that's currently going on.
+	 * @return the session, or null if there isn't one
+	 */
+	@Nullable @Contract(pure = true)
+	static RingingSession getActive() { return active; }
+
+	/**
+	 * Gets the name of a state, for logging.
+	 * @param state the state
+	 * @return the name, will not be null
+	 */
+	@NotNull @Contract(pure = true)
+	static String stateName(int state) {
+		switch (state) {
+			case PREPARING: return "PREPARING";
+			case RINGING: return "RINGING";
+			case DUCKED: return "DUCKED";
+			case SNOOZED: return "SNOOZED";
+			case TIMED_OUT: return "TIMED_OUT";
+			case DISMISSED: return "DISMISSED";
+			default: return "UNKNOWN";
+		}
+	}
+
+	// *************************************  Events  *******************************************
+
+	/**
+	 * Starts the session in PREPARING, and makes it the active one (ending any session before it).
+	 */
+	void start() {
+		if (active != null && active != this) active.end();
+		active = this;
+
+		startedAt = clock.now();
+		listener.onTransition(PREPARING, PREPARING, false);
+		timer.schedule(timeout, startDeadlineMillis);
+	}
+
+	/**
+	 * Called when the sound is ready to start. Rings if audio focus is granted too.
+	 */
+	void soundReady() {
+		soundReady = true;
+		if (state == PREPARING && focused) moveTo(RINGING, false);
+	}
+
+	/**
+	 * Called when audio focus is granted or lost.
+	 * @param granted whether focus is granted now
+	 */
+	void focusChanged(boolean granted) {
+		focused = granted;
+		if (granted) {
+			if ((state == PREPARING && soundReady) || state == DUCKED) moveTo(RINGING, false);
+		}
+		else if (state == RINGING) moveTo(DUCKED, false);
+	}
+
+	/**
+	 * Called when the user snoozes the alarm.
+	 */
+	void snooze() { if (!isOver()) moveTo(SNOOZED, false); }
+
+	/**
+	 * Called when the user dismisses the alarm.
+	 */
+	void dismiss() { if (!isOver()) moveTo(DISMISSED, false); }
+
+	/**
+	 * Ends the session without answering the alarm (e.g. the service is being destroyed). Doesn't
+	 * count as a transition.
+	 */
+	void end() {
+		timer.cancel(timeout);
+		if (active == this) active = null;
+		Runnable r = onEnd;
+		onEnd = null;
+		if (r != null) r.run();
+	}
+
+	/**
+	 * Sets what to run when the session is over. Runs right away if it's already over.
+	 * @param r what to run, or null to stop waiting
+	 */
+	void setOnEnd(@Nullable Runnable r) {
+		onEnd = r;
+		if (r != null && isOver()) end();
+	}
+
+	// ************************************  Getter Methods  ************************************
+
+	/**
+	 * Gets the current state.
+	 * @return one of the state constants
+	 */
+	@Contract(pure = true)
+	int getState() { return state; }
+
+	/**
+	 * Checks whether the session reached a final state.
+	 * @return whether the alarm was snoozed, dismissed or timed out
+	 */
+	@Contract(pure = true)
+	boolean isOver() { return state == SNOOZED || state == TIMED_OUT || state == DISMISSED; }
+
+	// ************************************  Other Methods  *************************************
+
+	/**
+	 * Called when the timer goes off. When preparing, rings without waiting any longer. When
+	 * ringing (or ducked) for too long, snoozes or times out.
+	 */
+	private void onTimeout() {
+		if (state == PREPARING) moveTo(RINGING, true);
+		else if (state == RINGING || state == DUCKED) {
+			if (silenceMillis > 0 && clock.now() - startedAt >= silenceMillis) {
+				boolean snooze = autoSnooze && previousAutoSnoozes < MAX_AUTO_SNOOZES;
+				moveTo(snooze ? SNOOZED : TIMED_OUT, true);
+			}
+			else scheduleSilence();
+		}
+	}
+
+	/**
+	 * Moves to a new state, tells the listener and sets the timer for the new state.
+	 * @param next the new state
+	 * @param byTimeout whether the timer caused it
+	 */
+	private void moveTo(int next, boolean byTimeout) {
+		int prev = state;
+		if (prev == next) return;
+		state = next;
+
+		timer.cancel(timeout);
+		if (next == RINGING || next == DUCKED) scheduleSilence();
+
+		listener.onTransition(prev, next, byTimeout);
+		if (isOver()) end();
+	}
+
+	/**
+	 * Sets the timer for the auto-silence timeout, counted from the start of the session.
+	 */
+	private void scheduleSilence() {
+		if (silenceMillis <= 0) return;
+		timer.schedule(timeout, Math.max(0, startedAt + silenceMillis - clock.now()));
+	}
+
+	// *************************************  Inner Classes  ************************************
+
+	/**
+	 * Tells the time.
+	 */
+	interface Clock {
+		/**
+		 * Gets the current time.
+		 * @return the current time in millis, only differences matter
+		 */
+		long now();
+	}
+
+	/**
+	 * Runs a task after a delay. Only one task is ever scheduled at a time.
+	 */
+	interface Timer {
+		/**
+		 * Runs a task after a delay.
+		 * @param task the task to run, cannot be null
+		 * @param delayMillis the delay, in millis
+		 */
+		void schedule(@NotNull Runnable task, long delayMillis);
+
+		/**
+		 * Cancels a task if it hasn't run yet.
+		 * @param task the task to cancel, cannot be null
+		 */
+		void cancel(@NotNull Runnable task);
+	}
+
+	/**
+	 * Does the actual work of each transition.
+	 */
+	interface Listener {
+		/**
+		 * Called on every transition, and once with PREPARING for both states when the session
+		 * starts.
+		 * @param from the previous state
+		 * @param to the new state
+		 * @param byTimeout whether the timer caused the transition (rather than an event), so
+		 *                  snoozing or timing out this way still has to be saved
+		 */
+		void onTransition(int from, int to, boolean byTimeout);
+	}
+}
@@ -0,0 +1,403 @@
+package com.larmlarms.ringing;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.provider.Settings;
+import android.util.Log;
+
+import com.larmlarms.BuildConfig;
+import com.larmlarms.data.RootFolder;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copies of the ringtones used by alarms, kept in app storage so that ringing doesn't depend on
+ * the media provider (or on removable or cloud-backed storage) being fast or even there. Copies
+ * are named by the hash of their contents, so ringtones with the same contents share one file,
+ * and the least recently used ones are thrown away once the cache gets too big. Ringtones are
+ * played from their copy when there is one, and from their URI otherwise. Kept in device
+ * protected storage, so alarms that ring before the user unlocks the device can still use them.
+ * The system default ringtones aren't cached, since the sound behind their URIs can change at any
+ * time without the URIs changing.
+ */
+public final class RingtoneCache {
+	/**
+	 * Tag of the class for logging purposes.
+	 */
+	private static final String TAG = "RingtoneCache";
+
+	/**
+	 * The name of the directory (within the app's files directory) the copies are kept in.
+	 */
+	private static final String DIR_NAME = "ringtones";
+	/**
+	 * The name of the file (within the cache directory) that maps URIs to copies.
+	 */
+	private static final String INDEX_NAME = "index";
+
+	/**
+	 * The max size of all copies together, in bytes.
+	 */
+	private static final long MAX_BYTES = 32L*1024*1024;
+	/**
+	 * The max size of a single ringtone to copy, in bytes. Anything bigger is always played from
+	 * its URI.
+	 */
+	private static final long MAX_FILE_BYTES = 8L*1024*1024;
+
+	/**
+	 * Lock for the index and the files.
+	 */
+	@NotNull
+	private static final Object LOCK = new Object();
+	/**
+	 * Maps each cached ringtone URI (as a string) to the name of its copy. Null until loaded.
+	 * Guarded by LOCK.
+	 */
+	@Nullable
+	private static Map<String, String> index;
+
+	/**
+	 * The thread copies are made on.
+	 */
+	@NotNull
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+	/**
+	 * The latest set of ringtones to cache that hasn't been synced yet. Syncs that come in while
+	 * one is waiting replace it instead of queueing up.
+	 */
+	@NotNull
+	private static final AtomicReference<Set<Uri>> pendingSync = new AtomicReference<>();
+
+	/**
+	 * Not meant to be made.
+	 */
+	private RingtoneCache() {}
+
+	// ************************************  Static Methods  ************************************
+
+	/**
+	 * Makes sure exactly the given ringtones are cached, in the background. Copies any that aren't
+	 * yet and forgets any that aren't used anymore.
+	 * @param context the current context, cannot be null
+	 * @param ringtones the ringtones used by alarms, cannot be null
+	 */
+	public static void sync(@NotNull Context context, @NotNull Collection<Uri> ringtones) {
+		final Context app = context.getApplicationContext();
+		if (pendingSync.getAndSet(new HashSet<>(ringtones)) != null) return;
+
+		executor.execute(() -> WakeStats.run(app, WakeStats.CAUSE_SAVING, () -> {
+			Set<Uri> uris = pendingSync.getAndSet(null);
+			if (uris != null) doSync(app, uris);
+		}));
+	}
+
+	/**
+	 * Sets the data source of the player to the given ringtone, using its copy if there is one.
+	 * @param context the current context, cannot be null
+	 * @param player the player to set the data source of, cannot be null
+	 * @param uri the ringtone to play, cannot be null
+	 * @return whether the copy is being used
+	 * @throws IOException if the ringtone couldn't be opened either way
+	 */
+	public static boolean setDataSource(@NotNull Context context, @NotNull MediaPlayer player,
+										@NotNull Uri uri) throws IOException {
+		File copy = get(context, uri);
+		if (copy != null) {
+			try (FileInputStream in = new FileInputStream(copy)) {
+				// the player keeps its own copy of the descriptor
+				player.setDataSource(in.getFD());
+				return true;
+			}
+			catch (IOException e) {
+				if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't open the copy of " + uri + ".");
+			}
+		}
+		player.setDataSource(context, uri);
+		return false;
+	}
+
+	/**
+	 * Gets the copy of the given ringtone, and marks it as recently used.
+	 * @param context the current context, cannot be null
+	 * @param uri the ringtone to get the copy of, cannot be null
+	 * @return the copy, or null if the ringtone isn't cached
+	 */
+	@Nullable
+	static File get(@NotNull Context context, @NotNull Uri uri) {
+		synchronized (LOCK) {
+			File f = find(context, uri);
+			//noinspection ResultOfMethodCallIgnored
+			if (f != null) f.setLastModified(System.currentTimeMillis());
+			return f;
+		}
+	}
+
+	/**
+	 * Gets the copy of the given ringtone, without marking it as used. Caller must hold LOCK.
+	 * @param context the current context, cannot be null
+	 * @param uri the ringtone to get the copy of, cannot be null
+	 * @return the copy, or null if the ringtone isn't cached
+	 */
+	@Nullable
+	private static File find(@NotNull Context context, @NotNull Uri uri) {
+		if (!isCacheable(uri)) return null;
+		String name = loadIndex(context).get(uri.toString());
+		if (name == null) return null;
+
+		File f = new File(getDir(context), name);
+		return f.isFile() ? f : null;
+	}
+
+	/**
+	 * Checks whether a ringtone can be cached. The default ringtone URIs (in the settings
+	 * provider) can't be, since they always point to whatever the current default is.
+	 * @param uri the ringtone to check, cannot be null
+	 * @return whether a copy of the ringtone stays valid
+	 */
+	@Contract(pure = true)
+	static boolean isCacheable(@NotNull Uri uri) {
+		return !Settings.AUTHORITY.equals(uri.getAuthority());
+	}
+
+	// ***********************************  Syncing Methods  ************************************
+
+	/**
+	 * Copies every ringtone that isn't cached yet, then throws away everything that isn't needed
+	 * (or doesn't fit) anymore. Runs on the cache's own thread.
+	 * @param context the current context, cannot be null
+	 * @param uris the ringtones that should be cached, cannot be null
+	 */
+	private static void doSync(@NotNull Context context, @NotNull Set<Uri> uris) {
+		File dir = getDir(context);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't make the ringtone cache directory.");
+			return;
+		}
+		deleteOldDir(context, dir);
+
+		for (Iterator<Uri> it = uris.iterator(); it.hasNext(); ) {
+			if (!isCacheable(it.next())) it.remove();
+		}
+		for (Uri uri : uris) {
+			synchronized (LOCK) {
+				if (find(context, uri) != null) continue;
+			}
+
+			// copied without holding the lock, since ringing shouldn't have to wait for it
+			String name = copy(context, uri, dir);
+			if (name == null) continue;
+			synchronized (LOCK) { loadIndex(context).put(uri.toString(), name); }
+		}
+
+		synchronized (LOCK) {
+			Map<String, String> map = loadIndex(context);
+			Set<String> wanted = new HashSet<>();
+			for (Uri uri : uris) wanted.add(uri.toString());
+			map.keySet().retainAll(wanted);
+
+			evict(dir, map);
+			writeIndex(context, map);
+		}
+	}
+
+	/**
+	 * Copies a ringtone into the cache directory, naming it by the hash of its contents. If a copy
+	 * with the same contents already exists, keeps that one instead.
+	 * @param context the current context, cannot be null
+	 * @param uri the ringtone to copy, cannot be null
+	 * @param dir the cache directory, cannot be null
+	 * @return the name of the copy, or null if the ringtone couldn't be copied
+	 */
+	@Nullable
+	private static String copy(@NotNull Context context, @NotNull Uri uri, @NotNull File dir) {
+		File temp = new File(dir, "copy.tmp");
+		try (InputStream in = context.getContentResolver().openInputStream(uri);
+			 OutputStream out = new FileOutputStream(temp)) {
+			if (in == null) return null;
+
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] buffer = new byte[16*1024];
+			long total = 0;
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				total += read;
+				if (total > MAX_FILE_BYTES) {
+					if (BuildConfig.DEBUG) Log.i(TAG, "Ringtone " + uri + " is too big to cache.");
+					return null;
+				}
+				digest.update(buffer, 0, read);
+				out.write(buffer, 0, read);
+			}
+			out.close();
+
+			String name = toHex(digest.digest());
+			File dest = new File(dir, name);
+			synchronized (LOCK) {
+				if (dest.isFile()) return name;
+				if (!temp.renameTo(dest)) return null;
+			}
+			return name;
+		}
+		catch (IOException | SecurityException | NoSuchAlgorithmException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't copy the ringtone " + uri + ".");
+			return null;
+		}
+		finally {
+			//noinspection ResultOfMethodCallIgnored
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Deletes copies that no ringtone maps to anymore, then the least recently used copies until
+	 * everything fits. Caller must hold LOCK.
+	 * @param dir the cache directory, cannot be null
+	 * @param map the index, updated to drop the ringtones whose copies were deleted
+	 */
+	private static void evict(@NotNull File dir, @NotNull Map<String, String> map) {
+		File[] files = dir.listFiles();
+		if (files == null) return;
+
+		Set<String> used = new HashSet<>(map.values());
+		long total = 0;
+		for (File f : files) {
+			if (f.getName().equals(INDEX_NAME)) continue;
+			//noinspection ResultOfMethodCallIgnored
+			if (!used.contains(f.getName())) f.delete();
+			else total += f.length();
+		}
+		if (total <= MAX_BYTES) return;
+
+		files = dir.listFiles((d, n) -> used.contains(n));
+		if (files == null) return;
+		Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+		for (File f : files) {
+			if (total <= MAX_BYTES) break;
+			total -= f.length();
+			//noinspection ResultOfMethodCallIgnored
+			f.delete();
+			// every ringtone with the same contents used the same copy
+			String name = f.getName();
+			map.values().removeAll(Collections.singleton(name));
+		}
+	}
+
+	// **********************************  Index Methods  *************************************
+
+	/**
+	 * Gets the index, reading it from disk if it hasn't been read yet. Caller must hold LOCK.
+	 * @param context the current context, cannot be null
+	 * @return the index, will not be null
+	 */
+	@NotNull
+	private static Map<String, String> loadIndex(@NotNull Context context) {
+		if (index != null) return index;
+
+		index = new HashMap<>();
+		File f = new File(getDir(context), INDEX_NAME);
+		if (!f.isFile()) return index;
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(f), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int tab = line.lastIndexOf('\t');
+				if (tab > 0) index.put(line.substring(0, tab), line.substring(tab + 1));
+			}
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't read the ringtone cache index.");
+			index.clear();
+		}
+		return index;
+	}
+
+	/**
+	 * Writes the index to disk. Caller must hold LOCK.
+	 * @param context the current context, cannot be null
+	 * @param map the index to write, cannot be null
+	 */
+	private static void writeIndex(@NotNull Context context, @NotNull Map<String, String> map) {
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String, String> e : map.entrySet())
+			builder.append(e.getKey()).append('\t').append(e.getValue()).append('\n');
+
+		try (FileOutputStream out = new FileOutputStream(new File(getDir(context), INDEX_NAME))) {
+			out.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't write the ringtone cache index.");
+		}
+	}
+
+	// ************************************  Other Methods  *************************************
+
+	/**
+	 * Gets the cache directory.
+	 * @param context the current context, cannot be null
+	 * @return the directory, which might not exist yet
+	 */
+	@NotNull
+	private static File getDir(@NotNull Context context) {
+		return new File(RootFolder.getDeviceStorageContext(context).getNoBackupFilesDir(), DIR_NAME);
+	}
+
+	/**
+	 * Deletes the cache directory older versions kept in credential protected storage, if it's
+	 * still there.
+	 * @param context the current context, cannot be null
+	 * @param dir the current cache directory, cannot be null
+	 */
+	private static void deleteOldDir(@NotNull Context context, @NotNull File dir) {
+		File old = new File(context.getNoBackupFilesDir(), DIR_NAME);
+		if (old.equals(dir) || !old.isDirectory()) return;
+
+		File[] files = old.listFiles();
+		if (files != null) {
+			//noinspection ResultOfMethodCallIgnored
+			for (File f : files) f.delete();
+		}
+		//noinspection ResultOfMethodCallIgnored
+		old.delete();
+	}
+
+	/**
+	 * Turns bytes into a lowercase hex string.
+	 * @param bytes the bytes to convert, cannot be null
+	 * @return the hex string, will not be null
+	 */
+	@NotNull
+	private static String toHex(@NotNull byte[] bytes) {
+		StringBuilder builder = new StringBuilder(bytes.length*2);
+		for (byte b : bytes) builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+				.append(Character.forDigit(b & 0xF, 16));
+		return builder.toString();
+	}
+}
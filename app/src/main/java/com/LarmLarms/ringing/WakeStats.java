@@ -0,0 +1,428 @@
+package com.larmlarms.ringing;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.larmlarms.BuildConfig;
+import com.larmlarms.data.RootFolder;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Accounts for how long the app keeps the device awake, per cause (ringing, saving, rescheduling,
+ * booting). Every wake lock the app takes goes through acquire() and every background job through
+ * run(), which record how long they were held (or ran) and how much CPU time they took. Each use
+ * has a time budget: wake locks are never held longer than theirs, and anything over budget is
+ * counted and logged. The totals are kept in a small file of fixed-size records, one per cause,
+ * so they last across processes (see RingStatsActivity).
+ */
+public final class WakeStats {
+	/**
+	 * Tag of the class for logging purposes.
+	 */
+	private static final String TAG = "WakeStats";
+
+	/**
+	 * Cause for ringing an alarm (see RingingService).
+	 */
+	public static final int CAUSE_RINGING = 0;
+	/**
+	 * Cause for saving the alarms to disk.
+	 */
+	public static final int CAUSE_SAVING = 1;
+	/**
+	 * Cause for registering the next alarm with the system.
+	 */
+	public static final int CAUSE_RESCHEDULING = 2;
+	/**
+	 * Cause for handling the device booting (see OnBootReceiver).
+	 */
+	public static final int CAUSE_BOOT = 3;
+	/**
+	 * The number of causes.
+	 */
+	public static final int CAUSE_COUNT = 4;
+
+	/**
+	 * The time budget of a single use for each cause, in millis. Ringing can go on for as long as
+	 * the longest auto-silence (30 minutes) plus a little slack, so it gets 32 minutes. Rings that
+	 * never go silent renew their wake lock instead (see RingingService). Boot has to finish well
+	 * within the time the system gives a broadcast receiver.
+	 */
+	@NotNull
+	public static final long[] BUDGET_MILLIS = {32*60*1000, 2000, 1000, 5000};
+
+	/**
+	 * The first int of the file, to recognize it.
+	 */
+	private static final int MAGIC = 0x4C57_5331;
+	/**
+	 * The size of the header, which is just MAGIC.
+	 */
+	private static final int HEADER_BYTES = 4;
+	/**
+	 * The size of a record: the number of uses and overruns as ints, then the total time held,
+	 * the total CPU time and the longest time held as longs, all in millis.
+	 */
+	private static final int RECORD_BYTES = 4 + 4 + 8 + 8 + 8;
+	/**
+	 * The name of the file (within the app's no backup directory) the totals are kept in.
+	 */
+	private static final String FILE_NAME = "wake_stats";
+
+	/**
+	 * The thread the file is written on. Isn't accounted for itself, since it only does a tiny
+	 * write after something else was already keeping the device awake.
+	 */
+	@NotNull
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	/**
+	 * Not meant to be made.
+	 */
+	private WakeStats() {}
+
+	// **********************************  Accounting Methods  **********************************
+
+	/**
+	 * Acquires a partial wake lock for a cause. It's released by the system after the timeout
+	 * anyway, which is capped by the budget of the cause.
+	 * @param context the current context, cannot be null
+	 * @param cause the cause, one of the CAUSE constants
+	 * @param timeoutMillis how long until the wake lock is released anyway, or 0 or less for as
+	 *                      long as the budget allows
+	 * @return the hold, to be released with Hold.release(), will not be null (but might not hold
+	 * an actual wake lock if the power manager couldn't be reached)
+	 */
+	@NotNull
+	public static Hold acquire(@NotNull Context context, int cause, long timeoutMillis) {
+		long timeout = timeoutMillis <= 0 ? BUDGET_MILLIS[cause] :
+				Math.min(timeoutMillis, BUDGET_MILLIS[cause]);
+
+		PowerManager.WakeLock lock = null;
+		PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+		if (pm == null) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't reach the power manager.");
+		}
+		else {
+			lock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "LarmLarms:" + causeName(cause));
+			lock.setReferenceCounted(false);
+			lock.acquire(timeout);
+		}
+		return new Hold(context.getApplicationContext(), cause, lock, timeout);
+	}
+
+	/**
+	 * Runs a background job for a cause on the current thread, accounting for how long it took and
+	 * the CPU time of the thread.
+	 * @param context the current context, cannot be null
+	 * @param cause the cause, one of the CAUSE constants
+	 * @param job the job to run, cannot be null
+	 */
+	public static void run(@NotNull Context context, int cause, @NotNull Runnable job) {
+		long start = SystemClock.elapsedRealtime();
+		long cpuStart = SystemClock.currentThreadTimeMillis();
+		try {
+			job.run();
+		}
+		finally {
+			record(context, cause, SystemClock.elapsedRealtime() - start,
+					SystemClock.currentThreadTimeMillis() - cpuStart, false);
+		}
+	}
+
+	/**
+	 * Records a single use for a cause, warning if it went over budget.
+	 * @param context the current context, cannot be null
+	 * @param cause the cause
+	 * @param heldMillis how long the device was kept awake, in millis
+	 * @param cpuMillis the CPU time taken, in millis
+	 * @param timedOut whether the wake lock ran out before it was released, which counts as going
+	 *                 over budget
+	 */
+	private static void record(@NotNull Context context, final int cause, final long heldMillis,
+							   final long cpuMillis, final boolean timedOut) {
+		if ((timedOut || heldMillis > BUDGET_MILLIS[cause]) && BuildConfig.DEBUG)
+			Log.w(TAG, causeName(cause) + " went over budget: " + heldMillis + " ms" +
+					(timedOut ? " (timed out)." : "."));
+
+		final File f = getFile(context);
+		executor.execute(() -> add(f, cause, heldMillis, cpuMillis, timedOut));
+	}
+
+	// ************************************  Reading Methods  ***********************************
+
+	/**
+	 * Reads the totals of every cause. Blocks, so shouldn't be called on the main thread.
+	 * @param context the current context, cannot be null
+	 * @return the totals indexed by cause, empty ones if there's no (valid) file, will not be null
+	 */
+	@NotNull
+	public static Totals[] read(@NotNull Context context) {
+		return read(getFile(context));
+	}
+
+	/**
+	 * Gets the name of a cause, for logging and wake lock tags.
+	 * @param cause the cause
+	 * @return the name, will not be null
+	 */
+	@NotNull @Contract(pure = true)
+	static String causeName(int cause) {
+		switch (cause) {
+			case CAUSE_RINGING: return "ringing";
+			case CAUSE_SAVING: return "saving";
+			case CAUSE_RESCHEDULING: return "rescheduling";
+			case CAUSE_BOOT: return "boot";
+			default: return "unknown";
+		}
+	}
+
+	// ************************************  File Methods  **************************************
+
+	/**
+	 * Reads the totals of every cause from a file.
+	 * @param f the file, cannot be null
+	 * @return the totals indexed by cause, will not be null
+	 */
+	@NotNull
+	private static Totals[] read(@NotNull File f) {
+		Totals[] totals = new Totals[CAUSE_COUNT];
+		for (int c = 0; c < CAUSE_COUNT; c++) totals[c] = new Totals();
+		if (!f.isFile()) return totals;
+
+		try (RandomAccessFile file = new RandomAccessFile(f, "r")) {
+			if (file.readInt() != MAGIC) throw new IOException("Not a wake stats file.");
+
+			long records = Math.min(CAUSE_COUNT, (file.length() - HEADER_BYTES) / RECORD_BYTES);
+			for (int c = 0; c < records; c++) {
+				totals[c] = new Totals(file.readInt(), file.readInt(), file.readLong(),
+						file.readLong(), file.readLong());
+			}
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't read the wake stats.");
+			for (int c = 0; c < CAUSE_COUNT; c++) totals[c] = new Totals();
+		}
+		return totals;
+	}
+
+	/**
+	 * Adds a single use to the record of its cause. Runs on the writing thread.
+	 * @param f the file, cannot be null
+	 * @param cause the cause
+	 * @param heldMillis how long the device was kept awake, in millis
+	 * @param cpuMillis the CPU time taken, in millis
+	 * @param timedOut whether the wake lock ran out before it was released
+	 */
+	private static void add(@NotNull File f, int cause, long heldMillis, long cpuMillis,
+							boolean timedOut) {
+		Totals[] totals = read(f);
+		Totals t = totals[cause];
+		t.add(heldMillis, cpuMillis, BUDGET_MILLIS[cause], timedOut);
+
+		try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+			file.writeInt(MAGIC);
+			// the whole file is rewritten, so a bad one is replaced rather than added to
+			for (Totals r : totals) {
+				file.writeInt(r.uses);
+				file.writeInt(r.overruns);
+				file.writeLong(r.heldMillis);
+				file.writeLong(r.cpuMillis);
+				file.writeLong(r.maxHeldMillis);
+			}
+		}
+		catch (IOException e) {
+			if (BuildConfig.DEBUG) Log.e(TAG, "Couldn't record a wake.");
+		}
+	}
+
+	/**
+	 * Gets the file the totals are kept in.
+	 * @param context the current context, cannot be null
+	 * @return the file, which might not exist yet
+	 */
+	@NotNull
+	private static File getFile(@NotNull Context context) {
+		return new File(RootFolder.getDeviceStorageContext(context).getNoBackupFilesDir(),
+				FILE_NAME);
+	}
+
+	// *************************************  Inner Classes  ************************************
+
+	/**
+	 * A wake lock held for a cause.
+	 */
+	public static final class Hold {
+		/**
+		 * The application context, for recording.
+		 */
+		@NotNull
+		private final Context context;
+		/**
+		 * The cause of the hold.
+		 */
+		private final int cause;
+		/**
+		 * The wake lock, or null if it couldn't be made.
+		 */
+		@Nullable
+		private final PowerManager.WakeLock lock;
+		/**
+		 * How long until the system releases the wake lock by itself, in millis.
+		 */
+		private final long timeoutMillis;
+		/**
+		 * When the wake lock was acquired, in millis since boot.
+		 */
+		private final long start;
+		/**
+		 * The CPU time of the process when the wake lock was acquired, in millis.
+		 */
+		private final long cpuStart;
+		/**
+		 * Whether the hold was released already.
+		 */
+		private boolean released;
+
+		/**
+		 * Creates a new hold, starting now.
+		 * @param context the application context, cannot be null
+		 * @param cause the cause of the hold
+		 * @param lock the acquired wake lock, can be null
+		 * @param timeoutMillis how long until the system releases the wake lock by itself
+		 */
+		private Hold(@NotNull Context context, int cause, @Nullable PowerManager.WakeLock lock,
+					 long timeoutMillis) {
+			this.context = context;
+			this.cause = cause;
+			this.lock = lock;
+			this.timeoutMillis = timeoutMillis;
+			start = SystemClock.elapsedRealtime();
+			cpuStart = Process.getElapsedCpuTime();
+		}
+
+		/**
+		 * Releases the wake lock and records the hold. The CPU time recorded is that of the whole
+		 * process while it was held. A hold that reached its timeout before being released counts
+		 * as going over budget, since the system had to let go of it. Does nothing if it was
+		 * released already.
+		 */
+		public synchronized void release() {
+			if (released) return;
+			released = true;
+			if (lock != null && lock.isHeld()) lock.release();
+
+			long held = SystemClock.elapsedRealtime() - start;
+			record(context, cause, held, Process.getElapsedCpuTime() - cpuStart,
+					held >= timeoutMillis);
+		}
+	}
+
+	/**
+	 * The totals of a single cause.
+	 */
+	public static final class Totals {
+		/**
+		 * The number of times the cause kept the device awake.
+		 */
+		private int uses;
+		/**
+		 * The number of uses that went over budget.
+		 */
+		private int overruns;
+		/**
+		 * The total time the device was kept awake, in millis.
+		 */
+		private long heldMillis;
+		/**
+		 * The total CPU time taken, in millis.
+		 */
+		private long cpuMillis;
+		/**
+		 * The longest single use, in millis.
+		 */
+		private long maxHeldMillis;
+
+		/**
+		 * Creates empty totals.
+		 */
+		Totals() {}
+
+		/**
+		 * Creates totals from the fields of a record.
+		 * @param uses the number of uses
+		 * @param overruns the number of uses over budget
+		 * @param heldMillis the total time held
+		 * @param cpuMillis the total CPU time
+		 * @param maxHeldMillis the longest use
+		 */
+		Totals(int uses, int overruns, long heldMillis, long cpuMillis, long maxHeldMillis) {
+			this.uses = uses;
+			this.overruns = overruns;
+			this.heldMillis = heldMillis;
+			this.cpuMillis = cpuMillis;
+			this.maxHeldMillis = maxHeldMillis;
+		}
+
+		/**
+		 * Adds a single use.
+		 * @param held how long the device was kept awake, in millis
+		 * @param cpu the CPU time taken, in millis
+		 * @param budget the budget of the cause, in millis
+		 * @param timedOut whether the wake lock ran out before it was released
+		 * @return whether the use went over budget (or timed out)
+		 */
+		boolean add(long held, long cpu, long budget, boolean timedOut) {
+			uses++;
+			heldMillis += held;
+			cpuMillis += cpu;
+			maxHeldMillis = Math.max(maxHeldMillis, held);
+
+			boolean over = timedOut || held > budget;
+			if (over) overruns++;
+			return over;
+		}
+
+		/**
+		 * Gets the number of times the cause kept the device awake.
+		 */
+		@Contract(pure = true)
+		public int getUses() { return uses; }
+
+		/**
+		 * Gets the number of uses that went over budget.
+		 */
+		@Contract(pure = true)
+		public int getOverruns() { return overruns; }
+
+		/**
+		 * Gets the total time the device was kept awake, in millis.
+		 */
+		@Contract(pure = true)
+		public long getHeldMillis() { return heldMillis; }
+
+		/**
+		 * Gets the total CPU time taken, in millis.
+		 */
+		@Contract(pure = true)
+		public long getCpuMillis() { return cpuMillis; }
+
+		/**
+		 * Gets the longest single use, in millis.
+		 */
+		@Contract(pure = true)
+		public long getMaxHeldMillis() { return maxHeldMillis; }
+	}
+}
@@ -0,0 +1,134 @@
+package com.larmlarms.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the stats kept by the AlarmGroup class. Requires DEBUG flag to be false when run.
+ */
+public class AlarmGroupStatsUnitTest {
+	/* ************************************  Adding Tests  ********************************** */
+	@Test
+	public void addTest() {
+		/*
+		 * FOLDER STRUCTURE:
+		 * test
+		 * 	inner
+		 * 		deeper
+		 * 			alarm 3
+		 * 		alarm 2
+		 * 	alarm 1
+		 */
+		AlarmGroup folder = new AlarmGroup("test");
+		folder.addItem(new Alarm(null, "alarm 1"));
+
+		AlarmGroup inner = new AlarmGroup("inner");
+		inner.addItem(new Alarm(null, "alarm 2"));
+		folder.addItem(inner);
+
+		// added after inner is already in the tree, so it has to be pushed up
+		AlarmGroup deeper = new AlarmGroup("deeper");
+		inner.addItem(deeper);
+		deeper.addItem(new Alarm(null, "alarm 3"));
+
+		assertEquals(3, folder.getTotalAlarms());
+		assertEquals(3, folder.getActiveAlarms());
+		assertEquals(0, folder.getSnoozedAlarms());
+		assertEquals(2, folder.getDescendantFolders());
+		assertEquals(2, folder.getMaxDepth());
+
+		assertEquals(2, inner.getTotalAlarms());
+		assertEquals(1, inner.getDescendantFolders());
+		assertEquals(1, inner.getMaxDepth());
+	}
+
+	/* ***********************************  Changing Tests  ********************************* */
+	@Test
+	public void activeTest() {
+		AlarmGroup folder = new AlarmGroup("test");
+		AlarmGroup inner = new AlarmGroup("inner");
+		Alarm alarm = new Alarm(null, "alarm 1");
+		inner.addItem(alarm);
+		inner.addItem(new Alarm(null, "alarm 2"));
+		folder.addItem(inner);
+
+		alarm.turnOff();
+		assertEquals(1, inner.getActiveAlarms());
+		assertEquals(1, folder.getActiveAlarms());
+
+		// turning off a folder only affects the stats of its parents
+		inner.turnOff();
+		assertEquals(1, inner.getActiveAlarms());
+		assertEquals(0, folder.getActiveAlarms());
+		assertEquals(2, folder.getTotalAlarms());
+
+		inner.turnOn();
+		alarm.snooze();
+		assertEquals(1, folder.getSnoozedAlarms());
+		alarm.unsnooze();
+		assertEquals(0, folder.getSnoozedAlarms());
+	}
+
+	/* ***********************************  Deleting Tests  ********************************* */
+	@Test
+	public void deleteTest() {
+		AlarmGroup folder = new AlarmGroup("test");
+		AlarmGroup inner = new AlarmGroup("inner");
+		AlarmGroup deeper = new AlarmGroup("deeper");
+		deeper.addItem(new Alarm(null, "alarm 1"));
+		inner.addItem(deeper);
+		folder.addItem(inner);
+		folder.addItem(new Alarm(null, "alarm 2"));
+
+		assertEquals(2, folder.getMaxDepth());
+		AlarmGroup.deleteItemByRef(deeper);
+
+		assertEquals(1, folder.getTotalAlarms());
+		assertEquals(1, folder.getDescendantFolders());
+		assertEquals(1, folder.getMaxDepth());
+		assertEquals(0, inner.getMaxDepth());
+
+		folder.deleteItem(0);
+		assertEquals(1, folder.getTotalAlarms());
+		assertEquals(0, folder.getDescendantFolders());
+		assertEquals(0, folder.getMaxDepth());
+	}
+
+	/* ************************************  Bulk Tests  ************************************ */
+	@Test
+	public void subtreeActiveTest() {
+		AlarmGroup folder = new AlarmGroup("test");
+		AlarmGroup inner = new AlarmGroup("inner");
+		inner.addItem(new Alarm(null, "alarm 1"));
+		inner.addItem(new Alarm(null, "alarm 2"));
+		folder.addItem(inner);
+		folder.addItem(new Alarm(null, "alarm 3"));
+
+		inner.setSubtreeActive(false);
+		assertEquals(0, inner.getActiveAlarms());
+		assertEquals(1, folder.getActiveAlarms());
+		assertEquals(3, folder.getTotalAlarms());
+
+		EditHistory.Entry entry = new EditHistory.Entry();
+		folder.setSubtreeActive(true, entry);
+		assertEquals(3, folder.getActiveAlarms());
+		// inner and its two alarms were off, alarm 3 and the folder itself were already on
+		assertEquals(3, entry.redo.size());
+	}
+
+	@Test
+	public void subtreeTimeTest() {
+		AlarmGroup folder = new AlarmGroup("test");
+		Alarm alarm = new Alarm(null, "alarm 1");
+		folder.addItem(alarm);
+		long before = alarm.getAlarmTimeMillis();
+
+		EditHistory.Entry entry = new EditHistory.Entry();
+		folder.shiftSubtreeTime(30, entry);
+		assertEquals(before + 30*60*1000, alarm.getAlarmTimeMillis());
+
+		entry.undo.get(0).run();
+		assertEquals(before, alarm.getAlarmTimeMillis());
+	}
+}
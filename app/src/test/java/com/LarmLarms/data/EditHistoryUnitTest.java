@@ -0,0 +1,133 @@
+package com.larmlarms.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for undoing and redoing changes to the root folder, and for the EditHistory class.
+ * Requires DEBUG flag to be false when run.
+ */
+public class EditHistoryUnitTest {
+	/* ***********************************  Undoing Tests  ********************************** */
+	@Test
+	public void undoFolderDeleteTest() {
+		AlarmGroup inner = new AlarmGroup("inner");
+		Alarm alarm = new Alarm(null, "alarm 1");
+		inner.addItem(alarm);
+		RootFolder root = new RootFolder("root", new ArrayList<>(Collections.singletonList(inner)));
+
+		root.batch().delete(inner.getInfo()).commit();
+		assertNull(inner.getParent());
+		assertEquals(0, root.getTotalAlarms());
+
+		// the same folder is put back, not a copy of it
+		assertTrue(root.undo());
+		assertSame(root, inner.getParent());
+		assertSame(inner, root.getItems().get(0));
+		assertSame(inner, alarm.getParent());
+		assertEquals(1, root.getTotalAlarms());
+		assertEquals(1, root.getDescendantFolders());
+	}
+
+	@Test
+	public void undoRedoOrderTest() {
+		AlarmGroup inner = new AlarmGroup("inner");
+		RootFolder root = new RootFolder("root", new ArrayList<>(Collections.singletonList(inner)));
+
+		Alarm alarm = new Alarm(null, "alarm 1");
+		ItemInfo info = new ItemInfo();
+		info.item = alarm;
+		info.path = root.getName() + "/";
+		root.batch().add(info).commit();
+		root.batch().move(alarm.getInfo(), inner.getPath() + inner.getName() + "/").commit();
+		assertSame(inner, alarm.getParent());
+
+		// undone newest first, then redone oldest first
+		assertTrue(root.undo());
+		assertSame(root, alarm.getParent());
+		assertTrue(root.undo());
+		assertNull(alarm.getParent());
+		assertFalse(root.undo());
+
+		assertTrue(root.redo());
+		assertSame(root, alarm.getParent());
+		assertTrue(root.redo());
+		assertSame(inner, alarm.getParent());
+		assertFalse(root.redo());
+		assertEquals(1, inner.getTotalAlarms());
+		assertEquals(1, root.getTotalAlarms());
+	}
+
+	@Test
+	public void undoExpectedTest() {
+		Alarm first = new Alarm(null, "alarm 1"), second = new Alarm(null, "alarm 2");
+		RootFolder root = new RootFolder("root", new ArrayList<>(Arrays.asList(first, second)));
+
+		EditHistory.Entry entry = root.batch().toggle(first.getInfo()).commit();
+		root.batch().toggle(second.getInfo()).commit();
+
+		// something was committed after it, so it can't be undone through its entry anymore
+		assertFalse(root.undo(entry));
+		assertFalse(first.isActive());
+		assertFalse(second.isActive());
+	}
+
+	/* ***********************************  Redoing Tests  ********************************** */
+	@Test
+	public void redoClearedTest() {
+		Alarm first = new Alarm(null, "alarm 1"), second = new Alarm(null, "alarm 2");
+		RootFolder root = new RootFolder("root", new ArrayList<>(Arrays.asList(first, second)));
+
+		root.batch().toggle(first.getInfo()).commit();
+		assertTrue(root.undo());
+		assertTrue(root.canRedo());
+
+		// a new change makes the undone one impossible to redo
+		root.batch().toggle(second.getInfo()).commit();
+		assertFalse(root.canRedo());
+		assertFalse(root.redo());
+		assertTrue(first.isActive());
+		assertFalse(second.isActive());
+	}
+
+	/* **********************************  Budget Tests  ************************************ */
+	@Test
+	public void evictionTest() {
+		AlarmGroup folder = new AlarmGroup("folder");
+		EditHistory.Entry[] entries = new EditHistory.Entry[3];
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = new EditHistory.Entry();
+			entries[i].attached(new Alarm(null, "alarm " + i), folder);
+		}
+
+		// the budget only fits two of the entries
+		EditHistory history = new EditHistory(2*entries[0].bytes);
+		for (EditHistory.Entry e : entries) history.push(e);
+
+		assertSame(entries[2], history.popUndo());
+		assertSame(entries[1], history.popUndo());
+		assertNull(history.popUndo());
+		assertFalse(history.canUndo());
+	}
+
+	@Test
+	public void oversizedEntryTest() {
+		AlarmGroup folder = new AlarmGroup("folder");
+		EditHistory.Entry entry = new EditHistory.Entry();
+		entry.detached(new Alarm(null, "alarm 1"), folder);
+
+		// the newest entry is always kept, even when it doesn't fit on its own
+		EditHistory history = new EditHistory(1);
+		history.push(entry);
+		assertSame(entry, history.peekUndo());
+	}
+}
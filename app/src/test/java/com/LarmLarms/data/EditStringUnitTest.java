@@ -0,0 +1,243 @@
+package com.larmlarms.data;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the edit string codec of alarms and folders, including the reader for the older
+ * format. Uses silent ringtones only, since URIs can't be parsed outside of Android. Requires
+ * DEBUG flag to be false when run.
+ */
+public class EditStringUnitTest {
+	/**
+	 * Index of the ringtone field within an alarm edit string.
+	 */
+	private static final int URI_FIELD = 5;
+
+	/* **********************************  Round Trip Tests  ******************************** */
+	@Test
+	public void roundTripTest() {
+		Random r = new Random(42);
+		for (int i = 0; i < 1000; i++) {
+			Alarm a = randomAlarm(r);
+			String s = a.toEditString();
+
+			Alarm b = Alarm.fromEditString(null, s);
+			assertNotNull(s, b);
+			assertEquals(s, b.toEditString());
+			assertEquals(a.getId(), b.getId());
+			assertEquals(a.getName(), b.getName());
+			assertEquals(a.getRepeatType(), b.getRepeatType());
+			assertEquals(a.getAlarmTimeMillis(), b.getAlarmTimeMillis());
+		}
+	}
+
+	@Test
+	public void folderTest() {
+		AlarmGroup folder = new AlarmGroup("a folder");
+		folder.turnOff();
+
+		AlarmGroup copy = AlarmGroup.fromEditString(folder.toEditString());
+		assertNotNull(copy);
+		assertEquals(folder.getId(), copy.getId());
+		assertEquals("a folder", copy.getName());
+		assertFalse(copy.isActive());
+
+		copy = AlarmGroup.fromEditString("12\tolder folder\ttrue");
+		assertNotNull(copy);
+		assertEquals(12, copy.getId());
+		assertTrue(copy.isActive());
+	}
+
+	/* ************************************  Legacy Tests  ********************************** */
+	@Test
+	public void legacyTest() {
+		Alarm a = Alarm.fromEditString(null, "12\tweekdays\tfalse\t2 false true true true true true " +
+				"false\t1000\tnull\tfalse\t0\t60\ttrue");
+		assertNotNull(a);
+		assertEquals(12, a.getId());
+		assertEquals("weekdays", a.getName());
+		assertFalse(a.isActive());
+		assertEquals(Alarm.REPEAT_DAY_WEEKLY, a.getRepeatType());
+		assertArrayEquals(new boolean[] {false, true, true, true, true, true, false}, a.getRepeatDays());
+		assertEquals(1000, a.getAlarmTimeMillis());
+		assertTrue(a.isVibrateOn());
+
+		// reading older strings, then writing them again, gives the same alarm in the new format
+		Random r = new Random(7);
+		for (int i = 0; i < 200; i++) {
+			String s = randomAlarm(r).toEditString();
+			Alarm b = Alarm.fromEditString(null, toLegacy(s));
+			assertNotNull(b);
+			assertEquals(s, b.toEditString());
+		}
+	}
+
+	/* *************************************  Fuzz Tests  *********************************** */
+	@Test
+	public void fuzzTest() {
+		Random r = new Random(1234);
+		for (int i = 0; i < 20000; i++) {
+			String s = randomAlarm(r).toEditString();
+			if (r.nextBoolean()) s = toLegacy(s);
+			String mutated = mutate(s, r);
+
+			// anything goes, as long as it doesn't throw and what comes out can be read back in
+			Alarm a = Alarm.fromEditString(null, mutated);
+			if (a == null) continue;
+			String again = a.toEditString();
+			Alarm b = Alarm.fromEditString(null, again);
+			assertNotNull(mutated, b);
+			assertEquals(again, b.toEditString());
+		}
+	}
+
+	/* ***********************************  Benchmark Tests  ******************************** */
+	@Test
+	public void benchmarkTest() {
+		Random r = new Random(99);
+		int n = 2000, rounds = 20;
+		String[] current = new String[n], legacy = new String[n];
+		long currentChars = 0, legacyChars = 0;
+		for (int i = 0; i < n; i++) {
+			current[i] = randomAlarm(r).toEditString();
+			legacy[i] = toLegacy(current[i]);
+			currentChars += current[i].length();
+			legacyChars += legacy[i].length();
+		}
+
+		// warm up both paths first
+		decodeAll(current, 5);
+		decodeAll(legacy, 5);
+
+		long start = System.nanoTime();
+		decodeAll(legacy, rounds);
+		long legacyNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		decodeAll(current, rounds);
+		long currentNanos = System.nanoTime() - start;
+
+		Alarm[] alarms = new Alarm[n];
+		for (int i = 0; i < n; i++) alarms[i] = Alarm.fromEditString(null, current[i]);
+		start = System.nanoTime();
+		for (int k = 0; k < rounds; k++) for (Alarm a : alarms) a.toEditString();
+		long encodeNanos = System.nanoTime() - start;
+
+		System.out.println("Decoding (ns per alarm): split-based " + legacyNanos/(n*rounds) +
+				", cursor " + currentNanos/(n*rounds));
+		System.out.println("Encoding (ns per alarm): " + encodeNanos/(n*rounds));
+		System.out.println("Average length (chars): older format " + legacyChars/n +
+				", current format " + currentChars/n);
+		assertTrue(currentChars < legacyChars);
+	}
+
+	/* ************************************  Helper Methods  ******************************** */
+
+	/**
+	 * Decodes every string the given number of times.
+	 */
+	private static void decodeAll(String[] strings, int rounds) {
+		for (int k = 0; k < rounds; k++)
+			for (String s : strings) assertNotNull(Alarm.fromEditString(null, s));
+	}
+
+	/**
+	 * Makes an alarm with random (but valid) contents and a silent ringtone.
+	 */
+	private static Alarm randomAlarm(Random r) {
+		StringBuilder name = new StringBuilder();
+		int len = 1 + r.nextInt(12);
+		for (int i = 0; i < len; i++) name.append((char) (' ' + r.nextInt(95)));
+		String n = name.toString().replace('/', '-');
+
+		Alarm a = new Alarm(null, n);
+		a.setActive(r.nextBoolean());
+		a.setRepeatType(r.nextInt(7));
+		for (int i = 0; i < 7; i++) a.getRepeatDays()[i] = r.nextBoolean();
+		for (int i = 0; i < 12; i++) a.getRepeatMonths()[i] = r.nextBoolean();
+		a.setRepeatWeek(r.nextInt(5));
+		a.setOffsetDays(r.nextInt(30));
+		a.setOffsetHours(r.nextInt(24));
+		a.setOffsetMins(r.nextInt(60));
+		a.setOffsetFromNow(r.nextBoolean());
+		a.setAlarmTimeMillis(Math.abs(r.nextLong() % 4000000000000L));
+		a.setVolume(r.nextInt(101));
+		a.setVibrateOn(r.nextBoolean());
+		a.setRingtoneUri(null);
+		return a;
+	}
+
+	/**
+	 * Rewrites an edit string in the current format into the older format.
+	 */
+	private static String toLegacy(String s) {
+		String[] fields = s.split("\t", -1);
+		for (int i : new int[] {2, 6, 9}) fields[i] = legacyBool(fields[i].charAt(0));
+
+		String[] repeat = fields[3].split(" ");
+		StringBuilder info = new StringBuilder(repeat[0]);
+		for (int i = 1; i < repeat.length; i++) {
+			boolean isFlags = repeat[i].length() >= 7 ||
+					(repeat[i].length() == 1 && i == 4 && repeat.length == 5);
+			if (!isFlags) {
+				info.append(' ').append(repeat[i]);
+				continue;
+			}
+			for (char c : repeat[i].toCharArray()) info.append(' ').append(legacyBool(c));
+		}
+		fields[3] = info.toString();
+		return String.join("\t", fields);
+	}
+
+	/**
+	 * Turns a 1/0 boolean into true/false.
+	 */
+	private static String legacyBool(char c) { return c == '1' ? "true" : "false"; }
+
+	/**
+	 * Randomly changes, inserts or deletes a few characters, or cuts the string short. Leaves the
+	 * tabs before the ringtone field alone, so that the ringtone (which can't be parsed here) is
+	 * always "null".
+	 */
+	private static String mutate(String s, Random r) {
+		int uriStart = 0;
+		for (int i = 0; i < URI_FIELD; i++) uriStart = s.indexOf('\t', uriStart) + 1;
+		int uriEnd = s.indexOf('\t', uriStart);
+
+		StringBuilder b = new StringBuilder(s);
+		int edits = 1 + r.nextInt(3);
+		for (int e = 0; e < edits; e++) {
+			int pos = r.nextInt(uriStart);
+			if (b.charAt(pos) == '\t') continue;
+
+			switch (r.nextInt(4)) {
+				case 0:
+					b.setCharAt(pos, "01tf -9x".charAt(r.nextInt(8)));
+					break;
+				case 1:
+					b.insert(pos, "01 7-".charAt(r.nextInt(5)));
+					uriStart++;
+					uriEnd++;
+					break;
+				case 2:
+					b.deleteCharAt(pos);
+					uriStart--;
+					uriEnd--;
+					break;
+				default:
+					// cut somewhere after the ringtone so that it's still intact
+					b.setLength(uriEnd + r.nextInt(b.length() - uriEnd));
+					return b.toString();
+			}
+		}
+		return b.toString();
+	}
+}
@@ -0,0 +1,151 @@
+package com.larmlarms.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for reading and writing the ring state file of the RingStateStore class. Requires
+ * DEBUG flag to be false when run.
+ */
+public class RingStateStoreUnitTest {
+	/**
+	 * The file to test with. Doesn't exist at the start of each test.
+	 */
+	private File f;
+
+	@Before
+	public void makeFile() throws IOException {
+		f = File.createTempFile("ring_state", null);
+		f.deleteOnExit();
+		//noinspection ResultOfMethodCallIgnored
+		f.delete();
+	}
+
+	/* ************************************  Round Trip Tests  ****************************** */
+	@Test
+	public void writeAllTest() throws IOException {
+		Alarm off = new Alarm(null, "alarm 1", 1);
+		off.turnOff();
+		Alarm snoozed = new Alarm(null, "alarm 2", 2);
+		snoozed.snooze();
+		AlarmGroup inner = new AlarmGroup("inner", new ArrayList<>(), 10);
+		inner.addItem(snoozed);
+		AlarmGroup root = new AlarmGroup("root", new ArrayList<>(Arrays.asList(inner, off)), 0);
+
+		assertTrue(RingStateStore.writeAll(f, root.getSnapshot()));
+
+		// only alarms get records
+		Map<Integer, RingStateStore.State> states = RingStateStore.readAll(f);
+		assertEquals(2, states.size());
+		assertState(off, states.get(off.getId()));
+		assertState(snoozed, states.get(snoozed.getId()));
+
+		// reading a single record goes through the index built while reading
+		assertState(snoozed, RingStateStore.read(f, snoozed.getId()));
+		assertNull(RingStateStore.read(f, inner.getId()));
+	}
+
+	@Test
+	public void updateTest() throws IOException {
+		Alarm first = new Alarm(null, "alarm 1", 1), second = new Alarm(null, "alarm 2", 2);
+		AlarmGroup root = new AlarmGroup("root", new ArrayList<>(Arrays.asList(first, second)));
+
+		assertTrue(RingStateStore.writeAll(f, root.getSnapshot()));
+
+		// changed records are overwritten in place, new ones go at the end
+		first.snooze();
+		Alarm third = new Alarm(null, "alarm 3", 3);
+		root.addItem(third);
+		assertTrue(RingStateStore.update(f, root.getSnapshot(),
+				new HashSet<>(Arrays.asList(first.getId(), third.getId()))));
+
+		Map<Integer, RingStateStore.State> states = RingStateStore.readAll(f);
+		assertEquals(3, states.size());
+		assertState(first, states.get(first.getId()));
+		assertState(second, states.get(second.getId()));
+		assertState(third, states.get(third.getId()));
+	}
+
+	@Test
+	public void updateMissingTest() {
+		Alarm alarm = new Alarm(null, "alarm 1", 1);
+		AlarmGroup root = new AlarmGroup("root", new ArrayList<>(Collections.singletonList(alarm)));
+
+		// there's nothing to update, so the whole file has to be written instead
+		assertFalse(RingStateStore.update(f, root.getSnapshot(),
+				new HashSet<>(Collections.singletonList(alarm.getId()))));
+		assertFalse(f.exists());
+	}
+
+	/* ***********************************  Bad File Tests  ********************************* */
+	@Test
+	public void corruptTest() throws IOException {
+		Alarm alarm = new Alarm(null, "alarm 1", 1);
+		AlarmGroup root = new AlarmGroup("root", new ArrayList<>(Collections.singletonList(alarm)));
+
+		try (FileOutputStream out = new FileOutputStream(f)) {
+			out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18,
+					19, 20, 21, 22, 23, 24});
+		}
+
+		// nothing is trusted from a file that isn't a ring state file, and it can't be patched
+		assertTrue(RingStateStore.readAll(f).isEmpty());
+		assertNull(RingStateStore.read(f, alarm.getId()));
+		assertFalse(RingStateStore.update(f, root.getSnapshot(),
+				new HashSet<>(Collections.singletonList(alarm.getId()))));
+	}
+
+	@Test
+	public void shortTest() throws IOException {
+		Alarm first = new Alarm(null, "alarm 1", 1), second = new Alarm(null, "alarm 2", 2);
+		AlarmGroup root = new AlarmGroup("root", new ArrayList<>(Arrays.asList(first, second)));
+
+		assertTrue(RingStateStore.writeAll(f, root.getSnapshot()));
+
+		// the last record was cut short, so only the first one is read
+		try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+			file.setLength(file.length() - 5);
+		}
+		Alarm written = (Alarm) root.getItems().get(0);
+		Map<Integer, RingStateStore.State> states = RingStateStore.readAll(f);
+		assertEquals(1, states.size());
+		assertState(written, states.get(written.getId()));
+
+		// not even the header is there
+		try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+			file.setLength(2);
+		}
+		assertTrue(RingStateStore.readAll(f).isEmpty());
+	}
+
+	/* **********************************  Helper Methods  ********************************** */
+
+	/**
+	 * Checks that a ring state read from the file matches the ring state of an alarm.
+	 * @param alarm the alarm that was written
+	 * @param state the ring state that was read
+	 */
+	private static void assertState(Alarm alarm, RingStateStore.State state) {
+		assertNotNull(state);
+		assertEquals(alarm.isActive(), state.active);
+		assertEquals(alarm.isSnoozed(), state.snoozed);
+		assertEquals(alarm.getNumSnoozes(), state.numSnoozes);
+		assertEquals(alarm.getAlarmTimeMillis(), state.ringTimeMillis);
+	}
+}
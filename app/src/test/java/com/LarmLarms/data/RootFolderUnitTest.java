@@ -0,0 +1,85 @@
+package com.larmlarms.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the RootFolder methods that don't need a context. Requires DEBUG flag to be false
+ * when run.
+ */
+public class RootFolderUnitTest {
+	/* ********************************  Pending Action Tests  ****************************** */
+	/**
+	 * Actions taken before the user unlocked the device are for alarms that already rang, so they
+	 * have to be applied while the alarms still have the ring times that already passed.
+	 */
+	@Test
+	public void pendingSnoozeTest() {
+		long rang = System.currentTimeMillis() - 60*60*1000;
+		Alarm alarm = makeAlarm("alarm 1", rang);
+		List<Item> data = new ArrayList<>(Collections.singletonList(alarm));
+
+		List<ScheduleRecord.Pending> actions = Collections.singletonList(
+				new ScheduleRecord.Pending(false, alarm.getId(), rang));
+		assertEquals(1, RootFolder.applyPendingActions(data, actions));
+		assertTrue(alarm.isSnoozed());
+		assertEquals(1, alarm.getNumSnoozes());
+		assertEquals(rang + 5*60*1000, alarm.getAlarmTimeMillis());
+	}
+
+	@Test
+	public void pendingDismissTest() {
+		long rang = System.currentTimeMillis() - 60*60*1000;
+		AlarmGroup folder = new AlarmGroup("folder");
+		Alarm alarm = makeAlarm("alarm 1", rang);
+		folder.addItem(alarm);
+		List<Item> data = new ArrayList<>(Collections.singletonList(folder));
+
+		// snoozed, then dismissed once the snooze rang too
+		List<ScheduleRecord.Pending> actions = Arrays.asList(
+				new ScheduleRecord.Pending(false, alarm.getId(), rang),
+				new ScheduleRecord.Pending(true, alarm.getId(), rang + 5*60*1000));
+		assertEquals(2, RootFolder.applyPendingActions(data, actions));
+		assertFalse(alarm.isSnoozed());
+		assertFalse(alarm.isActive());
+	}
+
+	@Test
+	public void pendingOutdatedTest() {
+		long rang = System.currentTimeMillis() - 60*60*1000;
+		Alarm alarm = makeAlarm("alarm 1", rang);
+		List<Item> data = new ArrayList<>(Collections.singletonList(alarm));
+
+		// taken at an earlier ring time, or for an alarm that isn't there
+		List<ScheduleRecord.Pending> actions = Arrays.asList(
+				new ScheduleRecord.Pending(false, alarm.getId(), rang - 24*60*60*1000),
+				new ScheduleRecord.Pending(true, alarm.getId() + 1, rang));
+		assertEquals(0, RootFolder.applyPendingActions(data, actions));
+		assertFalse(alarm.isSnoozed());
+		assertTrue(alarm.isActive());
+		assertEquals(rang, alarm.getAlarmTimeMillis());
+	}
+
+	/* **********************************  Helper Methods  ********************************** */
+
+	/**
+	 * Makes an alarm that only rings once, at the given time.
+	 * @param name the name of the alarm
+	 * @param ringTime the ring time of the alarm, in millis
+	 * @return the new alarm
+	 */
+	private static Alarm makeAlarm(String name, long ringTime) {
+		Alarm alarm = new Alarm(null, name);
+		alarm.setRepeatType(Alarm.REPEAT_ONCE_ABS);
+		alarm.setAlarmTimeMillis(ringTime);
+		return alarm;
+	}
+}
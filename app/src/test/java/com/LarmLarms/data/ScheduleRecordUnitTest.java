@@ -0,0 +1,139 @@
+package com.larmlarms.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for reading and writing the files of the ScheduleRecord class. Requires DEBUG flag to
+ * be false when run.
+ */
+public class ScheduleRecordUnitTest {
+	/**
+	 * The file to test with. Doesn't exist at the start of each test.
+	 */
+	private File f;
+
+	@Before
+	public void makeFile() throws IOException {
+		f = File.createTempFile("schedule", null);
+		f.deleteOnExit();
+		//noinspection ResultOfMethodCallIgnored
+		f.delete();
+	}
+
+	/* ************************************  Round Trip Tests  ****************************** */
+	@Test
+	public void writeTest() {
+		long now = System.currentTimeMillis();
+		List<ScheduleRecord.Entry> entries = Arrays.asList(
+				new ScheduleRecord.Entry(1, now - 1000, "alarm 1"),
+				new ScheduleRecord.Entry(2, now + 1000),
+				new ScheduleRecord.Entry(3, now + 2000, "alarm 3"));
+
+		assertNull(ScheduleRecord.read(f));
+		assertTrue(ScheduleRecord.write(f, entries));
+		List<ScheduleRecord.Entry> read = ScheduleRecord.read(f);
+		assertEquals(entries, read);
+		assertNull(read.get(1).alarm);
+
+		// the first one already rang
+		assertEquals(entries.get(1), ScheduleRecord.next(read));
+	}
+
+	@Test
+	public void insertTest() {
+		List<ScheduleRecord.Entry> entries = new ArrayList<>(Arrays.asList(
+				new ScheduleRecord.Entry(1, 1000), new ScheduleRecord.Entry(2, 3000)));
+
+		ScheduleRecord.insert(entries, new ScheduleRecord.Entry(3, 2000));
+		ScheduleRecord.insert(entries, new ScheduleRecord.Entry(4, 4000));
+		assertEquals(4, entries.size());
+		assertEquals(3, entries.get(1).id);
+		assertEquals(4, entries.get(3).id);
+		assertNull(ScheduleRecord.next(Arrays.asList(new ScheduleRecord.Entry(1, 1000))));
+	}
+
+	@Test
+	public void pendingTest() {
+		assertTrue(ScheduleRecord.readPending(f).isEmpty());
+
+		ScheduleRecord.addPending(f, new ScheduleRecord.Pending(false, 1, 1000));
+		ScheduleRecord.addPending(f, new ScheduleRecord.Pending(true, 2, 2000));
+
+		// read back in the order they were taken
+		List<ScheduleRecord.Pending> actions = ScheduleRecord.readPending(f);
+		assertEquals(2, actions.size());
+		assertFalse(actions.get(0).dismissed);
+		assertEquals(1, actions.get(0).id);
+		assertEquals(1000, actions.get(0).ringTimeMillis);
+		assertTrue(actions.get(1).dismissed);
+		assertEquals(2, actions.get(1).id);
+		assertEquals(2000, actions.get(1).ringTimeMillis);
+	}
+
+	/* ***********************************  Bad File Tests  ********************************* */
+	@Test
+	public void corruptTest() throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(f))) {
+			out.writeInt(0x1234_5678);
+			out.writeInt(0);
+		}
+		assertNull(ScheduleRecord.read(f));
+
+		// the header is right, but there are more entries than there could ever be
+		assertTrue(ScheduleRecord.write(f, new ArrayList<>()));
+		try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+			file.seek(4);
+			file.writeInt(ScheduleRecord.COUNT + 1);
+		}
+		assertNull(ScheduleRecord.read(f));
+	}
+
+	@Test
+	public void shortTest() throws IOException {
+		assertTrue(ScheduleRecord.write(f, Arrays.asList(
+				new ScheduleRecord.Entry(1, 1000, "alarm 1"),
+				new ScheduleRecord.Entry(2, 2000, "alarm 2"))));
+
+		// a record that's cut short isn't trusted at all
+		try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+			file.setLength(file.length() - 3);
+		}
+		assertNull(ScheduleRecord.read(f));
+
+		try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+			file.setLength(2);
+		}
+		assertNull(ScheduleRecord.read(f));
+	}
+
+	@Test
+	public void shortPendingTest() throws IOException {
+		ScheduleRecord.addPending(f, new ScheduleRecord.Pending(true, 1, 1000));
+		ScheduleRecord.addPending(f, new ScheduleRecord.Pending(false, 2, 2000));
+
+		// the last action was cut short while it was added, so only the first one is read
+		try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+			file.setLength(file.length() - 4);
+		}
+		List<ScheduleRecord.Pending> actions = ScheduleRecord.readPending(f);
+		assertEquals(1, actions.size());
+		assertTrue(actions.get(0).dismissed);
+		assertEquals(1, actions.get(0).id);
+		assertEquals(1000, actions.get(0).ringTimeMillis);
+	}
+}
@@ -0,0 +1,153 @@
+package com.larmlarms.data;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the transactions of the RootFolder class. Requires DEBUG flag to be false when
+ * run.
+ */
+public class TransactionUnitTest {
+	/* ***********************************  Committing Tests  ******************************** */
+	@Test
+	public void batchSavesOnceTest() {
+		AlarmGroup inner = new AlarmGroup("inner");
+		Alarm alarm = new Alarm(null, "alarm 1");
+		CountingRoot root = new CountingRoot(new ArrayList<>(Arrays.asList(inner, alarm)));
+
+		ItemInfo added = new ItemInfo();
+		added.item = new Alarm(null, "alarm 2");
+		added.path = inner.getPath() + inner.getName() + "/";
+
+		EditHistory.Entry entry = root.batch()
+				.add(added)
+				.toggle(alarm.getInfo())
+				.delete(inner.getInfo())
+				.commit();
+
+		// applied in order, saved once, and recorded as a single change
+		assertNotNull(entry);
+		assertEquals(1, root.saves);
+		assertFalse(alarm.isActive());
+		assertNull(inner.getParent());
+		assertEquals(1, root.getTotalAlarms());
+		assertEquals(0, root.getActiveAlarms());
+		assertTrue(root.undo());
+		assertFalse(root.canUndo());
+	}
+
+	@Test
+	public void emptyBatchTest() {
+		CountingRoot root = new CountingRoot(new ArrayList<>());
+
+		// nothing to apply, so nothing to save or undo
+		assertNull(root.batch().commit());
+		assertEquals(0, root.saves);
+		assertFalse(root.canUndo());
+	}
+
+	@Test
+	public void nestedBatchTest() {
+		CountingRoot root = new CountingRoot(new ArrayList<>());
+
+		// adding straight to the root commits a batch of its own within the outer one
+		ItemInfo first = new ItemInfo(), second = new ItemInfo();
+		first.item = new Alarm(null, "alarm 1");
+		first.path = root.getName() + "/";
+		second.item = new Alarm(null, "alarm 2");
+		second.path = root.getName() + "/";
+
+		assertNotNull(root.batch().add(first).add(second).commit());
+		assertEquals(1, root.saves);
+		assertEquals(2, root.getTotalAlarms());
+
+		// the inner batches weren't recorded, so a single undo takes back both adds
+		assertTrue(root.undo());
+		assertEquals(0, root.getTotalAlarms());
+		assertFalse(root.canUndo());
+		assertEquals(2, root.saves);
+	}
+
+	/* ************************************  Moving Tests  ********************************** */
+	@Test
+	public void moveTest() {
+		/*
+		 * FOLDER STRUCTURE:
+		 * root
+		 * 	inner
+		 * 	deeper
+		 * 		alarm 2 (snoozed)
+		 * 	alarm 1 (off)
+		 */
+		AlarmGroup inner = new AlarmGroup("inner");
+		AlarmGroup deeper = new AlarmGroup("deeper");
+		Alarm snoozed = new Alarm(null, "alarm 2");
+		snoozed.snooze();
+		deeper.addItem(snoozed);
+		Alarm off = new Alarm(null, "alarm 1");
+		off.turnOff();
+		CountingRoot root = new CountingRoot(new ArrayList<>(Arrays.asList(inner, deeper, off)));
+
+		int offId = off.getId(), deeperId = deeper.getId();
+		String innerPath = inner.getPath() + inner.getName() + "/";
+		root.batch()
+				.move(off.getInfo(), innerPath)
+				.move(deeper.getInfo(), innerPath)
+				.commit();
+		assertEquals(1, root.saves);
+
+		// the same items are moved, and carry their stats with them
+		assertSame(inner, off.getParent());
+		assertSame(inner, deeper.getParent());
+		assertSame(deeper, snoozed.getParent());
+		assertEquals(offId, off.getId());
+		assertEquals(deeperId, deeper.getId());
+		assertFalse(off.isActive());
+		assertTrue(snoozed.isSnoozed());
+
+		assertEquals(2, inner.getTotalAlarms());
+		assertEquals(1, inner.getActiveAlarms());
+		assertEquals(1, inner.getSnoozedAlarms());
+		assertEquals(1, inner.getDescendantFolders());
+		assertEquals(2, root.getTotalAlarms());
+		assertEquals(1, root.getActiveAlarms());
+		assertEquals(1, root.getSnoozedAlarms());
+		assertEquals(2, root.getDescendantFolders());
+		assertEquals(2, root.getMaxDepth());
+	}
+
+	/* **********************************  Helper Classes  ********************************** */
+
+	/**
+	 * A root folder that counts how many times it's saved.
+	 */
+	private static class CountingRoot extends RootFolder {
+		/**
+		 * The number of times save() was called. Every save publishes a single new snapshot.
+		 */
+		int saves;
+
+		/**
+		 * Initializes a new root folder with the given contents.
+		 * @param children the items within the folder
+		 */
+		CountingRoot(@NotNull List<Item> children) { super("root", children); }
+
+		@Override
+		public void save() {
+			saves++;
+			super.save();
+		}
+	}
+}
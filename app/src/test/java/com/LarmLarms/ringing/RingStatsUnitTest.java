@@ -0,0 +1,90 @@
+package com.larmlarms.ringing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for aggregating and exporting records in the RingStats class.
+ */
+public class RingStatsUnitTest {
+	/* ************************************  Bucket Tests  ********************************** */
+	@Test
+	public void bucketTest() {
+		// early counts as on time
+		assertEquals(0, RingStats.bucket(-5000));
+		assertEquals(0, RingStats.bucket(0));
+		assertEquals(0, RingStats.bucket(49));
+
+		// bounds are exclusive
+		assertEquals(1, RingStats.bucket(50));
+		assertEquals(1, RingStats.bucket(99));
+		assertEquals(4, RingStats.bucket(700));
+
+		int last = RingStats.BUCKET_BOUNDS.length;
+		assertEquals(last - 1, RingStats.bucket(RingStats.BUCKET_BOUNDS[last - 1] - 1));
+		assertEquals(last, RingStats.bucket(RingStats.BUCKET_BOUNDS[last - 1]));
+		assertEquals(last, RingStats.bucket(Integer.MAX_VALUE));
+	}
+
+	/* **********************************  Aggregating Tests  ******************************** */
+	@Test
+	public void histogramsTest() {
+		List<RingStats.Record> records = new ArrayList<>();
+		records.add(record(1000, 10, -200, 30, RingStats.MISSING, 1500, 60000));
+		records.add(record(2000, 70, 80, 2500, 75, RingStats.MISSING, RingStats.MISSING));
+
+		int[][] histograms = RingStats.histograms(records);
+		assertEquals(RingStats.STAGE_COUNT, histograms.length);
+		assertEquals(RingStats.BUCKET_BOUNDS.length + 1, histograms[0].length);
+
+		assertEquals(1, histograms[RingStats.STAGE_SERVICE][0]);
+		assertEquals(1, histograms[RingStats.STAGE_SERVICE][1]);
+		assertEquals(1, histograms[RingStats.STAGE_PREPARED][0]);
+		assertEquals(1, histograms[RingStats.STAGE_PREPARED][1]);
+		assertEquals(1, histograms[RingStats.STAGE_SOUND][0]);
+		assertEquals(1, histograms[RingStats.STAGE_SOUND][6]);
+		assertEquals(1, total(histograms[RingStats.STAGE_NOTIFICATION]));
+		assertEquals(1, histograms[RingStats.STAGE_ACTIVITY][5]);
+		assertEquals(1, histograms[RingStats.STAGE_HANDLED][RingStats.BUCKET_BOUNDS.length]);
+	}
+
+	@Test
+	public void csvTest() {
+		List<RingStats.Record> records = new ArrayList<>();
+		assertEquals("scheduled,service,prepared,sound,notification,activity,handled,states\n",
+				RingStats.toCsv(records));
+
+		records.add(record(1000, 10, -200, 30, RingStats.MISSING, 1500, 60000));
+		assertEquals("scheduled,service,prepared,sound,notification,activity,handled,states\n" +
+				"1000,10,-200,30,,1500,60000,\n", RingStats.toCsv(records));
+	}
+
+	@Test
+	public void csvStatesTest() {
+		// each state is stored as one more than itself, 4 bits each
+		int states = (RingingSession.PREPARING + 1) | (RingingSession.RINGING + 1) << 4 |
+				(RingingSession.DUCKED + 1) << 8 | (RingingSession.TIMED_OUT + 1) << 12;
+		List<RingStats.Record> records = new ArrayList<>();
+		records.add(new RingStats.Record(1000, new int[] {10, 20, 30, 40, 50, 60}, states));
+
+		assertEquals(4, records.get(0).getStates().length);
+		assertEquals("scheduled,service,prepared,sound,notification,activity,handled,states\n" +
+				"1000,10,20,30,40,50,60,PREPARING>RINGING>DUCKED>TIMED_OUT\n",
+				RingStats.toCsv(records));
+	}
+
+	/* ************************************  Helper Methods  ********************************** */
+	private static RingStats.Record record(long scheduled, int... latencies) {
+		return new RingStats.Record(scheduled, latencies);
+	}
+
+	private static int total(int[] histogram) {
+		int total = 0;
+		for (int count : histogram) total += count;
+		return total;
+	}
+}
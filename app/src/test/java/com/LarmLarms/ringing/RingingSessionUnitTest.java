@@ -0,0 +1,214 @@
+package com.larmlarms.ringing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the RingingSession class, with a fake clock and timer.
+ */
+public class RingingSessionUnitTest {
+	private static final long DEADLINE = 2000;
+	private static final long SILENCE = 60000;
+
+	/**
+	 * The fake time, in millis.
+	 */
+	private long now;
+	/**
+	 * The task scheduled on the fake timer, or null if there isn't one.
+	 */
+	private Runnable task;
+	/**
+	 * When the task is due, in millis.
+	 */
+	private long due;
+	/**
+	 * Every transition so far, as "from>to" with a trailing "*" if caused by a timeout.
+	 */
+	private List<String> transitions;
+
+	@Before
+	public void setUp() {
+		now = 0;
+		task = null;
+		transitions = new ArrayList<>();
+	}
+
+	/* ***********************************  Preparing Tests  ********************************* */
+	@Test
+	public void readyTest() {
+		RingingSession s = session(false, 0);
+		s.start();
+		assertEquals(RingingSession.PREPARING, s.getState());
+		assertSame(s, RingingSession.getActive());
+
+		// needs both the sound and focus
+		s.soundReady();
+		assertEquals(RingingSession.PREPARING, s.getState());
+		s.focusChanged(true);
+		assertEquals(RingingSession.RINGING, s.getState());
+		assertEquals("PREPARING>RINGING", transitions.get(1));
+		s.end();
+	}
+
+	@Test
+	public void deadlineTest() {
+		RingingSession s = session(false, 0);
+		s.start();
+
+		// rings anyway without focus
+		s.soundReady();
+		advance(DEADLINE);
+		assertEquals(RingingSession.RINGING, s.getState());
+		assertEquals("PREPARING>RINGING*", transitions.get(1));
+
+		// focus coming in late doesn't change anything
+		s.focusChanged(true);
+		assertEquals(2, transitions.size());
+		s.end();
+	}
+
+	/* ************************************  Ringing Tests  ********************************** */
+	@Test
+	public void duckTest() {
+		RingingSession s = ringing(false, 0);
+
+		s.focusChanged(false);
+		assertEquals(RingingSession.DUCKED, s.getState());
+		s.focusChanged(true);
+		assertEquals(RingingSession.RINGING, s.getState());
+		s.end();
+	}
+
+	@Test
+	public void timeoutTest() {
+		RingingSession s = ringing(false, 0);
+
+		// time spent ducked counts too
+		s.focusChanged(false);
+		advance(SILENCE - 1);
+		assertEquals(RingingSession.DUCKED, s.getState());
+		advance(1);
+		assertEquals(RingingSession.TIMED_OUT, s.getState());
+		assertEquals("DUCKED>TIMED_OUT*", last());
+		assertTrue(s.isOver());
+		assertNull(RingingSession.getActive());
+		assertNull(task);
+	}
+
+	@Test
+	public void neverTimeoutTest() {
+		RingingSession s = new RingingSession(DEADLINE, 0, false, 0, () -> now, timer(),
+				this::onTransition);
+		s.start();
+		s.soundReady();
+		s.focusChanged(true);
+
+		assertNull(task);
+		assertEquals(RingingSession.RINGING, s.getState());
+		s.end();
+	}
+
+	@Test
+	public void autoSnoozeTest() {
+		RingingSession s = ringing(true, 0);
+		advance(SILENCE);
+		assertEquals(RingingSession.SNOOZED, s.getState());
+		assertEquals("RINGING>SNOOZED*", last());
+
+		// times out instead after too many automatic snoozes in a row
+		s = ringing(true, RingingSession.MAX_AUTO_SNOOZES);
+		advance(SILENCE);
+		assertEquals(RingingSession.TIMED_OUT, s.getState());
+	}
+
+	/* ************************************  Answer Tests  *********************************** */
+	@Test
+	public void answerTest() {
+		RingingSession s = ringing(false, 0);
+		final int[] ended = {0};
+		s.setOnEnd(() -> ended[0]++);
+
+		s.dismiss();
+		assertEquals(RingingSession.DISMISSED, s.getState());
+		assertEquals("RINGING>DISMISSED", last());
+		assertEquals(1, ended[0]);
+		assertNull(task);
+
+		// nothing happens once it's over
+		int count = transitions.size();
+		s.snooze();
+		s.focusChanged(false);
+		assertEquals(count, transitions.size());
+		assertEquals(1, ended[0]);
+
+		// waiting on a session that's already over runs right away
+		s.setOnEnd(() -> ended[0]++);
+		assertEquals(2, ended[0]);
+	}
+
+	@Test
+	public void replaceTest() {
+		RingingSession first = ringing(false, 0);
+		RingingSession second = session(false, 0);
+		second.start();
+
+		assertSame(second, RingingSession.getActive());
+		assertFalse(first.isOver());
+		second.end();
+		assertNull(RingingSession.getActive());
+	}
+
+	/* ************************************  Helper Methods  ********************************** */
+	private RingingSession session(boolean autoSnooze, int previousAutoSnoozes) {
+		return new RingingSession(DEADLINE, SILENCE, autoSnooze, previousAutoSnoozes, () -> now,
+				timer(), this::onTransition);
+	}
+
+	private RingingSession ringing(boolean autoSnooze, int previousAutoSnoozes) {
+		RingingSession s = session(autoSnooze, previousAutoSnoozes);
+		s.start();
+		s.soundReady();
+		s.focusChanged(true);
+		assertEquals(RingingSession.RINGING, s.getState());
+		return s;
+	}
+
+	private RingingSession.Timer timer() {
+		return new RingingSession.Timer() {
+			@Override
+			public void schedule(Runnable t, long delayMillis) {
+				task = t;
+				due = now + delayMillis;
+			}
+
+			@Override
+			public void cancel(Runnable t) { if (task == t) task = null; }
+		};
+	}
+
+	private void onTransition(int from, int to, boolean byTimeout) {
+		transitions.add(RingingSession.stateName(from) + ">" + RingingSession.stateName(to) +
+				(byTimeout ? "*" : ""));
+	}
+
+	private void advance(long millis) {
+		now += millis;
+		if (task != null && due <= now) {
+			Runnable t = task;
+			task = null;
+			t.run();
+		}
+	}
+
+	private String last() { return transitions.get(transitions.size() - 1); }
+}
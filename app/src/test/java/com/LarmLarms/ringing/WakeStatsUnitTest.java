@@ -0,0 +1,58 @@
+package com.larmlarms.ringing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for adding up uses in the WakeStats class.
+ */
+public class WakeStatsUnitTest {
+	/* ************************************  Totals Tests  ********************************** */
+	@Test
+	public void addTest() {
+		WakeStats.Totals t = new WakeStats.Totals();
+		assertEquals(0, t.getUses());
+
+		assertFalse(t.add(500, 20, 1000, false));
+		assertFalse(t.add(1500, 30, 2000, false));
+		assertEquals(2, t.getUses());
+		assertEquals(2000, t.getHeldMillis());
+		assertEquals(50, t.getCpuMillis());
+		assertEquals(1500, t.getMaxHeldMillis());
+		assertEquals(0, t.getOverruns());
+	}
+
+	@Test
+	public void budgetTest() {
+		long budget = WakeStats.BUDGET_MILLIS[WakeStats.CAUSE_SAVING];
+		WakeStats.Totals t = new WakeStats.Totals(3, 1, 4000, 100, 2500);
+
+		// the budget itself is still within budget
+		assertFalse(t.add(budget, 10, budget, false));
+		assertTrue(t.add(budget + 1, 10, budget, false));
+		assertEquals(5, t.getUses());
+		assertEquals(2, t.getOverruns());
+		assertEquals(Math.max(2500, budget + 1), t.getMaxHeldMillis());
+	}
+
+	@Test
+	public void timedOutTest() {
+		WakeStats.Totals t = new WakeStats.Totals();
+
+		// a wake lock the system had to let go of went over budget, however short it was
+		assertTrue(t.add(100, 10, 1000, true));
+		assertEquals(1, t.getUses());
+		assertEquals(1, t.getOverruns());
+		assertEquals(100, t.getHeldMillis());
+	}
+
+	@Test
+	public void budgetsTest() {
+		assertEquals(WakeStats.CAUSE_COUNT, WakeStats.BUDGET_MILLIS.length);
+		for (long budget : WakeStats.BUDGET_MILLIS) assertTrue(budget > 0);
+		assertEquals("boot", WakeStats.causeName(WakeStats.CAUSE_BOOT));
+	}
+}